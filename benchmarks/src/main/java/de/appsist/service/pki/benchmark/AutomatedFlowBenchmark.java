@@ -0,0 +1,62 @@
+package de.appsist.service.pki.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.pki.event.ProcessAutomatedFlowEvent;
+
+/**
+ * Measures parsing of automated flow events and the evaluation of their conditions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AutomatedFlowBenchmark {
+	@Param({"if", "switch", "rules"})
+	public String method;
+	
+	private JsonObject eventJson;
+	private Map<String, Object> eventContent;
+	private ProcessAutomatedFlowEvent event;
+	private Map<String, Object> context;
+	
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup() {
+		eventJson = Fixtures.loadJson("event-automated-flow-" + method);
+		eventContent = eventJson.toMap();
+		event = new ProcessAutomatedFlowEvent(eventContent);
+		context = (Map<String, Object>) event.getPayload().get("context");
+	}
+	
+	@Benchmark
+	public ProcessAutomatedFlowEvent parseFromMap() {
+		return new ProcessAutomatedFlowEvent(eventContent);
+	}
+	
+	@Benchmark
+	public ProcessAutomatedFlowEvent parseFromJson() {
+		return new ProcessAutomatedFlowEvent(eventJson.toMap());
+	}
+	
+	@Benchmark
+	public String evaluate() {
+		return event.getCondition().getElementForContext(context);
+	}
+}
@@ -0,0 +1,51 @@
+package de.appsist.service.pki.benchmark;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the construction of the composite cache keys (<code>processInstanceId:elementId</code>) and the lookup with them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CacheKeyBenchmark {
+	private String processInstanceId;
+	private String elementId;
+	private ConcurrentHashMap<String, Object> cache;
+	
+	@Setup
+	public void setup() {
+		processInstanceId = "5f0c8a52-3b1e-4a8e-9d55-6f1f2a9c7e41";
+		elementId = "element_042";
+		cache = new ConcurrentHashMap<>();
+		for (int i = 0; i < 10000; i++) {
+			cache.put(processInstanceId.substring(0, 30) + i + ":" + elementId, new Object());
+		}
+		cache.put(processInstanceId + ":" + elementId, new Object());
+	}
+	
+	@Benchmark
+	public String concatenate() {
+		return processInstanceId + ":" + elementId;
+	}
+	
+	@Benchmark
+	public Object concatenateAndLookup() {
+		return cache.get(processInstanceId + ":" + elementId);
+	}
+}
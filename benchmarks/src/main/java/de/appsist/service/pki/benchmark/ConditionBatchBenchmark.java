@@ -0,0 +1,134 @@
+package de.appsist.service.pki.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.appsist.service.pki.event.BatchConditionEvaluator;
+import de.appsist.service.pki.event.ProcessAutomatedFlowEvent;
+import de.appsist.service.pki.event.ProcessAutomatedFlowEvent.Condition;
+
+/**
+ * Compares the batch evaluation of a flow condition with evaluating it once per context.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConditionBatchBenchmark {
+	@Param({"1000", "10000"})
+	public int contextCount;
+	
+	@Param({"if", "rules"})
+	public String method;
+	
+	private Condition condition;
+	private List<Map<String, Object>> contexts;
+	
+	@Setup
+	public void setup() {
+		condition = ProcessAutomatedFlowEvent.compileCondition(createFlowCondition(method));
+		contexts = new ArrayList<>(contextCount);
+		Random random = new Random(42);
+		for (int i = 0; i < contextCount; i++) {
+			contexts.add(createContext(random));
+		}
+	}
+	
+	static Map<String, Object> createFlowCondition(String method) {
+		Map<String, Object> parameters = new LinkedHashMap<>();
+		switch (method) {
+		case "if":
+			parameters.put("jsonpath", "$.user.certified");
+			parameters.put("then", "task_advanced");
+			parameters.put("else", "task_basic");
+			break;
+		case "switch":
+			Map<String, Object> cases = new LinkedHashMap<>();
+			cases.put("beginner", "task_basic");
+			cases.put("advanced", "task_advanced");
+			cases.put("expert", "task_expert");
+			parameters.put("jsonpath", "$.user.level");
+			parameters.put("cases", cases);
+			break;
+		case "rules":
+			parameters.put("rules", Arrays.<Object>asList(
+					rule("task_expert", comparison("$.user.score", ">=", 90), comparison("$.user.certified", "==", true)),
+					rule("task_advanced", comparison("$.user.score", ">=", 60)),
+					rule("task_review", comparison("$.machine.state", "in", Arrays.<Object>asList("maintenance", "error")))));
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown method: " + method);
+		}
+		Map<String, Object> flowCondition = new LinkedHashMap<>();
+		flowCondition.put("method", method);
+		flowCondition.put("parameters", parameters);
+		flowCondition.put("default", "task_basic");
+		return flowCondition;
+	}
+	
+	@SafeVarargs
+	private static Map<String, Object> rule(String target, Map<String, Object>... comparisons) {
+		Map<String, Object> rule = new LinkedHashMap<>();
+		rule.put("when", Arrays.<Object>asList((Object[]) comparisons));
+		rule.put("then", target);
+		return rule;
+	}
+	
+	private static Map<String, Object> comparison(String jsonPath, String operator, Object value) {
+		Map<String, Object> comparison = new LinkedHashMap<>();
+		comparison.put("jsonpath", jsonPath);
+		comparison.put("operator", operator);
+		comparison.put("value", value);
+		return comparison;
+	}
+	
+	static Map<String, Object> createContext(Random random) {
+		String[] levels = {"beginner", "advanced", "expert"};
+		String[] states = {"running", "idle", "maintenance", "error"};
+		Map<String, Object> user = new HashMap<>();
+		user.put("id", "user" + random.nextInt(100000));
+		user.put("score", random.nextInt(100));
+		user.put("certified", random.nextBoolean());
+		user.put("level", levels[random.nextInt(levels.length)]);
+		Map<String, Object> machine = new HashMap<>();
+		machine.put("id", "machine" + random.nextInt(50));
+		machine.put("state", states[random.nextInt(states.length)]);
+		Map<String, Object> context = new HashMap<>();
+		context.put("user", user);
+		context.put("machine", machine);
+		return context;
+	}
+	
+	@Benchmark
+	public void perCallLoop(Blackhole blackhole) {
+		for (Map<String, Object> context : contexts) {
+			blackhole.consume(condition.getElementForContext(context));
+		}
+	}
+	
+	@Benchmark
+	public BatchConditionEvaluator.Result batch() {
+		return BatchConditionEvaluator.evaluate(condition, contexts);
+	}
+}
@@ -0,0 +1,92 @@
+package de.appsist.service.pki.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.commons.event.TaskEvent;
+import de.appsist.commons.event.UserTaskEvent;
+import de.appsist.service.pki.connector.PKIConnector;
+
+/**
+ * Measures the path from an event bus message to the dispatch to the registered handler, with the HTTP layer stubbed.
+ * With <code>warm</code> caches all data is cached after the first event. With <code>cold</code> caches each event refers to a new process instance, hence requires data retrieval.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventDispatchBenchmark {
+	private static final String ADDRESS = "appsist:event:" + UserTaskEvent.MODEL_ID;
+	
+	@Param({"warm", "cold"})
+	public String caches;
+	
+	@Param({"small", "large"})
+	public String size;
+	
+	private StubRuntime runtime;
+	private JsonObject eventJson;
+	private JsonObject eventPayload;
+	private long sequence;
+	private Blackhole blackhole;
+	
+	@Setup
+	public void setup(Blackhole blackhole) {
+		this.blackhole = blackhole;
+		final String definition = Fixtures.load("process-definition-" + size);
+		final JsonObject instance = Fixtures.loadJson("process-instance");
+		final String elementInstance = Fixtures.load("element-instance");
+		runtime = new StubRuntime(new StubRuntime.ResponseProvider() {
+			
+			@Override
+			public StubRuntime.Response respond(String method, String uri, Map<String, String> headers) {
+				if (uri.contains("/currentElement")) {
+					return new StubRuntime.Response(200, elementInstance);
+				} else if (uri.contains("/instances/")) {
+					String instanceId = uri.substring(uri.indexOf("/instances/") + "/instances/".length());
+					return new StubRuntime.Response(200, instance.copy().putString("id", instanceId).encode());
+				} else if (uri.contains("/processes/")) {
+					return new StubRuntime.Response(200, definition);
+				} else {
+					return new StubRuntime.Response(404, "Not found.");
+				}
+			}
+		});
+		PKIConnector connector = new PKIConnector(runtime.getVertx(), "localhost", 8080, false, "/services/psd");
+		connector.configureDeduplication(0, 1);
+		connector.registerTaskHandler(new Handler<TaskEvent>() {
+			
+			@Override
+			public void handle(TaskEvent event) {
+				EventDispatchBenchmark.this.blackhole.consume(event);
+			}
+		});
+		eventJson = Fixtures.loadJson("event-user-task");
+		eventPayload = eventJson.getObject("payload");
+	}
+	
+	@Benchmark
+	public void dispatch() {
+		if (caches.equals("cold")) {
+			eventPayload.putString("processInstanceId", "instance-" + (sequence++));
+		}
+		runtime.publish(ADDRESS, eventJson);
+	}
+}
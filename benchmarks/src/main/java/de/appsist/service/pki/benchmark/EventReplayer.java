@@ -0,0 +1,197 @@
+package de.appsist.service.pki.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.commons.event.CallActivityEvent;
+import de.appsist.commons.event.ProcessCancelledEvent;
+import de.appsist.commons.event.ProcessCompleteEvent;
+import de.appsist.commons.event.ProcessErrorEvent;
+import de.appsist.commons.event.ProcessStartEvent;
+import de.appsist.commons.event.ProcessTerminateEvent;
+import de.appsist.commons.event.ProcessUserRequestEvent;
+import de.appsist.commons.event.TaskEvent;
+import de.appsist.service.pki.connector.EventRecorder;
+import de.appsist.service.pki.connector.OrderedDispatcher;
+import de.appsist.service.pki.connector.PKIConnector;
+import de.appsist.service.pki.event.ProcessAutomatedFlowEvent;
+
+/**
+ * Replays a recording of {@link PKIConnector#startRecording(File)} into a connector to compare connector settings on real traffic.
+ * PKI requests are answered from the recorded responses in their recorded order, repeating the last response of a request when the recorded ones are exhausted.
+ * The connector runs on the {@link StubRuntime}, so the replay measures the connector without network latency.
+ * <p>
+ * Usage: <code>java -cp benchmarks.jar de.appsist.service.pki.benchmark.EventReplayer &lt;recording&gt; [--option=value ...]</code>
+ * with the options <code>speed</code> (replay speed relative to the recording, <code>0</code> for as fast as possible, default <code>1</code>),
+ * <code>dedupCapacity</code> and <code>dedupWindow</code> (milliseconds) for the event deduplication, and <code>orderedQueueSize</code> for the ordered dispatch.
+ * </p>
+ */
+public class EventReplayer {
+	private final List<EventRecorder.Entry> events;
+	private final Map<String, List<EventRecorder.Entry>> responses;
+	private final Map<String, Integer> responseIndexes;
+	private final StubRuntime runtime;
+	private final PKIConnector connector;
+	private long dispatchedCount;
+	private long unmatchedCount;
+
+	/**
+	 * Loads a recording and creates the connector to replay it into.
+	 * @param recording Recording to replay.
+	 * @param options Connector options, see the class documentation.
+	 * @throws IOException Failed to read the recording.
+	 * @throws IllegalArgumentException An option is invalid.
+	 */
+	public EventReplayer(File recording, Map<String, String> options) throws IOException, IllegalArgumentException {
+		events = new ArrayList<>();
+		responses = new HashMap<>();
+		responseIndexes = new HashMap<>();
+		try (EventRecorder.Reader reader = new EventRecorder.Reader(recording)) {
+			EventRecorder.Entry entry;
+			while ((entry = reader.next()) != null) {
+				if (entry.getType() == EventRecorder.TYPE_EVENT) {
+					events.add(entry);
+				} else {
+					addResponse(entry.getMethod() + " " + entry.getUri(), entry);
+					addResponse(entry.getMethod() + " " + stripQuery(entry.getUri()), entry);
+				}
+			}
+		}
+
+		runtime = new StubRuntime(new StubRuntime.ResponseProvider() {
+
+			@Override
+			public StubRuntime.Response respond(String method, String uri, Map<String, String> headers) {
+				EventRecorder.Entry response = nextResponse(method + " " + uri);
+				if (response == null) response = nextResponse(method + " " + stripQuery(uri));
+				if (response == null) {
+					unmatchedCount++;
+					return new StubRuntime.Response(404, "No recorded response.");
+				}
+				return new StubRuntime.Response(response.getStatusCode(), response.getBody());
+			}
+		});
+		connector = new PKIConnector(runtime.getVertx(), "localhost", 8080, false, "");
+		connector.enableMetrics(null);
+		try {
+			if (options.containsKey("dedupCapacity") || options.containsKey("dedupWindow")) {
+				int capacity = options.containsKey("dedupCapacity") ? Integer.parseInt(options.get("dedupCapacity")) : 4096;
+				long window = options.containsKey("dedupWindow") ? Long.parseLong(options.get("dedupWindow")) : 60000;
+				connector.configureDeduplication(capacity, window);
+			}
+			if (options.containsKey("orderedQueueSize")) {
+				connector.configureOrderedDispatch(Integer.parseInt(options.get("orderedQueueSize")), OrderedDispatcher.OverflowPolicy.DISPATCH_UNORDERED);
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid option value: " + e.getMessage());
+		}
+		registerCountingHandlers();
+	}
+
+	private void addResponse(String key, EventRecorder.Entry response) {
+		List<EventRecorder.Entry> list = responses.get(key);
+		if (list == null) {
+			list = new ArrayList<>();
+			responses.put(key, list);
+		}
+		list.add(response);
+	}
+
+	private EventRecorder.Entry nextResponse(String key) {
+		List<EventRecorder.Entry> list = responses.get(key);
+		if (list == null) return null;
+		Integer index = responseIndexes.get(key);
+		int current = index != null ? index : 0;
+		responseIndexes.put(key, current + 1);
+		return list.get(Math.min(current, list.size() - 1));
+	}
+
+	private static String stripQuery(String uri) {
+		int queryStart = uri.indexOf('?');
+		return queryStart >= 0 ? uri.substring(0, queryStart) : uri;
+	}
+
+	private void registerCountingHandlers() {
+		connector.registerTaskHandler(new CountingHandler<TaskEvent>());
+		connector.registerProcessStartHandler(new CountingHandler<ProcessStartEvent>());
+		connector.registerProcessCompleteHandler(new CountingHandler<ProcessCompleteEvent>());
+		connector.registerProcessErrorHandler(new CountingHandler<ProcessErrorEvent>());
+		connector.registerProcessTerminateHandler(new CountingHandler<ProcessTerminateEvent>());
+		connector.registerProcessCancelledHandler(new CountingHandler<ProcessCancelledEvent>());
+		connector.registerCallActivityHandler(new CountingHandler<CallActivityEvent>());
+		connector.registerProcessUserRequestHandler(new CountingHandler<ProcessUserRequestEvent>());
+		connector.registerProcessAutomatedFlowHandler(new CountingHandler<ProcessAutomatedFlowEvent>());
+	}
+
+	/**
+	 * Replays the recorded events.
+	 * @param speed Replay speed relative to the recording. <code>0</code> replays as fast as possible.
+	 * @return Report with the replay statistics and the connector metrics.
+	 * @throws InterruptedException The replay was interrupted.
+	 */
+	public JsonObject replay(double speed) throws InterruptedException {
+		long startTime = System.nanoTime();
+		long firstTimestamp = events.isEmpty() ? 0 : events.get(0).getTimestamp();
+		for (EventRecorder.Entry event : events) {
+			if (speed > 0) {
+				long dueNanos = (long) ((event.getTimestamp() - firstTimestamp) * 1000000L / speed);
+				long waitMillis = (dueNanos - (System.nanoTime() - startTime)) / 1000000L;
+				if (waitMillis > 0) Thread.sleep(waitMillis);
+			}
+			runtime.publish(event.getAddress(), new JsonObject(event.getBody()));
+		}
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+
+		JsonObject report = new JsonObject();
+		report.putNumber("events", events.size());
+		report.putNumber("dispatched", dispatchedCount);
+		report.putNumber("seconds", seconds);
+		report.putNumber("throughput", seconds > 0 ? events.size() / seconds : 0d);
+		report.putNumber("pkiRequests", runtime.getRequestCount());
+		report.putNumber("unmatchedRequests", unmatchedCount);
+		report.putObject("connector", connector.getMetricsSnapshot());
+		return report;
+	}
+
+	private class CountingHandler<E> implements Handler<E> {
+
+		@Override
+		public void handle(E event) {
+			dispatchedCount++;
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.err.println("Usage: EventReplayer <recording> [--option=value ...]");
+			System.exit(1);
+		}
+		Map<String, String> options = new HashMap<>();
+		for (int i = 1; i < args.length; i++) {
+			String arg = args[i];
+			int separator = arg.indexOf('=');
+			if (!arg.startsWith("--") || separator < 0) {
+				System.err.println("Invalid argument: " + arg + " (expected --option=value)");
+				System.exit(1);
+			}
+			options.put(arg.substring(2, separator), arg.substring(separator + 1));
+		}
+		double speed = 1;
+		String speedOption = options.remove("speed");
+		try {
+			if (speedOption != null) speed = Double.parseDouble(speedOption);
+			EventReplayer replayer = new EventReplayer(new File(args[0]), options);
+			System.out.println(replayer.replay(speed).encodePrettily());
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package de.appsist.service.pki.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Access to the payload fixtures in <code>src/main/resources/fixtures</code>.
+ * Process definitions are available in three sizes: <code>small</code> (10 elements, ~8 KB), <code>medium</code> (60 elements, ~50 KB), and <code>large</code> (400 elements, ~330 KB).
+ */
+public final class Fixtures {
+	private Fixtures() {
+	}
+	
+	/**
+	 * Loads a fixture as string.
+	 * @param name Name of the fixture without extension, e.g. <code>process-definition-large</code>.
+	 * @return Content of the fixture.
+	 * @throws IllegalArgumentException The fixture does not exist.
+	 */
+	public static String load(String name) throws IllegalArgumentException {
+		try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name + ".json")) {
+			if (in == null) {
+				throw new IllegalArgumentException("Unknown fixture: " + name);
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Failed to read fixture: " + name, e);
+		}
+	}
+	
+	/**
+	 * Loads a fixture as JSON object.
+	 * @param name Name of the fixture without extension.
+	 * @return Parsed fixture.
+	 */
+	public static JsonObject loadJson(String name) {
+		return new JsonObject(load(name));
+	}
+}
@@ -0,0 +1,257 @@
+package de.appsist.service.pki.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.http.HttpServer;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.commons.event.TaskEvent;
+import de.appsist.commons.event.UserTaskEvent;
+import de.appsist.service.pki.connector.ConnectorMetrics;
+import de.appsist.service.pki.connector.PKIConnector;
+
+/**
+ * End-to-end load test of the connector against the {@link PKIStandInServer}.
+ * Publishes user task events onto the event bus at a target rate and reports the throughput, the latency from publishing to handler dispatch, and the number of PKI requests per dispatched event.
+ * <p>
+ * Usage: <code>java -cp benchmarks.jar de.appsist.service.pki.benchmark.LoadGenerator [--option=value ...]</code>
+ * with the options <code>rate</code> (events per second), <code>duration</code> (seconds), <code>instances</code>, <code>processes</code>, <code>elements</code>,
+ * <code>minLatency</code> and <code>maxLatency</code> (milliseconds), <code>errorRate</code>, <code>compression</code> (<code>gzip</code>, <code>deflate</code>, or <code>none</code>), and <code>port</code>.
+ * </p>
+ */
+public class LoadGenerator {
+	private static final String BASE_PATH = "/services/psd";
+	private static final long TICK_MILLIS = 10;
+	private static final long DRAIN_MILLIS = 2000;
+
+	private final Vertx vertx;
+	private final Random random;
+	private final JsonObject eventTemplate;
+	private final ConnectorMetrics.LatencyHistogram latencies;
+	private final Map<String, Long> publishTimes;
+	private double rate = 1000;
+	private long durationSeconds = 30;
+	private int instanceCount = 100;
+	private int processCount = 5;
+	private int elementCount = 60;
+	private long minLatencyMillis;
+	private long maxLatencyMillis;
+	private double errorRate;
+	private String contentEncoding;
+	private int port = 18080;
+
+	private PKIStandInServer server;
+	private PKIConnector connector;
+	private long startTime;
+	private long publishedCount;
+	private long dispatchedCount;
+
+	/**
+	 * Creates the load generator.
+	 * @param vertx Vertx runtime to run the server, the connector and the generator in.
+	 * @param options Options, see the class documentation.
+	 * @throws IllegalArgumentException An option is invalid.
+	 */
+	public LoadGenerator(Vertx vertx, Map<String, String> options) throws IllegalArgumentException {
+		this.vertx = vertx;
+		random = new Random();
+		eventTemplate = Fixtures.loadJson("event-user-task");
+		latencies = new ConnectorMetrics.LatencyHistogram();
+		publishTimes = new ConcurrentHashMap<>();
+		try {
+			for (Map.Entry<String, String> option : options.entrySet()) {
+				String value = option.getValue();
+				switch (option.getKey()) {
+				case "rate":
+					rate = Double.parseDouble(value);
+					break;
+				case "duration":
+					durationSeconds = Long.parseLong(value);
+					break;
+				case "instances":
+					instanceCount = Integer.parseInt(value);
+					break;
+				case "processes":
+					processCount = Integer.parseInt(value);
+					break;
+				case "elements":
+					elementCount = Integer.parseInt(value);
+					break;
+				case "minLatency":
+					minLatencyMillis = Long.parseLong(value);
+					break;
+				case "maxLatency":
+					maxLatencyMillis = Long.parseLong(value);
+					break;
+				case "errorRate":
+					errorRate = Double.parseDouble(value);
+					break;
+				case "compression":
+					contentEncoding = value.equals("none") ? null : value;
+					break;
+				case "port":
+					port = Integer.parseInt(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option: " + option.getKey());
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid option value: " + e.getMessage());
+		}
+		if (rate <= 0 || durationSeconds <= 0 || instanceCount <= 0 || processCount <= 0 || elementCount <= 0) {
+			throw new IllegalArgumentException("Rate, duration, instances, processes, and elements must be positive.");
+		}
+		if (contentEncoding != null && !contentEncoding.equals("gzip") && !contentEncoding.equals("deflate")) {
+			throw new IllegalArgumentException("Compression must be gzip, deflate, or none.");
+		}
+		maxLatencyMillis = Math.max(minLatencyMillis, maxLatencyMillis);
+	}
+
+	/**
+	 * Runs the load test. Has to be called on an event loop.
+	 * @param resultHandler Handler for the report. Receives <code>null</code> if the stand-in server could not be started.
+	 */
+	public void run(final Handler<JsonObject> resultHandler) {
+		server = new PKIStandInServer(vertx, BASE_PATH);
+		server.setLatency(minLatencyMillis, maxLatencyMillis);
+		server.setErrorRate(errorRate, 500);
+		server.setElementCount(elementCount);
+		server.setContentEncoding(contentEncoding);
+		server.listen(port, "localhost", new Handler<AsyncResult<HttpServer>>() {
+
+			@Override
+			public void handle(AsyncResult<HttpServer> listenResult) {
+				if (listenResult.failed()) {
+					System.err.println("Failed to start stand-in server: " + listenResult.cause());
+					resultHandler.handle(null);
+					return;
+				}
+				connector = new PKIConnector(vertx, "localhost", port, false, BASE_PATH);
+				connector.enableMetrics(null);
+				connector.registerTaskHandler(new Handler<TaskEvent>() {
+
+					@Override
+					public void handle(TaskEvent event) {
+						Long publishTime = publishTimes.remove(event.getId());
+						if (publishTime != null) {
+							latencies.record(System.nanoTime() - publishTime);
+							dispatchedCount++;
+						}
+					}
+				});
+				startPublishing(resultHandler);
+			}
+		});
+	}
+
+	private void startPublishing(final Handler<JsonObject> resultHandler) {
+		startTime = System.nanoTime();
+		final long totalCount = (long) (rate * durationSeconds);
+		vertx.setPeriodic(TICK_MILLIS, new Handler<Long>() {
+
+			@Override
+			public void handle(Long timerId) {
+				long dueCount = Math.min(totalCount, (long) (rate * (System.nanoTime() - startTime) / 1e9));
+				while (publishedCount < dueCount) {
+					publish(publishedCount++);
+				}
+				if (publishedCount >= totalCount) {
+					vertx.cancelTimer(timerId);
+					final long publishDuration = System.nanoTime() - startTime;
+					vertx.setTimer(DRAIN_MILLIS, new Handler<Long>() {
+
+						@Override
+						public void handle(Long drainTimerId) {
+							server.close();
+							resultHandler.handle(createReport(publishDuration));
+						}
+					});
+				}
+			}
+		});
+	}
+
+	private void publish(long sequence) {
+		int instance = random.nextInt(instanceCount);
+		JsonObject event = eventTemplate.copy();
+		String eventId = "event-" + sequence;
+		event.putString("id", eventId);
+		JsonObject payload = event.getObject("payload");
+		payload.putString("processId", "process_" + (instance % processCount));
+		payload.putString("processInstanceId", "instance-" + instance);
+		payload.putString("elementId", String.format("element_%03d", random.nextInt(elementCount)));
+		publishTimes.put(eventId, System.nanoTime());
+		vertx.eventBus().publish("appsist:event:" + UserTaskEvent.MODEL_ID, event);
+	}
+
+	private JsonObject createReport(long publishDuration) {
+		double seconds = publishDuration / 1e9;
+		long requestCount = server.getRequestCount();
+		JsonObject report = new JsonObject();
+		report.putNumber("published", publishedCount);
+		report.putNumber("dispatched", dispatchedCount);
+		report.putNumber("undispatched", publishTimes.size());
+		report.putNumber("seconds", seconds);
+		report.putNumber("targetRate", rate);
+		report.putNumber("throughput", dispatchedCount / seconds);
+		report.putObject("latency", latencies.asJson());
+		report.putNumber("pkiRequests", requestCount);
+		report.putNumber("amplification", dispatchedCount > 0 ? (double) requestCount / dispatchedCount : 0d);
+		report.putObject("pkiRequestsByOperation", server.getRequestCounts());
+		report.putObject("connector", connector.getMetricsSnapshot());
+		return report;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		final Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			if (!arg.startsWith("--") || separator < 0) {
+				System.err.println("Invalid argument: " + arg + " (expected --option=value)");
+				System.exit(1);
+			}
+			options.put(arg.substring(2, separator), arg.substring(separator + 1));
+		}
+		final Vertx vertx = VertxFactory.newVertx();
+		final LoadGenerator generator;
+		try {
+			generator = new LoadGenerator(vertx, options);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			vertx.stop();
+			System.exit(1);
+			return;
+		}
+		final CountDownLatch latch = new CountDownLatch(1);
+		final JsonObject[] report = new JsonObject[1];
+		vertx.runOnContext(new Handler<Void>() {
+
+			@Override
+			public void handle(Void event) {
+				generator.run(new Handler<JsonObject>() {
+
+					@Override
+					public void handle(JsonObject result) {
+						report[0] = result;
+						latch.countDown();
+					}
+				});
+			}
+		});
+		latch.await();
+		vertx.stop();
+		if (report[0] == null) {
+			System.exit(1);
+		}
+		System.out.println(report[0].encodePrettily());
+	}
+}
@@ -0,0 +1,117 @@
+package de.appsist.service.pki.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.pki.connector.BinaryModelCodec;
+import de.appsist.service.pki.event.ProcessAutomatedFlowEvent;
+import de.appsist.service.pki.model.ProcessDefinition;
+import de.appsist.service.pki.model.ProcessInstance;
+
+/**
+ * Compares the binary model encoding with the JSON encoding. The encoded sizes are printed during the setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ModelCodecBenchmark {
+	@Param({"small", "medium", "large"})
+	public String size;
+	
+	private ProcessDefinition definition;
+	private ProcessInstance instance;
+	private ProcessAutomatedFlowEvent event;
+	private String definitionJson;
+	private byte[] definitionBinary;
+	private String instanceJson;
+	private byte[] instanceBinary;
+	private String eventJson;
+	private byte[] eventBinary;
+	
+	@Setup
+	public void setup() {
+		definition = new ProcessDefinition(Fixtures.loadJson("process-definition-" + size));
+		instance = new ProcessInstance(Fixtures.loadJson("process-instance"));
+		event = new ProcessAutomatedFlowEvent(Fixtures.loadJson("event-automated-flow-switch").toMap());
+		definitionJson = definition.asJson().encode();
+		definitionBinary = BinaryModelCodec.encode(definition);
+		instanceJson = instance.asJson().encode();
+		instanceBinary = BinaryModelCodec.encode(instance);
+		eventJson = new JsonObject(event.asMap()).encode();
+		eventBinary = BinaryModelCodec.encode(event);
+		printSize("process definition (" + size + ")", definitionJson, definitionBinary);
+		printSize("process instance", instanceJson, instanceBinary);
+		printSize("automated flow event", eventJson, eventBinary);
+	}
+	
+	private static void printSize(String name, String json, byte[] binary) {
+		int jsonSize = json.getBytes(StandardCharsets.UTF_8).length;
+		System.out.println(String.format("%s: JSON %d bytes, binary %d bytes (%.1f%%)", name, jsonSize, binary.length, 100.0 * binary.length / jsonSize));
+	}
+	
+	@Benchmark
+	public String definitionJsonEncode() {
+		return definition.asJson().encode();
+	}
+	
+	@Benchmark
+	public byte[] definitionBinaryEncode() {
+		return BinaryModelCodec.encode(definition);
+	}
+	
+	@Benchmark
+	public ProcessDefinition definitionJsonDecode() {
+		return new ProcessDefinition(new JsonObject(definitionJson));
+	}
+	
+	@Benchmark
+	public ProcessDefinition definitionBinaryDecode() {
+		return BinaryModelCodec.decodeProcessDefinition(definitionBinary);
+	}
+	
+	@Benchmark
+	public String instanceJsonEncode() {
+		return instance.asJson().encode();
+	}
+	
+	@Benchmark
+	public byte[] instanceBinaryEncode() {
+		return BinaryModelCodec.encode(instance);
+	}
+	
+	@Benchmark
+	public ProcessInstance instanceJsonDecode() {
+		return new ProcessInstance(new JsonObject(instanceJson));
+	}
+	
+	@Benchmark
+	public ProcessInstance instanceBinaryDecode() {
+		return BinaryModelCodec.decodeProcessInstance(instanceBinary);
+	}
+	
+	@Benchmark
+	public ProcessAutomatedFlowEvent eventJsonDecode() {
+		return new ProcessAutomatedFlowEvent(new JsonObject(eventJson).toMap());
+	}
+	
+	@Benchmark
+	public ProcessAutomatedFlowEvent eventBinaryDecode() {
+		return BinaryModelCodec.decodeAutomatedFlowEvent(eventBinary);
+	}
+}
@@ -0,0 +1,68 @@
+package de.appsist.service.pki.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.pki.model.ProcessDefinition;
+import de.appsist.service.pki.model.ProcessElement;
+import de.appsist.service.pki.model.ProcessElementInstance;
+import de.appsist.service.pki.model.ProcessInstance;
+
+/**
+ * Measures the construction (including validation) of model objects from already parsed JSON.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ModelConstructionBenchmark {
+	@Param({"small", "large"})
+	public String size;
+	
+	private JsonObject definitionJson;
+	private JsonObject instanceJson;
+	private JsonObject elementJson;
+	private JsonObject elementInstanceJson;
+	
+	@Setup
+	public void setup() {
+		definitionJson = Fixtures.loadJson("process-definition-" + size);
+		instanceJson = Fixtures.loadJson("process-instance");
+		elementJson = Fixtures.loadJson("process-element");
+		elementInstanceJson = Fixtures.loadJson("element-instance");
+	}
+	
+	@Benchmark
+	public ProcessDefinition processDefinition() {
+		return new ProcessDefinition(definitionJson);
+	}
+	
+	@Benchmark
+	public ProcessInstance processInstance() {
+		return new ProcessInstance(instanceJson);
+	}
+	
+	@Benchmark
+	public ProcessElement processElement() {
+		return new ProcessElement(elementJson);
+	}
+	
+	@Benchmark
+	public ProcessElementInstance processElementInstance() {
+		return new ProcessElementInstance(elementInstanceJson);
+	}
+}
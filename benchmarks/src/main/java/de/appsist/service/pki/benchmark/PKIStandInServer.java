@@ -0,0 +1,349 @@
+package de.appsist.service.pki.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.HttpServer;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.HttpServerResponse;
+import org.vertx.java.core.http.RouteMatcher;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * In-process stand-in for the PKI HTTP service, to load test the connector without a PKI deployment.
+ * Responses are generated from the fixtures. The latency, the rate of failing requests, the size of process definitions, and the compression of responses are configurable.
+ * Configuration changes apply to subsequent requests.
+ */
+public class PKIStandInServer {
+	private final Vertx vertx;
+	private final String basePath;
+	private final HttpServer server;
+	private final Random random;
+	private final JsonObject definitionTemplate;
+	private final JsonObject elementTemplate;
+	private final JsonObject instanceTemplate;
+	private final JsonObject elementInstanceTemplate;
+	private final Map<String, String> definitionBodies;
+	private final ConcurrentMap<String, AtomicLong> requestCounts;
+	private volatile long minLatencyMillis;
+	private volatile long maxLatencyMillis;
+	private volatile double errorRate;
+	private volatile int errorStatusCode;
+	private volatile int elementCount;
+	private volatile String contentEncoding;
+
+	/**
+	 * Creates the server. Has to be called on an event loop.
+	 * @param vertx Vertx runtime.
+	 * @param basePath Base path of the service, e.g. <code>/services/psd</code>.
+	 */
+	public PKIStandInServer(Vertx vertx, String basePath) {
+		this.vertx = vertx;
+		this.basePath = basePath;
+		random = new Random();
+		definitionTemplate = Fixtures.loadJson("process-definition-small");
+		elementTemplate = Fixtures.loadJson("process-element");
+		instanceTemplate = Fixtures.loadJson("process-instance");
+		elementInstanceTemplate = Fixtures.loadJson("element-instance");
+		definitionBodies = new ConcurrentHashMap<>();
+		requestCounts = new ConcurrentHashMap<>();
+		errorStatusCode = 500;
+		elementCount = 60;
+		server = vertx.createHttpServer();
+		server.requestHandler(createRoutes());
+	}
+
+	/**
+	 * Sets the latency of the responses. The latency of each response is drawn uniformly from the given range.
+	 * @param minMillis Minimal latency in milliseconds.
+	 * @param maxMillis Maximal latency in milliseconds.
+	 * @throws IllegalArgumentException The range is invalid.
+	 */
+	public void setLatency(long minMillis, long maxMillis) throws IllegalArgumentException {
+		if (minMillis < 0 || maxMillis < minMillis) {
+			throw new IllegalArgumentException("Invalid latency range.");
+		}
+		this.minLatencyMillis = minMillis;
+		this.maxLatencyMillis = maxMillis;
+	}
+
+	/**
+	 * Sets the fraction of requests answered with an error.
+	 * @param errorRate Fraction between <code>0</code> and <code>1</code>.
+	 * @param statusCode HTTP status code of the error responses, e.g. <code>500</code>.
+	 * @throws IllegalArgumentException The rate is out of range.
+	 */
+	public void setErrorRate(double errorRate, int statusCode) throws IllegalArgumentException {
+		if (errorRate < 0 || errorRate > 1) {
+			throw new IllegalArgumentException("Error rate must be in [0, 1].");
+		}
+		this.errorRate = errorRate;
+		this.errorStatusCode = statusCode;
+	}
+
+	/**
+	 * Sets the number of elements of generated process definitions. Controls the payload size of definition responses (roughly 0.8 KB per element).
+	 * @param elementCount Number of elements.
+	 * @throws IllegalArgumentException The count is not positive.
+	 */
+	public void setElementCount(int elementCount) throws IllegalArgumentException {
+		if (elementCount <= 0) {
+			throw new IllegalArgumentException("Element count must be positive.");
+		}
+		if (elementCount != this.elementCount) {
+			this.elementCount = elementCount;
+			definitionBodies.clear();
+		}
+	}
+
+	/**
+	 * Sets the content encoding applied to successful responses of requests accepting it. Compressed bodies are sent in chunks of 8 KB.
+	 * @param contentEncoding <code>gzip</code>, <code>deflate</code>, or <code>null</code> to send uncompressed responses.
+	 * @throws IllegalArgumentException The encoding is not supported.
+	 */
+	public void setContentEncoding(String contentEncoding) throws IllegalArgumentException {
+		if (contentEncoding != null && !contentEncoding.equals("gzip") && !contentEncoding.equals("deflate")) {
+			throw new IllegalArgumentException("Unsupported content encoding: " + contentEncoding);
+		}
+		this.contentEncoding = contentEncoding;
+	}
+
+	/**
+	 * Starts the server.
+	 * @param port Port to listen on.
+	 * @param host Host to bind to.
+	 * @param listenHandler Handler for the result of the binding. May be <code>null</code>.
+	 */
+	public void listen(int port, String host, Handler<AsyncResult<HttpServer>> listenHandler) {
+		if (listenHandler != null) {
+			server.listen(port, host, listenHandler);
+		} else {
+			server.listen(port, host);
+		}
+	}
+
+	/**
+	 * Stops the server.
+	 */
+	public void close() {
+		server.close();
+	}
+
+	/**
+	 * Returns the number of requests received.
+	 * @return Total number of requests.
+	 */
+	public long getRequestCount() {
+		long total = 0;
+		for (AtomicLong count : requestCounts.values()) {
+			total += count.get();
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the number of requests received per operation.
+	 * @return JSON object mapping operation names to request counts.
+	 */
+	public JsonObject getRequestCounts() {
+		JsonObject json = new JsonObject();
+		for (Map.Entry<String, AtomicLong> entry : requestCounts.entrySet()) {
+			json.putNumber(entry.getKey(), entry.getValue().get());
+		}
+		return json;
+	}
+
+	private RouteMatcher createRoutes() {
+		String base = basePath.replace(".", "\\.");
+		RouteMatcher routes = new RouteMatcher();
+		routes.getWithRegEx(base + "/processes/([^/]+)", new Route("getProcessDefinition") {
+
+			@Override
+			protected String respond(HttpServerRequest request) {
+				return getDefinitionBody(request.params().get("param0"));
+			}
+		});
+		routes.getWithRegEx(base + "/processes/([^/]+)/elements/([^/]+)", new Route("getProcessElement") {
+
+			@Override
+			protected String respond(HttpServerRequest request) {
+				return elementTemplate.copy().putString("id", request.params().get("param1")).encode();
+			}
+		});
+		routes.postWithRegEx(base + "/processes/([^/]+)/instantiate", new Route("instantiate") {
+
+			@Override
+			protected String respond(HttpServerRequest request) {
+				return createInstance(UUID.randomUUID().toString(), request.params().get("param0"));
+			}
+		});
+		routes.getWithRegEx(base + "/instances/([^/]+)", new Route("getProcessInstance") {
+
+			@Override
+			protected String respond(HttpServerRequest request) {
+				return createInstance(request.params().get("param0"), null);
+			}
+		});
+		routes.getWithRegEx(base + "/instances/([^/]+)/currentElement", new Route("getCurrentElement") {
+
+			@Override
+			protected String respond(HttpServerRequest request) {
+				return elementInstanceTemplate.encode();
+			}
+		});
+		routes.postWithRegEx(base + "/instances/([^/]+)/next", new Route("next") {
+
+			@Override
+			protected String respond(HttpServerRequest request) {
+				String elementId = request.params().get("elementId");
+				JsonObject elementInstance = elementInstanceTemplate.copy();
+				if (elementId != null) elementInstance.putString("id", elementId);
+				return elementInstance.encode();
+			}
+		});
+		routes.postWithRegEx(base + "/instances/([^/]+)/confirm", new Route("confirm") {
+
+			@Override
+			protected String respond(HttpServerRequest request) {
+				return createInstance(request.params().get("param0"), null);
+			}
+		});
+		routes.postWithRegEx(base + "/instances/([^/]+)/cancel", new Route("cancel") {
+
+			@Override
+			protected String respond(HttpServerRequest request) {
+				return "";
+			}
+		});
+		routes.noMatch(new Handler<HttpServerRequest>() {
+
+			@Override
+			public void handle(HttpServerRequest request) {
+				count("noMatch");
+				request.response().setStatusCode(404).end("Not found: " + request.path());
+			}
+		});
+		return routes;
+	}
+
+	private String createInstance(String instanceId, String processId) {
+		JsonObject instance = instanceTemplate.copy();
+		instance.putString("id", instanceId);
+		if (processId != null) instance.putString("processId", processId);
+		return instance.encode();
+	}
+
+	private String getDefinitionBody(String processId) {
+		String body = definitionBodies.get(processId);
+		if (body == null) {
+			JsonObject definition = definitionTemplate.copy();
+			definition.putString("id", processId);
+			JsonArray elements = new JsonArray();
+			for (int i = 0; i < elementCount; i++) {
+				JsonObject element = elementTemplate.copy();
+				element.putString("id", String.format("element_%03d", i));
+				element.putArray("nextElements", new JsonArray().addString(String.format("element_%03d", i + 1)));
+				elements.addObject(element);
+			}
+			definition.putArray("elements", elements);
+			body = definition.encode();
+			definitionBodies.put(processId, body);
+		}
+		return body;
+	}
+
+	private void count(String operation) {
+		AtomicLong count = requestCounts.get(operation);
+		if (count == null) {
+			AtomicLong newCount = new AtomicLong();
+			count = requestCounts.putIfAbsent(operation, newCount);
+			if (count == null) count = newCount;
+		}
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Handler for a route. Counts the request, injects errors, and delays the response.
+	 */
+	private abstract class Route implements Handler<HttpServerRequest> {
+		private final String operation;
+
+		public Route(String operation) {
+			this.operation = operation;
+		}
+
+		/**
+		 * Creates the body of a successful response.
+		 * @param request Request to respond to.
+		 * @return Response body.
+		 */
+		protected abstract String respond(HttpServerRequest request);
+
+		@Override
+		public void handle(final HttpServerRequest request) {
+			count(operation);
+			final boolean isError = errorRate > 0 && random.nextDouble() < errorRate;
+			long latency = minLatencyMillis + (maxLatencyMillis > minLatencyMillis ? (long) (random.nextDouble() * (maxLatencyMillis - minLatencyMillis)) : 0);
+			if (latency <= 0) {
+				send(request, isError);
+				return;
+			}
+			vertx.setTimer(latency, new Handler<Long>() {
+
+				@Override
+				public void handle(Long timerId) {
+					send(request, isError);
+				}
+			});
+		}
+
+		private void send(HttpServerRequest request, boolean isError) {
+			if (isError) {
+				request.response().setStatusCode(errorStatusCode).end("Injected error.");
+			} else {
+				HttpServerResponse response = request.response().putHeader("Content-Type", "application/json");
+				String body = respond(request);
+				String encoding = contentEncoding;
+				String acceptEncoding = request.headers().get("Accept-Encoding");
+				if (encoding == null || acceptEncoding == null || !acceptEncoding.contains(encoding)) {
+					response.end(body);
+					return;
+				}
+				byte[] compressed = compress(body, encoding);
+				response.putHeader("Content-Encoding", encoding).setChunked(true);
+				for (int offset = 0; offset < compressed.length; offset += 8192) {
+					int length = Math.min(8192, compressed.length - offset);
+					byte[] chunk = new byte[length];
+					System.arraycopy(compressed, offset, chunk, 0, length);
+					response.write(new Buffer(chunk));
+				}
+				response.end();
+			}
+		}
+	}
+
+	private static byte[] compress(String body, String encoding) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (OutputStream out = encoding.equals("gzip") ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes)) {
+			out.write(body.getBytes(StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to compress response.", e);
+		}
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,92 @@
+package de.appsist.service.pki.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.HttpClientResponse;
+
+import de.appsist.service.pki.connector.TypedHttpResponse;
+import de.appsist.service.pki.model.ProcessDefinition;
+import de.appsist.service.pki.model.ProcessInstance;
+
+/**
+ * Measures the decoding of PKI responses into model objects by {@link TypedHttpResponse}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseDecodingBenchmark {
+	@Param({"small", "medium", "large"})
+	public String size;
+	
+	private HttpClientResponse definitionResponse;
+	private HttpClientResponse instanceResponse;
+	
+	@Setup
+	public void setup() {
+		definitionResponse = createResponse(new Buffer(Fixtures.load("process-definition-" + size)));
+		instanceResponse = createResponse(new Buffer(Fixtures.load("process-instance")));
+	}
+	
+	private static HttpClientResponse createResponse(final Buffer body) {
+		return (HttpClientResponse) Proxy.newProxyInstance(ResponseDecodingBenchmark.class.getClassLoader(), new Class<?>[] { HttpClientResponse.class }, new InvocationHandler() {
+			
+			@SuppressWarnings("unchecked")
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch (method.getName()) {
+				case "statusCode":
+					return 200;
+				case "bodyHandler":
+					((Handler<Buffer>) args[0]).handle(body);
+					return proxy;
+				default:
+					return method.getReturnType().isInstance(proxy) ? proxy : null;
+				}
+			}
+		});
+	}
+	
+	@Benchmark
+	public void decodeProcessDefinition(final Blackhole blackhole) {
+		new TypedHttpResponse<ProcessDefinition>(new AsyncResultHandler<ProcessDefinition>() {
+			
+			@Override
+			public void handle(AsyncResult<ProcessDefinition> result) {
+				blackhole.consume(result.result());
+			}
+		}, ProcessDefinition.class).handle(definitionResponse);
+	}
+	
+	@Benchmark
+	public void decodeProcessInstance(final Blackhole blackhole) {
+		new TypedHttpResponse<ProcessInstance>(new AsyncResultHandler<ProcessInstance>() {
+			
+			@Override
+			public void handle(AsyncResult<ProcessInstance> result) {
+				blackhole.consume(result.result());
+			}
+		}, ProcessInstance.class).handle(instanceResponse);
+	}
+}
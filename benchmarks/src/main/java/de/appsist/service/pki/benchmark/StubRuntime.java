@@ -0,0 +1,289 @@
+package de.appsist.service.pki.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.MultiMap;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.eventbus.EventBus;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.http.HttpClient;
+import org.vertx.java.core.http.HttpClientRequest;
+import org.vertx.java.core.http.HttpClientResponse;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * In-process stand-in for the vert.x runtime, used to benchmark the connector without network and event loop overhead.
+ * The event bus delivers messages synchronously to the registered handlers, HTTP requests are answered synchronously by a {@link ResponseProvider}.
+ * Timers fire immediately. Implemented with dynamic proxies, so only the methods used by the connector have to be known.
+ */
+public class StubRuntime {
+	/**
+	 * Stubbed HTTP response.
+	 */
+	public static class Response {
+		private final int statusCode;
+		private final Buffer body;
+		private final Map<String, String> headers;
+		
+		public Response(int statusCode, Buffer body) {
+			this.statusCode = statusCode;
+			this.body = body;
+			this.headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		}
+		
+		public Response(int statusCode, String body) {
+			this(statusCode, new Buffer(body));
+		}
+		
+		public Response putHeader(String name, String value) {
+			headers.put(name, value);
+			return this;
+		}
+	}
+	
+	/**
+	 * Provides the responses for HTTP requests.
+	 */
+	public interface ResponseProvider {
+		/**
+		 * Returns the response for a request.
+		 * @param method HTTP method.
+		 * @param uri Requested URI including the query.
+		 * @param headers Request headers.
+		 * @return Response to deliver.
+		 */
+		public Response respond(String method, String uri, Map<String, String> headers);
+	}
+	
+	private final Map<String, Handler<Message<JsonObject>>> eventBusHandlers;
+	private final ResponseProvider responseProvider;
+	private final Vertx vertx;
+	private long requestCount;
+	
+	public StubRuntime(ResponseProvider responseProvider) {
+		this.eventBusHandlers = new ConcurrentHashMap<>();
+		this.responseProvider = responseProvider;
+		this.vertx = createVertx();
+	}
+	
+	public Vertx getVertx() {
+		return vertx;
+	}
+	
+	/**
+	 * Returns the number of HTTP requests issued so far.
+	 * @return Number of requests.
+	 */
+	public long getRequestCount() {
+		return requestCount;
+	}
+	
+	/**
+	 * Delivers a message to the handler registered for the address, if any.
+	 * @param address Event bus address.
+	 * @param body Message body.
+	 */
+	public void publish(String address, final JsonObject body) {
+		Handler<Message<JsonObject>> handler = eventBusHandlers.get(address);
+		if (handler != null) {
+			handler.handle(createMessage(address, body));
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(StubRuntime.class.getClassLoader(), new Class<?>[] { type }, handler);
+	}
+	
+	private static Object defaultValue(Object proxy, Method method) {
+		Class<?> returnType = method.getReturnType();
+		if (returnType != Object.class && returnType.isInstance(proxy)) return proxy; // Fluent setters.
+		if (returnType == boolean.class) return false;
+		if (returnType == int.class) return 0;
+		if (returnType == long.class) return 0L;
+		if (returnType == void.class) return null;
+		if (returnType.isPrimitive()) return 0;
+		return null;
+	}
+	
+	private Vertx createVertx() {
+		final EventBus eventBus = proxy(EventBus.class, new InvocationHandler() {
+			
+			@SuppressWarnings("unchecked")
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch (method.getName()) {
+				case "registerHandler":
+					eventBusHandlers.put((String) args[0], (Handler<Message<JsonObject>>) args[1]);
+					break;
+				case "unregisterHandler":
+					eventBusHandlers.remove(args[0]);
+					break;
+				case "publish":
+				case "send":
+					if (args[1] instanceof JsonObject) publish((String) args[0], (JsonObject) args[1]);
+					break;
+				}
+				return defaultValue(proxy, method);
+			}
+		});
+		return proxy(Vertx.class, new InvocationHandler() {
+			
+			@SuppressWarnings("unchecked")
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch (method.getName()) {
+				case "eventBus":
+					return eventBus;
+				case "createHttpClient":
+					return createHttpClient();
+				case "currentContext":
+					return createContext();
+				case "runOnContext":
+					((Handler<Void>) args[0]).handle(null);
+					return null;
+				case "setTimer":
+					((Handler<Long>) args[1]).handle(0L);
+					return 0L;
+				default:
+					return defaultValue(proxy, method);
+				}
+			}
+		});
+	}
+	
+	private Context createContext() {
+		return proxy(Context.class, new InvocationHandler() {
+			
+			@SuppressWarnings("unchecked")
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("runOnContext")) {
+					((Handler<Void>) args[0]).handle(null);
+					return null;
+				}
+				return defaultValue(proxy, method);
+			}
+		});
+	}
+	
+	private HttpClient createHttpClient() {
+		return proxy(HttpClient.class, new InvocationHandler() {
+			
+			@SuppressWarnings("unchecked")
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch (method.getName()) {
+				case "get":
+					return createRequest("GET", (String) args[0], (Handler<HttpClientResponse>) args[1]);
+				case "post":
+					return createRequest("POST", (String) args[0], (Handler<HttpClientResponse>) args[1]);
+				case "request":
+					return createRequest((String) args[0], (String) args[1], (Handler<HttpClientResponse>) args[2]);
+				default:
+					return defaultValue(proxy, method);
+				}
+			}
+		});
+	}
+	
+	private HttpClientRequest createRequest(final String httpMethod, final String uri, final Handler<HttpClientResponse> responseHandler) {
+		final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		return proxy(HttpClientRequest.class, new InvocationHandler() {
+			
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch (method.getName()) {
+				case "putHeader":
+					headers.put(String.valueOf(args[0]), String.valueOf(args[1]));
+					break;
+				case "headers":
+					return createHeaders(headers);
+				case "end":
+					requestCount++;
+					responseHandler.handle(createResponse(responseProvider.respond(httpMethod, uri, headers)));
+					return null;
+				}
+				return defaultValue(proxy, method);
+			}
+		});
+	}
+	
+	private static MultiMap createHeaders(final Map<String, String> headers) {
+		return proxy(MultiMap.class, new InvocationHandler() {
+			
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch (method.getName()) {
+				case "get":
+					return headers.get(String.valueOf(args[0]));
+				case "contains":
+					return headers.containsKey(String.valueOf(args[0]));
+				case "add":
+				case "set":
+					headers.put(String.valueOf(args[0]), String.valueOf(args[1]));
+					break;
+				}
+				return defaultValue(proxy, method);
+			}
+		});
+	}
+	
+	private static HttpClientResponse createResponse(final Response response) {
+		return proxy(HttpClientResponse.class, new InvocationHandler() {
+			private Handler<Buffer> dataHandler;
+			
+			@SuppressWarnings("unchecked")
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch (method.getName()) {
+				case "statusCode":
+					return response.statusCode;
+				case "statusMessage":
+					return response.statusCode == 200 ? "OK" : "Error";
+				case "headers":
+					return createHeaders(response.headers);
+				case "bodyHandler":
+					((Handler<Buffer>) args[0]).handle(response.body);
+					break;
+				case "dataHandler":
+					dataHandler = (Handler<Buffer>) args[0];
+					break;
+				case "endHandler":
+					// Deliver the body when the response is completely set up.
+					if (dataHandler != null) dataHandler.handle(response.body);
+					((Handler<Void>) args[0]).handle(null);
+					break;
+				}
+				return defaultValue(proxy, method);
+			}
+		});
+	}
+	
+	private static Message<JsonObject> createMessage(final String address, final JsonObject body) {
+		@SuppressWarnings("unchecked")
+		Message<JsonObject> message = proxy(Message.class, new InvocationHandler() {
+			
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch (method.getName()) {
+				case "body":
+					return body;
+				case "address":
+					return address;
+				default:
+					return defaultValue(proxy, method);
+				}
+			}
+		});
+		return message;
+	}
+}
@@ -0,0 +1,57 @@
+package de.appsist.service.pki.benchmark;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.commons.event.UserTaskEvent;
+import de.appsist.service.pki.connector.EventRecorder;
+
+public class EventReplayerTest extends TestCase {
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		file = File.createTempFile("recording", ".bin");
+		file.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	public void testReplaysRecordedEventsAgainstRecordedResponses() throws Exception {
+		JsonObject definition = Fixtures.loadJson("process-definition-small");
+		String processId = definition.getString("id");
+		String elementId = definition.getArray("elements").<JsonObject>get(0).getString("id");
+		JsonObject element = Fixtures.loadJson("process-element").putString("id", elementId);
+		JsonObject instance = Fixtures.loadJson("process-instance").putString("id", "instance-1").putString("processId", processId);
+		JsonObject elementInstance = Fixtures.loadJson("element-instance");
+
+		EventRecorder recorder = new EventRecorder(file);
+		for (int i = 0; i < 3; i++) {
+			JsonObject event = Fixtures.loadJson("event-user-task");
+			event.putString("id", "event-" + i);
+			event.getObject("payload").putString("processId", processId).putString("processInstanceId", "instance-1").putString("elementId", elementId);
+			recorder.recordEvent("appsist:event:" + UserTaskEvent.MODEL_ID, event);
+		}
+		recorder.recordResponse("GET", "/processes/" + processId, 200, definition.encode());
+		recorder.recordResponse("GET", "/instances/instance-1", 200, instance.encode());
+		recorder.recordResponse("GET", "/processes/" + processId + "/elements/" + elementId, 200, element.encode());
+		recorder.recordResponse("GET", "/instances/instance-1/currentElement?sid=session-1", 200, elementInstance.encode());
+		recorder.close();
+		assertTrue(recorder.awaitTermination(10, TimeUnit.SECONDS));
+
+		EventReplayer replayer = new EventReplayer(file, new HashMap<String, String>());
+		JsonObject report = replayer.replay(0);
+		assertEquals(3L, report.getLong("events").longValue());
+		assertEquals(3L, report.getLong("dispatched").longValue());
+		assertEquals(0L, report.getLong("unmatchedRequests").longValue());
+		assertTrue(report.getLong("pkiRequests") > 0);
+	}
+}
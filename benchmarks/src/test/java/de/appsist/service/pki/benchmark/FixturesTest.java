@@ -0,0 +1,41 @@
+package de.appsist.service.pki.benchmark;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.json.JsonObject;
+
+public class FixturesTest extends TestCase {
+
+	public void testProcessDefinitionSizes() {
+		assertEquals(10, Fixtures.loadJson("process-definition-small").getArray("elements").size());
+		assertEquals(60, Fixtures.loadJson("process-definition-medium").getArray("elements").size());
+		assertEquals(400, Fixtures.loadJson("process-definition-large").getArray("elements").size());
+	}
+
+	public void testLoadsAllFixtures() {
+		String[] names = { "process-element", "process-instance", "element-instance", "event-user-task", "event-automated-flow-if", "event-automated-flow-switch", "event-automated-flow-rules" };
+		for (String name : names) {
+			JsonObject fixture = Fixtures.loadJson(name);
+			assertTrue(name, fixture.size() > 0);
+		}
+	}
+
+	public void testRejectsUnknownFixture() {
+		try {
+			Fixtures.load("unknown");
+			fail("Expected IllegalArgumentException.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	public void testAutomatedFlowFixturesSelectElement() {
+		for (String method : new String[] { "if", "switch", "rules" }) {
+			AutomatedFlowBenchmark benchmark = new AutomatedFlowBenchmark();
+			benchmark.method = method;
+			benchmark.setup();
+			assertNotNull(method, benchmark.parseFromJson());
+			assertNotNull(method, benchmark.evaluate());
+		}
+	}
+}
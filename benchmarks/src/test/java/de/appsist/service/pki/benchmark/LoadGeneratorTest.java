@@ -0,0 +1,73 @@
+package de.appsist.service.pki.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.json.JsonObject;
+
+public class LoadGeneratorTest extends TestCase {
+
+	private static Map<String, String> options(String... entries) {
+		Map<String, String> options = new HashMap<>();
+		for (int i = 0; i < entries.length; i += 2) {
+			options.put(entries[i], entries[i + 1]);
+		}
+		return options;
+	}
+
+	private static void assertInvalid(Map<String, String> options) {
+		try {
+			new LoadGenerator(null, options);
+			fail("Expected IllegalArgumentException for " + options);
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	public void testRejectsInvalidOptions() {
+		new LoadGenerator(null, options("rate", "10", "compression", "gzip"));
+		assertInvalid(options("unknown", "1"));
+		assertInvalid(options("rate", "fast"));
+		assertInvalid(options("rate", "0"));
+		assertInvalid(options("duration", "-1"));
+		assertInvalid(options("elements", "0"));
+		assertInvalid(options("compression", "br"));
+	}
+
+	public void testDispatchesEventsAgainstStandInServer() throws InterruptedException {
+		Vertx vertx = VertxFactory.newVertx();
+		try {
+			final LoadGenerator generator = new LoadGenerator(vertx, options("rate", "100", "duration", "1", "instances", "5", "elements", "10", "compression", "gzip", "port", "18181"));
+			final CountDownLatch latch = new CountDownLatch(1);
+			final JsonObject[] report = new JsonObject[1];
+			vertx.runOnContext(new Handler<Void>() {
+
+				@Override
+				public void handle(Void event) {
+					generator.run(new Handler<JsonObject>() {
+
+						@Override
+						public void handle(JsonObject result) {
+							report[0] = result;
+							latch.countDown();
+						}
+					});
+				}
+			});
+			assertTrue(latch.await(30, TimeUnit.SECONDS));
+			assertNotNull(report[0]);
+			assertEquals(100L, report[0].getLong("published").longValue());
+			assertEquals(100L, report[0].getLong("dispatched").longValue());
+			assertTrue(report[0].getLong("pkiRequests") > 0);
+		} finally {
+			vertx.stop();
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package de.appsist.service.pki.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.http.HttpServer;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.pki.connector.PKIConnector;
+import de.appsist.service.pki.model.ProcessDefinition;
+
+public class PKIStandInServerTest extends TestCase {
+	private static final String BASE_PATH = "/services/psd";
+	private static final int PORT = 18182;
+
+	/**
+	 * Retrieves a process definition from the stand-in server sending responses with the given content encoding.
+	 * @return Transfer metrics of the connector for the operation.
+	 */
+	private static JsonObject retrieveDefinition(final String contentEncoding) throws InterruptedException {
+		final Vertx vertx = VertxFactory.newVertx();
+		try {
+			final CountDownLatch latch = new CountDownLatch(1);
+			final Object[] result = new Object[2];
+			vertx.runOnContext(new Handler<Void>() {
+
+				@Override
+				public void handle(Void event) {
+					final PKIStandInServer server = new PKIStandInServer(vertx, BASE_PATH);
+					server.setElementCount(60); // Definitions of roughly 50 KB, sent in several chunks.
+					server.setContentEncoding(contentEncoding);
+					server.listen(PORT, "localhost", new Handler<AsyncResult<HttpServer>>() {
+
+						@Override
+						public void handle(AsyncResult<HttpServer> listenResult) {
+							if (listenResult.failed()) {
+								result[0] = listenResult.cause();
+								latch.countDown();
+								return;
+							}
+							final PKIConnector connector = new PKIConnector(vertx, "localhost", PORT, false, BASE_PATH);
+							connector.enableMetrics(null);
+							connector.getProcessDefinition("process", new AsyncResultHandler<ProcessDefinition>() {
+
+								@Override
+								public void handle(AsyncResult<ProcessDefinition> definitionResult) {
+									result[0] = definitionResult.succeeded() ? definitionResult.result() : definitionResult.cause();
+									result[1] = connector.getMetricsSnapshot().getObject("transfers").getObject("getProcessDefinition");
+									server.close();
+									latch.countDown();
+								}
+							});
+						}
+					});
+				}
+			});
+			assertTrue(latch.await(30, TimeUnit.SECONDS));
+			assertTrue(String.valueOf(result[0]), result[0] instanceof ProcessDefinition);
+			assertEquals("process", ((ProcessDefinition) result[0]).getId());
+			return (JsonObject) result[1];
+		} finally {
+			vertx.stop();
+		}
+	}
+
+	public void testServesGzipCompressedResponses() throws InterruptedException {
+		JsonObject transfers = retrieveDefinition("gzip");
+		assertEquals(1L, transfers.getLong("compressedResponses").longValue());
+		assertTrue(transfers.getLong("transferredBytes") < transfers.getLong("decodedBytes"));
+	}
+
+	public void testServesDeflateCompressedResponses() throws InterruptedException {
+		JsonObject transfers = retrieveDefinition("deflate");
+		assertEquals(1L, transfers.getLong("compressedResponses").longValue());
+		assertTrue(transfers.getLong("transferredBytes") < transfers.getLong("decodedBytes"));
+	}
+
+	public void testServesUncompressedResponses() throws InterruptedException {
+		JsonObject transfers = retrieveDefinition(null);
+		assertEquals(0L, transfers.getLong("compressedResponses").longValue());
+		assertEquals(transfers.getLong("transferredBytes"), transfers.getLong("decodedBytes"));
+	}
+}
@@ -0,0 +1,301 @@
+package de.appsist.service.pki.connector;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Joins a fixed number of asynchronous operations (parts) into a single completion.
+ * <p>
+ * The join only counts the completed parts; errors are collected by part name when they occur. It completes when all parts are completed,
+ * when the deadline set with {@link #setDeadline(long)} passes, or, with {@link Policy#FAIL_FAST}, when the first part fails. The complete handler is called exactly once,
+ * with a {@link Result} stating how many parts succeeded, failed, or were still pending. Parts completing afterwards are ignored.
+ * </p>
+ * All methods have to be called from the event loop of the connector.
+ */
+public class AsyncJoin {
+	/**
+	 * Policy for joins in which not all parts succeed.
+	 */
+	public enum Policy {
+		/** The join completes as failed with the first failing part, without waiting for the other parts. */
+		FAIL_FAST,
+		/** The join waits for all parts and fails if any part failed or is still pending at the deadline. */
+		REQUIRE_ALL,
+		/**
+		 * The join waits for all parts and succeeds with the parts available, as {@link Status#PARTIAL} if any part failed or is still pending at the deadline.
+		 * If no part succeeded, the join fails as with {@link #REQUIRE_ALL}.
+		 */
+		ALLOW_PARTIAL
+	}
+
+	/**
+	 * Outcome of a join.
+	 */
+	public enum Status {
+		/** All parts succeeded. */
+		SUCCEEDED,
+		/** Some but not all parts failed or did not complete in time, accepted by {@link Policy#ALLOW_PARTIAL}. */
+		PARTIAL,
+		/** A part failed. */
+		FAILED,
+		/** The deadline passed before all parts completed. */
+		TIMED_OUT
+	}
+
+	/**
+	 * Result of a join. Immutable.
+	 */
+	public static final class Result {
+		/** Result of a join without parts, e.g. for events without data to retrieve. */
+		public static final Result EMPTY = new Result(Status.SUCCEEDED, 0, 0, 0, Collections.<String, Throwable>emptyMap());
+
+		private final Status status;
+		private final int partCount;
+		private final int succeededCount;
+		private final int failedCount;
+		private final Map<String, Throwable> errors;
+
+		private Result(Status status, int partCount, int succeededCount, int failedCount, Map<String, Throwable> errors) {
+			this.status = status;
+			this.partCount = partCount;
+			this.succeededCount = succeededCount;
+			this.failedCount = failedCount;
+			this.errors = errors;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		/**
+		 * Checks if the join succeeded, i.e. its status is {@link Status#SUCCEEDED} or {@link Status#PARTIAL}.
+		 * @return <code>true</code> if the join succeeded, otherwise <code>false</code>.
+		 */
+		public boolean succeeded() {
+			return status == Status.SUCCEEDED || status == Status.PARTIAL;
+		}
+
+		public int getPartCount() {
+			return partCount;
+		}
+
+		public int getSucceededCount() {
+			return succeededCount;
+		}
+
+		public int getFailedCount() {
+			return failedCount;
+		}
+
+		/**
+		 * Returns the number of parts not completed when the join completed.
+		 * @return Number of pending parts.
+		 */
+		public int getPendingCount() {
+			return partCount - succeededCount - failedCount;
+		}
+
+		/**
+		 * Returns the errors of the failed parts.
+		 * @return Unmodifiable map from part name to error, in the order of failure.
+		 */
+		public Map<String, Throwable> getErrors() {
+			return errors;
+		}
+
+		/**
+		 * Returns this result with a succeeded part treated as failed, e.g. if its data does not apply to all consumers of the result.
+		 * The result is {@link Status#PARTIAL}, or {@link Status#FAILED} if no part succeeds anymore. Failed results and results in which the part already failed are returned unchanged.
+		 * @param part Name of the part.
+		 * @param cause Cause of the failure.
+		 * @return Result with the part failed.
+		 */
+		Result withFailedPart(String part, Throwable cause) {
+			if (!succeeded() || succeededCount == 0 || errors.containsKey(part)) return this;
+			Map<String, Throwable> partErrors = new LinkedHashMap<>(errors);
+			partErrors.put(part, cause);
+			return new Result(succeededCount > 1 ? Status.PARTIAL : Status.FAILED, partCount, succeededCount - 1, failedCount + 1, Collections.unmodifiableMap(partErrors));
+		}
+
+		public JsonObject asJson() {
+			JsonObject errorsJson = new JsonObject();
+			for (Map.Entry<String, Throwable> entry : errors.entrySet()) {
+				Throwable error = entry.getValue();
+				errorsJson.putString(entry.getKey(), error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName());
+			}
+			JsonObject json = new JsonObject();
+			json.putString("status", status.name());
+			json.putNumber("parts", partCount);
+			json.putNumber("succeeded", succeededCount);
+			json.putNumber("failed", failedCount);
+			json.putNumber("pending", getPendingCount());
+			json.putObject("errors", errorsJson);
+			return json;
+		}
+	}
+
+	private final Vertx vertx;
+	private final int partCount;
+	private final Policy policy;
+	private final Handler<Result> completeHandler;
+	private int succeededCount;
+	private int failedCount;
+	private Map<String, Throwable> errors;
+	private long timerId;
+	private boolean isCompleted;
+
+	/**
+	 * Creates the join. Completes immediately if there are no parts.
+	 * @param vertx Vertx runtime for the deadline timer.
+	 * @param partCount Number of parts to join.
+	 * @param policy Policy for failed and pending parts.
+	 * @param completeHandler Handler for the result of the join.
+	 * @throws IllegalArgumentException The number of parts is negative.
+	 */
+	public AsyncJoin(Vertx vertx, int partCount, Policy policy, Handler<Result> completeHandler) throws IllegalArgumentException {
+		if (partCount < 0) {
+			throw new IllegalArgumentException("Number of parts must not be negative.");
+		}
+		this.vertx = vertx;
+		this.partCount = partCount;
+		this.policy = policy;
+		this.completeHandler = completeHandler;
+		timerId = -1;
+		if (partCount == 0) {
+			complete(Status.SUCCEEDED);
+		}
+	}
+
+	/**
+	 * Sets the deadline of the join. When it passes, the join completes with the parts completed so far. Replaces a previously set deadline.
+	 * Has no effect if the join is already completed.
+	 * @param deadlineMillis Time from now in milliseconds. No deadline if <code>0</code> or less.
+	 */
+	public void setDeadline(long deadlineMillis) {
+		if (isCompleted) return;
+		if (timerId >= 0) {
+			vertx.cancelTimer(timerId);
+			timerId = -1;
+		}
+		if (deadlineMillis <= 0) return;
+		timerId = vertx.setTimer(deadlineMillis, new Handler<Long>() {
+
+			@Override
+			public void handle(Long event) {
+				timerId = -1;
+				expire();
+			}
+		});
+	}
+
+	/**
+	 * Completes the join as if its deadline passed, e.g. if the remaining parts are not needed anymore. Has no effect if the join is already completed.
+	 */
+	public void expire() {
+		if (isCompleted) return;
+		complete(isPartialAccepted() ? Status.PARTIAL : Status.TIMED_OUT);
+	}
+
+	/**
+	 * Marks a part as succeeded.
+	 * @throws IllegalStateException More parts are completed than joined.
+	 */
+	public void succeed() throws IllegalStateException {
+		if (isCompleted) return;
+		checkPending();
+		succeededCount++;
+		completeIfDone();
+	}
+
+	/**
+	 * Marks a part as failed.
+	 * @param part Name of the part, e.g. the operation performed.
+	 * @param cause Cause of the failure.
+	 * @throws IllegalStateException More parts are completed than joined.
+	 */
+	public void fail(String part, Throwable cause) throws IllegalStateException {
+		if (isCompleted) return;
+		checkPending();
+		failedCount++;
+		if (errors == null) errors = new LinkedHashMap<>(4);
+		errors.put(part, cause);
+		if (policy == Policy.FAIL_FAST) {
+			complete(Status.FAILED);
+		} else {
+			completeIfDone();
+		}
+	}
+
+	/**
+	 * Returns a handler completing a part with the result of an operation. Failed results and results without a value fail the part.
+	 * @param part Name of the part.
+	 * @return Handler for the result of the operation.
+	 */
+	public <T> AsyncResultHandler<T> handler(final String part) {
+		return new AsyncResultHandler<T>() {
+
+			@Override
+			public void handle(AsyncResult<T> result) {
+				complete(part, result);
+			}
+		};
+	}
+
+	/**
+	 * Completes a part with the result of an operation. Failed results and results without a value fail the part.
+	 * @param part Name of the part.
+	 * @param result Result of the operation.
+	 * @throws IllegalStateException More parts are completed than joined.
+	 */
+	public void complete(String part, AsyncResult<?> result) throws IllegalStateException {
+		if (result.succeeded() && result.result() != null) {
+			succeed();
+		} else {
+			fail(part, result.cause() != null ? result.cause() : new IllegalStateException("Empty result."));
+		}
+	}
+
+	public boolean isCompleted() {
+		return isCompleted;
+	}
+
+	private void checkPending() throws IllegalStateException {
+		if (succeededCount + failedCount >= partCount) {
+			throw new IllegalStateException("All " + partCount + " parts are already completed.");
+		}
+	}
+
+	private void completeIfDone() {
+		if (succeededCount + failedCount < partCount) return;
+		if (failedCount == 0) {
+			complete(Status.SUCCEEDED);
+		} else {
+			complete(isPartialAccepted() ? Status.PARTIAL : Status.FAILED);
+		}
+	}
+
+	/**
+	 * Checks if the join may complete with the parts available. A join without any succeeded part has nothing to offer.
+	 * @return <code>true</code> if the policy accepts partial results and a part succeeded, otherwise <code>false</code>.
+	 */
+	private boolean isPartialAccepted() {
+		return policy == Policy.ALLOW_PARTIAL && succeededCount > 0;
+	}
+
+	private void complete(Status status) {
+		isCompleted = true;
+		if (timerId >= 0) {
+			vertx.cancelTimer(timerId);
+			timerId = -1;
+		}
+		Map<String, Throwable> resultErrors = errors != null ? Collections.unmodifiableMap(errors) : Collections.<String, Throwable>emptyMap();
+		completeHandler.handle(new Result(status, partCount, succeededCount, failedCount, resultErrors));
+	}
+}
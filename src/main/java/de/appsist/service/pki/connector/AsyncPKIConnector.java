@@ -0,0 +1,279 @@
+package de.appsist.service.pki.connector;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.VoidHandler;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.pki.model.ProcessDefinition;
+import de.appsist.service.pki.model.ProcessElement;
+import de.appsist.service.pki.model.ProcessElementInstance;
+import de.appsist.service.pki.model.ProcessInstance;
+
+/**
+ * {@link CompletionStage} based variant of the operations of a {@link PKIConnector}, obtained with {@link PKIConnector#stages()}.
+ * <p>
+ * Each operation behaves like its callback counterpart of the connector, including the caching. Stages complete on the event loop of the connector,
+ * exceptionally with an {@link HttpException} if the PKI rejects a request. Operations have to be called on the event loop, like the callback operations.
+ * </p>
+ * The combinators {@link #all(List)} and {@link #allSettled(List)} join the stages of bulk fetches.
+ */
+public class AsyncPKIConnector {
+	private final PKIConnector connector;
+
+	AsyncPKIConnector(PKIConnector connector) {
+		this.connector = connector;
+	}
+
+	/**
+	 * Instantiates a process, see {@link PKIConnector#instantiateProcess(String, String, String, JsonObject, AsyncResultHandler)}.
+	 * @param processId ID of the process definition to instantiate.
+	 * @param sessionId Session identifier.
+	 * @param userId ID of the user instantiating the process. May be <code>null</code>.
+	 * @param context Context to instantiate process with. May be <code>null</code>.
+	 * @return Stage completing with the created process instance.
+	 */
+	public CompletionStage<ProcessInstance> instantiateProcess(String processId, String sessionId, String userId, JsonObject context) {
+		CompletableFuture<ProcessInstance> future = new CompletableFuture<>();
+		connector.instantiateProcess(processId, sessionId, userId, context, completing(future));
+		return future;
+	}
+
+	public CompletionStage<ProcessElementInstance> next(String processInstanceId, String sessionId, String elementId) {
+		CompletableFuture<ProcessElementInstance> future = new CompletableFuture<>();
+		connector.next(processInstanceId, sessionId, elementId, completing(future));
+		return future;
+	}
+
+	public CompletionStage<ProcessInstance> confirm(String processInstanceId, String sessionId) {
+		CompletableFuture<ProcessInstance> future = new CompletableFuture<>();
+		connector.confirm(processInstanceId, sessionId, completing(future));
+		return future;
+	}
+
+	public CompletionStage<Void> cancel(String processInstanceId, String sessionId) {
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		connector.cancel(processInstanceId, sessionId, completing(future));
+		return future;
+	}
+
+	public CompletionStage<ProcessDefinition> getProcessDefinition(String processId) {
+		CompletableFuture<ProcessDefinition> future = new CompletableFuture<>();
+		connector.getProcessDefinition(processId, completing(future));
+		return future;
+	}
+
+	public CompletionStage<ProcessInstance> getProcessInstance(String processInstanceId) {
+		CompletableFuture<ProcessInstance> future = new CompletableFuture<>();
+		connector.getProcessInstance(processInstanceId, completing(future));
+		return future;
+	}
+
+	public CompletionStage<ProcessElement> getProcessElement(String processId, String elementId) {
+		CompletableFuture<ProcessElement> future = new CompletableFuture<>();
+		connector.getProcessElement(processId, elementId, completing(future));
+		return future;
+	}
+
+	public CompletionStage<ProcessElementInstance> getCurrentElement(String processInstanceId, String sessionId) {
+		CompletableFuture<ProcessElementInstance> future = new CompletableFuture<>();
+		connector.getCurrentElement(processInstanceId, sessionId, completing(future));
+		return future;
+	}
+
+	/**
+	 * Returns a cached process definition, see {@link PKIConnector#getCachedProcessDefinition(String)}.
+	 * @param processId Identifier of the process definition.
+	 * @return Stage completing with the cached definition or <code>null</code> if it is not cached.
+	 */
+	public CompletionStage<ProcessDefinition> getCachedProcessDefinition(String processId) {
+		return completeOnEventLoop(connector.getCachedProcessDefinition(processId));
+	}
+
+	public CompletionStage<ProcessInstance> getCachedProcessInstance(String processInstanceId) {
+		return completeOnEventLoop(connector.getCachedProcessInstance(processInstanceId));
+	}
+
+	public CompletionStage<ProcessElement> getCachedProcessElement(String processId, String elementId) {
+		return completeOnEventLoop(connector.getCachedProcessElement(processId, elementId));
+	}
+
+	public CompletionStage<ProcessElementInstance> getCachedProcessElementInstance(String processInstanceId, String elementId) {
+		return completeOnEventLoop(connector.getCachedProcessElementInstance(processInstanceId, elementId));
+	}
+
+	/**
+	 * Retrieves multiple process definitions in parallel. Duplicate identifiers are retrieved once.
+	 * @param processIds Identifiers of the process definitions.
+	 * @return Stage completing with the definitions by identifier, in the order of the identifiers. Completes exceptionally if any retrieval fails.
+	 */
+	public CompletionStage<Map<String, ProcessDefinition>> getProcessDefinitions(Collection<String> processIds) {
+		List<String> ids = new ArrayList<>(new LinkedHashSet<>(processIds));
+		List<CompletionStage<ProcessDefinition>> stages = new ArrayList<>(ids.size());
+		for (String processId : ids) {
+			stages.add(getProcessDefinition(processId));
+		}
+		return toMap(ids, all(stages));
+	}
+
+	/**
+	 * Retrieves multiple process instances in parallel. Duplicate identifiers are retrieved once.
+	 * @param processInstanceIds Identifiers of the process instances.
+	 * @return Stage completing with the instances by identifier, in the order of the identifiers. Completes exceptionally if any retrieval fails.
+	 */
+	public CompletionStage<Map<String, ProcessInstance>> getProcessInstances(Collection<String> processInstanceIds) {
+		List<String> ids = new ArrayList<>(new LinkedHashSet<>(processInstanceIds));
+		List<CompletionStage<ProcessInstance>> stages = new ArrayList<>(ids.size());
+		for (String processInstanceId : ids) {
+			stages.add(getProcessInstance(processInstanceId));
+		}
+		return toMap(ids, all(stages));
+	}
+
+	/**
+	 * Joins stages into a stage of their results. Completes exceptionally with the first failure, without waiting for the other stages.
+	 * @param stages Stages to join.
+	 * @return Stage completing with the results in the order of the stages.
+	 */
+	public static <T> CompletionStage<List<T>> all(List<? extends CompletionStage<? extends T>> stages) {
+		final CompletableFuture<List<T>> future = new CompletableFuture<>();
+		final List<T> results = new ArrayList<>(Collections.<T>nCopies(stages.size(), null));
+		final int[] pending = { stages.size() };
+		if (stages.isEmpty()) {
+			future.complete(results);
+			return future;
+		}
+		for (int i = 0; i < stages.size(); i++) {
+			final int index = i;
+			stages.get(i).whenComplete(new BiConsumer<T, Throwable>() {
+
+				@Override
+				public void accept(T result, Throwable error) {
+					synchronized (results) {
+						if (error != null) {
+							future.completeExceptionally(error);
+							return;
+						}
+						results.set(index, result);
+						if (--pending[0] == 0) future.complete(results);
+					}
+				}
+			});
+		}
+		return future;
+	}
+
+	/**
+	 * Joins stages into a stage of their outcomes. Waits for all stages; never completes exceptionally.
+	 * @param stages Stages to join.
+	 * @return Stage completing with the outcomes in the order of the stages.
+	 */
+	public static <T> CompletionStage<List<AsyncResult<T>>> allSettled(List<? extends CompletionStage<? extends T>> stages) {
+		final CompletableFuture<List<AsyncResult<T>>> future = new CompletableFuture<>();
+		final List<AsyncResult<T>> results = new ArrayList<>(Collections.<AsyncResult<T>>nCopies(stages.size(), null));
+		final int[] pending = { stages.size() };
+		if (stages.isEmpty()) {
+			future.complete(results);
+			return future;
+		}
+		for (int i = 0; i < stages.size(); i++) {
+			final int index = i;
+			stages.get(i).whenComplete(new BiConsumer<T, Throwable>() {
+
+				@Override
+				public void accept(T result, Throwable error) {
+					synchronized (results) {
+						results.set(index, new Outcome<T>(result, error));
+						if (--pending[0] == 0) future.complete(results);
+					}
+				}
+			});
+		}
+		return future;
+	}
+
+	/**
+	 * Outcome of a settled stage.
+	 */
+	private static class Outcome<T> implements AsyncResult<T> {
+		private final T result;
+		private final Throwable cause;
+
+		private Outcome(T result, Throwable cause) {
+			this.result = result;
+			this.cause = cause;
+		}
+
+		@Override
+		public T result() {
+			return result;
+		}
+
+		@Override
+		public Throwable cause() {
+			return cause;
+		}
+
+		@Override
+		public boolean succeeded() {
+			return cause == null;
+		}
+
+		@Override
+		public boolean failed() {
+			return cause != null;
+		}
+	}
+
+	private static <V> CompletionStage<Map<String, V>> toMap(final List<String> ids, CompletionStage<List<V>> stage) {
+		return stage.thenApply(new Function<List<V>, Map<String, V>>() {
+
+			@Override
+			public Map<String, V> apply(List<V> values) {
+				Map<String, V> map = new LinkedHashMap<>();
+				for (int i = 0; i < ids.size(); i++) {
+					map.put(ids.get(i), values.get(i));
+				}
+				return map;
+			}
+		});
+	}
+
+	private <T> CompletionStage<T> completeOnEventLoop(final T value) {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		connector.runOnEventLoop(new VoidHandler() {
+
+			@Override
+			protected void handle() {
+				future.complete(value);
+			}
+		});
+		return future;
+	}
+
+	private static <T> AsyncResultHandler<T> completing(final CompletableFuture<T> future) {
+		return new AsyncResultHandler<T>() {
+
+			@Override
+			public void handle(AsyncResult<T> result) {
+				if (result.succeeded()) {
+					future.complete(result.result());
+				} else {
+					future.completeExceptionally(result.cause() != null ? result.cause() : new IllegalStateException("Request failed."));
+				}
+			}
+		};
+	}
+}
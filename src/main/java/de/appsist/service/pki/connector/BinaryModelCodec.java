@@ -0,0 +1,379 @@
+package de.appsist.service.pki.connector;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.pki.event.ProcessAutomatedFlowEvent;
+import de.appsist.service.pki.model.ProcessDefinition;
+import de.appsist.service.pki.model.ProcessElement;
+import de.appsist.service.pki.model.ProcessElementInstance;
+import de.appsist.service.pki.model.ProcessInstance;
+
+/**
+ * Compact binary encoding of the models, e.g. for cache snapshots or the transport of enriched events between connectors.
+ * <p>
+ * An encoding consists of a format version, the model type, a string table, and the value tree. All strings, i.e. keys and string values, are stored once in the string table and referenced by index.
+ * Integers are stored as variable length zig-zag numbers, other numbers as doubles. The encoding round-trips losslessly to the JSON representation of the models.
+ * Dates, e.g. the creation time in the content map of events, are stored as timestamps and decoded to their JSON representation, see {@link #DATE_FORMAT}.
+ * </p>
+ * All methods are thread safe.
+ */
+public final class BinaryModelCodec {
+	private static final byte VERSION = 1;
+
+	private static final byte MODEL_JSON = 0;
+	private static final byte MODEL_PROCESS_DEFINITION = 1;
+	private static final byte MODEL_PROCESS_ELEMENT = 2;
+	private static final byte MODEL_PROCESS_INSTANCE = 3;
+	private static final byte MODEL_PROCESS_ELEMENT_INSTANCE = 4;
+	private static final byte MODEL_AUTOMATED_FLOW_EVENT = 5;
+
+	private static final byte TAG_NULL = 0;
+	private static final byte TAG_TRUE = 1;
+	private static final byte TAG_FALSE = 2;
+	private static final byte TAG_INTEGER = 3;
+	private static final byte TAG_LONG = 4;
+	private static final byte TAG_DOUBLE = 5;
+	private static final byte TAG_STRING = 6;
+	private static final byte TAG_OBJECT = 7;
+	private static final byte TAG_ARRAY = 8;
+	private static final byte TAG_DATE = 9;
+
+	/**
+	 * Format of dates in JSON representations, e.g. <code>2016-09-29T10:15:30.000+0200</code>. Decoded dates are formatted in UTC.
+	 */
+	public static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ").withZone(ZoneOffset.UTC);
+
+	private BinaryModelCodec() {
+	}
+
+	public static byte[] encode(ProcessDefinition processDefinition) {
+		return encode(MODEL_PROCESS_DEFINITION, processDefinition.asJson().toMap());
+	}
+
+	public static byte[] encode(ProcessElement processElement) {
+		return encode(processElement instanceof ProcessElementInstance ? MODEL_PROCESS_ELEMENT_INSTANCE : MODEL_PROCESS_ELEMENT, processElement.asJson().toMap());
+	}
+
+	public static byte[] encode(ProcessInstance processInstance) {
+		return encode(MODEL_PROCESS_INSTANCE, processInstance.asJson().toMap());
+	}
+
+	public static byte[] encode(ProcessAutomatedFlowEvent event) {
+		return encode(MODEL_AUTOMATED_FLOW_EVENT, event.asMap());
+	}
+
+	/**
+	 * Encodes an arbitrary JSON object.
+	 * @param json JSON object to encode.
+	 * @return Binary encoding.
+	 */
+	public static byte[] encode(JsonObject json) {
+		return encode(MODEL_JSON, json.toMap());
+	}
+
+	public static ProcessDefinition decodeProcessDefinition(byte[] data) throws IllegalArgumentException {
+		return new ProcessDefinition(new JsonObject(decode(MODEL_PROCESS_DEFINITION, data)));
+	}
+
+	public static ProcessElement decodeProcessElement(byte[] data) throws IllegalArgumentException {
+		return new ProcessElement(new JsonObject(decode(MODEL_PROCESS_ELEMENT, data)));
+	}
+
+	public static ProcessInstance decodeProcessInstance(byte[] data) throws IllegalArgumentException {
+		return new ProcessInstance(new JsonObject(decode(MODEL_PROCESS_INSTANCE, data)));
+	}
+
+	public static ProcessElementInstance decodeProcessElementInstance(byte[] data) throws IllegalArgumentException {
+		return new ProcessElementInstance(new JsonObject(decode(MODEL_PROCESS_ELEMENT_INSTANCE, data)));
+	}
+
+	public static ProcessAutomatedFlowEvent decodeAutomatedFlowEvent(byte[] data) throws IllegalArgumentException {
+		return new ProcessAutomatedFlowEvent(decode(MODEL_AUTOMATED_FLOW_EVENT, data));
+	}
+
+	/**
+	 * Decodes a JSON object encoded with {@link #encode(JsonObject)}.
+	 * @param data Binary encoding.
+	 * @return Decoded JSON object.
+	 * @throws IllegalArgumentException The data is no valid encoding of a JSON object.
+	 */
+	public static JsonObject decodeJson(byte[] data) throws IllegalArgumentException {
+		return new JsonObject(decode(MODEL_JSON, data));
+	}
+
+	private static byte[] encode(byte modelType, Map<String, Object> content) {
+		Map<String, Integer> stringTable = new LinkedHashMap<>();
+		collectStrings(content, stringTable);
+		Output out = new Output(256);
+		out.writeByte(VERSION);
+		out.writeByte(modelType);
+		out.writeVarInt(stringTable.size());
+		for (String string : stringTable.keySet()) {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			out.writeVarInt(bytes.length);
+			out.writeBytes(bytes);
+		}
+		writeValue(out, content, stringTable);
+		return out.toByteArray();
+	}
+
+	private static Map<String, Object> decode(byte expectedModelType, byte[] data) throws IllegalArgumentException {
+		try {
+			Input in = new Input(data);
+			byte version = in.readByte();
+			if (version != VERSION) {
+				throw new IllegalArgumentException("Unsupported encoding version: " + version);
+			}
+			byte modelType = in.readByte();
+			if (modelType != expectedModelType) {
+				throw new IllegalArgumentException("Unexpected model type: " + modelType);
+			}
+			String[] strings = new String[in.readVarInt()];
+			for (int i = 0; i < strings.length; i++) {
+				int length = in.readVarInt();
+				strings[i] = new String(data, in.position, length, StandardCharsets.UTF_8);
+				in.position += length;
+			}
+			Object content = readValue(in, strings);
+			if (!(content instanceof Map<?, ?>)) {
+				throw new IllegalArgumentException("Encoding does not contain an object.");
+			}
+			@SuppressWarnings("unchecked")
+			Map<String, Object> map = (Map<String, Object>) content;
+			return map;
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Truncated or invalid encoding.", e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void collectStrings(Object value, Map<String, Integer> stringTable) {
+		if (value instanceof String) {
+			addString((String) value, stringTable);
+		} else if (value instanceof Map<?, ?>) {
+			for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+				addString(entry.getKey(), stringTable);
+				collectStrings(entry.getValue(), stringTable);
+			}
+		} else if (value instanceof List<?>) {
+			for (Object entry : (List<?>) value) {
+				collectStrings(entry, stringTable);
+			}
+		} else if (value instanceof JsonObject) {
+			collectStrings(((JsonObject) value).toMap(), stringTable);
+		} else if (value instanceof JsonArray) {
+			collectStrings(((JsonArray) value).toList(), stringTable);
+		}
+	}
+
+	private static void addString(String string, Map<String, Integer> stringTable) {
+		if (!stringTable.containsKey(string)) {
+			stringTable.put(string, stringTable.size());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void writeValue(Output out, Object value, Map<String, Integer> stringTable) {
+		if (value == null) {
+			out.writeByte(TAG_NULL);
+		} else if (value instanceof String) {
+			out.writeByte(TAG_STRING);
+			out.writeVarInt(stringTable.get(value));
+		} else if (value instanceof Boolean) {
+			out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+		} else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			out.writeByte(TAG_INTEGER);
+			out.writeVarLong(zigZag(((Number) value).longValue()));
+		} else if (value instanceof Long) {
+			out.writeByte(TAG_LONG);
+			out.writeVarLong(zigZag((Long) value));
+		} else if (value instanceof Number) {
+			out.writeByte(TAG_DOUBLE);
+			out.writeLong(Double.doubleToLongBits(((Number) value).doubleValue()));
+		} else if (value instanceof Map<?, ?>) {
+			Map<String, Object> map = (Map<String, Object>) value;
+			out.writeByte(TAG_OBJECT);
+			out.writeVarInt(map.size());
+			for (Map.Entry<String, Object> entry : map.entrySet()) {
+				out.writeVarInt(stringTable.get(entry.getKey()));
+				writeValue(out, entry.getValue(), stringTable);
+			}
+		} else if (value instanceof List<?>) {
+			List<?> list = (List<?>) value;
+			out.writeByte(TAG_ARRAY);
+			out.writeVarInt(list.size());
+			for (Object entry : list) {
+				writeValue(out, entry, stringTable);
+			}
+		} else if (value instanceof JsonObject) {
+			writeValue(out, ((JsonObject) value).toMap(), stringTable);
+		} else if (value instanceof JsonArray) {
+			writeValue(out, ((JsonArray) value).toList(), stringTable);
+		} else if (value instanceof Date) {
+			out.writeByte(TAG_DATE);
+			out.writeLong(((Date) value).getTime());
+		} else {
+			throw new IllegalArgumentException("Unsupported value type: " + value.getClass().getName());
+		}
+	}
+
+	private static Object readValue(Input in, String[] strings) throws IllegalArgumentException {
+		byte tag = in.readByte();
+		switch (tag) {
+		case TAG_NULL:
+			return null;
+		case TAG_TRUE:
+			return Boolean.TRUE;
+		case TAG_FALSE:
+			return Boolean.FALSE;
+		case TAG_INTEGER:
+			return (int) unZigZag(in.readVarLong());
+		case TAG_LONG:
+			return unZigZag(in.readVarLong());
+		case TAG_DOUBLE:
+			return Double.longBitsToDouble(in.readLong());
+		case TAG_STRING:
+			return strings[in.readVarInt()];
+		case TAG_OBJECT:
+			int size = in.readVarInt();
+			Map<String, Object> map = new LinkedHashMap<>(Math.max(4, size * 4 / 3 + 1));
+			for (int i = 0; i < size; i++) {
+				String key = strings[in.readVarInt()];
+				map.put(key, readValue(in, strings));
+			}
+			return map;
+		case TAG_ARRAY:
+			int length = in.readVarInt();
+			List<Object> list = new ArrayList<>(length);
+			for (int i = 0; i < length; i++) {
+				list.add(readValue(in, strings));
+			}
+			return list;
+		case TAG_DATE:
+			// Decoded values end up in JSON objects, which do not accept dates.
+			return DATE_FORMAT.format(Instant.ofEpochMilli(in.readLong()));
+		default:
+			throw new IllegalArgumentException("Invalid value tag: " + tag);
+		}
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Growable output buffer.
+	 */
+	private static class Output {
+		private byte[] buffer;
+		private int position;
+
+		private Output(int capacity) {
+			buffer = new byte[capacity];
+		}
+
+		private void ensureCapacity(int additional) {
+			if (position + additional > buffer.length) {
+				byte[] newBuffer = new byte[Math.max(buffer.length * 2, position + additional)];
+				System.arraycopy(buffer, 0, newBuffer, 0, position);
+				buffer = newBuffer;
+			}
+		}
+
+		private void writeByte(byte value) {
+			ensureCapacity(1);
+			buffer[position++] = value;
+		}
+
+		private void writeBytes(byte[] bytes) {
+			ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, buffer, position, bytes.length);
+			position += bytes.length;
+		}
+
+		private void writeVarInt(int value) {
+			writeVarLong(value & 0xffffffffL);
+		}
+
+		private void writeVarLong(long value) {
+			ensureCapacity(10);
+			while ((value & ~0x7fL) != 0) {
+				buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			buffer[position++] = (byte) value;
+		}
+
+		private void writeLong(long value) {
+			ensureCapacity(8);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				buffer[position++] = (byte) (value >>> shift);
+			}
+		}
+
+		private byte[] toByteArray() {
+			byte[] result = new byte[position];
+			System.arraycopy(buffer, 0, result, 0, position);
+			return result;
+		}
+	}
+
+	/**
+	 * Input buffer. Reading past the end throws an {@link IndexOutOfBoundsException}.
+	 */
+	private static class Input {
+		private final byte[] buffer;
+		private int position;
+
+		private Input(byte[] buffer) {
+			this.buffer = buffer;
+		}
+
+		private byte readByte() {
+			return buffer[position++];
+		}
+
+		private int readVarInt() {
+			long value = readVarLong();
+			if (value < 0 || value > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Invalid length or index: " + value);
+			}
+			return (int) value;
+		}
+
+		private long readVarLong() {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				byte b = buffer[position++];
+				value |= (long) (b & 0x7f) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IllegalArgumentException("Invalid variable length number.");
+		}
+
+		private long readLong() {
+			long value = 0;
+			for (int i = 0; i < 8; i++) {
+				value = (value << 8) | (buffer[position++] & 0xff);
+			}
+			return value;
+		}
+	}
+}
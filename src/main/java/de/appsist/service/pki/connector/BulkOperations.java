@@ -0,0 +1,458 @@
+package de.appsist.service.pki.connector;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.pki.model.ProcessDefinition;
+import de.appsist.service.pki.model.ProcessElement;
+import de.appsist.service.pki.model.ProcessInstance;
+
+/**
+ * Bulk variants of the connector operations, obtained with {@link PKIConnector#bulk()}.
+ * <p>
+ * A bulk operation runs its requests with at most the given number of requests in flight, starting the next request when one completes.
+ * As requests beyond the connection pool size of the connector wait for a connection, the window should not exceed the pool size, see {@link PKIConnector#configureConnectionPool(int)}.
+ * Results are passed to the handler as they complete, followed by a summary of the whole operation.
+ * </p>
+ * <p>
+ * Multi-gets skip duplicate identifiers and serve cached entries without a request. Instantiations are neither deduplicated nor cached.
+ * </p>
+ * All methods have to be called from the event loop of the connector.
+ */
+public class BulkOperations {
+	/**
+	 * Handler for the results of a bulk operation.
+	 * @param <K> Type of the request keys.
+	 * @param <V> Type of the results.
+	 */
+	public interface BulkHandler<K, V> {
+		/**
+		 * Called for each distinct request when it completes.
+		 * @param key Key of the request.
+		 * @param result Result of the request.
+		 */
+		public void handleResult(K key, AsyncResult<V> result);
+
+		/**
+		 * Called once after all requests are completed.
+		 * @param summary Summary of the operation.
+		 */
+		public void handleSummary(Summary summary);
+	}
+
+	/**
+	 * Request to instantiate a process.
+	 */
+	public static class InstantiationRequest {
+		private final String processId;
+		private final String sessionId;
+		private final String userId;
+		private final JsonObject context;
+
+		/**
+		 * Creates the request.
+		 * @param processId ID of the process definition to instantiate.
+		 * @param sessionId Session identifier.
+		 * @param userId ID of the user instantiating the process. May be <code>null</code>.
+		 * @param context Context to instantiate the process with. May be <code>null</code>.
+		 */
+		public InstantiationRequest(String processId, String sessionId, String userId, JsonObject context) {
+			this.processId = processId;
+			this.sessionId = sessionId;
+			this.userId = userId;
+			this.context = context;
+		}
+
+		public String getProcessId() {
+			return processId;
+		}
+
+		public String getSessionId() {
+			return sessionId;
+		}
+
+		public String getUserId() {
+			return userId;
+		}
+
+		public JsonObject getContext() {
+			return context;
+		}
+
+		@Override
+		public String toString() {
+			return processId + (userId != null ? "/" + userId : "");
+		}
+	}
+
+	/**
+	 * Failed request of a bulk operation. Immutable.
+	 */
+	public static class Failure {
+		private final int index;
+		private final Object key;
+		private final Throwable error;
+
+		private Failure(int index, Object key, Throwable error) {
+			this.index = index;
+			this.key = key;
+			this.error = error;
+		}
+
+		/**
+		 * Returns the position of the request in the collection passed to the operation. For duplicate keys, the position of the first occurrence.
+		 * @return Index of the request.
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		public Object getKey() {
+			return key;
+		}
+
+		public Throwable getError() {
+			return error;
+		}
+
+		public JsonObject asJson() {
+			JsonObject json = new JsonObject();
+			json.putNumber("index", index);
+			json.putString("key", String.valueOf(key));
+			json.putString("error", String.valueOf(error));
+			return json;
+		}
+	}
+
+	/**
+	 * Summary of a bulk operation. Immutable.
+	 */
+	public static class Summary {
+		private final int requestedCount;
+		private final int distinctCount;
+		private final int cachedCount;
+		private final int succeededCount;
+		private final int failedCount;
+		private final long elapsedMillis;
+		private final List<Failure> errors;
+
+		private Summary(int requestedCount, int distinctCount, int cachedCount, int succeededCount, int failedCount, long elapsedMillis, List<Failure> errors) {
+			this.requestedCount = requestedCount;
+			this.distinctCount = distinctCount;
+			this.cachedCount = cachedCount;
+			this.succeededCount = succeededCount;
+			this.failedCount = failedCount;
+			this.elapsedMillis = elapsedMillis;
+			this.errors = errors;
+		}
+
+		/**
+		 * Returns the number of requests passed in, including duplicates.
+		 * @return Number of requests.
+		 */
+		public int getRequestedCount() {
+			return requestedCount;
+		}
+
+		public int getDistinctCount() {
+			return distinctCount;
+		}
+
+		/**
+		 * Returns the number of results served from the caches.
+		 * @return Number of cached results.
+		 */
+		public int getCachedCount() {
+			return cachedCount;
+		}
+
+		/**
+		 * Returns the number of successful results, including cached ones.
+		 * @return Number of successful results.
+		 */
+		public int getSucceededCount() {
+			return succeededCount;
+		}
+
+		public int getFailedCount() {
+			return failedCount;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		/**
+		 * Returns the failed requests. Requests with equal keys, e.g. instantiations of the same process, are reported separately.
+		 * @return Unmodifiable list of failures, in the order of failure.
+		 */
+		public List<Failure> getErrors() {
+			return errors;
+		}
+
+		public JsonObject asJson() {
+			JsonArray errorsJson = new JsonArray();
+			for (Failure failure : errors) {
+				errorsJson.addObject(failure.asJson());
+			}
+			JsonObject json = new JsonObject();
+			json.putNumber("requested", requestedCount);
+			json.putNumber("distinct", distinctCount);
+			json.putNumber("cached", cachedCount);
+			json.putNumber("succeeded", succeededCount);
+			json.putNumber("failed", failedCount);
+			json.putNumber("elapsedMillis", elapsedMillis);
+			json.putArray("errors", errorsJson);
+			return json;
+		}
+	}
+
+	/**
+	 * Runs the requests of a bulk operation within the concurrency window.
+	 */
+	private static abstract class Run<K, V> {
+		private final int requestedCount;
+		private final List<K> keys;
+		private final List<Integer> indices;
+		private final int window;
+		private final BulkHandler<K, V> handler;
+		private final long startTime;
+		private final List<Failure> errors;
+		private int nextKey;
+		private int inFlightCount;
+		private int cachedCount;
+		private int succeededCount;
+		private int failedCount;
+		private boolean isPumping;
+		private boolean isFinished;
+
+		/**
+		 * Creates the run.
+		 * @param requests Keys of the requests.
+		 * @param isDistinct <code>true</code> to perform a single request for duplicate keys, otherwise <code>false</code>.
+		 * @param window Maximum number of requests in flight.
+		 * @param handler Handler for the results.
+		 * @throws IllegalArgumentException The window is not positive.
+		 */
+		private Run(Collection<K> requests, boolean isDistinct, int window, BulkHandler<K, V> handler) throws IllegalArgumentException {
+			if (window <= 0) {
+				throw new IllegalArgumentException("Concurrency window must be positive.");
+			}
+			requestedCount = requests.size();
+			keys = new ArrayList<>(requests.size());
+			indices = new ArrayList<>(requests.size());
+			Set<K> distinctKeys = isDistinct ? new HashSet<K>() : null;
+			int index = 0;
+			for (K key : requests) {
+				if (distinctKeys == null || distinctKeys.add(key)) {
+					keys.add(key);
+					indices.add(index);
+				}
+				index++;
+			}
+			this.window = window;
+			this.handler = handler;
+			startTime = System.nanoTime();
+			errors = new ArrayList<>();
+		}
+
+		/**
+		 * Returns the cached result for a key.
+		 * @param key Key of the request.
+		 * @return Cached result or <code>null</code> if the request has to be performed.
+		 */
+		protected abstract V getCached(K key);
+
+		/**
+		 * Performs the request for a key.
+		 * @param key Key of the request.
+		 * @param resultHandler Handler for the result.
+		 */
+		protected abstract void request(K key, AsyncResultHandler<V> resultHandler);
+
+		void start() {
+			pump();
+		}
+
+		/**
+		 * Starts requests until the window is full. Requests completing synchronously do not recurse but continue the loop.
+		 */
+		private void pump() {
+			if (isPumping) return;
+			isPumping = true;
+			try {
+				while (inFlightCount < window && nextKey < keys.size()) {
+					final int index = indices.get(nextKey);
+					final K key = keys.get(nextKey++);
+					V cached = getCached(key);
+					if (cached != null) {
+						cachedCount++;
+						succeededCount++;
+						handler.handleResult(key, new Outcome<V>(cached, null));
+						continue;
+					}
+					inFlightCount++;
+					request(key, new AsyncResultHandler<V>() {
+
+						@Override
+						public void handle(AsyncResult<V> result) {
+							inFlightCount--;
+							if (result.succeeded() && result.result() != null) {
+								succeededCount++;
+							} else {
+								failedCount++;
+								errors.add(new Failure(index, key, result.cause() != null ? result.cause() : new IllegalStateException("Empty result.")));
+							}
+							handler.handleResult(key, result);
+							pump();
+						}
+					});
+				}
+			} finally {
+				isPumping = false;
+			}
+			if (inFlightCount == 0 && nextKey == keys.size() && !isFinished) {
+				isFinished = true;
+				long elapsedMillis = (System.nanoTime() - startTime) / 1000000L;
+				handler.handleSummary(new Summary(requestedCount, keys.size(), cachedCount, succeededCount, failedCount, elapsedMillis, Collections.unmodifiableList(errors)));
+			}
+		}
+	}
+
+	/**
+	 * Result served from the cache.
+	 */
+	private static class Outcome<V> implements AsyncResult<V> {
+		private final V result;
+		private final Throwable cause;
+
+		private Outcome(V result, Throwable cause) {
+			this.result = result;
+			this.cause = cause;
+		}
+
+		@Override
+		public V result() {
+			return result;
+		}
+
+		@Override
+		public Throwable cause() {
+			return cause;
+		}
+
+		@Override
+		public boolean succeeded() {
+			return cause == null;
+		}
+
+		@Override
+		public boolean failed() {
+			return cause != null;
+		}
+	}
+
+	private final PKIConnector connector;
+
+	BulkOperations(PKIConnector connector) {
+		this.connector = connector;
+	}
+
+	/**
+	 * Instantiates processes.
+	 * @param requests Instantiation requests, e.g. one per user with the user's context.
+	 * @param window Maximum number of requests in flight.
+	 * @param handler Handler for the created process instances and the summary.
+	 * @throws IllegalArgumentException The window is not positive.
+	 */
+	public void instantiateProcesses(Collection<InstantiationRequest> requests, int window, BulkHandler<InstantiationRequest, ProcessInstance> handler) throws IllegalArgumentException {
+		new Run<InstantiationRequest, ProcessInstance>(requests, false, window, handler) {
+
+			@Override
+			protected ProcessInstance getCached(InstantiationRequest request) {
+				return null;
+			}
+
+			@Override
+			protected void request(InstantiationRequest request, AsyncResultHandler<ProcessInstance> resultHandler) {
+				connector.instantiateProcess(request.getProcessId(), request.getSessionId(), request.getUserId(), request.getContext(), resultHandler);
+			}
+		}.start();
+	}
+
+	/**
+	 * Retrieves process instances.
+	 * @param processInstanceIds Identifiers of the process instances.
+	 * @param window Maximum number of requests in flight.
+	 * @param handler Handler for the process instances and the summary.
+	 * @throws IllegalArgumentException The window is not positive.
+	 */
+	public void getProcessInstances(Collection<String> processInstanceIds, int window, BulkHandler<String, ProcessInstance> handler) throws IllegalArgumentException {
+		new Run<String, ProcessInstance>(processInstanceIds, true, window, handler) {
+
+			@Override
+			protected ProcessInstance getCached(String processInstanceId) {
+				return connector.lookupProcessInstance(processInstanceId);
+			}
+
+			@Override
+			protected void request(String processInstanceId, AsyncResultHandler<ProcessInstance> resultHandler) {
+				connector.getProcessInstance(processInstanceId, resultHandler);
+			}
+		}.start();
+	}
+
+	/**
+	 * Retrieves process definitions.
+	 * @param processIds Identifiers of the process definitions.
+	 * @param window Maximum number of requests in flight.
+	 * @param handler Handler for the process definitions and the summary.
+	 * @throws IllegalArgumentException The window is not positive.
+	 */
+	public void getProcessDefinitions(Collection<String> processIds, int window, BulkHandler<String, ProcessDefinition> handler) throws IllegalArgumentException {
+		new Run<String, ProcessDefinition>(processIds, true, window, handler) {
+
+			@Override
+			protected ProcessDefinition getCached(String processId) {
+				return connector.lookupProcessDefinition(processId);
+			}
+
+			@Override
+			protected void request(String processId, AsyncResultHandler<ProcessDefinition> resultHandler) {
+				connector.getProcessDefinition(processId, resultHandler);
+			}
+		}.start();
+	}
+
+	/**
+	 * Retrieves elements of a process definition.
+	 * @param processId Identifier of the process definition.
+	 * @param elementIds Identifiers of the elements.
+	 * @param window Maximum number of requests in flight.
+	 * @param handler Handler for the elements and the summary.
+	 * @throws IllegalArgumentException The window is not positive.
+	 */
+	public void getProcessElements(final String processId, Collection<String> elementIds, int window, BulkHandler<String, ProcessElement> handler) throws IllegalArgumentException {
+		new Run<String, ProcessElement>(elementIds, true, window, handler) {
+
+			@Override
+			protected ProcessElement getCached(String elementId) {
+				return connector.lookupProcessElement(processId, elementId);
+			}
+
+			@Override
+			protected void request(String elementId, AsyncResultHandler<ProcessElement> resultHandler) {
+				connector.getProcessElement(processId, elementId, resultHandler);
+			}
+		}.start();
+	}
+}
@@ -0,0 +1,178 @@
+package de.appsist.service.pki.connector;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.pki.model.ProcessDefinition;
+import de.appsist.service.pki.model.ProcessElement;
+import de.appsist.service.pki.model.ProcessInstance;
+
+/**
+ * Approximate heap footprint of the connector caches, obtained with {@link PKIConnector#getCacheFootprint()}.
+ * <p>
+ * The retained bytes of an entry are estimated from the structure of its JSON representation when it is cached, assuming a 64 bit JVM with compressed references.
+ * The estimate includes the cache entry and key, but not objects shared with other entries. It is meant for sizing, not for exact accounting.
+ * Caches stored off-heap are not accounted, see {@link PKIConnector#enableOffHeapStorage(int)}.
+ * </p>
+ * <p>
+ * The caches are only accounted while a cache limit or shedding under memory pressure is configured, see {@link PKIConnector#configureCacheLimit(long)}
+ * and {@link PKIConnector#enableMemoryPressureShedding(double)}. Otherwise the footprint is empty.
+ * </p>
+ * All methods are thread safe.
+ */
+public class CacheFootprint {
+	private static final int CACHE_ENTRY_SIZE = 48;
+	private static final int MODEL_SIZE = 32;
+	private static final int STRING_SIZE = 40;
+	private static final int MAP_SIZE = 64;
+	private static final int MAP_ENTRY_SIZE = 40;
+	private static final int LIST_SIZE = 40;
+	private static final int LIST_ENTRY_SIZE = 8;
+	private static final int NUMBER_SIZE = 24;
+
+	private final Map<ConnectorMetrics.Cache, AtomicLong> bytes;
+	private final Map<ConnectorMetrics.Cache, Map<String, Long>> entries;
+
+	CacheFootprint() {
+		bytes = new EnumMap<>(ConnectorMetrics.Cache.class);
+		entries = new EnumMap<>(ConnectorMetrics.Cache.class);
+		for (ConnectorMetrics.Cache cache : ConnectorMetrics.Cache.values()) {
+			bytes.put(cache, new AtomicLong());
+			entries.put(cache, new ConcurrentHashMap<String, Long>());
+		}
+	}
+
+	/**
+	 * Returns the estimated retained bytes of a cache.
+	 * @param cache Cache to return size for.
+	 * @return Estimated bytes.
+	 */
+	public long getBytes(ConnectorMetrics.Cache cache) {
+		return bytes.get(cache).get();
+	}
+
+	/**
+	 * Returns the number of accounted entries of a cache.
+	 * @param cache Cache to return number of entries for.
+	 * @return Number of entries.
+	 */
+	public long getEntryCount(ConnectorMetrics.Cache cache) {
+		return entries.get(cache).size();
+	}
+
+	/**
+	 * Returns the estimated retained bytes of all caches.
+	 * @return Estimated bytes.
+	 */
+	public long getTotalBytes() {
+		long total = 0;
+		for (AtomicLong cacheBytes : bytes.values()) {
+			total += cacheBytes.get();
+		}
+		return total;
+	}
+
+	public JsonObject asJson() {
+		JsonObject json = new JsonObject();
+		for (ConnectorMetrics.Cache cache : ConnectorMetrics.Cache.values()) {
+			JsonObject cacheJson = new JsonObject();
+			cacheJson.putNumber("bytes", getBytes(cache));
+			cacheJson.putNumber("entries", getEntryCount(cache));
+			json.putObject(cache.getKey(), cacheJson);
+		}
+		json.putNumber("totalBytes", getTotalBytes());
+		return json;
+	}
+
+	/**
+	 * Accounts an update of a cache entry. The estimate of an entry is stored, so that replacing or removing it does not estimate the previous value again.
+	 * @param cache Updated cache.
+	 * @param key Key of the entry.
+	 * @param value Value added or replaced. <code>null</code> if the entry was removed.
+	 */
+	void update(ConnectorMetrics.Cache cache, String key, Object value) {
+		Long previousEstimate;
+		long delta = 0;
+		if (value != null) {
+			long estimate = estimateEntry(key, value);
+			previousEstimate = entries.get(cache).put(key, estimate);
+			delta += estimate;
+		} else {
+			previousEstimate = entries.get(cache).remove(key);
+		}
+		if (previousEstimate != null) {
+			delta -= previousEstimate;
+		}
+		if (delta != 0) bytes.get(cache).addAndGet(delta);
+	}
+
+	/**
+	 * Resets the accounting of a cache, e.g. when it is cleared or moved off-heap.
+	 * @param cache Cache to reset.
+	 */
+	void reset(ConnectorMetrics.Cache cache) {
+		entries.get(cache).clear();
+		bytes.get(cache).set(0);
+	}
+
+	private static long estimateEntry(String key, Object value) {
+		JsonObject json;
+		if (value instanceof ProcessDefinition) {
+			json = ((ProcessDefinition) value).asJson();
+		} else if (value instanceof ProcessInstance) {
+			json = ((ProcessInstance) value).asJson();
+		} else if (value instanceof ProcessElement) {
+			json = ((ProcessElement) value).asJson();
+		} else {
+			json = null;
+		}
+		return CACHE_ENTRY_SIZE + estimateString(key) + MODEL_SIZE + (json != null ? estimate(json) : 0);
+	}
+
+	/**
+	 * Estimates the retained bytes of a JSON object.
+	 * @param json JSON object.
+	 * @return Estimated bytes.
+	 */
+	static long estimate(JsonObject json) {
+		long size = MAP_SIZE;
+		for (String fieldName : json.getFieldNames()) {
+			size += MAP_ENTRY_SIZE + estimateString(fieldName) + estimateValue(json.getField(fieldName));
+		}
+		return size;
+	}
+
+	private static long estimate(JsonArray array) {
+		long size = LIST_SIZE;
+		for (Object entry : array) {
+			size += LIST_ENTRY_SIZE + estimateValue(entry);
+		}
+		return size;
+	}
+
+	private static long estimateValue(Object value) {
+		if (value instanceof String) {
+			return estimateString((String) value);
+		} else if (value instanceof JsonObject) {
+			return estimate((JsonObject) value);
+		} else if (value instanceof JsonArray) {
+			return estimate((JsonArray) value);
+		} else if (value instanceof Number) {
+			return NUMBER_SIZE;
+		} else if (value instanceof byte[]) {
+			return 16 + ((byte[]) value).length;
+		} else {
+			// Booleans and null are shared.
+			return 0;
+		}
+	}
+
+	private static long estimateString(String string) {
+		return string != null ? STRING_SIZE + 2L * string.length() : 0;
+	}
+}
@@ -0,0 +1,314 @@
+package de.appsist.service.pki.connector;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Low overhead metrics of the connector: cache hit rates, PKI request latencies by status code, response sizes, and event processing latencies.
+ * All methods are thread safe.
+ */
+public class ConnectorMetrics {
+	private static final int STATUS_CODES = 600; // Status codes outside of [0, 599] are recorded as 0.
+	/**
+	 * Caches of the connector.
+	 */
+	public enum Cache {
+		PROCESS_DEFINITIONS("processDefinitions"),
+		PROCESS_INSTANCES("processInstances"),
+		PROCESS_ELEMENTS("processElements"),
+		PROCESS_ELEMENT_INSTANCES("processElementInstances");
+
+		private final String key;
+
+		private Cache(String key) {
+			this.key = key;
+		}
+
+		public String getKey() {
+			return key;
+		}
+	}
+
+	/**
+	 * Stages of the event processing.
+	 */
+	public enum Stage {
+		/** Parsing the message into an event. */
+		PARSE("parse"),
+		/** Retrieving the related data into the caches. */
+		ENRICH("enrich"),
+		/** Time from the arrival of a message until the dispatch to the handlers starts. */
+		DISPATCH("dispatch");
+
+		private final String key;
+
+		private Stage(String key) {
+			this.key = key;
+		}
+
+		public String getKey() {
+			return key;
+		}
+	}
+
+	/**
+	 * Latency histogram with power of two buckets (in nanoseconds).
+	 */
+	public static class LatencyHistogram {
+		private static final int BUCKETS = 48;
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		/**
+		 * Records a latency.
+		 * @param nanos Latency in nanoseconds.
+		 */
+		public void record(long nanos) {
+			if (nanos < 0) nanos = 0;
+			int bucket = nanos == 0 ? 0 : Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(nanos));
+			buckets.incrementAndGet(bucket);
+			count.incrementAndGet();
+			sum.addAndGet(nanos);
+			long currentMax;
+			while (nanos > (currentMax = max.get()) && !max.compareAndSet(currentMax, nanos)) {
+				// Retry.
+			}
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		/**
+		 * Returns an estimate for the given percentile. The estimate is the upper bound of the bucket containing the percentile.
+		 * @param percentile Percentile between <code>0</code> and <code>1</code>.
+		 * @return Estimated latency in nanoseconds.
+		 */
+		public long getPercentile(double percentile) {
+			long total = 0;
+			long[] snapshot = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++) {
+				snapshot[i] = buckets.get(i);
+				total += snapshot[i];
+			}
+			if (total == 0) return 0;
+			long threshold = (long) Math.ceil(total * percentile);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += snapshot[i];
+				if (seen >= threshold && snapshot[i] > 0) {
+					return Math.min(max.get(), (1L << (i + 1)) - 1);
+				}
+			}
+			return max.get();
+		}
+
+		/**
+		 * Returns a snapshot of the histogram. Latencies are given in milliseconds.
+		 * @return JSON object with count, mean, p50, p90, p99, and max.
+		 */
+		public JsonObject asJson() {
+			long currentCount = count.get();
+			JsonObject json = new JsonObject();
+			json.putNumber("count", currentCount);
+			json.putNumber("mean", currentCount > 0 ? toMillis(sum.get() / currentCount) : 0d);
+			json.putNumber("p50", toMillis(getPercentile(0.5)));
+			json.putNumber("p90", toMillis(getPercentile(0.9)));
+			json.putNumber("p99", toMillis(getPercentile(0.99)));
+			json.putNumber("max", toMillis(max.get()));
+			return json;
+		}
+
+		private static double toMillis(long nanos) {
+			return nanos / 1000000d;
+		}
+	}
+
+	/**
+	 * Byte counts of the responses of an operation.
+	 */
+	private static class TransferCounter {
+		private final AtomicLong responses = new AtomicLong();
+		private final AtomicLong compressedResponses = new AtomicLong();
+		private final AtomicLong transferredBytes = new AtomicLong();
+		private final AtomicLong decodedBytes = new AtomicLong();
+
+		private JsonObject asJson() {
+			long transferred = transferredBytes.get();
+			long decoded = decodedBytes.get();
+			JsonObject json = new JsonObject();
+			json.putNumber("responses", responses.get());
+			json.putNumber("compressedResponses", compressedResponses.get());
+			json.putNumber("transferredBytes", transferred);
+			json.putNumber("decodedBytes", decoded);
+			json.putNumber("ratio", decoded > 0 ? (double) transferred / decoded : 1d);
+			return json;
+		}
+	}
+
+	private final AtomicLongArray cacheHits;
+	private final AtomicLongArray cacheMisses;
+	private final ConcurrentMap<String, AtomicReferenceArray<LatencyHistogram>> requestLatencies; // Histograms by operation and status code.
+	private final ConcurrentMap<String, LatencyHistogram[]> eventLatencies;
+	private final ConcurrentMap<String, TransferCounter> transfers;
+
+	public ConnectorMetrics() {
+		cacheHits = new AtomicLongArray(Cache.values().length);
+		cacheMisses = new AtomicLongArray(Cache.values().length);
+		requestLatencies = new ConcurrentHashMap<>();
+		eventLatencies = new ConcurrentHashMap<>();
+		transfers = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Records a cache access.
+	 * @param cache Cache accessed.
+	 * @param isHit <code>true</code> if the entry was found, otherwise <code>false</code>.
+	 */
+	public void recordCacheAccess(Cache cache, boolean isHit) {
+		(isHit ? cacheHits : cacheMisses).incrementAndGet(cache.ordinal());
+	}
+
+	/**
+	 * Records a request to the PKI.
+	 * @param operation Name of the operation, e.g. <code>getProcessInstance</code>.
+	 * @param statusCode HTTP status code of the response.
+	 * @param nanos Latency of the request in nanoseconds.
+	 */
+	public void recordRequest(String operation, int statusCode, long nanos) {
+		AtomicReferenceArray<LatencyHistogram> histograms = requestLatencies.get(operation);
+		if (histograms == null) {
+			AtomicReferenceArray<LatencyHistogram> newHistograms = new AtomicReferenceArray<>(STATUS_CODES);
+			histograms = requestLatencies.putIfAbsent(operation, newHistograms);
+			if (histograms == null) histograms = newHistograms;
+		}
+		int index = statusCode >= 0 && statusCode < STATUS_CODES ? statusCode : 0;
+		LatencyHistogram histogram = histograms.get(index);
+		if (histogram == null) {
+			histograms.compareAndSet(index, null, new LatencyHistogram());
+			histogram = histograms.get(index);
+		}
+		histogram.record(nanos);
+	}
+
+	/**
+	 * Returns the latency histogram of the requests of an operation answered with a status code.
+	 * @param operation Name of the operation.
+	 * @param statusCode HTTP status code.
+	 * @return Histogram or <code>null</code> if no such request was recorded.
+	 */
+	public LatencyHistogram getRequestLatencies(String operation, int statusCode) {
+		AtomicReferenceArray<LatencyHistogram> histograms = requestLatencies.get(operation);
+		return histograms != null && statusCode >= 0 && statusCode < STATUS_CODES ? histograms.get(statusCode) : null;
+	}
+
+	/**
+	 * Records the size of a response body of the PKI.
+	 * @param operation Name of the operation, e.g. <code>getProcessDefinition</code>.
+	 * @param transferredBytes Size of the body as transferred, i.e. compressed if a content encoding was applied.
+	 * @param decodedBytes Size of the decoded body.
+	 * @param isCompressed <code>true</code> if the body was transferred with a content encoding, otherwise <code>false</code>.
+	 */
+	public void recordTransfer(String operation, long transferredBytes, long decodedBytes, boolean isCompressed) {
+		TransferCounter counter = transfers.get(operation);
+		if (counter == null) {
+			TransferCounter newCounter = new TransferCounter();
+			counter = transfers.putIfAbsent(operation, newCounter);
+			if (counter == null) counter = newCounter;
+		}
+		counter.responses.incrementAndGet();
+		if (isCompressed) counter.compressedResponses.incrementAndGet();
+		counter.transferredBytes.addAndGet(transferredBytes);
+		counter.decodedBytes.addAndGet(decodedBytes);
+	}
+
+	/**
+	 * Records the latency of an event processing stage.
+	 * @param eventModelId Model identifier of the event type.
+	 * @param stage Processing stage.
+	 * @param nanos Latency in nanoseconds.
+	 */
+	public void recordEvent(String eventModelId, Stage stage, long nanos) {
+		LatencyHistogram[] histograms = eventLatencies.get(eventModelId);
+		if (histograms == null) {
+			LatencyHistogram[] newHistograms = new LatencyHistogram[Stage.values().length];
+			for (int i = 0; i < newHistograms.length; i++) {
+				newHistograms[i] = new LatencyHistogram();
+			}
+			histograms = eventLatencies.putIfAbsent(eventModelId, newHistograms);
+			if (histograms == null) histograms = newHistograms;
+		}
+		histograms[stage.ordinal()].record(nanos);
+	}
+
+	public long getCacheHits(Cache cache) {
+		return cacheHits.get(cache.ordinal());
+	}
+
+	public long getCacheMisses(Cache cache) {
+		return cacheMisses.get(cache.ordinal());
+	}
+
+	/**
+	 * Returns a snapshot of all metrics.
+	 * <pre>
+	 * {
+	 *   "caches": { "processInstances": { "hits": 10, "misses": 2, "hitRate": 0.83 }, ... },
+	 *   "requests": { "getProcessInstance:200": { "count": 2, "mean": 4.1, ... }, ... },
+	 *   "transfers": { "getProcessDefinition": { "responses": 2, "compressedResponses": 2, "transferredBytes": 18211, "decodedBytes": 160548, "ratio": 0.11 }, ... },
+	 *   "events": { "processEvent:automatedFlow": { "parse": {...}, "enrich": {...}, "dispatch": {...} }, ... }
+	 * }
+	 * </pre>
+	 * @return JSON object with the current metrics.
+	 */
+	public JsonObject asJson() {
+		JsonObject caches = new JsonObject();
+		for (Cache cache : Cache.values()) {
+			long hits = cacheHits.get(cache.ordinal());
+			long misses = cacheMisses.get(cache.ordinal());
+			JsonObject cacheJson = new JsonObject();
+			cacheJson.putNumber("hits", hits);
+			cacheJson.putNumber("misses", misses);
+			cacheJson.putNumber("hitRate", hits + misses > 0 ? (double) hits / (hits + misses) : 0d);
+			caches.putObject(cache.getKey(), cacheJson);
+		}
+
+		JsonObject requests = new JsonObject();
+		for (Map.Entry<String, AtomicReferenceArray<LatencyHistogram>> entry : requestLatencies.entrySet()) {
+			AtomicReferenceArray<LatencyHistogram> histograms = entry.getValue();
+			for (int statusCode = 0; statusCode < STATUS_CODES; statusCode++) {
+				LatencyHistogram histogram = histograms.get(statusCode);
+				if (histogram != null) requests.putObject(entry.getKey() + ":" + statusCode, histogram.asJson());
+			}
+		}
+
+		JsonObject transfersJson = new JsonObject();
+		for (Map.Entry<String, TransferCounter> entry : transfers.entrySet()) {
+			transfersJson.putObject(entry.getKey(), entry.getValue().asJson());
+		}
+
+		JsonObject events = new JsonObject();
+		for (Map.Entry<String, LatencyHistogram[]> entry : eventLatencies.entrySet()) {
+			JsonObject eventJson = new JsonObject();
+			for (Stage stage : Stage.values()) {
+				eventJson.putObject(stage.getKey(), entry.getValue()[stage.ordinal()].asJson());
+			}
+			events.putObject(entry.getKey(), eventJson);
+		}
+
+		JsonObject json = new JsonObject();
+		json.putObject("caches", caches);
+		json.putObject("requests", requests);
+		json.putObject("transfers", transfersJson);
+		json.putObject("events", events);
+		return json;
+	}
+}
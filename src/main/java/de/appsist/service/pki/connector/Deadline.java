@@ -0,0 +1,89 @@
+package de.appsist.service.pki.connector;
+
+import java.util.Date;
+
+/**
+ * Point in time after which the result of an operation is no longer needed. Immutable.
+ * <p>
+ * Deadlines of incoming events are derived from their creation or arrival time and a budget per event type, see {@link PKIConnector#configureEventDeadline(String, long)}.
+ * They are passed on to the requests issued for the event. Requests are not issued once their deadline has passed; their handlers fail with a {@link java.util.concurrent.TimeoutException} instead.
+ * </p>
+ * Deadlines are based on the wall clock, as event timestamps are.
+ */
+public final class Deadline {
+	/**
+	 * Policy for events which deadline passed before they were dispatched.
+	 */
+	public enum ExpiredEventPolicy {
+		/** Expired events are dropped without calling the handlers. */
+		DROP,
+		/** Expired events are dispatched with the data retrieved so far. Pending requests are not awaited and no further requests are issued. */
+		DISPATCH_UNENRICHED
+	}
+
+	/** Deadline which never passes. */
+	public static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+	private final long expirationTime;
+
+	private Deadline(long expirationTime) {
+		this.expirationTime = expirationTime;
+	}
+
+	/**
+	 * Creates a deadline at the given time.
+	 * @param expirationTime Time the deadline passes, in milliseconds since the epoch.
+	 * @return Deadline.
+	 */
+	public static Deadline at(long expirationTime) {
+		return expirationTime == Long.MAX_VALUE ? NONE : new Deadline(expirationTime);
+	}
+
+	/**
+	 * Creates a deadline relative to now.
+	 * @param millis Time from now in milliseconds.
+	 * @return Deadline.
+	 */
+	public static Deadline in(long millis) {
+		long now = System.currentTimeMillis();
+		return at(millis < Long.MAX_VALUE - now ? now + millis : Long.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the time the deadline passes.
+	 * @return Time in milliseconds since the epoch, {@link Long#MAX_VALUE} for {@link #NONE}.
+	 */
+	public long getExpirationTime() {
+		return expirationTime;
+	}
+
+	/**
+	 * Checks if the deadline has passed.
+	 * @return <code>true</code> if the deadline has passed, otherwise <code>false</code>.
+	 */
+	public boolean isExpired() {
+		return this != NONE && System.currentTimeMillis() >= expirationTime;
+	}
+
+	/**
+	 * Returns the time remaining until the deadline passes.
+	 * @return Remaining time in milliseconds, <code>0</code> if the deadline has passed, {@link Long#MAX_VALUE} for {@link #NONE}.
+	 */
+	public long getRemainingMillis() {
+		return this != NONE ? Math.max(0, expirationTime - System.currentTimeMillis()) : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Returns the earlier of this and another deadline.
+	 * @param other Other deadline.
+	 * @return Earlier deadline.
+	 */
+	public Deadline earliest(Deadline other) {
+		return other.expirationTime < expirationTime ? other : this;
+	}
+
+	@Override
+	public String toString() {
+		return this != NONE ? new Date(expirationTime).toString() : "none";
+	}
+}
@@ -0,0 +1,78 @@
+package de.appsist.service.pki.connector;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bounded history of the element ids of a process instance, the current element first.
+ * <p>
+ * The connector keeps the element instances of the recorded elements cached and drops those of elements pushed out of the history,
+ * so the cache holds a fixed number of element instances per process instance instead of every step passed.
+ * Elements visited again, e.g. in loops, are moved to the front instead of being recorded twice.
+ * </p>
+ * Instances are thread safe.
+ */
+class ElementHistory {
+	private final ArrayDeque<String> elementIds;
+
+	ElementHistory() {
+		elementIds = new ArrayDeque<>(8);
+	}
+
+	/**
+	 * Returns the current element.
+	 * @return Identifier of the current element or <code>null</code> if no element is recorded.
+	 */
+	synchronized String getCurrent() {
+		return elementIds.peekFirst();
+	}
+
+	/**
+	 * Records an element as the current element.
+	 * @param elementId Identifier of the element.
+	 * @param capacity Maximum number of elements to keep, including the current element.
+	 * @return Identifiers of the elements pushed out of the history, oldest first.
+	 */
+	synchronized List<String> push(String elementId, int capacity) {
+		if (!elementId.equals(elementIds.peekFirst())) {
+			elementIds.remove(elementId);
+			elementIds.addFirst(elementId);
+		}
+		return trim(capacity);
+	}
+
+	/**
+	 * Drops the oldest elements exceeding the capacity.
+	 * @param capacity Maximum number of elements to keep, including the current element.
+	 * @return Identifiers of the elements pushed out of the history, oldest first.
+	 */
+	synchronized List<String> trim(int capacity) {
+		if (elementIds.size() <= capacity) {
+			return Collections.emptyList();
+		}
+		List<String> evicted = new ArrayList<>(elementIds.size() - capacity);
+		while (elementIds.size() > capacity) {
+			evicted.add(elementIds.pollLast());
+		}
+		return evicted;
+	}
+
+	/**
+	 * Removes an element from the history.
+	 * @param elementId Identifier of the element.
+	 * @return <code>true</code> if the element was recorded, otherwise <code>false</code>.
+	 */
+	synchronized boolean remove(String elementId) {
+		return elementIds.remove(elementId);
+	}
+
+	/**
+	 * Returns the recorded elements.
+	 * @return Identifiers of the elements, the current element first.
+	 */
+	synchronized List<String> getElementIds() {
+		return new ArrayList<>(elementIds);
+	}
+}
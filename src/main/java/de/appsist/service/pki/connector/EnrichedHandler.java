@@ -0,0 +1,27 @@
+package de.appsist.service.pki.connector;
+
+import org.vertx.java.core.Handler;
+
+/**
+ * Event handler which receives the result of the data retrieval for the event along with the event.
+ * Can be registered like any other event handler, e.g. with {@link PKIConnector#registerTaskHandler(Handler)}.
+ * <p>
+ * The result tells which of the related process definition, process instance, and element instance could be loaded into the caches, see {@link PKIConnector#configureEnrichment(long, AsyncJoin.Policy)}.
+ * For events without data retrieval, the result is {@link AsyncJoin.Result#EMPTY}.
+ * </p>
+ * @param <E> Type of the event to handle.
+ */
+public abstract class EnrichedHandler<E> implements Handler<E> {
+
+	/**
+	 * Handles an event.
+	 * @param event Event to handle.
+	 * @param enrichment Result of the data retrieval for the event.
+	 */
+	public abstract void handle(E event, AsyncJoin.Result enrichment);
+
+	@Override
+	public final void handle(E event) {
+		handle(event, AsyncJoin.Result.EMPTY);
+	}
+}
@@ -0,0 +1,119 @@
+package de.appsist.service.pki.connector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+
+import de.appsist.commons.event.ProcessEvent;
+
+/**
+ * Merges the data retrieval for events of the same process instance arriving within a short time window.
+ * The first event of an instance opens the window, the retrieval is performed once for the latest event when the window closes.
+ * The retrieval is bounded by the earliest deadline of the merged events. As only the current element of an instance can be retrieved,
+ * merged events of other elements than the latest event receive the result as {@link AsyncJoin.Status#PARTIAL}, with the part <code>processElement</code> failed.
+ * All methods have to be called from the event loop of the connector.
+ */
+public abstract class EnrichmentCoalescer {
+	private static final String ELEMENT_PART = "processElement";
+
+	private static class Batch {
+		private ProcessEvent latestEvent;
+		private Deadline deadline;
+		private final List<ProcessEvent> events = new ArrayList<>(4);
+		private final List<Handler<AsyncJoin.Result>> completeHandlers = new ArrayList<>(4);
+	}
+
+	private final Vertx vertx;
+	private final long windowMillis;
+	private final Map<String, Batch> batches;
+	private long mergedCount;
+
+	/**
+	 * Creates the coalescer.
+	 * @param vertx Vertx runtime for timers.
+	 * @param windowMillis Time in milliseconds to wait for further events of an instance.
+	 * @throws IllegalArgumentException The window is not positive.
+	 */
+	public EnrichmentCoalescer(Vertx vertx, long windowMillis) throws IllegalArgumentException {
+		if (windowMillis <= 0) {
+			throw new IllegalArgumentException("Window must be positive.");
+		}
+		this.vertx = vertx;
+		this.windowMillis = windowMillis;
+		batches = new HashMap<>();
+	}
+
+	/**
+	 * Performs the actual data retrieval.
+	 * @param event Event to retrieve data for.
+	 * @param deadline Deadline for the retrieval.
+	 * @param completeHandler Handler for the result of the retrieval.
+	 */
+	protected abstract void retrieve(ProcessEvent event, Deadline deadline, Handler<AsyncJoin.Result> completeHandler);
+
+	/**
+	 * Requests the data retrieval for an event.
+	 * @param event Event to retrieve data for.
+	 * @param deadline Deadline of the event, see {@link Deadline#NONE}.
+	 * @param completeHandler Handler for the result of the retrieval. Merged events share the result, see {@link EnrichmentCoalescer}.
+	 */
+	public void enrich(ProcessEvent event, Deadline deadline, Handler<AsyncJoin.Result> completeHandler) {
+		final String processInstanceId = event.getProcessInstanceId();
+		if (processInstanceId == null) {
+			retrieve(event, deadline, completeHandler);
+			return;
+		}
+		Batch batch = batches.get(processInstanceId);
+		if (batch != null) {
+			batch.latestEvent = event;
+			batch.deadline = batch.deadline.earliest(deadline);
+			batch.events.add(event);
+			batch.completeHandlers.add(completeHandler);
+			mergedCount++;
+			return;
+		}
+
+		final Batch newBatch = new Batch();
+		newBatch.latestEvent = event;
+		newBatch.deadline = deadline;
+		newBatch.events.add(event);
+		newBatch.completeHandlers.add(completeHandler);
+		batches.put(processInstanceId, newBatch);
+		vertx.setTimer(windowMillis, new Handler<Long>() {
+
+			@Override
+			public void handle(Long timerId) {
+				batches.remove(processInstanceId);
+				retrieve(newBatch.latestEvent, newBatch.deadline, new Handler<AsyncJoin.Result>() {
+
+					@Override
+					public void handle(AsyncJoin.Result result) {
+						ProcessEvent latestEvent = newBatch.latestEvent;
+						for (int i = 0; i < newBatch.completeHandlers.size(); i++) {
+							ProcessEvent event = newBatch.events.get(i);
+							if (Objects.equals(event.getElementId(), latestEvent.getElementId())) {
+								newBatch.completeHandlers.get(i).handle(result);
+							} else {
+								IllegalStateException cause = new IllegalStateException("Element " + event.getElementId() + " is not current anymore, the retrieval was merged into event " + latestEvent.getId() + ".");
+								newBatch.completeHandlers.get(i).handle(result.withFailedPart(ELEMENT_PART, cause));
+							}
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of events which data retrieval was merged into the one of another event.
+	 * @return Number of merged events.
+	 */
+	public long getMergedCount() {
+		return mergedCount;
+	}
+}
@@ -0,0 +1,155 @@
+package de.appsist.service.pki.connector;
+
+/**
+ * Idempotency window for incoming events.
+ * Remembers a 64 bit fingerprint of the event identifier and the process instance identifier for the last events received.
+ * Entries are evicted in order of arrival, either when the capacity is reached or when they are older than the configured window.
+ * Memory is allocated once on creation: three primitive arrays, no objects per entry.
+ * Instances are not thread safe.
+ */
+public class EventDeduplicator {
+	private static final long EMPTY = 0L;
+
+	private final long[] table; // Open addressing hash set of fingerprints, linear probing.
+	private final int mask;
+	private final long[] ringKeys; // Fingerprints in order of arrival.
+	private final long[] ringTimes; // Arrival times in milliseconds.
+	private final long windowMillis;
+	private int head;
+	private int size;
+	private long droppedCount;
+
+	/**
+	 * Creates the deduplicator.
+	 * @param capacity Maximum number of events to remember.
+	 * @param windowMillis Time in milliseconds an event is remembered at most.
+	 * @throws IllegalArgumentException The capacity or the window is not positive.
+	 */
+	public EventDeduplicator(int capacity, long windowMillis) throws IllegalArgumentException {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive.");
+		}
+		if (windowMillis <= 0) {
+			throw new IllegalArgumentException("Window must be positive.");
+		}
+		int tableSize = Integer.highestOneBit(capacity) << 2; // Load factor below 0.5.
+		table = new long[tableSize];
+		mask = tableSize - 1;
+		ringKeys = new long[capacity];
+		ringTimes = new long[capacity];
+		this.windowMillis = windowMillis;
+	}
+
+	/**
+	 * Checks if an event was seen before within the window and remembers it otherwise.
+	 * @param eventId Identifier of the event.
+	 * @param processInstanceId Identifier of the process instance the event belongs to. May be <code>null</code>.
+	 * @param now Current time in milliseconds.
+	 * @return <code>true</code> if the event is a duplicate, otherwise <code>false</code>.
+	 */
+	public boolean isDuplicate(String eventId, String processInstanceId, long now) {
+		if (eventId == null) {
+			return false;
+		}
+		expire(now);
+		long key = fingerprint(eventId, processInstanceId);
+		if (contains(key)) {
+			droppedCount++;
+			return true;
+		}
+		if (size == ringKeys.length) {
+			evictOldest();
+		}
+		int tail = (head + size) % ringKeys.length;
+		ringKeys[tail] = key;
+		ringTimes[tail] = now;
+		size++;
+		insert(key);
+		return false;
+	}
+
+	/**
+	 * Returns the number of events identified as duplicates.
+	 * @return Number of dropped events.
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * Returns the number of events currently remembered.
+	 * @return Number of entries in the window.
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void expire(long now) {
+		while (size > 0 && now - ringTimes[head] > windowMillis) {
+			evictOldest();
+		}
+	}
+
+	private void evictOldest() {
+		remove(ringKeys[head]);
+		head = (head + 1) % ringKeys.length;
+		size--;
+	}
+
+	private static long fingerprint(String eventId, String processInstanceId) {
+		// FNV-1a, 64 bit.
+		long hash = 0xcbf29ce484222325L;
+		hash = hash(hash, eventId);
+		hash = (hash ^ ':') * 0x100000001b3L;
+		if (processInstanceId != null) {
+			hash = hash(hash, processInstanceId);
+		}
+		return hash == EMPTY ? 1L : hash;
+	}
+
+	private static long hash(long hash, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private int slot(long key) {
+		long mixed = key ^ (key >>> 32);
+		return (int) (mixed ^ (mixed >>> 16)) & mask;
+	}
+
+	private boolean contains(long key) {
+		for (int i = slot(key); table[i] != EMPTY; i = (i + 1) & mask) {
+			if (table[i] == key) return true;
+		}
+		return false;
+	}
+
+	private void insert(long key) {
+		int i = slot(key);
+		while (table[i] != EMPTY) {
+			if (table[i] == key) return;
+			i = (i + 1) & mask;
+		}
+		table[i] = key;
+	}
+
+	private void remove(long key) {
+		int i = slot(key);
+		while (table[i] != key) {
+			if (table[i] == EMPTY) return;
+			i = (i + 1) & mask;
+		}
+		// Backward shift deletion to keep probe sequences intact.
+		int gap = i;
+		for (int j = (gap + 1) & mask; table[j] != EMPTY; j = (j + 1) & mask) {
+			int home = slot(table[j]);
+			if (((j - home) & mask) >= ((j - gap) & mask)) {
+				table[gap] = table[j];
+				gap = j;
+			}
+		}
+		table[gap] = EMPTY;
+	}
+}
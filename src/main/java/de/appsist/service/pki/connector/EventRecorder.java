@@ -0,0 +1,515 @@
+package de.appsist.service.pki.connector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Records incoming event messages and PKI responses into an append-only file, e.g. to replay production traffic in benchmarks.
+ * <p>
+ * The file starts with a magic number and a format version, followed by the frames of the entries.
+ * Each frame consists of the length of the entry (int), a CRC32 checksum of the entry (int), and the entry.
+ * An entry consists of its type (byte), the time of recording (long, epoch milliseconds), and the type specific fields:
+ * </p>
+ * <ul>
+ * <li>{@link #TYPE_EVENT}: event bus address and message body as encoded JSON.</li>
+ * <li>{@link #TYPE_RESPONSE}: HTTP method, request URI, status code (int), and response body.</li>
+ * </ul>
+ * <p>
+ * Strings are written as length (int) followed by the UTF-8 bytes. Bodies are preceded by a flag (byte), bodies of at least {@value #COMPRESSION_THRESHOLD} bytes are deflated.
+ * When a recording is reopened, an incomplete last frame, e.g. of a crashed process, is truncated before appending.
+ * </p>
+ * <p>
+ * Entries are written by a dedicated thread, so recording does not block the caller, e.g. the event loop. If the writer falls behind by more than the queue capacity, entries are dropped.
+ * All methods are thread safe. If writing fails, the recording is stopped and the error is logged.
+ * </p>
+ */
+public class EventRecorder implements Closeable {
+	public static final byte TYPE_EVENT = 1;
+	public static final byte TYPE_RESPONSE = 2;
+	private static final int MAGIC = 0x504b4952;
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 8;
+	private static final int FRAME_HEADER_SIZE = 8;
+	private static final int MAX_ENTRY_SIZE = 64 * 1024 * 1024;
+	private static final int COMPRESSION_THRESHOLD = 512;
+	private static final int QUEUE_CAPACITY = 8192;
+
+	/**
+	 * Entry of a recording.
+	 */
+	public static class Entry {
+		private final byte type;
+		private final long timestamp;
+		private final String address;
+		private final String method;
+		private final String uri;
+		private final int statusCode;
+		private final String body;
+
+		private Entry(byte type, long timestamp, String address, String method, String uri, int statusCode, String body) {
+			this.type = type;
+			this.timestamp = timestamp;
+			this.address = address;
+			this.method = method;
+			this.uri = uri;
+			this.statusCode = statusCode;
+			this.body = body;
+		}
+
+		/**
+		 * Returns the type of the entry.
+		 * @return {@link EventRecorder#TYPE_EVENT} or {@link EventRecorder#TYPE_RESPONSE}.
+		 */
+		public byte getType() {
+			return type;
+		}
+
+		/**
+		 * Returns the time of recording.
+		 * @return Epoch milliseconds.
+		 */
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		/**
+		 * Returns the event bus address of an event.
+		 * @return Address or <code>null</code> for responses.
+		 */
+		public String getAddress() {
+			return address;
+		}
+
+		/**
+		 * Returns the HTTP method of a response.
+		 * @return Method or <code>null</code> for events.
+		 */
+		public String getMethod() {
+			return method;
+		}
+
+		/**
+		 * Returns the request URI of a response.
+		 * @return URI including the query or <code>null</code> for events.
+		 */
+		public String getUri() {
+			return uri;
+		}
+
+		/**
+		 * Returns the status code of a response.
+		 * @return HTTP status code, <code>0</code> for events.
+		 */
+		public int getStatusCode() {
+			return statusCode;
+		}
+
+		/**
+		 * Returns the message body of an event or the body of a response.
+		 * @return Body.
+		 */
+		public String getBody() {
+			return body;
+		}
+	}
+
+	/**
+	 * Sequential reader for recordings.
+	 */
+	public static class Reader implements Closeable {
+		private final DataInputStream in;
+		private final CRC32 crc;
+		private long position;
+
+		/**
+		 * Opens a recording.
+		 * @param file Recording to read.
+		 * @throws IOException The file cannot be read or is no recording.
+		 */
+		public Reader(File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+			crc = new CRC32();
+			try {
+				if (in.readInt() != MAGIC) {
+					throw new IOException("Not an event recording: " + file);
+				}
+				int version = in.readInt();
+				if (version != VERSION) {
+					throw new IOException("Unsupported recording version: " + version);
+				}
+			} catch (IOException e) {
+				in.close();
+				throw e;
+			}
+			position = HEADER_SIZE;
+		}
+
+		/**
+		 * Reads the next entry.
+		 * @return Entry or <code>null</code> if the end of the recording is reached. An incomplete or corrupt last frame is ignored.
+		 * @throws IOException Failed to read the recording.
+		 */
+		public Entry next() throws IOException {
+			byte[] entry;
+			try {
+				int length = in.readInt();
+				int checksum = in.readInt();
+				if (length <= 0 || length > MAX_ENTRY_SIZE) {
+					return null;
+				}
+				entry = new byte[length];
+				in.readFully(entry);
+				crc.reset();
+				crc.update(entry, 0, length);
+				if ((int) crc.getValue() != checksum) {
+					return null;
+				}
+			} catch (EOFException e) {
+				return null;
+			}
+			position += FRAME_HEADER_SIZE + entry.length;
+
+			DataInputStream entryIn = new DataInputStream(new ByteArrayInputStream(entry));
+			int type = entryIn.readByte();
+			long timestamp = entryIn.readLong();
+			switch (type) {
+			case TYPE_EVENT:
+				return new Entry(TYPE_EVENT, timestamp, readString(entryIn), null, null, 0, readBody(entryIn));
+			case TYPE_RESPONSE:
+				String method = readString(entryIn);
+				String uri = readString(entryIn);
+				int statusCode = entryIn.readInt();
+				return new Entry(TYPE_RESPONSE, timestamp, null, method, uri, statusCode, readBody(entryIn));
+			default:
+				throw new IOException("Invalid entry type: " + type);
+			}
+		}
+
+		/**
+		 * Returns the position after the last entry read.
+		 * @return Offset in the file in bytes.
+		 */
+		long getPosition() {
+			return position;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	private final File file;
+	private final DataOutputStream out; // Only accessed by the writer thread.
+	private final ThreadPoolExecutor writer;
+	private final AtomicLong entryCount;
+	private final AtomicLong droppedCount;
+	private final Deflater deflater; // Only accessed by the writer thread.
+	private final CRC32 crc; // Only accessed by the writer thread.
+	private volatile boolean isClosed;
+	private boolean isFailed; // Only accessed by the writer thread.
+
+	/**
+	 * Opens a recording for appending. The file is created if it does not exist.
+	 * @param file File to record to.
+	 * @throws IOException The file cannot be opened or is no recording.
+	 */
+	public EventRecorder(File file) throws IOException {
+		this.file = file;
+		boolean isNew = !file.exists() || file.length() == 0;
+		if (!isNew) {
+			truncateIncompleteFrame(file);
+		}
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 65536));
+		if (isNew) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+		}
+		entryCount = new AtomicLong();
+		droppedCount = new AtomicLong();
+		deflater = new Deflater(Deflater.BEST_SPEED);
+		crc = new CRC32();
+		writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "pki-event-recorder");
+				thread.setDaemon(true);
+				return thread;
+			}
+		}, new RejectedExecutionHandler() {
+
+			@Override
+			public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+				if (!executor.isShutdown()) droppedCount.incrementAndGet();
+			}
+		});
+	}
+
+	/**
+	 * Records an incoming event message.
+	 * @param address Event bus address the message was received on.
+	 * @param body Message body.
+	 */
+	public void recordEvent(final String address, JsonObject body) {
+		if (isClosed) return;
+		final long timestamp = System.currentTimeMillis();
+		final String encodedBody = body.encode(); // The body may be modified after the call.
+		writer.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream(encodedBody.length() + 64);
+					DataOutputStream entryOut = new DataOutputStream(bytes);
+					entryOut.writeByte(TYPE_EVENT);
+					entryOut.writeLong(timestamp);
+					writeString(entryOut, address);
+					writeBody(entryOut, encodedBody);
+					writeFrame(bytes.toByteArray());
+				} catch (IOException e) {
+					fail(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Records a response of the PKI.
+	 * @param method HTTP method of the request.
+	 * @param uri Request URI.
+	 * @param statusCode Status code of the response.
+	 * @param body Response body.
+	 */
+	public void recordResponse(final String method, final String uri, final int statusCode, final String body) {
+		if (isClosed) return;
+		final long timestamp = System.currentTimeMillis();
+		writer.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream((body != null ? body.length() : 0) + 128);
+					DataOutputStream entryOut = new DataOutputStream(bytes);
+					entryOut.writeByte(TYPE_RESPONSE);
+					entryOut.writeLong(timestamp);
+					writeString(entryOut, method);
+					writeString(entryOut, uri);
+					entryOut.writeInt(statusCode);
+					writeBody(entryOut, body);
+					writeFrame(bytes.toByteArray());
+				} catch (IOException e) {
+					fail(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of entries written by this recorder.
+	 * @return Number of entries.
+	 */
+	public long getEntryCount() {
+		return entryCount.get();
+	}
+
+	/**
+	 * Returns the number of entries dropped because the writer fell behind.
+	 * @return Number of dropped entries.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Requests to write buffered entries to the file. Buffered entries are also written whenever the writer is idle.
+	 */
+	public void flush() {
+		if (isClosed) return;
+		writer.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					if (!isFailed) out.flush();
+				} catch (IOException e) {
+					fail(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stops the recording. Pending entries are written and the file is closed by the writer, see {@link #awaitTermination(long, TimeUnit)}.
+	 */
+	@Override
+	public synchronized void close() {
+		if (writer.isShutdown()) return;
+		isClosed = true;
+		try {
+			writer.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					closeFile();
+				}
+			});
+		} finally {
+			writer.shutdown();
+		}
+	}
+
+	/**
+	 * Waits until the recording is closed and all pending entries are written.
+	 * @param timeout Maximum time to wait.
+	 * @param unit Unit of the timeout.
+	 * @return <code>true</code> if the recording is closed, <code>false</code> if the timeout elapsed before.
+	 * @throws InterruptedException Interrupted while waiting.
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return writer.awaitTermination(timeout, unit);
+	}
+
+	private void writeFrame(byte[] entry) throws IOException {
+		crc.reset();
+		crc.update(entry, 0, entry.length);
+		out.writeInt(entry.length);
+		out.writeInt((int) crc.getValue());
+		out.write(entry);
+		entryCount.incrementAndGet();
+		if (writer.getQueue().isEmpty()) {
+			out.flush(); // Idle, so the entries reach the file without waiting for a full buffer.
+		}
+	}
+
+	private void writeBody(DataOutputStream entryOut, String body) throws IOException {
+		byte[] bytes = (body != null ? body : "").getBytes(StandardCharsets.UTF_8);
+		if (bytes.length < COMPRESSION_THRESHOLD) {
+			entryOut.writeByte(0);
+			entryOut.writeInt(bytes.length);
+			entryOut.write(bytes);
+			return;
+		}
+		deflater.reset();
+		deflater.setInput(bytes);
+		deflater.finish();
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4 + 64);
+		byte[] buffer = new byte[8192];
+		while (!deflater.finished()) {
+			int length = deflater.deflate(buffer);
+			compressed.write(buffer, 0, length);
+		}
+		entryOut.writeByte(1);
+		entryOut.writeInt(bytes.length);
+		entryOut.writeInt(compressed.size());
+		compressed.writeTo(entryOut);
+	}
+
+	private static String readBody(DataInputStream in) throws IOException {
+		if (in.readByte() == 0) {
+			return readString(in);
+		}
+		int length = in.readInt();
+		int compressedLength = in.readInt();
+		if (length < 0 || compressedLength < 0) {
+			throw new IOException("Invalid body length.");
+		}
+		byte[] compressed = new byte[compressedLength];
+		in.readFully(compressed);
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			byte[] bytes = new byte[length];
+			int offset = 0;
+			while (offset < length && !inflater.finished()) {
+				int read = inflater.inflate(bytes, offset, length - offset);
+				if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Truncated compressed body.");
+				}
+				offset += read;
+			}
+			return new String(bytes, 0, offset, StandardCharsets.UTF_8);
+		} catch (DataFormatException e) {
+			throw new IOException("Invalid compressed body.", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Truncates the recording after the last complete entry, so that appended entries can be read.
+	 */
+	private static void truncateIncompleteFrame(File file) throws IOException {
+		long validLength;
+		try (Reader reader = new Reader(file)) { // Also validates the header.
+			while (reader.next() != null) {
+				// Skip to the end of the complete entries.
+			}
+			validLength = reader.getPosition();
+		}
+		if (validLength < file.length()) {
+			PKIConnector.logger.warn("Truncating incomplete entry at the end of recording " + file + ".");
+			try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+				randomAccessFile.setLength(validLength);
+			}
+		}
+	}
+
+	private void closeFile() {
+		deflater.end();
+		try {
+			out.close();
+		} catch (IOException e) {
+			PKIConnector.logger.warn("Failed to close recording " + file + ".", e);
+		}
+	}
+
+	private void fail(IOException e) {
+		if (isFailed) return;
+		isFailed = true;
+		PKIConnector.logger.warn("Failed to write recording " + file + ", recording stopped.", e);
+		isClosed = true;
+		writer.shutdownNow();
+		closeFile();
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Invalid string length: " + length);
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,290 @@
+package de.appsist.service.pki.connector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Samples events and records the timing of their processing stages into a fixed size ring buffer.
+ * All records are allocated on creation and reused, tracing an event does not allocate.
+ * A record is reused only after the traced event is completely processed. Records still in use are passed over, if all records are in use, the event is not traced.
+ * Sampling and dumping have to be performed on the event loop of the connector.
+ */
+public class EventTracer {
+	/**
+	 * Trace of a single event. Times are taken with {@link System#nanoTime()}.
+	 */
+	public static final class TraceRecord {
+		private static final int MAX_REQUESTS = 4;
+		private static final int MAX_HANDLERS = 16;
+
+		private volatile boolean isInFlight;
+		private boolean isComplete;
+		private long sequence;
+		private long receiveTimeMillis;
+		private String eventModelId;
+		private String eventId;
+		private String processInstanceId;
+		private long receiveTime;
+		private long parseStart;
+		private long parseEnd;
+		private long enrichStart;
+		private long enrichEnd;
+		private long dispatchStart;
+		private long dispatchEnd;
+
+		private int requestCount;
+		private final String[] requestNames = new String[MAX_REQUESTS];
+		private final boolean[] requestCached = new boolean[MAX_REQUESTS];
+		private final long[] requestStart = new long[MAX_REQUESTS];
+		private final long[] requestEnd = new long[MAX_REQUESTS];
+
+		private final AtomicInteger handlerCount = new AtomicInteger();
+		private final Object[] handlers = new Object[MAX_HANDLERS];
+		private final long[] handlerStart = new long[MAX_HANDLERS];
+		private final long[] handlerEnd = new long[MAX_HANDLERS];
+
+		private void reset(long sequence, String eventModelId) {
+			this.sequence = sequence;
+			this.eventModelId = eventModelId;
+			isComplete = false;
+			receiveTimeMillis = System.currentTimeMillis();
+			receiveTime = System.nanoTime();
+			eventId = null;
+			processInstanceId = null;
+			parseStart = parseEnd = enrichStart = enrichEnd = dispatchStart = dispatchEnd = 0;
+			for (int i = 0; i < MAX_REQUESTS; i++) {
+				requestNames[i] = null;
+			}
+			requestCount = 0;
+			for (int i = 0; i < MAX_HANDLERS; i++) {
+				handlers[i] = null;
+			}
+			handlerCount.set(0);
+		}
+
+		public void parseStarted() {
+			parseStart = System.nanoTime();
+		}
+
+		public void parseCompleted(String eventId, String processInstanceId) {
+			parseEnd = System.nanoTime();
+			this.eventId = eventId;
+			this.processInstanceId = processInstanceId;
+		}
+
+		public void enrichStarted() {
+			enrichStart = System.nanoTime();
+		}
+
+		public void enrichCompleted() {
+			enrichEnd = System.nanoTime();
+		}
+
+		/**
+		 * Records the start of a sub request of the data retrieval.
+		 * @param name Name of the request.
+		 * @param isCached <code>true</code> if the data was found in the cache, otherwise <code>false</code>.
+		 * @return Slot of the request, <code>-1</code> if there are too many requests.
+		 */
+		public int requestStarted(String name, boolean isCached) {
+			if (requestCount >= MAX_REQUESTS) return -1;
+			int slot = requestCount++;
+			requestNames[slot] = name;
+			requestCached[slot] = isCached;
+			requestStart[slot] = System.nanoTime();
+			requestEnd[slot] = isCached ? requestStart[slot] : 0;
+			return slot;
+		}
+
+		/**
+		 * Records the completion of a sub request.
+		 * @param slot Slot returned by {@link #requestStarted(String, boolean)}.
+		 */
+		public void requestCompleted(int slot) {
+			if (slot >= 0) requestEnd[slot] = System.nanoTime();
+		}
+
+		public void dispatchStarted() {
+			dispatchStart = System.nanoTime();
+		}
+
+		/**
+		 * Records the start of a handler call. May be called concurrently.
+		 * @param handler Handler called.
+		 * @return Slot of the call, <code>-1</code> if there are too many handlers.
+		 */
+		public int handlerStarted(Object handler) {
+			int slot = handlerCount.getAndIncrement();
+			if (slot >= MAX_HANDLERS) return -1;
+			handlers[slot] = handler;
+			handlerStart[slot] = System.nanoTime();
+			return slot;
+		}
+
+		/**
+		 * Records the end of a handler call.
+		 * @param slot Slot returned by {@link #handlerStarted(Object)}.
+		 */
+		public void handlerCompleted(int slot) {
+			if (slot >= 0) handlerEnd[slot] = System.nanoTime();
+		}
+
+		private void dispatchCompleted() {
+			dispatchEnd = System.nanoTime();
+			isComplete = true;
+			isInFlight = false;
+		}
+
+		/**
+		 * Returns the trace as JSON object. Times are given in microseconds relative to the arrival of the event.
+		 * @return JSON representation of the trace.
+		 */
+		public JsonObject asJson() {
+			JsonObject json = new JsonObject();
+			json.putNumber("sequence", sequence);
+			json.putNumber("received", receiveTimeMillis);
+			json.putString("eventType", eventModelId);
+			json.putString("eventId", eventId);
+			json.putString("processInstanceId", processInstanceId);
+			json.putNumber("parseStart", offset(parseStart));
+			json.putNumber("parseEnd", offset(parseEnd));
+			if (enrichStart != 0) {
+				json.putNumber("enrichStart", offset(enrichStart));
+				json.putNumber("enrichEnd", offset(enrichEnd));
+				JsonArray requests = new JsonArray();
+				for (int i = 0; i < requestCount; i++) {
+					JsonObject request = new JsonObject();
+					request.putString("name", requestNames[i]);
+					request.putBoolean("cached", requestCached[i]);
+					request.putNumber("start", offset(requestStart[i]));
+					request.putNumber("end", offset(requestEnd[i]));
+					requests.addObject(request);
+				}
+				json.putArray("requests", requests);
+			}
+			json.putNumber("dispatchStart", offset(dispatchStart));
+			json.putNumber("dispatchEnd", offset(dispatchEnd));
+			JsonArray handlerCalls = new JsonArray();
+			int count = Math.min(handlerCount.get(), MAX_HANDLERS);
+			for (int i = 0; i < count; i++) {
+				JsonObject call = new JsonObject();
+				call.putString("handler", handlers[i] != null ? handlers[i].getClass().getName() : null);
+				call.putNumber("start", offset(handlerStart[i]));
+				call.putNumber("end", offset(handlerEnd[i]));
+				handlerCalls.addObject(call);
+			}
+			json.putArray("handlers", handlerCalls);
+			return json;
+		}
+
+		private long offset(long time) {
+			return time != 0 ? (time - receiveTime) / 1000 : -1;
+		}
+	}
+
+	private final TraceRecord[] records;
+	private final int sampleInterval;
+	private int next;
+	private long sampleCounter;
+	private long sequence;
+	private long skippedCount;
+
+	/**
+	 * Creates the tracer.
+	 * @param sampleRate Fraction of events to trace, between <code>0</code> (exclusive) and <code>1</code> (inclusive).
+	 * @param capacity Number of records to keep.
+	 * @throws IllegalArgumentException The sample rate or the capacity is out of range.
+	 */
+	public EventTracer(double sampleRate, int capacity) throws IllegalArgumentException {
+		if (sampleRate <= 0 || sampleRate > 1) {
+			throw new IllegalArgumentException("Sample rate must be in (0, 1].");
+		}
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive.");
+		}
+		sampleInterval = (int) Math.round(1 / sampleRate);
+		records = new TraceRecord[capacity];
+		for (int i = 0; i < capacity; i++) {
+			records[i] = new TraceRecord();
+		}
+	}
+
+	/**
+	 * Decides if an event is traced and starts a trace if so.
+	 * @param eventModelId Model identifier of the event type.
+	 * @return Record to trace the event with or <code>null</code> if the event is not traced.
+	 */
+	public TraceRecord sample(String eventModelId) {
+		if (sampleCounter++ % sampleInterval != 0) {
+			return null;
+		}
+		for (int i = 0; i < records.length; i++) {
+			TraceRecord record = records[next];
+			next = (next + 1) % records.length;
+			if (!record.isInFlight) {
+				record.isInFlight = true;
+				record.reset(sequence++, eventModelId);
+				return record;
+			}
+		}
+		skippedCount++;
+		return null;
+	}
+
+	/**
+	 * Completes a trace. The record is included in dumps afterwards.
+	 * @param record Record to complete.
+	 */
+	public void complete(TraceRecord record) {
+		record.dispatchCompleted();
+	}
+
+	/**
+	 * Releases a trace without completing it, e.g. for events dropped before dispatch.
+	 * @param record Record to release.
+	 */
+	public void discard(TraceRecord record) {
+		record.isComplete = false;
+		record.isInFlight = false;
+	}
+
+	/**
+	 * Returns the number of sampled events not traced because all records were in use.
+	 * @return Number of skipped traces.
+	 */
+	public long getSkippedCount() {
+		return skippedCount;
+	}
+
+	/**
+	 * Returns all completed traces, oldest first.
+	 * @return JSON array of traces.
+	 */
+	public JsonArray dump() {
+		// Records passed over while in flight are older than their neighbours, so the records are sorted by sequence.
+		List<TraceRecord> completed = new ArrayList<>(records.length);
+		for (TraceRecord record : records) {
+			if (!record.isInFlight && record.isComplete) {
+				completed.add(record);
+			}
+		}
+		Collections.sort(completed, new Comparator<TraceRecord>() {
+
+			@Override
+			public int compare(TraceRecord first, TraceRecord second) {
+				return Long.compare(first.sequence, second.sequence);
+			}
+		});
+		JsonArray traces = new JsonArray();
+		for (TraceRecord record : completed) {
+			traces.addObject(record.asJson());
+		}
+		return traces;
+	}
+}
@@ -0,0 +1,250 @@
+package de.appsist.service.pki.connector;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VoidHandler;
+
+/**
+ * Execution model for event parsing and handler dispatch.
+ * By default, everything runs on the event loop of the connector. Parsing, handler sets (per event type), and single handlers can be offloaded to executors.
+ * Completion of offloaded work is posted back to the event loop.
+ * Handlers exceeding the configured threshold are logged and counted as slow handlers.
+ * Work rejected by an executor is logged, counted, and run on the event loop instead, so no event is lost and the order of dispatch is kept.
+ */
+public class HandlerExecutor {
+	private final Vertx vertx;
+	private final Context context;
+	private final Map<String, Executor> eventTypeExecutors;
+	private final Map<Handler<?>, Executor> handlerExecutors;
+	private final AtomicLong slowHandlerCount;
+	private final AtomicLong rejectedCount;
+	private volatile Executor parseExecutor;
+	private volatile long slowHandlerThresholdNanos;
+
+	/**
+	 * Creates the executor. Has to be called on the event loop of the connector.
+	 * @param vertx Vertx runtime.
+	 */
+	public HandlerExecutor(Vertx vertx) {
+		this.vertx = vertx;
+		this.context = vertx.currentContext();
+		eventTypeExecutors = new ConcurrentHashMap<>();
+		handlerExecutors = new ConcurrentHashMap<>();
+		slowHandlerCount = new AtomicLong();
+		rejectedCount = new AtomicLong();
+		slowHandlerThresholdNanos = 100 * 1000000L;
+	}
+
+	/**
+	 * Sets the executor for event parsing.
+	 * @param executor Executor to parse events with. If <code>null</code>, events are parsed on the event loop.
+	 */
+	public void setParseExecutor(Executor executor) {
+		this.parseExecutor = executor;
+	}
+
+	public Executor getParseExecutor() {
+		return parseExecutor;
+	}
+
+	/**
+	 * Sets the executor for all handlers of an event type.
+	 * @param eventModelId Model identifier of the event type, e.g. {@link de.appsist.commons.event.UserTaskEvent#MODEL_ID}.
+	 * @param executor Executor to dispatch events of the given type with. If <code>null</code>, the events are dispatched on the event loop.
+	 */
+	public void setEventTypeExecutor(String eventModelId, Executor executor) {
+		if (executor != null) {
+			eventTypeExecutors.put(eventModelId, executor);
+		} else {
+			eventTypeExecutors.remove(eventModelId);
+		}
+	}
+
+	/**
+	 * Sets the executor for a single handler. Overrides the executor for the event type.
+	 * @param handler Registered handler.
+	 * @param executor Executor to call the handler with. If <code>null</code>, the executor of the event type applies.
+	 */
+	public void setHandlerExecutor(Handler<?> handler, Executor executor) {
+		if (executor != null) {
+			handlerExecutors.put(handler, executor);
+		} else {
+			handlerExecutors.remove(handler);
+		}
+	}
+
+	/**
+	 * Sets the execution time after which a handler is reported as slow.
+	 * @param thresholdMillis Threshold in milliseconds.
+	 */
+	public void setSlowHandlerThreshold(long thresholdMillis) {
+		slowHandlerThresholdNanos = thresholdMillis * 1000000L;
+	}
+
+	/**
+	 * Returns the number of handler calls which exceeded the slow handler threshold.
+	 * @return Number of slow handler calls.
+	 */
+	public long getSlowHandlerCount() {
+		return slowHandlerCount.get();
+	}
+
+	/**
+	 * Returns the number of tasks rejected by an executor and run on the event loop instead.
+	 * @return Number of rejected tasks.
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * Runs the given action on the event loop of the connector.
+	 * @param action Action to perform.
+	 */
+	public void runOnEventLoop(Handler<Void> action) {
+		if (context != null) {
+			context.runOnContext(action);
+		} else {
+			vertx.runOnContext(action);
+		}
+	}
+
+	/**
+	 * Parses an event using the parse executor, if any.
+	 * Results are passed on in the order parsing completes, which may differ from the order of the calls. Callers needing the order of arrival
+	 * have to reserve their position before, see {@link OrderedDispatcher#reserve(String)}.
+	 * @param parser Parser to run. The result is passed to the handler on the event loop.
+	 * @param resultHandler Handler for the parsed event. Called with <code>null</code> if the parser fails.
+	 */
+	public <E> void parse(final Parser<E> parser, final Handler<E> resultHandler) {
+		Executor executor = parseExecutor;
+		if (executor == null) {
+			resultHandler.handle(runParser(parser));
+			return;
+		}
+		try {
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					final E event = runParser(parser);
+					runOnEventLoop(new VoidHandler() {
+
+						@Override
+						protected void handle() {
+							resultHandler.handle(event);
+						}
+					});
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			reportRejected("parse executor", e);
+			resultHandler.handle(runParser(parser));
+		}
+	}
+
+	private void reportRejected(String executorName, RejectedExecutionException e) {
+		rejectedCount.incrementAndGet();
+		PKIConnector.logger.warn("Task rejected by " + executorName + ", running it on the event loop.", e);
+	}
+
+	private static <E> E runParser(Parser<E> parser) {
+		try {
+			return parser.parse();
+		} catch (RuntimeException e) {
+			PKIConnector.logger.warn("Failed to parse event.", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Dispatches an event to a set of handlers.
+	 * @param eventModelId Model identifier of the event type.
+	 * @param event Event to dispatch.
+	 * @param handlers Handlers to call.
+	 * @param enrichment Result of the data retrieval for the event, passed to {@link EnrichedHandler}s.
+	 * @param trace Trace to record the handler calls in. May be <code>null</code>.
+	 * @param completeHandler Handler to call on the event loop when all handlers are called.
+	 */
+	public <E> void dispatch(final String eventModelId, final E event, final Collection<? extends Handler<? super E>> handlers, final AsyncJoin.Result enrichment, final EventTracer.TraceRecord trace, final VoidHandler completeHandler) {
+		final AtomicInteger pending = new AtomicInteger(1);
+		final VoidHandler doneHandler = new VoidHandler() {
+
+			@Override
+			protected void handle() {
+				if (pending.decrementAndGet() == 0) {
+					completeHandler.handle(null);
+				}
+			}
+		};
+		final Executor eventTypeExecutor = eventTypeExecutors.get(eventModelId);
+		for (final Handler<? super E> handler : handlers) {
+			Executor handlerExecutor = handlerExecutors.get(handler);
+			if (handlerExecutor == null && eventTypeExecutor == null) {
+				invoke(eventModelId, handler, event, enrichment, trace);
+				continue;
+			}
+			pending.incrementAndGet();
+			try {
+				(handlerExecutor != null ? handlerExecutor : eventTypeExecutor).execute(new Runnable() {
+
+					@Override
+					public void run() {
+						try {
+							invoke(eventModelId, handler, event, enrichment, trace);
+						} finally {
+							runOnEventLoop(doneHandler);
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				pending.decrementAndGet();
+				reportRejected("handler executor for " + eventModelId, e);
+				invoke(eventModelId, handler, event, enrichment, trace);
+			}
+		}
+		doneHandler.handle(null);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <E> void invoke(String eventModelId, Handler<? super E> handler, E event, AsyncJoin.Result enrichment, EventTracer.TraceRecord trace) {
+		int traceSlot = trace != null ? trace.handlerStarted(handler) : -1;
+		long start = System.nanoTime();
+		try {
+			if (handler instanceof EnrichedHandler) {
+				((EnrichedHandler<E>) handler).handle(event, enrichment);
+			} else {
+				handler.handle(event);
+			}
+		} catch (RuntimeException e) {
+			PKIConnector.logger.warn("Handler failed to process event: " + eventModelId, e);
+		}
+		if (trace != null) trace.handlerCompleted(traceSlot);
+		long duration = System.nanoTime() - start;
+		if (duration > slowHandlerThresholdNanos) {
+			slowHandlerCount.incrementAndGet();
+			PKIConnector.logger.warn("Slow handler " + handler.getClass().getName() + " took " + (duration / 1000000L) + " ms for event: " + eventModelId);
+		}
+	}
+
+	/**
+	 * Parser for an event.
+	 * @param <E> Type of the event.
+	 */
+	public interface Parser<E> {
+		/**
+		 * Parses the event.
+		 * @return Parsed event or <code>null</code> if the event could not be parsed.
+		 */
+		public E parse();
+	}
+}
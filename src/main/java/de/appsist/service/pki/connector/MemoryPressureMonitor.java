@@ -0,0 +1,130 @@
+package de.appsist.service.pki.connector;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import org.vertx.java.core.VoidHandler;
+
+/**
+ * Watches the heap usage with the memory notifications of the JVM and calls a handler when the usage exceeds a threshold.
+ * <p>
+ * The threshold is set as usage threshold and as collection usage threshold on the heap pools supporting them, usually the old generation.
+ * The usage threshold reports the pool filling up before it is collected, the collection usage threshold reports usage remaining after a collection.
+ * </p>
+ * <p>
+ * Thresholds are shared within the JVM. Open monitors set the lowest of their thresholds, and each monitor only reports usage above its own.
+ * The thresholds set before the first monitor was created are restored when the last monitor is closed.
+ * </p>
+ * The handler is called on the notification thread of the JVM.
+ */
+class MemoryPressureMonitor {
+	private static final List<MemoryPressureMonitor> openMonitors = new ArrayList<>();
+	/** Thresholds set before the first open monitor, per pool: usage threshold and collection usage threshold. */
+	private static final Map<MemoryPoolMXBean, long[]> previousThresholds = new LinkedHashMap<>();
+
+	private final double usageThreshold;
+	private final NotificationEmitter emitter;
+	private final NotificationListener listener;
+
+	/**
+	 * Creates the monitor and sets the thresholds.
+	 * @param usageThreshold Fraction of the maximum pool size, between <code>0</code> and <code>1</code> (both exclusive).
+	 * @param pressureHandler Handler to call when a threshold is exceeded.
+	 * @throws IllegalArgumentException The threshold is out of range.
+	 * @throws IllegalStateException No heap pool supports usage thresholds.
+	 */
+	MemoryPressureMonitor(final double usageThreshold, final VoidHandler pressureHandler) throws IllegalArgumentException, IllegalStateException {
+		if (!(usageThreshold > 0 && usageThreshold < 1)) {
+			throw new IllegalArgumentException("Usage threshold must be between 0 and 1.");
+		}
+		this.usageThreshold = usageThreshold;
+		synchronized (openMonitors) {
+			if (openMonitors.isEmpty()) {
+				for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+					if (pool.getType() != MemoryType.HEAP || !pool.isUsageThresholdSupported() || pool.getUsage().getMax() <= 0) continue;
+					long collectionThreshold = pool.isCollectionUsageThresholdSupported() ? pool.getCollectionUsageThreshold() : 0;
+					previousThresholds.put(pool, new long[] { pool.getUsageThreshold(), collectionThreshold });
+				}
+				if (previousThresholds.isEmpty()) {
+					throw new IllegalStateException("No heap memory pool supports usage thresholds.");
+				}
+			}
+			openMonitors.add(this);
+			applyThresholds();
+		}
+		listener = new NotificationListener() {
+
+			@Override
+			public void handleNotification(Notification notification, Object handback) {
+				String type = notification.getType();
+				if (!MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(type) && !MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type)) {
+					return;
+				}
+				// The notification may be caused by the lower threshold of another monitor.
+				MemoryUsage usage = MemoryNotificationInfo.from((CompositeData) notification.getUserData()).getUsage();
+				if (usage.getMax() <= 0 || usage.getUsed() >= (long) (usage.getMax() * usageThreshold)) {
+					pressureHandler.handle(null);
+				}
+			}
+		};
+		emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+		emitter.addNotificationListener(listener, null, null);
+	}
+
+	/**
+	 * Sets the lowest threshold of the open monitors on the pools. Has to be called with the lock on the open monitors held.
+	 */
+	private static void applyThresholds() {
+		double lowestThreshold = 1;
+		for (MemoryPressureMonitor monitor : openMonitors) {
+			lowestThreshold = Math.min(lowestThreshold, monitor.usageThreshold);
+		}
+		for (MemoryPoolMXBean pool : previousThresholds.keySet()) {
+			long threshold = (long) (pool.getUsage().getMax() * lowestThreshold);
+			pool.setUsageThreshold(threshold);
+			if (pool.isCollectionUsageThresholdSupported()) {
+				pool.setCollectionUsageThreshold(threshold);
+			}
+		}
+	}
+
+	/**
+	 * Removes the listener. Restores the thresholds set before if this is the last open monitor, otherwise sets the lowest threshold of the remaining monitors.
+	 * Has no effect if the monitor is already closed.
+	 */
+	void close() {
+		synchronized (openMonitors) {
+			if (!openMonitors.remove(this)) return;
+			if (!openMonitors.isEmpty()) {
+				applyThresholds();
+			} else {
+				for (Map.Entry<MemoryPoolMXBean, long[]> entry : previousThresholds.entrySet()) {
+					MemoryPoolMXBean pool = entry.getKey();
+					pool.setUsageThreshold(entry.getValue()[0]);
+					if (pool.isCollectionUsageThresholdSupported()) {
+						pool.setCollectionUsageThreshold(entry.getValue()[1]);
+					}
+				}
+				previousThresholds.clear();
+			}
+		}
+		try {
+			emitter.removeNotificationListener(listener);
+		} catch (ListenerNotFoundException e) {
+			// Already removed.
+		}
+	}
+}
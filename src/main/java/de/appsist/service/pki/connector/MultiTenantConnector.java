@@ -0,0 +1,169 @@
+package de.appsist.service.pki.connector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.http.HttpClient;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Connector serving several PKI deployments (tenants) with a single registration on the event bus.
+ * <p>
+ * Each tenant is served by its own {@link PKIConnector}, obtained with {@link #getTenant(String)}, so caches, limits, and handlers are partitioned per tenant.
+ * The tenant connectors do not register on the event bus themselves: this connector registers once per event type and passes each message to the connector
+ * of the tenant named in the message, so it is parsed and dispatched once. Tenants with the same PKI host share the HTTP client and its connection pool.
+ * </p>
+ * All methods have to be called from the event loop.
+ */
+public class MultiTenantConnector {
+	private final Vertx vertx;
+	private final String tenantField;
+	private final Map<String, PKIConnector> tenants;
+	private final Map<String, HttpClient> clients;
+	private final Map<String, Handler<Message<JsonObject>>> routers;
+	private String defaultTenant;
+	private long unroutedCount;
+
+	/**
+	 * Creates the connector without tenants.
+	 * @param vertx Vertx runtime for communication channels.
+	 * @param tenantField Field of the event messages naming the tenant, e.g. <code>tenant</code>.
+	 */
+	public MultiTenantConnector(Vertx vertx, String tenantField) {
+		this.vertx = vertx;
+		this.tenantField = tenantField;
+		tenants = new ConcurrentHashMap<>();
+		clients = new HashMap<>();
+		routers = new LinkedHashMap<>();
+	}
+
+	/**
+	 * Adds a tenant.
+	 * @param tenantKey Key of the tenant, as named in the event messages.
+	 * @param host Hostname to of the pki service.
+	 * @param port Port of the pki service.
+	 * @param isSecure <code>true</code> if the communication should be ssl secured, otherwise <code>false</code>.
+	 * @param basePath Base path of the pki service address.
+	 * @return Connector for the tenant, to register handlers and to configure caches and limits with.
+	 * @throws IllegalArgumentException A tenant with the given key already exists.
+	 */
+	public PKIConnector addTenant(String tenantKey, String host, int port, boolean isSecure, String basePath) throws IllegalArgumentException {
+		if (tenants.containsKey(tenantKey)) {
+			throw new IllegalArgumentException("Tenant already exists: " + tenantKey);
+		}
+		String clientKey = (isSecure ? "https://" : "http://") + host + ":" + port;
+		HttpClient client = clients.get(clientKey);
+		if (client == null) {
+			client = PKIConnector.createClient(vertx, host, port, isSecure);
+			clients.put(clientKey, client);
+		}
+		PKIConnector connector = new PKIConnector(vertx, client, basePath, null, false);
+		tenants.put(tenantKey, connector);
+		if (routers.isEmpty()) {
+			registerRouters(connector.getEventAddresses());
+		}
+		return connector;
+	}
+
+	/**
+	 * Removes a tenant and closes its connector, see {@link PKIConnector#close()}. Events of the tenant are dropped afterwards.
+	 * The HTTP client remains available for tenants added later.
+	 * @param tenantKey Key of the tenant.
+	 * @return Closed connector of the removed tenant or <code>null</code> if no such tenant exists.
+	 */
+	public PKIConnector removeTenant(String tenantKey) {
+		PKIConnector connector = tenants.remove(tenantKey);
+		if (connector != null) connector.close();
+		return connector;
+	}
+
+	/**
+	 * Returns the connector of a tenant.
+	 * @param tenantKey Key of the tenant.
+	 * @return Connector of the tenant or <code>null</code> if no such tenant exists.
+	 */
+	public PKIConnector getTenant(String tenantKey) {
+		return tenantKey != null ? tenants.get(tenantKey) : null;
+	}
+
+	/**
+	 * Returns the keys of all tenants.
+	 * @return Unmodifiable set of tenant keys.
+	 */
+	public Set<String> getTenantKeys() {
+		return Collections.unmodifiableSet(tenants.keySet());
+	}
+
+	/**
+	 * Sets the tenant for events not naming a tenant.
+	 * @param tenantKey Key of the tenant. If <code>null</code>, such events are dropped.
+	 */
+	public void setDefaultTenant(String tenantKey) {
+		defaultTenant = tenantKey;
+	}
+
+	/**
+	 * Returns the number of events dropped as their tenant is unknown or the tenant field is not a string.
+	 * @return Number of dropped events.
+	 */
+	public long getUnroutedCount() {
+		return unroutedCount;
+	}
+
+	/**
+	 * Unregisters from the event bus, removes and closes all tenant connectors, and closes the shared HTTP clients.
+	 */
+	public void close() {
+		for (Map.Entry<String, Handler<Message<JsonObject>>> entry : routers.entrySet()) {
+			vertx.eventBus().unregisterHandler(entry.getKey(), entry.getValue());
+		}
+		routers.clear();
+		for (String tenantKey : new ArrayList<>(tenants.keySet())) {
+			removeTenant(tenantKey);
+		}
+		for (HttpClient client : clients.values()) {
+			client.close();
+		}
+		clients.clear();
+	}
+
+	private void registerRouters(Set<String> addresses) {
+		for (final String address : addresses) {
+			Handler<Message<JsonObject>> router = new Handler<Message<JsonObject>>() {
+
+				@Override
+				public void handle(Message<JsonObject> message) {
+					route(address, message);
+				}
+			};
+			routers.put(address, router);
+			vertx.eventBus().registerHandler(address, router);
+		}
+	}
+
+	private void route(String address, Message<JsonObject> message) {
+		JsonObject body = message.body();
+		Object field = body != null ? body.getField(tenantField) : null;
+		if (field != null && !(field instanceof String)) {
+			unroutedCount++;
+			PKIConnector.logger.debug("Dropped event with invalid tenant field: " + field);
+			return;
+		}
+		String tenantKey = (String) field;
+		PKIConnector connector = getTenant(tenantKey != null ? tenantKey : defaultTenant);
+		if (connector == null) {
+			unroutedCount++;
+			PKIConnector.logger.debug("Dropped event for unknown tenant: " + tenantKey);
+			return;
+		}
+		connector.getEventHandler(address).handle(message);
+	}
+}
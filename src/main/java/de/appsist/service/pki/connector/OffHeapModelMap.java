@@ -0,0 +1,222 @@
+package de.appsist.service.pki.connector;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Map of model objects stored serialized in an {@link OffHeapStore}. Only the keys and the handles remain on the heap.
+ * Values are decoded on each access, so lookups should use {@link #containsKey(Object)} where the value is not needed.
+ * Null keys and values are not supported. All methods are thread safe, iterators are weakly consistent.
+ * @param <V> Type of the model objects.
+ */
+public abstract class OffHeapModelMap<V> extends AbstractMap<String, V> {
+	private final OffHeapStore store;
+	private final ConcurrentHashMap<String, Long> handles;
+
+	/**
+	 * Creates the map.
+	 * @param store Store to keep the values in. May be shared with other maps.
+	 */
+	public OffHeapModelMap(OffHeapStore store) {
+		this.store = store;
+		handles = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Returns the JSON representation of a model object.
+	 * @param value Model object.
+	 * @return JSON object to store.
+	 */
+	protected abstract JsonObject encode(V value);
+
+	/**
+	 * Creates a model object from its JSON representation.
+	 * @param json Stored JSON object.
+	 * @return Model object.
+	 */
+	protected abstract V decode(JsonObject json);
+
+	@Override
+	public V get(Object key) {
+		byte[] data;
+		synchronized (store) {
+			Long handle = handles.get(key);
+			if (handle == null) return null;
+			data = store.read(handle);
+		}
+		return decode(data);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return handles.containsKey(key);
+	}
+
+	/**
+	 * Stores a value without decoding the previous value, see {@link #put(String, Object)}.
+	 * @param key Key of the value.
+	 * @param value Value to store.
+	 * @return <code>true</code> if a previous value was replaced, otherwise <code>false</code>.
+	 */
+	public boolean set(String key, V value) {
+		return putHandle(key, value, false) != null;
+	}
+
+	/**
+	 * Stores a value. The previous value is decoded, use {@link #set(String, Object)} where it is not needed.
+	 */
+	@Override
+	public V put(String key, V value) {
+		byte[] previousData = putHandle(key, value, true);
+		return previousData != null ? decode(previousData) : null;
+	}
+
+	/**
+	 * Removes a value without decoding it, see {@link #remove(Object)}.
+	 * @param key Key of the value.
+	 * @return <code>true</code> if a value was removed, otherwise <code>false</code>.
+	 */
+	public boolean delete(Object key) {
+		synchronized (store) {
+			Long handle = handles.remove(key);
+			if (handle == null) return false;
+			store.free(handle);
+			return true;
+		}
+	}
+
+	/**
+	 * Removes a value. The removed value is decoded, use {@link #delete(Object)} where it is not needed.
+	 */
+	@Override
+	public V remove(Object key) {
+		byte[] data;
+		synchronized (store) {
+			Long handle = handles.remove(key);
+			if (handle == null) return null;
+			data = store.read(handle);
+			store.free(handle);
+		}
+		return decode(data);
+	}
+
+	private byte[] putHandle(String key, V value, boolean isPreviousDataRead) {
+		byte[] data = encode(value).encode().getBytes(StandardCharsets.UTF_8);
+		synchronized (store) {
+			Long oldHandle = handles.put(key, store.store(data));
+			if (oldHandle == null) return null;
+			byte[] previousData = isPreviousDataRead ? store.read(oldHandle) : data; // Otherwise only the presence matters.
+			store.free(oldHandle);
+			return previousData;
+		}
+	}
+
+	private V decode(byte[] data) {
+		return decode(new JsonObject(new String(data, StandardCharsets.UTF_8)));
+	}
+
+	@Override
+	public int size() {
+		return handles.size();
+	}
+
+	@Override
+	public void clear() {
+		synchronized (store) {
+			for (Long handle : handles.values()) {
+				store.free(handle);
+			}
+			handles.clear();
+		}
+	}
+
+	@Override
+	public Set<String> keySet() {
+		return new AbstractSet<String>() {
+
+			@Override
+			public Iterator<String> iterator() {
+				final Iterator<String> keys = handles.keySet().iterator();
+				return new Iterator<String>() {
+					private String current;
+
+					@Override
+					public boolean hasNext() {
+						return keys.hasNext();
+					}
+
+					@Override
+					public String next() {
+						current = keys.next();
+						return current;
+					}
+
+					@Override
+					public void remove() {
+						OffHeapModelMap.this.delete(current);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return handles.size();
+			}
+		};
+	}
+
+	@Override
+	public Set<Map.Entry<String, V>> entrySet() {
+		return new AbstractSet<Map.Entry<String, V>>() {
+
+			@Override
+			public Iterator<Map.Entry<String, V>> iterator() {
+				final Iterator<String> keys = keySet().iterator();
+				return new Iterator<Map.Entry<String, V>>() {
+					private Map.Entry<String, V> next;
+					private String current;
+
+					@Override
+					public boolean hasNext() {
+						// Keys removed after the iterator passed them in the key set have no value any longer and are skipped.
+						while (next == null && keys.hasNext()) {
+							String key = keys.next();
+							V value = get(key);
+							if (value != null) next = new SimpleImmutableEntry<>(key, value);
+						}
+						return next != null;
+					}
+
+					@Override
+					public Map.Entry<String, V> next() {
+						if (!hasNext()) throw new NoSuchElementException();
+						Map.Entry<String, V> entry = next;
+						next = null;
+						current = entry.getKey();
+						return entry;
+					}
+
+					@Override
+					public void remove() {
+						if (current == null) throw new IllegalStateException();
+						OffHeapModelMap.this.delete(current);
+						current = null;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return handles.size();
+			}
+		};
+	}
+}
@@ -0,0 +1,173 @@
+package de.appsist.service.pki.connector;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Slab allocator for byte arrays in direct buffers, outside of the Java heap.
+ * <p>
+ * Entries are stored in slots of power of two size classes between {@value #MIN_SLOT_SIZE} bytes and the chunk size. Each size class allocates chunks of the chunk size and splits them into slots.
+ * Freed slots are reused by entries of the same size class; chunks are not returned to the system. Entries larger than the chunk size get a dedicated buffer which is released when the entry is freed.
+ * </p>
+ * Entries are addressed by handles. All methods are thread safe.
+ */
+public class OffHeapStore {
+	private static final int MIN_SLOT_SIZE = 256;
+	private static final int LENGTH_SIZE = 4;
+
+	private static class Chunk {
+		private final ByteBuffer buffer;
+		private final int slotSize;
+
+		private Chunk(ByteBuffer buffer, int slotSize) {
+			this.buffer = buffer;
+			this.slotSize = slotSize;
+		}
+	}
+
+	private final int chunkSize;
+	private final List<Chunk> chunks;
+	private final ArrayDeque<Integer> freeChunkIds;
+	private final ArrayDeque<Long>[] freeSlots;
+	private long allocatedBytes;
+	private long usedBytes;
+	private long entryCount;
+
+	/**
+	 * Creates the store.
+	 * @param chunkSize Size of the chunks allocated per size class in bytes. Has to be a power of two of at least 4096.
+	 * @throws IllegalArgumentException The chunk size is invalid.
+	 */
+	@SuppressWarnings("unchecked")
+	public OffHeapStore(int chunkSize) throws IllegalArgumentException {
+		if (chunkSize < 4096 || Integer.bitCount(chunkSize) != 1) {
+			throw new IllegalArgumentException("Chunk size must be a power of two of at least 4096 bytes.");
+		}
+		this.chunkSize = chunkSize;
+		chunks = new ArrayList<>();
+		freeChunkIds = new ArrayDeque<>();
+		freeSlots = new ArrayDeque[Integer.numberOfTrailingZeros(chunkSize) + 1];
+		for (int i = 0; i < freeSlots.length; i++) {
+			freeSlots[i] = new ArrayDeque<>();
+		}
+	}
+
+	/**
+	 * Stores an entry.
+	 * @param data Data to store.
+	 * @return Handle of the entry.
+	 */
+	public synchronized long store(byte[] data) {
+		int size = LENGTH_SIZE + data.length;
+		long handle;
+		if (size > chunkSize) {
+			handle = toHandle(addChunk(new Chunk(ByteBuffer.allocateDirect(size), size)), 0);
+			allocatedBytes += size;
+		} else {
+			int sizeClass = getSizeClass(size);
+			ArrayDeque<Long> slots = freeSlots[sizeClass];
+			if (slots.isEmpty()) {
+				int slotSize = 1 << sizeClass;
+				int chunkId = addChunk(new Chunk(ByteBuffer.allocateDirect(chunkSize), slotSize));
+				allocatedBytes += chunkSize;
+				for (int offset = 0; offset < chunkSize; offset += slotSize) {
+					slots.add(toHandle(chunkId, offset));
+				}
+			}
+			handle = slots.poll();
+		}
+		ByteBuffer buffer = chunks.get(getChunkId(handle)).buffer.duplicate();
+		int offset = getOffset(handle);
+		buffer.putInt(offset, data.length);
+		buffer.position(offset + LENGTH_SIZE);
+		buffer.put(data);
+		usedBytes += data.length;
+		entryCount++;
+		return handle;
+	}
+
+	/**
+	 * Reads an entry.
+	 * @param handle Handle of the entry.
+	 * @return Stored data.
+	 */
+	public synchronized byte[] read(long handle) {
+		ByteBuffer buffer = chunks.get(getChunkId(handle)).buffer.duplicate();
+		int offset = getOffset(handle);
+		byte[] data = new byte[buffer.getInt(offset)];
+		buffer.position(offset + LENGTH_SIZE);
+		buffer.get(data);
+		return data;
+	}
+
+	/**
+	 * Frees an entry. The handle must not be used afterwards.
+	 * @param handle Handle of the entry.
+	 */
+	public synchronized void free(long handle) {
+		int chunkId = getChunkId(handle);
+		Chunk chunk = chunks.get(chunkId);
+		usedBytes -= chunk.buffer.getInt(getOffset(handle));
+		entryCount--;
+		if (chunk.slotSize > chunkSize) {
+			allocatedBytes -= chunk.slotSize;
+			chunks.set(chunkId, null);
+			freeChunkIds.add(chunkId);
+		} else {
+			freeSlots[getSizeClass(chunk.slotSize)].add(handle);
+		}
+	}
+
+	/**
+	 * Returns the number of bytes allocated outside of the heap, including free slots.
+	 * @return Allocated bytes.
+	 */
+	public synchronized long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * Returns the number of bytes of the stored entries.
+	 * @return Used bytes.
+	 */
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	/**
+	 * Returns the number of stored entries.
+	 * @return Number of entries.
+	 */
+	public synchronized long getEntryCount() {
+		return entryCount;
+	}
+
+	private int addChunk(Chunk chunk) {
+		Integer chunkId = freeChunkIds.poll();
+		if (chunkId != null) {
+			chunks.set(chunkId, chunk);
+			return chunkId;
+		}
+		chunks.add(chunk);
+		return chunks.size() - 1;
+	}
+
+	private static int getSizeClass(int size) {
+		int slotSize = Math.max(MIN_SLOT_SIZE, Integer.highestOneBit(size - 1) << 1);
+		return Integer.numberOfTrailingZeros(slotSize);
+	}
+
+	private static long toHandle(int chunkId, int offset) {
+		return ((long) chunkId << 32) | (offset & 0xffffffffL);
+	}
+
+	private static int getChunkId(long handle) {
+		return (int) (handle >>> 32);
+	}
+
+	private static int getOffset(long handle) {
+		return (int) handle;
+	}
+}
@@ -0,0 +1,294 @@
+package de.appsist.service.pki.connector;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.vertx.java.core.VoidHandler;
+
+/**
+ * Sequences the dispatch of events per process instance.
+ * Entries are prepared (e.g. enriched) concurrently, but dispatched strictly in the order of submission for each process instance.
+ * The dispatch of an entry starts when the dispatch of its predecessor is complete.
+ * Entries of different process instances do not wait for each other.
+ * All methods have to be called from the same thread, i.e. the event loop of the connector.
+ */
+public class OrderedDispatcher {
+	/**
+	 * Policy applied when the queue of a process instance is full.
+	 */
+	public enum OverflowPolicy {
+		/** The submitted entry is dropped. */
+		DROP_NEWEST,
+		/** The oldest queued entry of the instance is dropped to make room for the submitted one. */
+		DROP_OLDEST,
+		/** The submitted entry is dispatched as soon as it is prepared, without waiting for its predecessors. */
+		DISPATCH_UNORDERED
+	}
+
+	/**
+	 * Unit of work for the dispatcher.
+	 */
+	public static abstract class Entry {
+		private boolean isReady = false;
+		private boolean isDiscarded = false;
+
+		/**
+		 * Prepares the entry for dispatch.
+		 * @param readyHandler Handler to call when the entry is ready to be dispatched.
+		 */
+		protected abstract void prepare(VoidHandler readyHandler);
+
+		/**
+		 * Dispatches the entry.
+		 * @param completeHandler Handler to call when the dispatch is complete.
+		 */
+		protected abstract void dispatch(VoidHandler completeHandler);
+
+		/**
+		 * Called if the entry is dropped due to a queue overflow.
+		 */
+		protected void discard() {
+		}
+	}
+
+	/**
+	 * Position in the queue of a process instance, reserved for an entry which is not available yet, see {@link OrderedDispatcher#reserve(String)}.
+	 * Successors wait until the reservation is filled and the entry is dispatched, or until the reservation is cancelled.
+	 * Has to be filled or cancelled exactly once.
+	 */
+	public static final class Reservation extends Entry {
+		private Entry entry;
+		private VoidHandler readyHandler;
+		private boolean isDropped = false;
+
+		private Reservation() {
+		}
+
+		/**
+		 * Fills the reservation. The entry is prepared immediately, unless the reservation was dropped due to a queue overflow.
+		 * In that case, the entry is discarded instead.
+		 * @param entry Entry to dispatch at the reserved position.
+		 */
+		public void fill(Entry entry) {
+			this.entry = entry;
+			if (isDropped) {
+				entry.discard();
+				return;
+			}
+			entry.prepare(readyHandler);
+		}
+
+		/**
+		 * Cancels the reservation, e.g. if the event could not be parsed. Successors are not held up any longer.
+		 */
+		public void cancel() {
+			if (!isDropped) readyHandler.handle(null);
+		}
+
+		@Override
+		protected void prepare(VoidHandler readyHandler) {
+			this.readyHandler = readyHandler;
+		}
+
+		@Override
+		protected void dispatch(VoidHandler completeHandler) {
+			if (entry != null) {
+				entry.dispatch(completeHandler);
+			} else {
+				completeHandler.handle(null);
+			}
+		}
+
+		@Override
+		protected void discard() {
+			isDropped = true;
+			if (entry != null) entry.discard();
+		}
+	}
+
+	private static class InstanceQueue extends ArrayDeque<Entry> {
+		private static final long serialVersionUID = 1L;
+		private boolean isDispatching = false;
+	}
+
+	private static final VoidHandler NOOP = new VoidHandler() {
+
+		@Override
+		protected void handle() {
+		}
+	};
+
+	private final Map<String, InstanceQueue> queues;
+	private int maxQueueSize;
+	private OverflowPolicy overflowPolicy;
+	private long droppedCount;
+	private long unorderedCount;
+
+	/**
+	 * Creates the dispatcher.
+	 * @param maxQueueSize Maximum number of pending entries per process instance.
+	 * @param overflowPolicy Policy to apply when the queue of a process instance is full.
+	 */
+	public OrderedDispatcher(int maxQueueSize, OverflowPolicy overflowPolicy) {
+		queues = new HashMap<>();
+		setMaxQueueSize(maxQueueSize);
+		setOverflowPolicy(overflowPolicy);
+	}
+
+	/**
+	 * Sets the maximum number of pending entries per process instance.
+	 * @param maxQueueSize Maximum queue size, must be positive.
+	 * @throws IllegalArgumentException The given size is not positive.
+	 */
+	public void setMaxQueueSize(int maxQueueSize) throws IllegalArgumentException {
+		if (maxQueueSize <= 0) {
+			throw new IllegalArgumentException("Queue size must be positive.");
+		}
+		this.maxQueueSize = maxQueueSize;
+	}
+
+	public int getMaxQueueSize() {
+		return maxQueueSize;
+	}
+
+	/**
+	 * Sets the policy to apply when the queue of a process instance is full.
+	 * @param overflowPolicy Overflow policy.
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		if (overflowPolicy == null) {
+			throw new IllegalArgumentException("Overflow policy must not be null.");
+		}
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * Submits an entry for dispatch. The entry is prepared immediately.
+	 * @param processInstanceId Identifier of the process instance to sequence the entry for. If <code>null</code>, the entry is dispatched unordered.
+	 * @param entry Entry to dispatch.
+	 */
+	public void submit(final String processInstanceId, final Entry entry) {
+		if (processInstanceId == null) {
+			dispatchUnordered(entry);
+			return;
+		}
+
+		InstanceQueue queue = queues.get(processInstanceId);
+		if (queue != null && queue.size() >= maxQueueSize) {
+			switch (overflowPolicy) {
+			case DROP_NEWEST:
+				droppedCount++;
+				PKIConnector.logger.warn("Dispatch queue full, dropped event for process instance: " + processInstanceId);
+				entry.discard();
+				return;
+			case DROP_OLDEST:
+				Entry oldest = queue.pollFirst();
+				oldest.isDiscarded = true;
+				oldest.discard();
+				droppedCount++;
+				PKIConnector.logger.warn("Dispatch queue full, dropped oldest event for process instance: " + processInstanceId);
+				// Predecessors of the dropped entry may be ready already.
+				drain(processInstanceId, queue);
+				break;
+			case DISPATCH_UNORDERED:
+				unorderedCount++;
+				dispatchUnordered(entry);
+				return;
+			}
+		}
+
+		queue = queues.get(processInstanceId); // The queue may have been drained in the meantime.
+		if (queue == null) {
+			queue = new InstanceQueue();
+			queues.put(processInstanceId, queue);
+		}
+		final InstanceQueue instanceQueue = queue;
+		instanceQueue.addLast(entry);
+		entry.prepare(new VoidHandler() {
+
+			@Override
+			protected void handle() {
+				if (entry.isDiscarded || entry.isReady) return;
+				entry.isReady = true;
+				drain(processInstanceId, instanceQueue);
+			}
+		});
+	}
+
+	/**
+	 * Reserves the position of an entry which is not available yet, e.g. of an event which is still parsed on another thread.
+	 * The position is taken in the order of this call, not in the order the reservation is filled.
+	 * The overflow policy applies to the reservation as for submitted entries.
+	 * @param processInstanceId Identifier of the process instance to sequence the entry for. If <code>null</code>, the entry is dispatched unordered.
+	 * @return Reservation to fill with the entry.
+	 */
+	public Reservation reserve(String processInstanceId) {
+		Reservation reservation = new Reservation();
+		submit(processInstanceId, reservation);
+		return reservation;
+	}
+
+	private void dispatchUnordered(final Entry entry) {
+		entry.prepare(new VoidHandler() {
+
+			@Override
+			protected void handle() {
+				if (entry.isReady) return;
+				entry.isReady = true;
+				entry.dispatch(NOOP);
+			}
+		});
+	}
+
+	private void drain(final String processInstanceId, final InstanceQueue queue) {
+		if (queue.isDispatching) return;
+		Entry head = queue.peekFirst();
+		if (head == null) {
+			if (queues.get(processInstanceId) == queue) {
+				queues.remove(processInstanceId);
+			}
+			return;
+		}
+		if (!head.isReady) return;
+		
+		queue.pollFirst();
+		queue.isDispatching = true;
+		head.dispatch(new VoidHandler() {
+
+			@Override
+			protected void handle() {
+				queue.isDispatching = false;
+				drain(processInstanceId, queue);
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of process instances with pending entries.
+	 * @return Number of active process instance queues.
+	 */
+	public int getActiveInstanceCount() {
+		return queues.size();
+	}
+
+	/**
+	 * Returns the number of entries dropped due to queue overflows.
+	 * @return Number of dropped entries.
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * Returns the number of entries dispatched unordered due to queue overflows.
+	 * @return Number of unordered dispatches.
+	 */
+	public long getUnorderedCount() {
+		return unorderedCount;
+	}
+}
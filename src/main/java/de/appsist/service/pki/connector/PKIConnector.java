@@ -1,14 +1,24 @@
 package de.appsist.service.pki.connector;
 
+import java.io.File;
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.AsyncResultHandler;
@@ -21,6 +31,7 @@ import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.core.http.HttpClient;
 import org.vertx.java.core.http.HttpClientRequest;
 import org.vertx.java.core.http.HttpClientResponse;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
@@ -51,8 +62,18 @@ import de.appsist.service.pki.model.ProcessInstance;
  */
 public class PKIConnector {
 	static final Logger logger = LoggerFactory.getLogger(PKIConnector.class);
+	private static final int JOURNAL_SEGMENT_SIZE = 4 * 1024 * 1024;
+	private static final int JOURNAL_MAX_SEGMENTS = 8;
+	private static final long DEFAULT_ENRICHMENT_DEADLINE = 10000;
+	private static final int DEFAULT_ELEMENT_HISTORY_SIZE = 4;
+	private static final String DEFAULT_DEADLINE_KEY = "";
+	// ISO 8601 date time with an offset in extended or basic format, the latter is used by the PKI, e.g. 2016-09-29T10:15:30.000+0200.
+	private static final DateTimeFormatter EVENT_TIMESTAMP_FORMAT = new DateTimeFormatterBuilder().append(DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+			.optionalStart().appendOffset("+HH:MM", "Z").optionalEnd().optionalStart().appendOffset("+HHMM", "Z").optionalEnd().toFormatter();
 	
+	private final Vertx vertx;
 	private final HttpClient pkiClient;
+	private final boolean isRegisteredOnEventBus;
 	private final String basePath;
 	
 	private final Set<Handler<TaskEvent>> taskHandlers;
@@ -66,319 +87,1664 @@ public class PKIConnector {
 	private final Set<Handler<ProcessAutomatedFlowEvent>> processAutomatedFlowHandlers;
 	
 	private final Map<String, ProcessDefinition> processDefinitionsCache;
-	private final Map<String, ProcessInstance> processInstancesCache;
-	private final Map<String, ProcessElementInstance> processElementInstancesCache;
+	private volatile Map<String, ProcessInstance> processInstancesCache;
+	private volatile Map<String, ProcessElementInstance> processElementInstancesCache;
 	private final Map<String, ProcessElement> processElementsCache;
+	private final Map<String, ElementHistory> elementHistories;
+	private volatile int elementHistorySize;
+	private volatile OffHeapStore offHeapStore;
+	private final CacheFootprint footprint;
+	private volatile boolean isFootprintAccounted;
+	private MemoryPressureMonitor memoryMonitor;
+	private final AtomicBoolean isShedPending;
+	private long memoryPressureCount;
+	private long shedEntryCount;
+	
+	private final OrderedDispatcher orderedDispatcher;
+	private final HandlerExecutor handlerExecutor;
+	private EventDeduplicator deduplicator;
+	private EnrichmentCoalescer coalescer;
+	private boolean isIncrementalUpdateEnabled;
+	private long enrichmentDeadlineMillis;
+	private AsyncJoin.Policy enrichmentPolicy;
+	private long partialEnrichmentCount;
+	private long failedEnrichmentCount;
+	private long timedOutEnrichmentCount;
+	private volatile boolean isCompressionEnabled;
+	private long incrementalUpdateCount;
+	private boolean isSubprocessPrefetchEnabled;
+	private final Set<String> pendingPrefetches;
+	private long subprocessPrefetchCount;
+	private volatile ConnectorMetrics metrics;
+	private EventTracer tracer;
+	private volatile EventRecorder recorder;
+	private final StateJournal journal;
+	private final AsyncPKIConnector stages;
+	private final BulkOperations bulk;
+	private String metricsAddress;
+	private Handler<Message<JsonObject>> metricsHandler;
+	private final Map<String, Handler<Message<JsonObject>>> eventHandlers;
+	private long cacheLimitBytes;
+	private long nextShedBytes;
+	private final Map<String, Long> eventDeadlineBudgets;
+	private volatile String deadlineTimestampField;
+	private volatile Deadline.ExpiredEventPolicy expiredEventPolicy;
+	private long expiredEventCount;
+	private long droppedExpiredEventCount;
+	private long expiredRequestCount;
+	
+	/**
+	 * Creates the connector.
+	 * @param vertx Vertx runtime for communication channels.
+	 * @param host Hostname to of the pki service.
+	 * @param port Port of the pki service.
+	 * @param isSecure <code>true</code> if the communication should be ssl secured, otherwise <code>false</code>.
+	 * @param basePath Base path of the pki service address.
+	 */
+	public PKIConnector(Vertx vertx, String host, int port, boolean isSecure, String basePath) {
+		this(vertx, host, port, isSecure, basePath, null);
+	}
+	
+	/**
+	 * Creates the connector with a journal of the cached instance state, see {@link StateJournal}.
+	 * The caches for process instances and element instances are restored from the journal. If the journal cannot be opened, the connector runs without it.
+	 * @param vertx Vertx runtime for communication channels.
+	 * @param host Hostname to of the pki service.
+	 * @param port Port of the pki service.
+	 * @param isSecure <code>true</code> if the communication should be ssl secured, otherwise <code>false</code>.
+	 * @param basePath Base path of the pki service address.
+	 * @param journalDirectory Directory of the journal. If <code>null</code>, no journal is kept.
+	 */
+	public PKIConnector(Vertx vertx, String host, int port, boolean isSecure, String basePath, File journalDirectory) {
+		this(vertx, createClient(vertx, host, port, isSecure), basePath, journalDirectory, true);
+	}
+	
+	/**
+	 * Creates the connector with the given HTTP client, e.g. shared with connectors for other tenants of the same PKI host, see {@link MultiTenantConnector}.
+	 * @param vertx Vertx runtime for communication channels.
+	 * @param pkiClient Client for the requests to the pki service.
+	 * @param basePath Base path of the pki service address.
+	 * @param journalDirectory Directory of the journal. If <code>null</code>, no journal is kept.
+	 * @param isRegisteredOnEventBus <code>true</code> to register the event handlers on the event bus, <code>false</code> if the messages are passed in by a router, see {@link #getEventHandler(String)}.
+	 */
+	PKIConnector(Vertx vertx, HttpClient pkiClient, String basePath, File journalDirectory, boolean isRegisteredOnEventBus) {
+		this.vertx = vertx;
+		this.pkiClient = pkiClient;
+		this.basePath = basePath;
+		this.isRegisteredOnEventBus = isRegisteredOnEventBus;
+		isCompressionEnabled = true;
+		enrichmentDeadlineMillis = DEFAULT_ENRICHMENT_DEADLINE;
+		enrichmentPolicy = AsyncJoin.Policy.ALLOW_PARTIAL;
+		isSubprocessPrefetchEnabled = true;
+		pendingPrefetches = new HashSet<>();
+		
+		taskHandlers = new CopyOnWriteArraySet<>();
+		processStartHandlers = new CopyOnWriteArraySet<>();
+		processCompleteHandlers = new CopyOnWriteArraySet<>();
+		processErrorHandlers = new CopyOnWriteArraySet<>();
+		processTerminateHandlers = new CopyOnWriteArraySet<>();
+		processCancelledHandlers = new CopyOnWriteArraySet<>();
+		callActivityHandlers = new CopyOnWriteArraySet<>();
+		processUserRequestHandlers = new CopyOnWriteArraySet<>();
+		processAutomatedFlowHandlers = new CopyOnWriteArraySet<>();
+		
+		processDefinitionsCache = new ConcurrentHashMap<>();
+		processInstancesCache = new ConcurrentHashMap<>();
+		processElementInstancesCache = new ConcurrentHashMap<>();
+		processElementsCache = new ConcurrentHashMap<>();
+		elementHistories = new ConcurrentHashMap<>();
+		elementHistorySize = DEFAULT_ELEMENT_HISTORY_SIZE;
+		footprint = new CacheFootprint();
+		isShedPending = new AtomicBoolean();
+		eventDeadlineBudgets = new ConcurrentHashMap<>();
+		expiredEventPolicy = Deadline.ExpiredEventPolicy.DISPATCH_UNENRICHED;
+		
+		orderedDispatcher = new OrderedDispatcher(64, OrderedDispatcher.OverflowPolicy.DISPATCH_UNORDERED);
+		handlerExecutor = new HandlerExecutor(vertx);
+		deduplicator = null;
+		coalescer = null;
+		metrics = null;
+		tracer = null;
+		journal = journalDirectory != null ? openJournal(journalDirectory) : null;
+		stages = new AsyncPKIConnector(this);
+		bulk = new BulkOperations(this);
+		eventHandlers = new LinkedHashMap<>();
+
+		initializeEventBusHandlers(isRegisteredOnEventBus ? vertx.eventBus() : null);
+	}
+	
+	/**
+	 * Creates a client for requests to the pki service.
+	 * @param vertx Vertx runtime to create the client with.
+	 * @param host Hostname to of the pki service.
+	 * @param port Port of the pki service.
+	 * @param isSecure <code>true</code> if the communication should be ssl secured, otherwise <code>false</code>.
+	 * @return HTTP client.
+	 */
+	static HttpClient createClient(Vertx vertx, String host, int port, boolean isSecure) {
+		HttpClient client = vertx.createHttpClient();
+		client.setHost(host);
+		client.setPort(port);
+		client.setSSL(isSecure);
+		return client;
+	}
+	
+	private StateJournal openJournal(File directory) {
+		StateJournal newJournal;
+		try {
+			newJournal = new StateJournal(directory, JOURNAL_SEGMENT_SIZE, JOURNAL_MAX_SEGMENTS);
+		} catch (IOException e) {
+			logger.error("Failed to open journal, running without it: " + directory, e);
+			return null;
+		}
+		try {
+			long startTime = System.nanoTime();
+			long count = newJournal.replay(new StateJournal.Listener() {
+				
+				@Override
+				public void onEntry(byte type, String key, String value) {
+					try {
+						switch (type) {
+						case StateJournal.TYPE_PROCESS_INSTANCE:
+							putCached(processInstancesCache, ConnectorMetrics.Cache.PROCESS_INSTANCES, key, new ProcessInstance(new JsonObject(value)));
+							break;
+						case StateJournal.TYPE_ELEMENT_INSTANCE:
+							ProcessElementInstance elementInstance = new ProcessElementInstance(new JsonObject(value));
+							String suffix = ":" + elementInstance.getId();
+							if (key.endsWith(suffix)) {
+								String processInstanceId = key.substring(0, key.length() - suffix.length());
+								putCached(processElementInstancesCache, ConnectorMetrics.Cache.PROCESS_ELEMENT_INSTANCES, key, elementInstance);
+								trackElementInstance(processInstanceId, elementInstance.getId());
+							} else {
+								logger.warn("Skipping invalid journal entry: " + key);
+							}
+							break;
+						case StateJournal.TYPE_REMOVE_INSTANCE:
+							removeInstance(key);
+							break;
+						case StateJournal.TYPE_REMOVE_ELEMENT_INSTANCE:
+							int separator = key.lastIndexOf(':');
+							ElementHistory history = separator >= 0 ? elementHistories.get(key.substring(0, separator)) : null;
+							if (history != null) history.remove(key.substring(separator + 1));
+							removeCached(processElementInstancesCache, ConnectorMetrics.Cache.PROCESS_ELEMENT_INSTANCES, key);
+							break;
+						default:
+							logger.warn("Unknown journal entry type: " + type);
+						}
+					} catch (RuntimeException e) {
+						logger.warn("Skipping invalid journal entry: " + key, e);
+					}
+				}
+			});
+			logger.info("Restored " + processInstancesCache.size() + " process instances from " + count + " journal entries in " + (System.nanoTime() - startTime) / 1000000L + " ms.");
+		} catch (IOException e) {
+			logger.error("Failed to replay journal, caches are restored partially.", e);
+		}
+		return newJournal;
+	}
+	
+	/**
+	 * Closes the journal, if any. Cache updates are not journaled afterwards. Pending entries are written in the background.
+	 */
+	public void closeJournal() {
+		if (journal == null) return;
+		journal.close();
+	}
+	
+	/**
+	 * Waits until the journal closed with {@link #closeJournal()} has written all pending entries, e.g. before the process exits.
+	 * @param timeout Maximum time to wait.
+	 * @param unit Unit of the timeout.
+	 * @return <code>true</code> if the journal is closed or no journal is kept, <code>false</code> if the timeout elapsed before.
+	 * @throws InterruptedException The thread was interrupted while waiting.
+	 */
+	public boolean awaitJournal(long timeout, TimeUnit unit) throws InterruptedException {
+		return journal == null || journal.awaitTermination(timeout, unit);
+	}
+	
+	/**
+	 * Closes the connector: the event handlers are unregistered from the event bus, memory pressure shedding, metrics, tracing, and the recording are disabled,
+	 * the parse executor is released, and the journal is closed, see {@link #awaitJournal(long, TimeUnit)}. Requests in flight complete normally.
+	 * The HTTP client is closed, unless it is shared with other tenants of a {@link MultiTenantConnector}, which closes it itself.
+	 * The connector must not be used afterwards.
+	 */
+	public void close() {
+		if (isRegisteredOnEventBus) {
+			for (Map.Entry<String, Handler<Message<JsonObject>>> entry : eventHandlers.entrySet()) {
+				vertx.eventBus().unregisterHandler(entry.getKey(), entry.getValue());
+			}
+		}
+		disableMemoryPressureShedding();
+		disableMetrics();
+		disableTracing();
+		stopRecording();
+		handlerExecutor.setParseExecutor(null);
+		closeJournal();
+		if (isRegisteredOnEventBus) {
+			pkiClient.close();
+		}
+	}
+	
+	private void cacheProcessInstance(String processInstanceId, ProcessInstance processInstance) {
+		putCached(processInstancesCache, ConnectorMetrics.Cache.PROCESS_INSTANCES, processInstanceId, processInstance);
+		journal(StateJournal.TYPE_PROCESS_INSTANCE, processInstanceId, processInstance.asJson());
+	}
+	
+	private void cacheProcessElementInstance(String processInstanceId, ProcessElementInstance elementInstance) {
+		String key = processInstanceId + ":" + elementInstance.getId();
+		putCached(processElementInstancesCache, ConnectorMetrics.Cache.PROCESS_ELEMENT_INSTANCES, key, elementInstance);
+		trackElementInstance(processInstanceId, elementInstance.getId());
+		journal(StateJournal.TYPE_ELEMENT_INSTANCE, key, elementInstance.asJson());
+	}
+	
+	/**
+	 * Records a cached element instance as the current element of its process instance and drops the element instances pushed out of the history.
+	 * @param processInstanceId Identifier of the process instance.
+	 * @param elementId Identifier of the element.
+	 */
+	private void trackElementInstance(String processInstanceId, String elementId) {
+		ElementHistory history = elementHistories.get(processInstanceId);
+		if (history == null) {
+			history = new ElementHistory();
+			ElementHistory existingHistory = elementHistories.putIfAbsent(processInstanceId, history);
+			if (existingHistory != null) history = existingHistory;
+		}
+		for (String evictedElementId : history.push(elementId, elementHistorySize + 1)) {
+			removeCached(processElementInstancesCache, ConnectorMetrics.Cache.PROCESS_ELEMENT_INSTANCES, processInstanceId + ":" + evictedElementId);
+		}
+	}
+	
+	private void removeInstance(String processInstanceId) {
+		removeCached(processInstancesCache, ConnectorMetrics.Cache.PROCESS_INSTANCES, processInstanceId);
+		removeElementInstances(processInstanceId);
+	}
+	
+	/**
+	 * Removes the cached element instances of a process instance.
+	 * @param processInstanceId Identifier of the process instance.
+	 * @return Identifiers of the elements of the removed element instances.
+	 */
+	private List<String> removeElementInstances(String processInstanceId) {
+		ElementHistory history = elementHistories.remove(processInstanceId);
+		if (history == null) return Collections.emptyList();
+		List<String> elementIds = history.getElementIds();
+		for (String elementId : elementIds) {
+			removeCached(processElementInstancesCache, ConnectorMetrics.Cache.PROCESS_ELEMENT_INSTANCES, processInstanceId + ":" + elementId);
+		}
+		return elementIds;
+	}
+	
+	/**
+	 * Caches an entry and accounts its footprint, if a cache limit or shedding under memory pressure is configured. Caches stored off-heap are not accounted.
+	 * @param cache Cache to update.
+	 * @param cacheType Type of the cache.
+	 * @param key Key of the entry.
+	 * @param value Value to cache.
+	 */
+	private <V> void putCached(Map<String, V> cache, ConnectorMetrics.Cache cacheType, String key, V value) {
+		if (cache instanceof OffHeapModelMap) {
+			((OffHeapModelMap<V>) cache).set(key, value);
+			return;
+		}
+		cache.put(key, value);
+		if (!isFootprintAccounted) return;
+		footprint.update(cacheType, key, value);
+		if (cacheLimitBytes > 0 && footprint.getTotalBytes() > nextShedBytes) {
+			scheduleShedding(false);
+		}
+	}
+	
+	/**
+	 * Removes a cache entry and accounts its footprint, if a cache limit or shedding under memory pressure is configured.
+	 * @param cache Cache to update.
+	 * @param cacheType Type of the cache.
+	 * @param key Key of the entry.
+	 */
+	private <V> void removeCached(Map<String, V> cache, ConnectorMetrics.Cache cacheType, String key) {
+		if (cache instanceof OffHeapModelMap) {
+			((OffHeapModelMap<V>) cache).delete(key);
+			return;
+		}
+		if (cache.remove(key) != null && isFootprintAccounted) footprint.update(cacheType, key, null);
+	}
+	
+	/**
+	 * Starts or stops the accounting of the cache footprint, which is only needed while a cache limit or shedding under memory pressure is configured.
+	 * Entries cached before the accounting starts are accounted when it starts.
+	 */
+	private void updateFootprintAccounting() {
+		boolean isAccounted = cacheLimitBytes > 0 || memoryMonitor != null;
+		if (isAccounted == isFootprintAccounted) return;
+		isFootprintAccounted = isAccounted;
+		if (isAccounted) {
+			accountFootprint(processDefinitionsCache, ConnectorMetrics.Cache.PROCESS_DEFINITIONS);
+			accountFootprint(processInstancesCache, ConnectorMetrics.Cache.PROCESS_INSTANCES);
+			accountFootprint(processElementsCache, ConnectorMetrics.Cache.PROCESS_ELEMENTS);
+			accountFootprint(processElementInstancesCache, ConnectorMetrics.Cache.PROCESS_ELEMENT_INSTANCES);
+		} else {
+			for (ConnectorMetrics.Cache cacheType : ConnectorMetrics.Cache.values()) {
+				footprint.reset(cacheType);
+			}
+		}
+	}
+	
+	private <V> void accountFootprint(Map<String, V> cache, ConnectorMetrics.Cache cacheType) {
+		if (cache instanceof OffHeapModelMap) return;
+		for (Map.Entry<String, V> entry : cache.entrySet()) {
+			footprint.update(cacheType, entry.getKey(), entry.getValue());
+		}
+	}
+	
+	/**
+	 * Schedules the shedding of cache entries on the event loop, unless it is already scheduled.
+	 * @param isMemoryPressure <code>true</code> if the JVM reported memory pressure, <code>false</code> if the cache limit is exceeded.
+	 */
+	private void scheduleShedding(final boolean isMemoryPressure) {
+		if (!isShedPending.compareAndSet(false, true)) return;
+		runOnEventLoop(new VoidHandler() {
+			
+			@Override
+			protected void handle() {
+				isShedPending.set(false);
+				if (isMemoryPressure) memoryPressureCount++;
+				shedCaches(isMemoryPressure ? footprint.getTotalBytes() / 2 : cacheLimitBytes * 3 / 4);
+			}
+		});
+	}
+	
+	/**
+	 * Sheds cache entries, least valuable first, until the estimated footprint falls below a target:
+	 * element instances of completed process instances, completed process instances, previous element instances of running process instances, and element definitions.
+	 * Process definitions and the current state of running process instances are kept, as events of running instances need them.
+	 * Shed instances are journaled as removed, so that they are not restored after a restart.
+	 * @param targetBytes Estimated footprint to reach.
+	 */
+	private void shedCaches(long targetBytes) {
+		long initialBytes = footprint.getTotalBytes();
+		long shedCount = 0;
+		
+		List<String> completedInstanceIds = new ArrayList<>();
+		for (String processInstanceId : processInstancesCache.keySet()) {
+			ProcessInstance processInstance = processInstancesCache.get(processInstanceId);
+			if (processInstance != null && !processInstance.isRunning()) completedInstanceIds.add(processInstanceId);
+		}
+		for (String processInstanceId : completedInstanceIds) {
+			for (String elementId : removeElementInstances(processInstanceId)) {
+				journal(StateJournal.TYPE_REMOVE_ELEMENT_INSTANCE, processInstanceId + ":" + elementId, null);
+				shedCount++;
+			}
+		}
+		if (footprint.getTotalBytes() > targetBytes) {
+			for (String processInstanceId : completedInstanceIds) {
+				removeCached(processInstancesCache, ConnectorMetrics.Cache.PROCESS_INSTANCES, processInstanceId);
+				journal(StateJournal.TYPE_REMOVE_INSTANCE, processInstanceId, null);
+				shedCount++;
+			}
+		}
+		if (footprint.getTotalBytes() > targetBytes) {
+			for (Map.Entry<String, ElementHistory> entry : elementHistories.entrySet()) {
+				for (String elementId : entry.getValue().trim(1)) {
+					String key = entry.getKey() + ":" + elementId;
+					removeCached(processElementInstancesCache, ConnectorMetrics.Cache.PROCESS_ELEMENT_INSTANCES, key);
+					journal(StateJournal.TYPE_REMOVE_ELEMENT_INSTANCE, key, null);
+					shedCount++;
+				}
+			}
+		}
+		if (footprint.getTotalBytes() > targetBytes) {
+			shedCount += processElementsCache.size();
+			processElementsCache.clear();
+			footprint.reset(ConnectorMetrics.Cache.PROCESS_ELEMENTS);
+		}
+		shedEntryCount += shedCount;
+		// Entries which cannot be shed must not cause shedding on every update.
+		nextShedBytes = Math.max(cacheLimitBytes, footprint.getTotalBytes() + cacheLimitBytes / 4);
+		logger.info("Shed " + shedCount + " cache entries, estimated footprint reduced from " + initialBytes + " to " + footprint.getTotalBytes() + " bytes.");
+	}
+	
+	private void journal(byte type, String key, JsonObject value) {
+		if (journal == null) return;
+		journal.append(type, key, value != null ? value.encode() : null); // Encoded here, as the value may be modified after the call.
+	}
+	
+	/**
+	 * Helper to load the process definition, the process instance, and the current element instance into the cache.
+	 * The requests are joined with the configured deadline and policy, see {@link #configureEnrichment(long, AsyncJoin.Policy)}, or the deadline of the event if it passes earlier.
+	 * @param event Event containing the identifiers. 
+	 * @param deadline Deadline of the event. Requests are not issued after it passed.
+	 * @param trace Trace to record the requests in. May be <code>null</code>.
+	 * @param completeHandler Handler for the result of the retrieval.
+	 */
+	private void retrieveData(ProcessEvent event, Deadline deadline, final EventTracer.TraceRecord trace, Handler<AsyncJoin.Result> completeHandler) {
+		final String processId = event.getProcessId();
+		String processInstanceId = event.getProcessInstanceId();
+		String elementId = event.getElementId();
+		
+		final AsyncJoin join = new AsyncJoin(vertx, 3, enrichmentPolicy, completeHandler);
+		if (isCached(processDefinitionsCache, ConnectorMetrics.Cache.PROCESS_DEFINITIONS, processId)) {
+			if (trace != null) trace.requestStarted("processDefinition", true);
+			join.succeed();
+		} else {
+			final int traceSlot = trace != null ? trace.requestStarted("processDefinition", false) : -1;
+			getProcessDefinition(processId, deadline, new AsyncResultHandler<ProcessDefinition>() {
+
+				@Override
+				public void handle(AsyncResult<ProcessDefinition> result) {
+					if (trace != null) trace.requestCompleted(traceSlot);
+					join.complete("processDefinition", result);
+				}
+			});
+		}
+		if (isCached(processInstancesCache, ConnectorMetrics.Cache.PROCESS_INSTANCES, processInstanceId)) {
+			if (trace != null) trace.requestStarted("processInstance", true);
+			join.succeed();
+		} else {
+			final int traceSlot = trace != null ? trace.requestStarted("processInstance", false) : -1;
+			getProcessInstance(processInstanceId, deadline, new AsyncResultHandler<ProcessInstance>() {
+
+				@Override
+				public void handle(AsyncResult<ProcessInstance> result) {
+					if (trace != null) trace.requestCompleted(traceSlot);
+					join.complete("processInstance", result);
+				}
+			});
+		}
+		if (isCached(processElementInstancesCache, ConnectorMetrics.Cache.PROCESS_ELEMENT_INSTANCES, processInstanceId + ":" + elementId)) {
+			if (trace != null) trace.requestStarted("processElement", true);
+			// The instance returned to an element passed before, e.g. in a loop.
+			trackElementInstance(processInstanceId, elementId);
+			join.succeed();
+		} else {
+			final int traceSlot = trace != null ? trace.requestStarted("processElement", false) : -1;
+			getCurrentElement(processInstanceId, event.getSessionId(), deadline, new AsyncResultHandler<ProcessElementInstance>() {
+
+				@Override
+				public void handle(AsyncResult<ProcessElementInstance> result) {
+					if (trace != null) trace.requestCompleted(traceSlot);
+					if (isIncrementalUpdateEnabled && result.succeeded() && result.result() != null && processId != null) {
+						cacheElementDefinition(processId, result.result());
+					}
+					join.complete("processElement", result);
+				}
+			});
+		}
+		long remainingMillis = deadline.getRemainingMillis();
+		join.setDeadline(deadline == Deadline.NONE || (enrichmentDeadlineMillis > 0 && enrichmentDeadlineMillis < remainingMillis) ? enrichmentDeadlineMillis : Math.max(1, remainingMillis));
+	}
+	
+	/**
+	 * Returns the deadline of an incoming event, see {@link #configureEventDeadline(String, long)}.
+	 * @param eventModelId Model identifier of the event type.
+	 * @param body Message content.
+	 * @param receiveTime Time the message arrived, in milliseconds since the epoch.
+	 * @return Deadline of the event, {@link Deadline#NONE} if no budget is configured.
+	 */
+	private Deadline getEventDeadline(String eventModelId, JsonObject body, long receiveTime) {
+		Long budget = eventDeadlineBudgets.get(eventModelId);
+		if (budget == null) budget = eventDeadlineBudgets.get(DEFAULT_DEADLINE_KEY);
+		if (budget == null) return Deadline.NONE;
+		long originTime = receiveTime;
+		String timestampField = deadlineTimestampField;
+		Object timestamp = timestampField != null && body != null ? body.getField(timestampField) : null;
+		if (timestamp instanceof Number) {
+			originTime = ((Number) timestamp).longValue();
+		} else if (timestamp instanceof String) {
+			try {
+				originTime = OffsetDateTime.parse((String) timestamp, EVENT_TIMESTAMP_FORMAT).toInstant().toEpochMilli();
+			} catch (DateTimeParseException e) {
+				logger.debug("Invalid event timestamp, using arrival time: " + timestamp);
+			}
+		}
+		// Events cannot be created after they arrived, the clocks disagree in that case.
+		return Deadline.at(Math.min(originTime, receiveTime) + budget);
+	}
+	
+	/**
+	 * Fails a request without issuing it if its deadline has passed.
+	 * @param deadline Deadline of the request.
+	 * @param operation Name of the operation.
+	 * @param resultHandler Handler to fail.
+	 * @return <code>true</code> if the deadline has passed and the handler is failed, <code>false</code> if the request has to be issued.
+	 */
+	private <T> boolean isExpired(Deadline deadline, final String operation, AsyncResultHandler<T> resultHandler) {
+		if (!deadline.isExpired()) return false;
+		expiredRequestCount++;
+		resultHandler.handle(new AsyncResult<T>() {
+			
+			@Override
+			public T result() {
+				return null;
+			}
+			
+			@Override
+			public Throwable cause() {
+				return new TimeoutException("Deadline passed before " + operation + " was issued.");
+			}
+			
+			@Override
+			public boolean succeeded() {
+				return false;
+			}
+			
+			@Override
+			public boolean failed() {
+				return true;
+			}
+		});
+		return true;
+	}
+	
+	/**
+	 * Prefetches the definition and the start element of the process called by a call activity, so that the start event of the subprocess finds them cached.
+	 * The called process is read from the cached element of the call activity. Failures are only logged, as the start event retrieves missing data in any case.
+	 * @param event Call activity event.
+	 */
+	private void prefetchCalledProcess(ProcessEvent event) {
+		String processInstanceId = event.getProcessInstanceId();
+		String elementId = event.getElementId();
+		if (processInstanceId == null || elementId == null) return;
+		ProcessElement element = processElementInstancesCache.get(processInstanceId + ":" + elementId);
+		if (element == null && event.getProcessId() != null) {
+			element = processElementsCache.get(event.getProcessId() + ":" + elementId);
+		}
+		final String calledProcessId = element != null ? element.getCalledElement() : null;
+		if (calledProcessId == null || !pendingPrefetches.add(calledProcessId)) return;
+		
+		ProcessDefinition definition = processDefinitionsCache.get(calledProcessId);
+		if (definition != null) {
+			if (prefetchStartElement(calledProcessId, definition)) subprocessPrefetchCount++;
+			return;
+		}
+		subprocessPrefetchCount++;
+		getProcessDefinition(calledProcessId, new AsyncResultHandler<ProcessDefinition>() {
+			
+			@Override
+			public void handle(AsyncResult<ProcessDefinition> result) {
+				if (result.succeeded() && result.result() != null) {
+					prefetchStartElement(calledProcessId, result.result());
+				} else {
+					pendingPrefetches.remove(calledProcessId);
+					logger.debug("Failed to prefetch called process: " + calledProcessId);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Prefetches the start element of a process definition unless it is cached.
+	 * @param processId Identifier of the process definition.
+	 * @param definition Process definition.
+	 * @return <code>true</code> if the start element is retrieved, <code>false</code> if it is cached or not specified.
+	 */
+	private boolean prefetchStartElement(final String processId, ProcessDefinition definition) {
+		String startElementId = definition.getStartElementId();
+		if (startElementId == null || processElementsCache.containsKey(processId + ":" + startElementId)) {
+			pendingPrefetches.remove(processId);
+			return false;
+		}
+		getProcessElement(processId, startElementId, new AsyncResultHandler<ProcessElement>() {
+			
+			@Override
+			public void handle(AsyncResult<ProcessElement> result) {
+				pendingPrefetches.remove(processId);
+				if (!result.succeeded()) {
+					logger.debug("Failed to prefetch start element of called process: " + processId);
+				}
+			}
+		});
+		return true;
+	}
+	
+	/**
+	 * Counts the result of a data retrieval for the metrics snapshot.
+	 * @param result Result of the retrieval.
+	 */
+	private void countEnrichment(AsyncJoin.Result result) {
+		switch (result.getStatus()) {
+		case PARTIAL:
+			partialEnrichmentCount++;
+			break;
+		case FAILED:
+			failedEnrichmentCount++;
+			break;
+		case TIMED_OUT:
+			timedOutEnrichmentCount++;
+			break;
+		default:
+			break;
+		}
+		if (!result.getErrors().isEmpty() || result.getPendingCount() > 0) {
+			logger.debug("Incomplete data retrieval: " + result.asJson().encode());
+		}
+	}
+	
+	/**
+	 * Updates the running flag of a cached process instance for start, complete, terminate, and cancelled events.
+	 * @param event Event to apply.
+	 */
+	private void applyRunningState(ProcessEvent event) {
+		boolean isRunning;
+		if (event instanceof ProcessStartEvent) {
+			isRunning = true;
+		} else if (event instanceof ProcessCompleteEvent || event instanceof ProcessTerminateEvent || event instanceof ProcessCancelledEvent) {
+			isRunning = false;
+		} else {
+			return;
+		}
+		String processInstanceId = event.getProcessInstanceId();
+		ProcessInstance processInstance = processInstanceId != null ? processInstancesCache.get(processInstanceId) : null;
+		if (processInstance != null && processInstance.isRunning() != isRunning) {
+			// Cached models may be held by handlers, hence they are replaced instead of modified.
+			cacheProcessInstance(processInstanceId, new ProcessInstance(processInstance.asJson().copy().putBoolean("isRunning", isRunning)));
+		}
+	}
+	
+	/**
+	 * Derives the data of an event from the caches instead of retrieving it.
+	 * The current element instance is created from the cached element definition, with the previously current element of the instance as previous element.
+	 * @param event Event to apply.
+	 * @return <code>true</code> if all data for the event is cached afterwards, <code>false</code> if it has to be retrieved.
+	 */
+	private boolean applyIncrementally(ProcessEvent event) {
+		String processId = event.getProcessId();
+		String processInstanceId = event.getProcessInstanceId();
+		String elementId = event.getElementId();
+		if (processId == null || processInstanceId == null || elementId == null) {
+			return false;
+		}
+		if (!processDefinitionsCache.containsKey(processId) || !processInstancesCache.containsKey(processInstanceId)) {
+			return false;
+		}
+		if (processElementInstancesCache.containsKey(processInstanceId + ":" + elementId)) {
+			// Loops revisit cached elements, which become the current element again.
+			trackElementInstance(processInstanceId, elementId);
+			return true;
+		}
+		ProcessElement element = processElementsCache.get(processId + ":" + elementId);
+		if (element == null) {
+			return false;
+		}
+		JsonObject json = element.asJson().copy();
+		ElementHistory history = elementHistories.get(processInstanceId);
+		String previousElement = history != null ? history.getCurrent() : null;
+		if (previousElement != null && !previousElement.equals(elementId)) {
+			json.putString("previousElement", previousElement);
+		}
+		JsonObject executionInfo = new JsonObject();
+		if (event.getSessionId() != null) executionInfo.putString("sessionId", event.getSessionId());
+		if (event.getUserId() != null) executionInfo.putString("userId", event.getUserId());
+		json.putObject("executionInfo", executionInfo);
+		try {
+			cacheProcessElementInstance(processInstanceId, new ProcessElementInstance(json));
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Caches the definition part of a retrieved element instance, to derive element instances of other process instances from it.
+	 * @param processId Identifier of the process definition.
+	 * @param elementInstance Retrieved element instance.
+	 */
+	private void cacheElementDefinition(String processId, ProcessElementInstance elementInstance) {
+		String key = processId + ":" + elementInstance.getId();
+		if (processElementsCache.containsKey(key)) return;
+		JsonObject json = elementInstance.asJson().copy();
+		json.removeField("previousElement");
+		json.removeField("executionInfo");
+		try {
+			putCached(processElementsCache, ConnectorMetrics.Cache.PROCESS_ELEMENTS, key, new ProcessElement(json));
+		} catch (IllegalArgumentException e) {
+			logger.debug("Cannot derive element definition: " + key);
+		}
+	}
+	
+	/**
+	 * Checks if an entry is cached and records the cache access.
+	 * @param cache Cache to check.
+	 * @param cacheType Type of the cache for the metrics.
+	 * @param key Key of the entry. May be <code>null</code>.
+	 * @return <code>true</code> if the entry is cached, otherwise <code>false</code>.
+	 */
+	private boolean isCached(Map<String, ?> cache, ConnectorMetrics.Cache cacheType, String key) {
+		boolean isCached = key != null && cache.containsKey(key);
+		ConnectorMetrics currentMetrics = metrics;
+		if (currentMetrics != null) {
+			currentMetrics.recordCacheAccess(cacheType, isCached);
+		}
+		return isCached;
+	}
+	
+	/**
+	 * Returns a cache entry and records the cache access.
+	 * @param cache Cache to read.
+	 * @param cacheType Type of the cache for the metrics.
+	 * @param key Key of the entry. May be <code>null</code>.
+	 * @return Cached entry or <code>null</code> if the entry is not cached.
+	 */
+	private <V> V getCached(Map<String, V> cache, ConnectorMetrics.Cache cacheType, String key) {
+		V entry = key != null ? cache.get(key) : null;
+		ConnectorMetrics currentMetrics = metrics;
+		if (currentMetrics != null) {
+			currentMetrics.recordCacheAccess(cacheType, entry != null);
+		}
+		return entry;
+	}
+	
+	/**
+	 * Adds the accepted content encodings to a PKI request if compression is enabled.
+	 * @param request Request to prepare.
+	 * @return The request.
+	 */
+	private HttpClientRequest acceptCompression(HttpClientRequest request) {
+		if (isCompressionEnabled) request.putHeader("Accept-Encoding", "gzip, deflate");
+		return request;
+	}
+	
+	/**
+	 * Records the latency of a PKI request if metrics are enabled.
+	 * @param operation Name of the operation.
+	 * @param startTime Start time of the request as returned by {@link System#nanoTime()}.
+	 * @param result Result of the request.
+	 */
+	private void recordRequest(String operation, long startTime, AsyncResult<?> result) {
+		ConnectorMetrics currentMetrics = metrics;
+		if (currentMetrics == null) return;
+		int statusCode;
+		if (result.succeeded()) {
+			statusCode = 200;
+		} else if (result.cause() instanceof HttpException) {
+			statusCode = ((HttpException) result.cause()).getStatusCode();
+		} else {
+			statusCode = 0;
+		}
+		currentMetrics.recordRequest(operation, statusCode, System.nanoTime() - startTime);
+	}
+	
+	/**
+	 * Base for the event bus handlers.
+	 * Parses the incoming message, loads the related data into the cache if required, and dispatches the event in order of arrival per process instance.
+	 * @param <E> Type of the event to handle.
+	 */
+	private abstract class ProcessEventHandler<E extends ProcessEvent> implements Handler<Message<JsonObject>> {
+		private final String eventModelId;
+		private final boolean retrieveData;
+		
+		/**
+		 * Creates the handler.
+		 * @param eventModelId Model identifier of the event type to handle.
+		 * @param retrieveData <code>true</code> if the related process data has to be cached before the event is dispatched, otherwise <code>false</code>.
+		 */
+		public ProcessEventHandler(String eventModelId, boolean retrieveData) {
+			this.eventModelId = eventModelId;
+			this.retrieveData = retrieveData;
+		}
+		
+		/**
+		 * Parses the event from the message content. May be called outside the event loop.
+		 * @param content Message content.
+		 * @return Parsed event.
+		 * @throws IllegalArgumentException The content does not represent a valid event.
+		 */
+		protected abstract E parse(Map<String, Object> content) throws IllegalArgumentException;
+		
+		/**
+		 * Returns the handlers to dispatch the event to.
+		 * @return Registered handlers.
+		 */
+		protected abstract Set<? extends Handler<? super E>> getHandlers();
+		
+		@Override
+		public void handle(final Message<JsonObject> message) {
+			final long receiveTime = System.nanoTime();
+			final Deadline deadline = retrieveData ? getEventDeadline(eventModelId, message.body(), System.currentTimeMillis()) : Deadline.NONE;
+			EventRecorder currentRecorder = recorder;
+			if (currentRecorder != null) currentRecorder.recordEvent("appsist:event:" + eventModelId, message.body());
+			final EventTracer currentTracer = tracer;
+			final EventTracer.TraceRecord trace = currentTracer != null ? currentTracer.sample(eventModelId) : null;
+			// The position in the dispatch order is taken on arrival, as parsing on the parse executor may complete out of order.
+			String processInstanceId = peekProcessInstanceId(message.body());
+			final OrderedDispatcher.Reservation reservation = processInstanceId != null ? orderedDispatcher.reserve(processInstanceId) : null;
+			handlerExecutor.parse(new HandlerExecutor.Parser<E>() {
+				
+				@Override
+				public E parse() {
+					long startTime = System.nanoTime();
+					if (trace != null) trace.parseStarted();
+					try {
+						E event = ProcessEventHandler.this.parse(message.body().toMap());
+						if (trace != null) trace.parseCompleted(event.getId(), event.getProcessInstanceId());
+						return event;
+					} catch (IllegalArgumentException e) {
+						logger.warn("Failed to parse event.", e);
+						return null;
+					} finally {
+						ConnectorMetrics currentMetrics = metrics;
+						if (currentMetrics != null) currentMetrics.recordEvent(eventModelId, ConnectorMetrics.Stage.PARSE, System.nanoTime() - startTime);
+					}
+				}
+			}, new Handler<E>() {
+				
+				@Override
+				public void handle(E event) {
+					if (event == null) {
+						// Parsing failed, including unexpected exceptions caught by the executor.
+						if (trace != null) currentTracer.discard(trace);
+						if (reservation != null) reservation.cancel();
+						return;
+					}
+					submit(event, reservation, receiveTime, deadline, currentTracer, trace);
+				}
+			});
+		}
+		
+		private void submit(final E event, OrderedDispatcher.Reservation reservation, final long receiveTime, final Deadline deadline, final EventTracer currentTracer, final EventTracer.TraceRecord trace) {
+			if (deduplicator != null && deduplicator.isDuplicate(event.getId(), event.getProcessInstanceId(), System.currentTimeMillis())) {
+				logger.debug("Dropped duplicate event: " + event.getId());
+				if (trace != null) currentTracer.discard(trace);
+				if (reservation != null) reservation.cancel();
+				return;
+			}
+			
+			OrderedDispatcher.Entry entry = new OrderedDispatcher.Entry() {
+				private AsyncJoin.Result enrichment = AsyncJoin.Result.EMPTY;
+				private boolean isDropped = false;
+				
+				@Override
+				protected void prepare(VoidHandler readyHandler) {
+					final ConnectorMetrics currentMetrics = metrics;
+					if (retrieveData && currentMetrics != null) {
+						final long startTime = System.nanoTime();
+						final VoidHandler dispatchHandler = readyHandler;
+						readyHandler = new VoidHandler() {
+							
+							@Override
+							protected void handle() {
+								currentMetrics.recordEvent(eventModelId, ConnectorMetrics.Stage.ENRICH, System.nanoTime() - startTime);
+								dispatchHandler.handle(null);
+							}
+						};
+					}
+					if (retrieveData && trace != null) {
+						trace.enrichStarted();
+						final VoidHandler dispatchHandler = readyHandler;
+						readyHandler = new VoidHandler() {
+							
+							@Override
+							protected void handle() {
+								trace.enrichCompleted();
+								dispatchHandler.handle(null);
+							}
+						};
+					}
+					final VoidHandler enrichedHandler = readyHandler;
+					Handler<AsyncJoin.Result> resultHandler = new Handler<AsyncJoin.Result>() {
+						
+						@Override
+						public void handle(AsyncJoin.Result result) {
+							enrichment = result;
+							countEnrichment(result);
+							if (deadline.isExpired()) {
+								expiredEventCount++;
+								if (expiredEventPolicy == Deadline.ExpiredEventPolicy.DROP) {
+									isDropped = true;
+									droppedExpiredEventCount++;
+								}
+							}
+							enrichedHandler.handle(null);
+						}
+					};
+					applyRunningState(event);
+					if (retrieveData && deadline.isExpired()) {
+						// Expired before the retrieval started, no requests are issued.
+						new AsyncJoin(vertx, 3, enrichmentPolicy, resultHandler).expire();
+					} else if (retrieveData && isIncrementalUpdateEnabled && applyIncrementally(event)) {
+						incrementalUpdateCount++;
+						readyHandler.handle(null);
+					} else if (retrieveData && coalescer != null) {
+						coalescer.enrich(event, deadline, resultHandler);
+					} else if (retrieveData) {
+						retrieveData(event, deadline, trace, resultHandler);
+					} else {
+						readyHandler.handle(null);
+					}
+				}
+				
+				@Override
+				protected void dispatch(final VoidHandler completeHandler) {
+					if (isDropped) {
+						logger.debug("Dropped expired event: " + event.getId());
+						if (trace != null) currentTracer.discard(trace);
+						completeHandler.handle(null);
+						return;
+					}
+					ConnectorMetrics currentMetrics = metrics;
+					if (currentMetrics != null) currentMetrics.recordEvent(eventModelId, ConnectorMetrics.Stage.DISPATCH, System.nanoTime() - receiveTime);
+					if (isSubprocessPrefetchEnabled && event instanceof CallActivityEvent) {
+						prefetchCalledProcess(event);
+					}
+					if (journal != null && (event instanceof ProcessCompleteEvent || event instanceof ProcessTerminateEvent || event instanceof ProcessCancelledEvent)) {
+						journal(StateJournal.TYPE_REMOVE_INSTANCE, event.getProcessInstanceId(), null);
+					}
+					if (trace == null) {
+						handlerExecutor.dispatch(eventModelId, event, getHandlers(), enrichment, null, completeHandler);
+						return;
+					}
+					trace.dispatchStarted();
+					handlerExecutor.dispatch(eventModelId, event, getHandlers(), enrichment, trace, new VoidHandler() {
+						
+						@Override
+						protected void handle() {
+							currentTracer.complete(trace);
+							completeHandler.handle(null);
+						}
+					});
+				}
+				
+				@Override
+				protected void discard() {
+					if (trace != null) currentTracer.discard(trace);
+				}
+			};
+			if (reservation != null) {
+				reservation.fill(entry);
+			} else {
+				orderedDispatcher.submit(event.getProcessInstanceId(), entry);
+			}
+		}
+	}
+	
+	/**
+	 * Reads the process instance identifier from an event message without parsing the event.
+	 * @param body Message body.
+	 * @return Identifier of the process instance or <code>null</code> if the message contains none.
+	 */
+	private static String peekProcessInstanceId(JsonObject body) {
+		Object payload = body != null ? body.getField("payload") : null;
+		Object processInstanceId = payload instanceof JsonObject ? ((JsonObject) payload).getField("processInstanceId") : null;
+		return processInstanceId instanceof String ? (String) processInstanceId : null;
+	}
+	
+	/**
+	 * Registers a handler for events.
+	 * @param eventBus Event bus to register the handler on. If <code>null</code>, the handler is only collected.
+	 * @param address Address of the events.
+	 * @param handler Handler for the event messages.
+	 */
+	private void registerEventHandler(EventBus eventBus, String address, Handler<Message<JsonObject>> handler) {
+		eventHandlers.put(address, handler);
+		if (eventBus != null) eventBus.registerHandler(address, handler);
+	}
+	
+	/**
+	 * Returns the event bus addresses of the handlers for events.
+	 * @return Unmodifiable set of addresses.
+	 */
+	Set<String> getEventAddresses() {
+		return Collections.unmodifiableSet(eventHandlers.keySet());
+	}
+	
+	/**
+	 * Returns the handler for events on an address, to pass in messages received by a router.
+	 * @param address Event bus address.
+	 * @return Handler or <code>null</code> if the connector does not handle events on the address.
+	 */
+	Handler<Message<JsonObject>> getEventHandler(String address) {
+		return eventHandlers.get(address);
+	}
+	
+	/**
+	 * Register for events on the event bus.
+	 * @param eventBus Event bus to connect to. If <code>null</code>, the handlers are only collected.
+	 */
+	private void initializeEventBusHandlers(EventBus eventBus) {
+		
+		// Tasks
+		registerEventHandler(eventBus, "appsist:event:" + ManualTaskEvent.MODEL_ID, new ProcessEventHandler<ManualTaskEvent>(ManualTaskEvent.MODEL_ID, true) {
+			@Override
+			protected ManualTaskEvent parse(Map<String, Object> content) {
+				return EventUtil.parseEvent(content, ManualTaskEvent.class);
+			}
+
+			@Override
+			protected Set<Handler<TaskEvent>> getHandlers() {
+				return taskHandlers;
+			}
+		});
+		registerEventHandler(eventBus, "appsist:event:" + UserTaskEvent.MODEL_ID, new ProcessEventHandler<UserTaskEvent>(UserTaskEvent.MODEL_ID, true) {
+			@Override
+			protected UserTaskEvent parse(Map<String, Object> content) {
+				return EventUtil.parseEvent(content, UserTaskEvent.class);
+			}
+
+			@Override
+			protected Set<Handler<TaskEvent>> getHandlers() {
+				return taskHandlers;
+			}
+		});
+		registerEventHandler(eventBus, "appsist:event:" + ServiceTaskEvent.MODEL_ID, new ProcessEventHandler<ServiceTaskEvent>(ServiceTaskEvent.MODEL_ID, true) {
+			@Override
+			protected ServiceTaskEvent parse(Map<String, Object> content) {
+				return EventUtil.parseEvent(content, ServiceTaskEvent.class);
+			}
+
+			@Override
+			protected Set<Handler<TaskEvent>> getHandlers() {
+				return taskHandlers;
+			}
+		});
+		
+		// Process Start
+		registerEventHandler(eventBus, "appsist:event:" + ProcessStartEvent.MODEL_ID, new ProcessEventHandler<ProcessStartEvent>(ProcessStartEvent.MODEL_ID, true) {
+			@Override
+			protected ProcessStartEvent parse(Map<String, Object> content) {
+				return EventUtil.parseEvent(content, ProcessStartEvent.class);
+			}
+
+			@Override
+			protected Set<Handler<ProcessStartEvent>> getHandlers() {
+				return processStartHandlers;
+			}
+		});
+		
+		// Process Complete
+		registerEventHandler(eventBus, "appsist:event:" + ProcessCompleteEvent.MODEL_ID, new ProcessEventHandler<ProcessCompleteEvent>(ProcessCompleteEvent.MODEL_ID, false) {
+			@Override
+			protected ProcessCompleteEvent parse(Map<String, Object> content) {
+				return EventUtil.parseEvent(content, ProcessCompleteEvent.class);
+			}
+
+			@Override
+			protected Set<Handler<ProcessCompleteEvent>> getHandlers() {
+				return processCompleteHandlers;
+			}
+		});
+		
+		// Process Error
+		registerEventHandler(eventBus, "appsist:event:" + ProcessErrorEvent.MODEL_ID, new ProcessEventHandler<ProcessErrorEvent>(ProcessErrorEvent.MODEL_ID, false) {
+			@Override
+			protected ProcessErrorEvent parse(Map<String, Object> content) {
+				ProcessErrorEvent event = EventUtil.parseEvent(content, ProcessErrorEvent.class);
+				logger.info("[PSD] Received process error event: " + new JsonObject(content).encode());
+				return event;
+			}
+
+			@Override
+			protected Set<Handler<ProcessErrorEvent>> getHandlers() {
+				return processErrorHandlers;
+			}
+		});
+		
+		// Process Terminated
+		registerEventHandler(eventBus, "appsist:event:" + ProcessTerminateEvent.MODEL_ID, new ProcessEventHandler<ProcessTerminateEvent>(ProcessTerminateEvent.MODEL_ID, false) {
+			@Override
+			protected ProcessTerminateEvent parse(Map<String, Object> content) {
+				return EventUtil.parseEvent(content, ProcessTerminateEvent.class);
+			}
+
+			@Override
+			protected Set<Handler<ProcessTerminateEvent>> getHandlers() {
+				return processTerminateHandlers;
+			}
+		});
+		
+		// Process Cancelled
+		registerEventHandler(eventBus, "appsist:event:" + ProcessCancelledEvent.MODEL_ID, new ProcessEventHandler<ProcessCancelledEvent>(ProcessCancelledEvent.MODEL_ID, false) {
+			@Override
+			protected ProcessCancelledEvent parse(Map<String, Object> content) {
+				return EventUtil.parseEvent(content, ProcessCancelledEvent.class);
+			}
+
+			@Override
+			protected Set<Handler<ProcessCancelledEvent>> getHandlers() {
+				return processCancelledHandlers;
+			}
+		});
+		
+		// Call Activity
+		registerEventHandler(eventBus, "appsist:event:" + CallActivityEvent.MODEL_ID, new ProcessEventHandler<CallActivityEvent>(CallActivityEvent.MODEL_ID, true) {
+			@Override
+			protected CallActivityEvent parse(Map<String, Object> content) {
+				return EventUtil.parseEvent(content, CallActivityEvent.class);
+			}
+
+			@Override
+			protected Set<Handler<CallActivityEvent>> getHandlers() {
+				return callActivityHandlers;
+			}
+		});
+		
+		// User Requests
+		registerEventHandler(eventBus, "appsist:event:" + ProcessUserRequestEvent.MODEL_ID, new ProcessEventHandler<ProcessUserRequestEvent>(ProcessUserRequestEvent.MODEL_ID, true) {
+			@Override
+			protected ProcessUserRequestEvent parse(Map<String, Object> content) {
+				return EventUtil.parseEvent(content, ProcessUserRequestEvent.class);
+			}
+
+			@Override
+			protected Set<Handler<ProcessUserRequestEvent>> getHandlers() {
+				return processUserRequestHandlers;
+			}
+		});
+		
+		// Automated Flows
+		registerEventHandler(eventBus, "appsist:event:" + ProcessAutomatedFlowEvent.MODEL_ID, new ProcessEventHandler<ProcessAutomatedFlowEvent>(ProcessAutomatedFlowEvent.MODEL_ID, true) {
+			@Override
+			protected ProcessAutomatedFlowEvent parse(Map<String, Object> content) {
+				return new ProcessAutomatedFlowEvent(content);
+			}
+
+			@Override
+			protected Set<Handler<ProcessAutomatedFlowEvent>> getHandlers() {
+				return processAutomatedFlowHandlers;
+			}
+		});
+	}
+
+	/**
+	 * Configures the ordered dispatch of events. Events of the same process instance are dispatched in order of their arrival, even if the data retrieval of a later event completes first.
+	 * By default, up to 64 events are queued per process instance, further events are dispatched unordered.
+	 * @param maxQueueSize Maximum number of pending events per process instance.
+	 * @param overflowPolicy Policy to apply when the queue of a process instance is full.
+	 * @throws IllegalArgumentException The queue size is not positive or the policy is <code>null</code>.
+	 */
+	public void configureOrderedDispatch(int maxQueueSize, OrderedDispatcher.OverflowPolicy overflowPolicy) throws IllegalArgumentException {
+		orderedDispatcher.setMaxQueueSize(maxQueueSize);
+		orderedDispatcher.setOverflowPolicy(overflowPolicy);
+	}
+	
+	/**
+	 * Configures the detection of duplicate events. An event is considered as duplicate if an event with the same identifier for the same process instance was received before within the window.
+	 * Detection is disabled by default.
+	 * @param capacity Maximum number of events to remember. If <code>0</code>, the detection is disabled.
+	 * @param windowMillis Time in milliseconds an event is remembered at most.
+	 * @throws IllegalArgumentException The capacity is negative or the window is not positive.
+	 */
+	public void configureDeduplication(int capacity, long windowMillis) throws IllegalArgumentException {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Capacity must not be negative.");
+		}
+		deduplicator = capacity > 0 ? new EventDeduplicator(capacity, windowMillis) : null;
+	}
+	
+	/**
+	 * Configures the coalescing of data retrieval. If enabled, the data for events of the same process instance arriving within the window is retrieved only once.
+	 * The dispatch of each event is delayed by up to the window, the retrieval is bounded by the earliest deadline of the merged events. Coalescing is disabled by default.
+	 * @param windowMillis Time in milliseconds to wait for further events of a process instance. If <code>0</code>, coalescing is disabled.
+	 * @throws IllegalArgumentException The window is negative.
+	 */
+	public void configureCoalescing(long windowMillis) throws IllegalArgumentException {
+		if (windowMillis < 0) {
+			throw new IllegalArgumentException("Window must not be negative.");
+		}
+		coalescer = windowMillis > 0 ? new EnrichmentCoalescer(vertx, windowMillis) {
+			
+			@Override
+			protected void retrieve(ProcessEvent event, Deadline deadline, Handler<AsyncJoin.Result> completeHandler) {
+				retrieveData(event, deadline, null, completeHandler);
+			}
+		} : null;
+	}
+	
+	/**
+	 * Configures the data retrieval for events. The requests for an event are joined with a deadline, after which the event is dispatched with the data retrieved so far.
+	 * Events are dispatched regardless of the outcome; handlers extending {@link EnrichedHandler} receive the result of the retrieval along with the event.
+	 * By default, the deadline is 10 seconds and the policy is {@link AsyncJoin.Policy#ALLOW_PARTIAL}.
+	 * @param deadlineMillis Deadline for the retrieval in milliseconds. If <code>0</code>, the retrieval waits for all requests.
+	 * @param policy Policy for failed requests. With {@link AsyncJoin.Policy#FAIL_FAST}, the event is dispatched as soon as a request fails.
+	 * @throws IllegalArgumentException The deadline is negative.
+	 */
+	public void configureEnrichment(long deadlineMillis, AsyncJoin.Policy policy) throws IllegalArgumentException {
+		if (deadlineMillis < 0) {
+			throw new IllegalArgumentException("Deadline must not be negative.");
+		}
+		enrichmentDeadlineMillis = deadlineMillis;
+		enrichmentPolicy = policy;
+	}
+	
+	/**
+	 * Configures the deadline of incoming events for which data is retrieved. The deadline is the creation time of the event plus the budget of its type,
+	 * see {@link #configureDeadlineTimestamp(String)}. It bounds the data retrieval in addition to the enrichment deadline: requests are not issued after it passed,
+	 * and events which deadline passed before they are dispatched are handled according to {@link #configureExpiredEvents(Deadline.ExpiredEventPolicy)}.
+	 * Events changing the state of an instance, e.g. {@link ProcessCompleteEvent}, have no deadline. Deadlines are disabled by default.
+	 * @param eventModelId Model identifier of the event type, e.g. {@link UserTaskEvent#MODEL_ID}. If <code>null</code>, the budget applies to all types without an own budget.
+	 * @param budgetMillis Budget in milliseconds. If <code>0</code>, the budget of the type is removed.
+	 * @throws IllegalArgumentException The budget is negative.
+	 */
+	public void configureEventDeadline(String eventModelId, long budgetMillis) throws IllegalArgumentException {
+		if (budgetMillis < 0) {
+			throw new IllegalArgumentException("Deadline budget must not be negative.");
+		}
+		String key = eventModelId != null ? eventModelId : DEFAULT_DEADLINE_KEY;
+		if (budgetMillis == 0) {
+			eventDeadlineBudgets.remove(key);
+		} else {
+			eventDeadlineBudgets.put(key, budgetMillis);
+		}
+	}
+	
+	/**
+	 * Sets the field of the event messages holding the creation time of the event, either as milliseconds since the epoch or as ISO 8601 date time with offset,
+	 * e.g. <code>2016-09-29T10:15:30.000+0200</code> or <code>2016-09-29T10:15:30Z</code>.
+	 * Event deadlines are measured from this time. If the field is not set or missing in a message, deadlines are measured from the arrival of the message.
+	 * @param field Name of the field, e.g. <code>created</code>. May be <code>null</code>.
+	 */
+	public void configureDeadlineTimestamp(String field) {
+		deadlineTimestampField = field;
+	}
+	
+	/**
+	 * Sets the policy for events which deadline passed before they were dispatched. Defaults to {@link Deadline.ExpiredEventPolicy#DISPATCH_UNENRICHED}.
+	 * Handlers extending {@link EnrichedHandler} see the requests not completed in time as pending parts of the enrichment.
+	 * @param policy Policy for expired events.
+	 */
+	public void configureExpiredEvents(Deadline.ExpiredEventPolicy policy) {
+		expiredEventPolicy = policy;
+	}
+	
+	/**
+	 * Enables or disables incremental updates. If enabled, events of process instances already cached are applied to the caches instead of retrieving the data:
+	 * the current element instance is derived from the element definition learned from previously retrieved element instances of the same process.
+	 * Derived element instances carry only the session and user of the event as execution information. Events which cannot be applied are enriched by retrieval as before.
+	 * Incremental updates are disabled by default. The running flag of cached instances is updated from start, complete, terminate, and cancelled events in any case.
+	 * @param isEnabled <code>true</code> to enable incremental updates, <code>false</code> to disable them.
+	 */
+	public void configureIncrementalUpdates(boolean isEnabled) {
+		isIncrementalUpdateEnabled = isEnabled;
+	}
+	
+	/**
+	 * Enables or disables compressed responses. If enabled, the requests to the PKI accept the content encodings <code>gzip</code> and <code>deflate</code>, which the PKI may apply at its discretion.
+	 * Compressed responses are decompressed while they arrive. The transferred and decoded sizes per operation are part of the metrics.
+	 * Compression is enabled by default.
+	 * @param isEnabled <code>true</code> to accept compressed responses, <code>false</code> to request them uncompressed.
+	 */
+	public void configureCompression(boolean isEnabled) {
+		isCompressionEnabled = isEnabled;
+	}
+	
+	/**
+	 * Configures the connection pool for requests to the PKI. Requests exceeding the pool size wait for a free connection.
+	 * The concurrency window of bulk operations should not exceed the pool size, see {@link #bulk()}.
+	 * @param maxPoolSize Maximum number of connections.
+	 * @throws IllegalArgumentException The pool size is not positive.
+	 */
+	public void configureConnectionPool(int maxPoolSize) throws IllegalArgumentException {
+		if (maxPoolSize <= 0) {
+			throw new IllegalArgumentException("Pool size must be positive.");
+		}
+		pkiClient.setMaxPoolSize(maxPoolSize);
+		pkiClient.setKeepAlive(true);
+	}
+	
+	/**
+	 * Enables or disables the prefetch of called processes. If enabled, the definition and the start element of the process called by a call activity
+	 * are retrieved while the call activity event is dispatched, instead of when the start event of the subprocess arrives.
+	 * The prefetch is enabled by default.
+	 * @param isEnabled <code>true</code> to prefetch called processes, <code>false</code> to retrieve them on demand.
+	 */
+	public void configureSubprocessPrefetch(boolean isEnabled) {
+		isSubprocessPrefetchEnabled = isEnabled;
+	}
+	
+	/**
+	 * Returns the number of called processes for which data was prefetched.
+	 * @return Number of prefetches.
+	 */
+	public long getSubprocessPrefetchCount() {
+		return subprocessPrefetchCount;
+	}
+	
+	/**
+	 * Configures the number of recent steps cached per process instance. The element instance of the current element is always cached;
+	 * the element instances of the given number of previously passed elements are kept in addition, older ones are dropped from the cache.
+	 * Defaults to 4. A smaller size takes effect for an instance with its next step.
+	 * @param size Number of previous element instances to keep per process instance.
+	 * @throws IllegalArgumentException The size is negative.
+	 */
+	public void configureElementHistory(int size) throws IllegalArgumentException {
+		if (size < 0) {
+			throw new IllegalArgumentException("History size must not be negative.");
+		}
+		elementHistorySize = size;
+	}
+	
+	/**
+	 * Returns the number of events applied incrementally instead of retrieving their data.
+	 * @return Number of incrementally applied events.
+	 */
+	public long getIncrementalUpdateCount() {
+		return incrementalUpdateCount;
+	}
+	
+	/**
+	 * Moves the caches for process instances and element instances to off-heap storage, see {@link OffHeapStore}.
+	 * Cached instances are stored serialized outside of the Java heap and decoded on each access, e.g. with {@link #getCachedProcessInstance(String)}.
+	 * Has to be called on the event loop, preferably before events arrive. Calling this method again has no effect.
+	 * @param chunkSize Size of the off-heap chunks in bytes, a power of two of at least 4096, e.g. <code>1048576</code>.
+	 * @throws IllegalArgumentException The chunk size is invalid.
+	 */
+	public void enableOffHeapStorage(int chunkSize) throws IllegalArgumentException {
+		if (offHeapStore != null) return;
+		OffHeapStore store = new OffHeapStore(chunkSize);
+		Map<String, ProcessInstance> offHeapInstances = new OffHeapModelMap<ProcessInstance>(store) {
+			
+			@Override
+			protected JsonObject encode(ProcessInstance value) {
+				return value.asJson();
+			}
+			
+			@Override
+			protected ProcessInstance decode(JsonObject json) {
+				return new ProcessInstance(json);
+			}
+		};
+		Map<String, ProcessElementInstance> offHeapElementInstances = new OffHeapModelMap<ProcessElementInstance>(store) {
+			
+			@Override
+			protected JsonObject encode(ProcessElementInstance value) {
+				return value.asJson();
+			}
+			
+			@Override
+			protected ProcessElementInstance decode(JsonObject json) {
+				return new ProcessElementInstance(json);
+			}
+		};
+		offHeapInstances.putAll(processInstancesCache);
+		offHeapElementInstances.putAll(processElementInstancesCache);
+		offHeapStore = store;
+		processInstancesCache = offHeapInstances;
+		processElementInstancesCache = offHeapElementInstances;
+		footprint.reset(ConnectorMetrics.Cache.PROCESS_INSTANCES);
+		footprint.reset(ConnectorMetrics.Cache.PROCESS_ELEMENT_INSTANCES);
+	}
+	
+	/**
+	 * Returns the estimated heap footprint of the caches. The caches are only accounted while a cache limit or shedding under memory pressure is configured,
+	 * see {@link #configureCacheLimit(long)} and {@link #enableMemoryPressureShedding(double)}.
+	 * @return Footprint of the caches, updated as entries are cached and removed.
+	 */
+	public CacheFootprint getCacheFootprint() {
+		return footprint;
+	}
+	
+	/**
+	 * Enables the shedding of cache entries under memory pressure. When the heap usage exceeds the threshold, as reported by the memory notifications of the JVM,
+	 * the least valuable cache entries are removed until the estimated footprint of the caches is halved, starting with the element instances of completed processes.
+	 * Removed entries are retrieved again when needed. Shedding is disabled by default.
+	 * @param heapUsageThreshold Fraction of the maximum heap pool size, between <code>0</code> and <code>1</code> (both exclusive), e.g. <code>0.8</code>.
+	 * @throws IllegalArgumentException The threshold is out of range.
+	 * @throws IllegalStateException The JVM does not support usage thresholds for the heap.
+	 */
+	public void enableMemoryPressureShedding(double heapUsageThreshold) throws IllegalArgumentException, IllegalStateException {
+		disableMemoryPressureShedding();
+		memoryMonitor = new MemoryPressureMonitor(heapUsageThreshold, new VoidHandler() {
+			
+			@Override
+			protected void handle() {
+				scheduleShedding(true);
+			}
+		});
+		updateFootprintAccounting();
+	}
+	
+	/**
+	 * Limits the estimated footprint of the caches, see {@link #getCacheFootprint()}. When the limit is exceeded, cache entries are shed
+	 * in the same order as under memory pressure until the footprint falls to three quarters of the limit. Caches stored off-heap are not limited.
+	 * @param maxBytes Maximum estimated footprint in bytes. No limit if <code>0</code>.
+	 * @throws IllegalArgumentException The limit is negative.
+	 */
+	public void configureCacheLimit(long maxBytes) throws IllegalArgumentException {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException("Cache limit must not be negative.");
+		}
+		cacheLimitBytes = maxBytes;
+		nextShedBytes = maxBytes;
+		updateFootprintAccounting();
+	}
 	
 	/**
-	 * Creates the connector.
-	 * @param vertx Vertx runtime for communication channels.
-	 * @param host Hostname to of the pki service.
-	 * @param port Port of the pki service.
-	 * @param isSecure <code>true</code> if the communication should be ssl secured, otherwise <code>false</code>.
-	 * @param basePath Base path of the pki service address.
+	 * Disables the shedding of cache entries under memory pressure.
 	 */
-	public PKIConnector(Vertx vertx, String host, int port, boolean isSecure, String basePath) {
-		pkiClient = vertx.createHttpClient();
-		pkiClient.setHost(host);
-		pkiClient.setPort(port);
-		pkiClient.setSSL(isSecure);
-		this.basePath = basePath;
-		
-		taskHandlers = new HashSet<>();
-		processStartHandlers = new HashSet<>();
-		processCompleteHandlers = new HashSet<>();
-		processErrorHandlers = new HashSet<>();
-		processTerminateHandlers = new HashSet<>();
-		processCancelledHandlers = new HashSet<>();
-		callActivityHandlers = new HashSet<>();
-		processUserRequestHandlers = new HashSet<>();
-		processAutomatedFlowHandlers = new HashSet<>();
-		
-		processDefinitionsCache = new HashMap<>();
-		processInstancesCache = new HashMap<>();
-		processElementInstancesCache = new HashMap<>();
-		processElementsCache = new HashMap<>();
-
-		initializeEventBusHandlers(vertx.eventBus());
+	public void disableMemoryPressureShedding() {
+		if (memoryMonitor != null) {
+			memoryMonitor.close();
+			memoryMonitor = null;
+			updateFootprintAccounting();
+		}
 	}
 	
 	/**
-	 * Helper to load the process definition, the process instance, and the current element instance into the cache.  
-	 * @param event Event containing the identifiers. 
-	 * @param completeHandler Handler to call when the cache is updated.
+	 * Returns the number of cache entries shed, under memory pressure or because the cache limit was exceeded, see {@link #configureCacheLimit(long)}.
+	 * @return Number of shed entries.
 	 */
-	private void retrieveData(ProcessEvent event, VoidHandler completeHandler) {
-		String processId = event.getProcessId();
-		String processInstanceId = event.getProcessInstanceId();
-		String elementId = event.getElementId();
-		
-		final ParallelRequestHandler requests = new ParallelRequestHandler(new HashSet<String>(Arrays.asList("processDefinition", "processInstance", "processElement")), completeHandler);
-		if (processDefinitionsCache.containsKey(processId)) {
-			requests.completeRequest("processDefinition");
-		} else {
-			getProcessDefinition(processId, new AsyncResultHandler<ProcessDefinition>() {
-
+	public long getShedEntryCount() {
+		return shedEntryCount;
+	}
+	
+	/**
+	 * Returns the number of bytes allocated outside of the heap for cached instances, including unused space.
+	 * @return Allocated bytes, <code>0</code> if off-heap storage is disabled.
+	 */
+	public long getOffHeapAllocatedBytes() {
+		return offHeapStore != null ? offHeapStore.getAllocatedBytes() : 0;
+	}
+	
+	/**
+	 * Returns the number of bytes used by the serialized instances stored outside of the heap.
+	 * @return Used bytes, <code>0</code> if off-heap storage is disabled.
+	 */
+	public long getOffHeapUsedBytes() {
+		return offHeapStore != null ? offHeapStore.getUsedBytes() : 0;
+	}
+	
+	/**
+	 * Sets the executor for event parsing. By default, events are parsed on the event loop.
+	 * @param executor Executor to parse events with, e.g. a worker pool. If <code>null</code>, events are parsed on the event loop.
+	 */
+	public void setParseExecutor(Executor executor) {
+		handlerExecutor.setParseExecutor(executor);
+	}
+	
+	/**
+	 * Sets the executor for all handlers of an event type. By default, handlers are called on the event loop.
+	 * Events of the same process instance are still dispatched in order, i.e. the next event is dispatched when all handlers returned.
+	 * Handlers running outside the event loop must use {@link #runOnEventLoop(Handler)} to issue requests with this connector.
+	 * @param eventModelId Model identifier of the event type, e.g. {@link UserTaskEvent#MODEL_ID}.
+	 * @param executor Executor to call the handlers with. If <code>null</code>, the handlers are called on the event loop.
+	 */
+	public void setEventTypeExecutor(String eventModelId, Executor executor) {
+		handlerExecutor.setEventTypeExecutor(eventModelId, executor);
+	}
+	
+	/**
+	 * Sets the executor for a single registered handler. Overrides the executor for the event type.
+	 * @param handler Handler to set executor for.
+	 * @param executor Executor to call the handler with. If <code>null</code>, the executor for the event type applies.
+	 * @see #setEventTypeExecutor(String, Executor)
+	 */
+	public void setHandlerExecutor(Handler<?> handler, Executor executor) {
+		handlerExecutor.setHandlerExecutor(handler, executor);
+	}
+	
+	/**
+	 * Sets the execution time after which a handler call is logged as slow. Defaults to 100 ms.
+	 * @param thresholdMillis Threshold in milliseconds.
+	 */
+	public void setSlowHandlerThreshold(long thresholdMillis) {
+		handlerExecutor.setSlowHandlerThreshold(thresholdMillis);
+	}
+	
+	/**
+	 * Returns the number of handler calls which exceeded the slow handler threshold.
+	 * @return Number of slow handler calls.
+	 */
+	public long getSlowHandlerCount() {
+		return handlerExecutor.getSlowHandlerCount();
+	}
+	
+	/**
+	 * Returns the number of parse or handler tasks rejected by an executor. Rejected tasks are run on the event loop instead.
+	 * @return Number of rejected tasks.
+	 */
+	public long getRejectedExecutionCount() {
+		return handlerExecutor.getRejectedCount();
+	}
+	
+	/**
+	 * Runs an action on the event loop of the connector. Has to be used by handlers running on an executor to issue requests.
+	 * @param action Action to perform.
+	 */
+	public void runOnEventLoop(Handler<Void> action) {
+		handlerExecutor.runOnEventLoop(action);
+	}
+	
+	/**
+	 * Returns the number of events dropped as duplicates since the deduplication was configured.
+	 * @return Number of dropped duplicates.
+	 */
+	public long getDroppedDuplicatesCount() {
+		return deduplicator != null ? deduplicator.getDroppedCount() : 0;
+	}
+	
+	/**
+	 * Returns the number of events which data retrieval was merged with other events since the coalescing was configured.
+	 * @return Number of merged events.
+	 */
+	public long getCoalescedEventsCount() {
+		return coalescer != null ? coalescer.getMergedCount() : 0;
+	}
+	
+	/**
+	 * Enables the collection of metrics. Metrics are disabled by default.
+	 * @param address Event bus address to reply to metrics requests on with a snapshot of the metrics. May be <code>null</code>.
+	 */
+	public void enableMetrics(String address) {
+		disableMetrics();
+		metrics = new ConnectorMetrics();
+		if (address != null) {
+			metricsAddress = address;
+			metricsHandler = new Handler<Message<JsonObject>>() {
+				
 				@Override
-				public void handle(AsyncResult<ProcessDefinition> result) {
-					requests.completeRequest("processDefinition");
+				public void handle(Message<JsonObject> message) {
+					message.reply(getMetricsSnapshot());
 				}
-			});
+			};
+			vertx.eventBus().registerHandler(metricsAddress, metricsHandler);
 		}
-		if (processInstancesCache.containsKey(processInstanceId)) {
-			requests.completeRequest("processInstance");
-		} else {
-			getProcessInstance(processInstanceId, new AsyncResultHandler<ProcessInstance>() {
-
-				@Override
-				public void handle(AsyncResult<ProcessInstance> request) {
-					requests.completeRequest("processInstance");
-				}
-			});
+	}
+	
+	/**
+	 * Disables the collection of metrics and unregisters the event bus handler for metrics requests, if any.
+	 */
+	public void disableMetrics() {
+		if (metricsHandler != null) {
+			vertx.eventBus().unregisterHandler(metricsAddress, metricsHandler);
+			metricsHandler = null;
+			metricsAddress = null;
 		}
-		if (processElementInstancesCache.containsKey(processInstanceId + ":" + elementId)) {
-			requests.completeRequest("processElement");
-		} else {
-			getCurrentElement(processInstanceId, event.getSessionId(), new AsyncResultHandler<ProcessElementInstance>() {
-
-				@Override
-				public void handle(AsyncResult<ProcessElementInstance> event) {
-					requests.completeRequest("processElement");
-				}
-			});
+		metrics = null;
+	}
+	
+	/**
+	 * Returns the metrics of the connector.
+	 * @return Metrics or <code>null</code> if metrics are disabled.
+	 */
+	public ConnectorMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Returns a snapshot of the metrics, see {@link ConnectorMetrics#asJson()}.
+	 * Includes the counters of the event dispatch in the field <code>dispatch</code>, which are available even if metrics are disabled.
+	 * @return JSON object with the current metrics.
+	 */
+	public JsonObject getMetricsSnapshot() {
+		ConnectorMetrics currentMetrics = metrics;
+		JsonObject snapshot = currentMetrics != null ? currentMetrics.asJson() : new JsonObject();
+		JsonObject dispatch = new JsonObject();
+		dispatch.putNumber("activeInstances", orderedDispatcher.getActiveInstanceCount());
+		dispatch.putNumber("overflowDropped", orderedDispatcher.getDroppedCount());
+		dispatch.putNumber("overflowUnordered", orderedDispatcher.getUnorderedCount());
+		dispatch.putNumber("duplicatesDropped", getDroppedDuplicatesCount());
+		dispatch.putNumber("coalesced", getCoalescedEventsCount());
+		dispatch.putNumber("incrementalUpdates", getIncrementalUpdateCount());
+		dispatch.putNumber("subprocessPrefetches", getSubprocessPrefetchCount());
+		dispatch.putNumber("slowHandlers", getSlowHandlerCount());
+		dispatch.putNumber("rejectedExecutions", getRejectedExecutionCount());
+		dispatch.putNumber("enrichmentPartial", partialEnrichmentCount);
+		dispatch.putNumber("enrichmentFailed", failedEnrichmentCount);
+		dispatch.putNumber("enrichmentTimedOut", timedOutEnrichmentCount);
+		dispatch.putNumber("deadlineExpired", expiredEventCount);
+		dispatch.putNumber("deadlineDropped", droppedExpiredEventCount);
+		dispatch.putNumber("deadlineCancelledRequests", expiredRequestCount);
+		snapshot.putObject("dispatch", dispatch);
+		JsonObject memory = footprint.asJson();
+		memory.putNumber("pressureEvents", memoryPressureCount);
+		memory.putNumber("shedEntries", shedEntryCount);
+		snapshot.putObject("memory", memory);
+		if (offHeapStore != null) {
+			JsonObject offHeap = new JsonObject();
+			offHeap.putNumber("allocatedBytes", offHeapStore.getAllocatedBytes());
+			offHeap.putNumber("usedBytes", offHeapStore.getUsedBytes());
+			offHeap.putNumber("entries", offHeapStore.getEntryCount());
+			snapshot.putObject("offHeap", offHeap);
 		}
+		return snapshot;
 	}
 	
 	/**
-	 * Register for events on the event bus.
-	 * @param eventBus Event bus to connect to.
+	 * Enables the tracing of sampled events. For each sampled event the timing of parsing, data retrieval (per request), and handler calls is recorded.
+	 * Tracing is disabled by default.
+	 * @param sampleRate Fraction of events to trace, between <code>0</code> (exclusive) and <code>1</code> (inclusive).
+	 * @param capacity Number of traces to keep. Older traces are overwritten.
+	 * @throws IllegalArgumentException The sample rate or the capacity is out of range.
 	 */
-	private void initializeEventBusHandlers(EventBus eventBus) {
-		
-		// Tasks
-		eventBus.registerHandler("appsist:event:" + ManualTaskEvent.MODEL_ID, new Handler<Message<JsonObject>>() {
-			@Override
-			public void handle(Message<JsonObject> message) {
-				final ManualTaskEvent event;
-				try {
-					event = EventUtil.parseEvent(message.body().toMap(), ManualTaskEvent.class);
-				} catch (IllegalArgumentException e) {
-					logger.warn("Failed to parse event.", e);
-					return;
-				}
-
-				retrieveData(event, new VoidHandler() {
-					@Override
-					protected void handle() {
-						for (Handler<TaskEvent> handler : taskHandlers) {
-							handler.handle(event);
-						}
-						
-					}
-				});
-			}
-		});
-		eventBus.registerHandler("appsist:event:" + UserTaskEvent.MODEL_ID, new Handler<Message<JsonObject>>() {
-			@Override
-			public void handle(Message<JsonObject> message) {
-				final UserTaskEvent event;
-				try {
-					event = EventUtil.parseEvent(message.body().toMap(), UserTaskEvent.class);
-				} catch (IllegalArgumentException e) {
-					logger.warn("Failed to parse event.", e);
-					return;
-				}
-				retrieveData(event, new VoidHandler() {
-					@Override
-					protected void handle() {
-						for (Handler<TaskEvent> handler : taskHandlers) {
-							handler.handle(event);
-						}
-					}
-				});
-			}
-		});
-		eventBus.registerHandler("appsist:event:" + ServiceTaskEvent.MODEL_ID, new Handler<Message<JsonObject>>() {
-			@Override
-			public void handle(Message<JsonObject> message) {
-				final ServiceTaskEvent event;
-				try {
-					event = EventUtil.parseEvent(message.body().toMap(), ServiceTaskEvent.class);
-				} catch (IllegalArgumentException e) {
-					logger.warn("Failed to parse event.", e);
-					return;
-				}
-				retrieveData(event, new VoidHandler() {
-					@Override
-					protected void handle() {
-						for (Handler<TaskEvent> handler : taskHandlers) {
-							handler.handle(event);
-						}
-					}
-				});
-			}
-		});
-		
-		// Process Start
-		eventBus.registerHandler("appsist:event:" + ProcessStartEvent.MODEL_ID, new Handler<Message<JsonObject>>() {
-			@Override
-			public void handle(Message<JsonObject> message) {
-				final ProcessStartEvent event;
-				try {
-					event = EventUtil.parseEvent(message.body().toMap(), ProcessStartEvent.class);
-				} catch (IllegalArgumentException e) {
-					logger.warn("Failed to parse event.", e);
-					return;
-				}
-				retrieveData(event, new VoidHandler() {
-					@Override
-					protected void handle() {
-						for (Handler<ProcessStartEvent> handler : processStartHandlers) {
-							handler.handle(event);
-						}
-					}
-				});
-			}
-		});
-		
-		// Process Complete
-		eventBus.registerHandler("appsist:event:" + ProcessCompleteEvent.MODEL_ID, new Handler<Message<JsonObject>>() {
-			@Override
-			public void handle(Message<JsonObject> message) {
-				final ProcessCompleteEvent event;
-				try {
-					event = EventUtil.parseEvent(message.body().toMap(), ProcessCompleteEvent.class);
-				} catch (IllegalArgumentException e) {
-					logger.warn("Failed to parse event.", e);
-					return;
-				}
-				for (Handler<ProcessCompleteEvent> handler : processCompleteHandlers) {
-					handler.handle(event);
-				}
-			}
-		});
-		
-		// Process Error
-		eventBus.registerHandler("appsist:event:" + ProcessErrorEvent.MODEL_ID, new Handler<Message<JsonObject>>() {
-			@Override
-			public void handle(Message<JsonObject> message) {
-				final ProcessErrorEvent event;
-				try {
-					event = EventUtil.parseEvent(message.body().toMap(), ProcessErrorEvent.class);
-					logger.info("[PSD] Received process error event: " + message.body().encode());
-				} catch (IllegalArgumentException e) {
-					logger.warn("Failed to parse event.", e);
-					return;
-				}
-				
-				for (Handler<ProcessErrorEvent> handler : processErrorHandlers) {
-					handler.handle(event);
-				}
-			}
-		});
-		
-		// Process Terminated
-		eventBus.registerHandler("appsist:event:" + ProcessTerminateEvent.MODEL_ID, new Handler<Message<JsonObject>>() {
-			@Override
-			public void handle(Message<JsonObject> message) {
-				final ProcessTerminateEvent event;
-				try {
-					event = EventUtil.parseEvent(message.body().toMap(), ProcessTerminateEvent.class);
-				} catch (IllegalArgumentException e) {
-					logger.warn("Failed to parse event.", e);
-					return;
-				}
-				
-				for (Handler<ProcessTerminateEvent> handler : processTerminateHandlers) {
-					handler.handle(event);
-				}
-			}
-		});
-		
-		// Process Cancelled
-		eventBus.registerHandler("appsist:event:" + ProcessCancelledEvent.MODEL_ID, new Handler<Message<JsonObject>>() {
-			@Override
-			public void handle(Message<JsonObject> message) {
-				final ProcessCancelledEvent event;
-				try {
-					event = EventUtil.parseEvent(message.body().toMap(), ProcessCancelledEvent.class);
-				} catch (IllegalArgumentException e) {
-					logger.warn("Failed to parse event.", e);
-					return;
-				}
-				for (Handler<ProcessCancelledEvent> handler : processCancelledHandlers) {
-					handler.handle(event);
-				}
-			}
-		});
-		
-		// Call Activity
-		eventBus.registerHandler("appsist:event:" + CallActivityEvent.MODEL_ID, new Handler<Message<JsonObject>>() {
-			@Override
-			public void handle(Message<JsonObject> message) {
-				final CallActivityEvent event;
-				try {
-					event = EventUtil.parseEvent(message.body().toMap(), CallActivityEvent.class);
-				} catch (IllegalArgumentException e) {
-					logger.warn("Failed to parse event.", e);
-					return;
-				}
-				retrieveData(event, new VoidHandler() {
-					@Override
-					protected void handle() {
-						for (Handler<CallActivityEvent> handler : callActivityHandlers) {
-							handler.handle(event);
-						}
-					}
-				});
-			}
-		});
-		
-		// User Requests
-		eventBus.registerHandler("appsist:event:" + ProcessUserRequestEvent.MODEL_ID, new Handler<Message<JsonObject>>() {
-			@Override
-			public void handle(Message<JsonObject> message) {
-				final ProcessUserRequestEvent event;
-				try {
-					event = EventUtil.parseEvent(message.body().toMap(), ProcessUserRequestEvent.class);
-				} catch (IllegalArgumentException e) {
-					logger.warn("Failed to parse event.", e);
-					return;
-				}
-				retrieveData(event, new VoidHandler() {
-					@Override
-					protected void handle() {
-						for (Handler<ProcessUserRequestEvent> handler : processUserRequestHandlers) {
-							handler.handle(event);
-						}
-					}
-				});
-			}
-		});
-		
-		// Automated Flows
-		eventBus.registerHandler("appsist:event:" + ProcessAutomatedFlowEvent.MODEL_ID, new Handler<Message<JsonObject>>() {
-			@Override
-			public void handle(Message<JsonObject> message) {
-				final ProcessAutomatedFlowEvent event;
-				try {
-					event = new ProcessAutomatedFlowEvent(message.body().toMap());
-				} catch (IllegalArgumentException e) {
-					logger.warn("Failed to parse event.", e);
-					return;
-				}
-				retrieveData(event, new VoidHandler() {
-					@Override
-					protected void handle() {
-						for (Handler<ProcessAutomatedFlowEvent> handler : processAutomatedFlowHandlers) {
-							handler.handle(event);
-						}
-					}
-				});
-			}
-		});
+	public void enableTracing(double sampleRate, int capacity) throws IllegalArgumentException {
+		tracer = new EventTracer(sampleRate, capacity);
 	}
-
+	
+	/**
+	 * Disables the tracing of events. Recorded traces are discarded.
+	 */
+	public void disableTracing() {
+		tracer = null;
+	}
+	
+	/**
+	 * Returns the recorded traces, see {@link EventTracer.TraceRecord#asJson()}.
+	 * @return JSON array with the completed traces, oldest first. Empty if tracing is disabled.
+	 */
+	public JsonArray dumpTraces() {
+		EventTracer currentTracer = tracer;
+		return currentTracer != null ? currentTracer.dump() : new JsonArray();
+	}
+	
+	/**
+	 * Starts recording all incoming process events and PKI responses, see {@link EventRecorder}. A running recording is stopped.
+	 * @param file File to record to. If the file exists, the recording is appended.
+	 * @throws IOException Failed to open the file.
+	 */
+	public void startRecording(File file) throws IOException {
+		EventRecorder newRecorder = new EventRecorder(file);
+		stopRecording();
+		recorder = newRecorder;
+	}
+	
+	/**
+	 * Stops the recording, if any. The file is closed when the pending entries are written, without blocking the caller.
+	 */
+	public void stopRecording() {
+		EventRecorder currentRecorder = recorder;
+		recorder = null;
+		if (currentRecorder != null) {
+			currentRecorder.close(); // Pending entries are written in the background.
+		}
+	}
+	
 	/**
 	 * Registers a handler for task events. The events are typed, i.e. one of {@link UserTaskEvent}, {@link ManualTaskEvent}, or {@link ServiceTaskEvent}.
 	 * @param handler Handler to register.
@@ -451,6 +1817,22 @@ public class PKIConnector {
 		processAutomatedFlowHandlers.add(handler);
 	}
 	
+	/**
+	 * Returns the {@link java.util.concurrent.CompletionStage} based variant of the operations of this connector.
+	 * @return Operations returning completion stages.
+	 */
+	public AsyncPKIConnector stages() {
+		return stages;
+	}
+	
+	/**
+	 * Returns the bulk variants of the operations of this connector.
+	 * @return Bulk operations.
+	 */
+	public BulkOperations bulk() {
+		return bulk;
+	}
+	
 	/**
 	 * Instantiates a process.
 	 * @param processId ID of the process definition to instantiate.
@@ -459,22 +1841,25 @@ public class PKIConnector {
 	 * @param resultHandler Handler for the created process instance.
 	 */
 	public void instantiateProcess(final String processId, String sessionId, String userId, JsonObject context, final AsyncResultHandler<ProcessInstance> resultHandler) {
+		final long startTime = System.nanoTime();
 		StringBuilder pathBuilder = new StringBuilder(50);
 		pathBuilder.append(basePath).append("/processes/").append(processId).append("/instantiate");
 		pathBuilder.append("?sid=").append(sessionId);
 		if (userId != null) pathBuilder.append("&userId=").append(userId);
 		
-		HttpClientRequest request = pkiClient.post(pathBuilder.toString(), new TypedHttpResponse<ProcessInstance>(new AsyncResultHandler<ProcessInstance>() {
+		String path = pathBuilder.toString();
+		HttpClientRequest request = acceptCompression(pkiClient.post(path, new TypedHttpResponse<ProcessInstance>(new AsyncResultHandler<ProcessInstance>() {
 
 			@Override
 			public void handle(AsyncResult<ProcessInstance> event) {
-				if (event.succeeded()) {
+				recordRequest("instantiateProcess", startTime, event);
+				if (event.succeeded() && event.result() != null) {
 					ProcessInstance result = event.result();
-					processInstancesCache.put(result.getId(), result);
+					cacheProcessInstance(result.getId(), result);
 				}
 				resultHandler.handle(event);
 			}
-		}, ProcessInstance.class));
+		}, ProcessInstance.class).recordTo(recorder, "POST", path).countBytes(metrics, "instantiateProcess")));
 		if (context != null) {
 			JsonObject body = new JsonObject();
 			body.putObject("context", context);
@@ -484,37 +1869,61 @@ public class PKIConnector {
 		}
 	}
 	
-	public void next(final String processInstanceId, String sessionId, final String elementId, final AsyncResultHandler<ProcessElementInstance> resultHandler) {
+	public void next(String processInstanceId, String sessionId, String elementId, AsyncResultHandler<ProcessElementInstance> resultHandler) {
+		next(processInstanceId, sessionId, elementId, Deadline.NONE, resultHandler);
+	}
+	
+	/**
+	 * Like {@link #next(String, String, String, AsyncResultHandler)}, but fails with a {@link TimeoutException} without issuing the request if the deadline has passed.
+	 * @param deadline Deadline of the request.
+	 */
+	public void next(final String processInstanceId, String sessionId, final String elementId, Deadline deadline, final AsyncResultHandler<ProcessElementInstance> resultHandler) {
+		if (isExpired(deadline, "next", resultHandler)) return;
+		final long startTime = System.nanoTime();
 		StringBuilder pathBuilder = new StringBuilder(50);
 		pathBuilder.append(basePath).append("/instances/").append(processInstanceId).append("/next").append("?sid=").append(sessionId);
 		if (elementId != null) pathBuilder.append("&elementId=").append(elementId);
-		pkiClient.post(pathBuilder.toString(), new TypedHttpResponse<ProcessElementInstance>(new AsyncResultHandler<ProcessElementInstance>() {
+		String path = pathBuilder.toString();
+		acceptCompression(pkiClient.post(path, new TypedHttpResponse<ProcessElementInstance>(new AsyncResultHandler<ProcessElementInstance>() {
 
 			@Override
 			public void handle(AsyncResult<ProcessElementInstance> event) {
-				if (event.succeeded()) {
+				recordRequest("next", startTime, event);
+				if (event.succeeded() && event.result() != null) {
 					ProcessElementInstance result = event.result();
-					processElementInstancesCache.put(processInstanceId + ":" + result.getId(), result);
+					cacheProcessElementInstance(processInstanceId, result);
 				}
 				resultHandler.handle(event);
 			}
-		}, ProcessElementInstance.class)).end();
+		}, ProcessElementInstance.class).recordTo(recorder, "POST", path).countBytes(metrics, "next"))).end();
+	}
+	
+	public void confirm(String processInstanceId, String sessionId, AsyncResultHandler<ProcessInstance> resultHandler) {
+		confirm(processInstanceId, sessionId, Deadline.NONE, resultHandler);
 	}
 	
-	public void confirm(final String processInstanceId, String sessionId, final AsyncResultHandler<ProcessInstance> resultHandler) {
+	/**
+	 * Like {@link #confirm(String, String, AsyncResultHandler)}, but fails with a {@link TimeoutException} without issuing the request if the deadline has passed.
+	 * @param deadline Deadline of the request.
+	 */
+	public void confirm(final String processInstanceId, String sessionId, Deadline deadline, final AsyncResultHandler<ProcessInstance> resultHandler) {
+		if (isExpired(deadline, "confirm", resultHandler)) return;
+		final long startTime = System.nanoTime();
 		StringBuilder pathBuilder = new StringBuilder(50);
 		pathBuilder.append(basePath).append("/instances/").append(processInstanceId).append("/confirm").append("?sid=").append(sessionId);
-		pkiClient.post(pathBuilder.toString(), new TypedHttpResponse<ProcessInstance>(new AsyncResultHandler<ProcessInstance>() {
+		String path = pathBuilder.toString();
+		acceptCompression(pkiClient.post(path, new TypedHttpResponse<ProcessInstance>(new AsyncResultHandler<ProcessInstance>() {
 
 			@Override
 			public void handle(AsyncResult<ProcessInstance> event) {
-				if (event.succeeded()) {
+				recordRequest("confirm", startTime, event);
+				if (event.succeeded() && event.result() != null) {
 					ProcessInstance result = event.result();
-					processInstancesCache.put(result.getId(), result);
+					cacheProcessInstance(result.getId(), result);
 				}
 				resultHandler.handle(event);
 			}
-		}, ProcessInstance.class)).end();
+		}, ProcessInstance.class).recordTo(recorder, "POST", path).countBytes(metrics, "confirm"))).end();
 	}
 	
 	/**
@@ -524,12 +1933,15 @@ public class PKIConnector {
 	 * @param resultHandler Handler to check if the operation succeeded. May be null.
 	 */
 	public void cancel(String processInstanceId, String sessionId, final AsyncResultHandler<Void> resultHandler) {
+		final long startTime = System.nanoTime();
 		StringBuilder pathBuilder = new StringBuilder(50);
 		pathBuilder.append(basePath).append("/instances/").append(processInstanceId).append("/cancel").append("?sid=").append(sessionId);
 		pkiClient.post(pathBuilder.toString(), new Handler<HttpClientResponse>() {
 			
 			@Override
 			public void handle(final HttpClientResponse response) {
+				ConnectorMetrics currentMetrics = metrics;
+				if (currentMetrics != null) currentMetrics.recordRequest("cancel", response.statusCode(), System.nanoTime() - startTime);
 				if (resultHandler != null) response.bodyHandler(new Handler<Buffer>() {
 					
 					@Override
@@ -563,8 +1975,39 @@ public class PKIConnector {
 		}).end();
 	}
 	
+	/**
+	 * Returns the cached element instance of the current element of a process instance.
+	 * @param processInstanceId Identifier of the process instance.
+	 * @return Cached element instance or <code>null</code> if no element instance of the process instance is cached.
+	 */
+	public ProcessElementInstance getCachedCurrentElement(String processInstanceId) {
+		ElementHistory history = processInstanceId != null ? elementHistories.get(processInstanceId) : null;
+		String elementId = history != null ? history.getCurrent() : null;
+		ProcessElementInstance instance = getCached(processElementInstancesCache, ConnectorMetrics.Cache.PROCESS_ELEMENT_INSTANCES, elementId != null ? processInstanceId + ":" + elementId : null);
+		if (instance == null) {
+			logger.warn("Tried to access missing cache entry (current element instance): " + processInstanceId);
+		}
+		return instance;
+	}
+	
+	/**
+	 * Returns the cached recent element instances of a process instance, see {@link #configureElementHistory(int)}.
+	 * @param processInstanceId Identifier of the process instance.
+	 * @return Element instances, the current element first. Empty if no element instance of the process instance is cached.
+	 */
+	public List<ProcessElementInstance> getCachedElementHistory(String processInstanceId) {
+		ElementHistory history = processInstanceId != null ? elementHistories.get(processInstanceId) : null;
+		if (history == null) return Collections.emptyList();
+		List<ProcessElementInstance> instances = new ArrayList<>();
+		for (String elementId : history.getElementIds()) {
+			ProcessElementInstance instance = processElementInstancesCache.get(processInstanceId + ":" + elementId);
+			if (instance != null) instances.add(instance);
+		}
+		return instances;
+	}
+	
 	public ProcessDefinition getCachedProcessDefinition(String processId) {
-		ProcessDefinition processDefintion = processDefinitionsCache.get(processId);
+		ProcessDefinition processDefintion = getCached(processDefinitionsCache, ConnectorMetrics.Cache.PROCESS_DEFINITIONS, processId);
 		if (processDefintion == null) {
 			logger.warn("Tried to access missing cache entry (process definition): " + processId);
 		}
@@ -572,7 +2015,7 @@ public class PKIConnector {
 	}
 	
 	public ProcessInstance getCachedProcessInstance(String processInstanceId) {
-		ProcessInstance processInstance = processInstancesCache.get(processInstanceId);
+		ProcessInstance processInstance = getCached(processInstancesCache, ConnectorMetrics.Cache.PROCESS_INSTANCES, processInstanceId);
 		if (processInstance == null) {
 			logger.warn("Tried to access missing cache entry (process instance): " + processInstanceId);
 		}
@@ -581,7 +2024,7 @@ public class PKIConnector {
 	
 	public ProcessElement getCachedProcessElement(String processId, String elementId) {
 		String key = processId + ":" + elementId;
-		ProcessElement processElement = processElementsCache.get(key);
+		ProcessElement processElement = getCached(processElementsCache, ConnectorMetrics.Cache.PROCESS_ELEMENTS, key);
 		if (processElement == null) {
 			logger.warn("Tried to access missing cache entry (process element): " + key);
 		}
@@ -590,66 +2033,131 @@ public class PKIConnector {
 	
 	public ProcessElementInstance getCachedProcessElementInstance(String processInstanceId, String elementId) {
 		String key = processInstanceId + ":" + elementId;
-		ProcessElementInstance instance = processElementInstancesCache.get(key);
+		ProcessElementInstance instance = getCached(processElementInstancesCache, ConnectorMetrics.Cache.PROCESS_ELEMENT_INSTANCES, key);
 		if (instance == null) {
 			logger.warn("Tried to access missing cache entry (process element instance): " + key);
 		}
 		return instance;
 	}
 	
-	public void getProcessDefinition(final String processId, final AsyncResultHandler<ProcessDefinition> resultHandler) {
-		pkiClient.get(basePath + "/processes/" + processId, new TypedHttpResponse<ProcessDefinition>(new AsyncResultHandler<ProcessDefinition>() {
+	/**
+	 * Returns a cached process definition without logging a miss, for lookups expecting misses.
+	 * @param processId Identifier of the process definition.
+	 * @return Cached definition or <code>null</code> if it is not cached.
+	 */
+	ProcessDefinition lookupProcessDefinition(String processId) {
+		return getCached(processDefinitionsCache, ConnectorMetrics.Cache.PROCESS_DEFINITIONS, processId);
+	}
+	
+	ProcessInstance lookupProcessInstance(String processInstanceId) {
+		return getCached(processInstancesCache, ConnectorMetrics.Cache.PROCESS_INSTANCES, processInstanceId);
+	}
+	
+	ProcessElement lookupProcessElement(String processId, String elementId) {
+		return getCached(processElementsCache, ConnectorMetrics.Cache.PROCESS_ELEMENTS, processId + ":" + elementId);
+	}
+	
+	public void getProcessDefinition(String processId, AsyncResultHandler<ProcessDefinition> resultHandler) {
+		getProcessDefinition(processId, Deadline.NONE, resultHandler);
+	}
+	
+	/**
+	 * Like {@link #getProcessDefinition(String, AsyncResultHandler)}, but fails with a {@link TimeoutException} without issuing the request if the deadline has passed.
+	 * @param deadline Deadline of the request.
+	 */
+	public void getProcessDefinition(final String processId, Deadline deadline, final AsyncResultHandler<ProcessDefinition> resultHandler) {
+		if (isExpired(deadline, "getProcessDefinition", resultHandler)) return;
+		final long startTime = System.nanoTime();
+		String path = basePath + "/processes/" + processId;
+		acceptCompression(pkiClient.get(path, new TypedHttpResponse<ProcessDefinition>(new AsyncResultHandler<ProcessDefinition>() {
 
 			@Override
 			public void handle(AsyncResult<ProcessDefinition> event) {
-				if (event.succeeded()) {
-					processDefinitionsCache.put(processId, event.result());
+				recordRequest("getProcessDefinition", startTime, event);
+				if (event.succeeded() && event.result() != null) {
+					putCached(processDefinitionsCache, ConnectorMetrics.Cache.PROCESS_DEFINITIONS, processId, event.result());
 				}
 				resultHandler.handle(event);
 			}
-		}, ProcessDefinition.class)).end();
+		}, ProcessDefinition.class).recordTo(recorder, "GET", path).countBytes(metrics, "getProcessDefinition"))).end();
 	}
 	
-	public void getProcessInstance(final String processInstanceId, final AsyncResultHandler<ProcessInstance> resultHandler) {
-		pkiClient.get(basePath + "/instances/" + processInstanceId, new TypedHttpResponse<ProcessInstance>(new AsyncResultHandler<ProcessInstance>() {
+	public void getProcessInstance(String processInstanceId, AsyncResultHandler<ProcessInstance> resultHandler) {
+		getProcessInstance(processInstanceId, Deadline.NONE, resultHandler);
+	}
+	
+	/**
+	 * Like {@link #getProcessInstance(String, AsyncResultHandler)}, but fails with a {@link TimeoutException} without issuing the request if the deadline has passed.
+	 * @param deadline Deadline of the request.
+	 */
+	public void getProcessInstance(final String processInstanceId, Deadline deadline, final AsyncResultHandler<ProcessInstance> resultHandler) {
+		if (isExpired(deadline, "getProcessInstance", resultHandler)) return;
+		final long startTime = System.nanoTime();
+		String path = basePath + "/instances/" + processInstanceId;
+		acceptCompression(pkiClient.get(path, new TypedHttpResponse<ProcessInstance>(new AsyncResultHandler<ProcessInstance>() {
 
 			@Override
 			public void handle(AsyncResult<ProcessInstance> event) {
-				if (event.succeeded()) {
-					processInstancesCache.put(processInstanceId, event.result());
+				recordRequest("getProcessInstance", startTime, event);
+				if (event.succeeded() && event.result() != null) {
+					cacheProcessInstance(processInstanceId, event.result());
 				}
 				resultHandler.handle(event);
 			}
-		}, ProcessInstance.class)).end();
+		}, ProcessInstance.class).recordTo(recorder, "GET", path).countBytes(metrics, "getProcessInstance"))).end();
 	}
 	
-	public void getProcessElement(final String processId, final String elementId, final AsyncResultHandler<ProcessElement> resultHandler) {
-		pkiClient.get(basePath + "/processes/" + processId + "/elements/" + elementId, new TypedHttpResponse<ProcessElement>(new AsyncResultHandler<ProcessElement>() {
+	public void getProcessElement(String processId, String elementId, AsyncResultHandler<ProcessElement> resultHandler) {
+		getProcessElement(processId, elementId, Deadline.NONE, resultHandler);
+	}
+	
+	/**
+	 * Like {@link #getProcessElement(String, String, AsyncResultHandler)}, but fails with a {@link TimeoutException} without issuing the request if the deadline has passed.
+	 * @param deadline Deadline of the request.
+	 */
+	public void getProcessElement(final String processId, final String elementId, Deadline deadline, final AsyncResultHandler<ProcessElement> resultHandler) {
+		if (isExpired(deadline, "getProcessElement", resultHandler)) return;
+		final long startTime = System.nanoTime();
+		String path = basePath + "/processes/" + processId + "/elements/" + elementId;
+		acceptCompression(pkiClient.get(path, new TypedHttpResponse<ProcessElement>(new AsyncResultHandler<ProcessElement>() {
 
 			@Override
 			public void handle(AsyncResult<ProcessElement> event) {
-				if (event.succeeded()) {
-					processElementsCache.put(processId + ":" + elementId, event.result());
+				recordRequest("getProcessElement", startTime, event);
+				if (event.succeeded() && event.result() != null) {
+					putCached(processElementsCache, ConnectorMetrics.Cache.PROCESS_ELEMENTS, processId + ":" + elementId, event.result());
 				}
 				resultHandler.handle(event);
 			}
-		}, ProcessElement.class)).end();
+		}, ProcessElement.class).recordTo(recorder, "GET", path).countBytes(metrics, "getProcessElement"))).end();
 	}
 	
-	public void getCurrentElement(final String processInstanceId, String sessionId, final AsyncResultHandler<ProcessElementInstance> resultHandler) {
+	public void getCurrentElement(String processInstanceId, String sessionId, AsyncResultHandler<ProcessElementInstance> resultHandler) {
+		getCurrentElement(processInstanceId, sessionId, Deadline.NONE, resultHandler);
+	}
+	
+	/**
+	 * Like {@link #getCurrentElement(String, String, AsyncResultHandler)}, but fails with a {@link TimeoutException} without issuing the request if the deadline has passed.
+	 * @param deadline Deadline of the request.
+	 */
+	public void getCurrentElement(final String processInstanceId, String sessionId, Deadline deadline, final AsyncResultHandler<ProcessElementInstance> resultHandler) {
+		if (isExpired(deadline, "getCurrentElement", resultHandler)) return;
+		final long startTime = System.nanoTime();
 		StringBuilder pathBuilder = new StringBuilder(50);
 		pathBuilder.append(basePath).append("/instances/").append(processInstanceId).append("/currentElement").append("?sid=").append(sessionId);
-		pkiClient.get(pathBuilder.toString(), new TypedHttpResponse<ProcessElementInstance>(new AsyncResultHandler<ProcessElementInstance>() {
+		String path = pathBuilder.toString();
+		acceptCompression(pkiClient.get(path, new TypedHttpResponse<ProcessElementInstance>(new AsyncResultHandler<ProcessElementInstance>() {
 
 			@Override
 			public void handle(AsyncResult<ProcessElementInstance> event) {
-				if (event.succeeded()) {
+				recordRequest("getCurrentElement", startTime, event);
+				if (event.succeeded() && event.result() != null) {
 					ProcessElementInstance elementInstance = event.result();
-					processElementInstancesCache.put(processInstanceId + ":" + elementInstance.getId(), elementInstance);
+					cacheProcessElementInstance(processInstanceId, elementInstance);
 				}
 				resultHandler.handle(event);
 			}
-		}, ProcessElementInstance.class)).end();
+		}, ProcessElementInstance.class).recordTo(recorder, "GET", path).countBytes(metrics, "getCurrentElement"))).end();
 	}
 	
 	/**
@@ -661,15 +2169,16 @@ public class PKIConnector {
 		Map<ProcessInstance, ProcessDefinition> map = new LinkedHashMap<>();
 		List<ProcessInstance> processInstanceTree = getProcessInstanceTree(processInstanceId);
 		for (ProcessInstance processInstance : processInstanceTree) {
-			map.put(processInstance, processDefinitionsCache.get(processInstance.getProcessId()));
+			String processId = processInstance.getProcessId();
+			map.put(processInstance, processId != null ? processDefinitionsCache.get(processId) : null);
 		}
 		return map;
 	}
 	
 	private List<ProcessInstance> getProcessInstanceTree(String processInstanceId) {
-		ProcessInstance processInstance = processInstancesCache.get(processInstanceId);
+		ProcessInstance processInstance = processInstanceId != null ? processInstancesCache.get(processInstanceId) : null;
 		if (processInstance == null) {
-			return Collections.emptyList();
+			return new ArrayList<>();
 		}
 		
 		String parentInstanceId = processInstance.getParent();
@@ -0,0 +1,230 @@
+package de.appsist.service.pki.connector;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Incremental decompressor for HTTP response bodies with the content encoding <code>gzip</code> or <code>deflate</code>.
+ * <p>
+ * Compressed chunks are passed in as they arrive and the decompressed bytes are returned immediately, so the body is never held in compressed and decompressed form at once.
+ * For <code>deflate</code>, both zlib wrapped and raw deflate streams are accepted, as servers disagree on the format. The gzip trailer is verified.
+ * </p>
+ * Instances are not thread safe and handle a single response.
+ */
+class ResponseDecompressor {
+	private static final int GZIP_MAGIC = 0x8b1f;
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+	private static final int GZIP_TRAILER_SIZE = 8;
+
+	private final boolean isGzip;
+	private final byte[] outputBuffer;
+	private final CRC32 crc;
+	private Inflater inflater;
+	private byte[] pending;
+	private int pendingLength;
+	private long compressedBytes;
+	private long decompressedBytes;
+	private ZipException failure;
+
+	private ResponseDecompressor(boolean isGzip) {
+		this.isGzip = isGzip;
+		outputBuffer = new byte[8192];
+		crc = new CRC32();
+		pending = new byte[64];
+	}
+
+	/**
+	 * Creates a decompressor for the given content encoding.
+	 * @param contentEncoding Value of the <code>Content-Encoding</code> header. May be <code>null</code>.
+	 * @return Decompressor or <code>null</code> if the content is not encoded.
+	 * @throws ZipException The content encoding is not supported.
+	 */
+	static ResponseDecompressor forContentEncoding(String contentEncoding) throws ZipException {
+		if (contentEncoding == null) return null;
+		String encoding = contentEncoding.trim().toLowerCase();
+		switch (encoding) {
+		case "":
+		case "identity":
+			return null;
+		case "gzip":
+		case "x-gzip":
+			return new ResponseDecompressor(true);
+		case "deflate":
+			return new ResponseDecompressor(false);
+		default:
+			throw new ZipException("Unsupported content encoding: " + contentEncoding);
+		}
+	}
+
+	/**
+	 * Decompresses the next chunk of the body.
+	 * After a failure, the native resources are released and the first failure is thrown again for all further chunks and by {@link #finish()}.
+	 * @param chunk Compressed bytes.
+	 * @return Decompressed bytes, possibly empty.
+	 * @throws ZipException The data is corrupt.
+	 */
+	byte[] update(byte[] chunk) throws ZipException {
+		compressedBytes += chunk.length;
+		if (failure != null) throw failure;
+		try {
+			return decompress(chunk);
+		} catch (ZipException e) {
+			failure = e;
+			end();
+			throw e;
+		}
+	}
+
+	private byte[] decompress(byte[] chunk) throws ZipException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, chunk.length * 4));
+		if (inflater == null) {
+			// Collects the stream header, which may be split across chunks.
+			appendPending(chunk, 0, chunk.length);
+			int headerLength = isGzip ? parseGzipHeader() : parseDeflateHeader();
+			if (headerLength < 0) return new byte[0];
+			chunk = new byte[pendingLength - headerLength];
+			System.arraycopy(pending, headerLength, chunk, 0, chunk.length);
+			pendingLength = 0;
+		}
+		if (inflater.finished()) {
+			appendPending(chunk, 0, chunk.length);
+		} else {
+			inflate(chunk, 0, chunk.length, out);
+		}
+		decompressedBytes += out.size();
+		return out.toByteArray();
+	}
+
+	/**
+	 * Completes the decompression and releases the native resources.
+	 * @throws ZipException The stream is truncated, its trailer does not match the content, or a chunk failed to decompress before.
+	 */
+	void finish() throws ZipException {
+		try {
+			if (failure != null) throw failure;
+			if (inflater == null || !inflater.finished()) {
+				throw new ZipException("Compressed response is truncated.");
+			}
+			if (isGzip) {
+				if (pendingLength < GZIP_TRAILER_SIZE) {
+					throw new ZipException("Compressed response is truncated.");
+				}
+				if (readIntLE(pending, 0) != (int) crc.getValue() || readIntLE(pending, 4) != (int) decompressedBytes) {
+					throw new ZipException("Corrupt gzip response (checksum mismatch).");
+				}
+			}
+		} finally {
+			end();
+		}
+	}
+
+	/**
+	 * Releases the native resources without completing the decompression.
+	 */
+	void end() {
+		if (inflater != null) inflater.end();
+	}
+
+	/**
+	 * Returns the number of compressed bytes passed in.
+	 * @return Number of bytes.
+	 */
+	long getCompressedBytes() {
+		return compressedBytes;
+	}
+
+	/**
+	 * Returns the number of decompressed bytes returned.
+	 * @return Number of bytes.
+	 */
+	long getDecompressedBytes() {
+		return decompressedBytes;
+	}
+
+	private void inflate(byte[] data, int offset, int length, ByteArrayOutputStream out) throws ZipException {
+		inflater.setInput(data, offset, length);
+		try {
+			while (!inflater.finished()) {
+				int count = inflater.inflate(outputBuffer);
+				if (count > 0) {
+					out.write(outputBuffer, 0, count);
+					crc.update(outputBuffer, 0, count);
+				} else if (inflater.needsInput()) {
+					break;
+				} else if (inflater.needsDictionary()) {
+					throw new ZipException("Compressed response requires a preset dictionary.");
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException("Corrupt compressed response: " + e.getMessage());
+		}
+		if (inflater.finished()) {
+			// Keeps the bytes after the deflate stream, i.e. the gzip trailer.
+			int remaining = inflater.getRemaining();
+			appendPending(data, offset + length - remaining, remaining);
+		}
+	}
+
+	private int parseDeflateHeader() {
+		if (pendingLength < 2) return -1;
+		int cmf = pending[0] & 0xff;
+		int flg = pending[1] & 0xff;
+		boolean isZlib = (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+		inflater = new Inflater(!isZlib);
+		return 0;
+	}
+
+	private int parseGzipHeader() throws ZipException {
+		if (pendingLength < 10) return -1;
+		if (((pending[0] & 0xff) | ((pending[1] & 0xff) << 8)) != GZIP_MAGIC || pending[2] != 8) {
+			throw new ZipException("Not in gzip format.");
+		}
+		int flags = pending[3] & 0xff;
+		int position = 10;
+		if ((flags & FEXTRA) != 0) {
+			if (pendingLength < position + 2) return -1;
+			position += 2 + ((pending[position] & 0xff) | ((pending[position + 1] & 0xff) << 8));
+		}
+		if ((flags & FNAME) != 0) {
+			position = skipZeroTerminated(position);
+			if (position < 0) return -1;
+		}
+		if ((flags & FCOMMENT) != 0) {
+			position = skipZeroTerminated(position);
+			if (position < 0) return -1;
+		}
+		if ((flags & FHCRC) != 0) {
+			position += 2;
+		}
+		if (pendingLength < position) return -1;
+		inflater = new Inflater(true);
+		return position;
+	}
+
+	private int skipZeroTerminated(int position) {
+		for (int i = position; i < pendingLength; i++) {
+			if (pending[i] == 0) return i + 1;
+		}
+		return -1;
+	}
+
+	private void appendPending(byte[] data, int offset, int length) {
+		if (pendingLength + length > pending.length) {
+			byte[] newPending = new byte[Math.max(pending.length * 2, pendingLength + length)];
+			System.arraycopy(pending, 0, newPending, 0, pendingLength);
+			pending = newPending;
+		}
+		System.arraycopy(data, offset, pending, pendingLength, length);
+		pendingLength += length;
+	}
+
+	private static int readIntLE(byte[] data, int offset) {
+		return (data[offset] & 0xff) | ((data[offset + 1] & 0xff) << 8) | ((data[offset + 2] & 0xff) << 16) | ((data[offset + 3] & 0xff) << 24);
+	}
+}
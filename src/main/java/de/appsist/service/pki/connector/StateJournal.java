@@ -0,0 +1,380 @@
+package de.appsist.service.pki.connector;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of cached instance state, stored in memory-mapped segment files.
+ * <p>
+ * Each entry consists of its length (int), a CRC32 checksum of the following bytes (int), its type (byte), a key, and a value (both as length prefixed UTF-8).
+ * A zero length marks the end of a segment. Entries of an incomplete write fail the checksum and end the replay of their segment.
+ * </p>
+ * <p>
+ * When the number of segments reaches the configured maximum, the journal is compacted: the latest entry of each key is written to new segments and the old segments are deleted.
+ * As new segments are numbered after the old ones, a replay after an interrupted compaction yields the same state.
+ * Written entries survive a crash of the process as soon as they are written. Segments are forced to the storage device when they are full or the journal is closed.
+ * </p>
+ * <p>
+ * Entries are written, compacted, and forced by a dedicated writer thread in the order of appending, so appending does not block the caller, e.g. the event loop.
+ * Failed writes are logged, the entry is lost.
+ * </p>
+ * All methods are thread safe.
+ */
+public class StateJournal implements Closeable {
+	/** Process instance stored under its identifier. */
+	public static final byte TYPE_PROCESS_INSTANCE = 1;
+	/** Element instance stored under <code>processInstanceId:elementId</code>. */
+	public static final byte TYPE_ELEMENT_INSTANCE = 2;
+	/** Removal of a process instance and all its element instances. The value is empty. */
+	public static final byte TYPE_REMOVE_INSTANCE = 3;
+	/** Removal of an element instance stored under <code>processInstanceId:elementId</code>, e.g. when it is shed from the cache. The value is empty. */
+	public static final byte TYPE_REMOVE_ELEMENT_INSTANCE = 4;
+
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final int HEADER_SIZE = 8;
+
+	/**
+	 * Listener for replayed entries.
+	 */
+	public interface Listener {
+		/**
+		 * Called for each entry in the order of appending.
+		 * @param type Type of the entry.
+		 * @param key Key of the entry.
+		 * @param value Value of the entry, i.e. the encoded JSON object.
+		 */
+		public void onEntry(byte type, String key, String value);
+	}
+
+	private final File directory;
+	private final int segmentSize;
+	private final int maxSegments;
+	private final List<File> segments;
+	private final ThreadPoolExecutor writer;
+	private long nextSegmentNumber;
+	private RandomAccessFile currentFile;
+	private MappedByteBuffer currentBuffer;
+	private int compactionThreshold;
+	private volatile int segmentCount;
+	private volatile long appendedBytes;
+	private volatile boolean isClosed;
+
+	/**
+	 * Opens the journal in the given directory. The directory is created if it does not exist.
+	 * @param directory Directory for the segment files.
+	 * @param segmentSize Size of a segment in bytes. Larger entries get a segment on their own.
+	 * @param maxSegments Number of segments which triggers a compaction.
+	 * @throws IOException Failed to open the journal.
+	 * @throws IllegalArgumentException The segment size or count is invalid.
+	 */
+	public StateJournal(File directory, int segmentSize, int maxSegments) throws IOException, IllegalArgumentException {
+		if (segmentSize < 1024) {
+			throw new IllegalArgumentException("Segment size must be at least 1024 bytes.");
+		}
+		if (maxSegments < 2) {
+			throw new IllegalArgumentException("At least two segments are required.");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Failed to create journal directory: " + directory);
+		}
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+		compactionThreshold = maxSegments;
+		segments = new ArrayList<>();
+		File[] files = directory.listFiles(new FilenameFilter() {
+
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if (files != null) {
+			Arrays.sort(files);
+			segments.addAll(Arrays.asList(files));
+		}
+		nextSegmentNumber = segments.isEmpty() ? 0 : getSegmentNumber(segments.get(segments.size() - 1)) + 1;
+		segmentCount = segments.size();
+		// Unbounded, as dropped entries would restore stale state after a restart.
+		writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "pki-state-journal");
+				thread.setDaemon(true);
+				return thread;
+			}
+		}, new ThreadPoolExecutor.DiscardPolicy());
+	}
+
+	/**
+	 * Replays all entries with a single sequential read of the segments.
+	 * @param listener Listener to pass the entries to.
+	 * @return Number of entries replayed.
+	 * @throws IOException Failed to read a segment.
+	 */
+	public synchronized long replay(Listener listener) throws IOException {
+		long count = 0;
+		for (File segment : segments) {
+			try (RandomAccessFile file = new RandomAccessFile(segment, "r"); FileChannel channel = file.getChannel()) {
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				CRC32 crc = new CRC32();
+				while (buffer.remaining() >= HEADER_SIZE) {
+					int length = buffer.getInt();
+					int checksum = buffer.getInt();
+					if (length <= 0 || length > buffer.remaining()) break;
+					byte[] entry = new byte[length];
+					buffer.get(entry);
+					crc.reset();
+					crc.update(entry, 0, length);
+					if ((int) crc.getValue() != checksum) {
+						PKIConnector.logger.warn("Skipping corrupt journal entry in " + segment + ".");
+						break;
+					}
+					decode(entry, listener);
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Appends an entry. The entry is written by the writer thread. Entries appended after closing the journal are ignored.
+	 * @param type Type of the entry.
+	 * @param key Key of the entry.
+	 * @param value Value of the entry. May be <code>null</code> for removals.
+	 */
+	public void append(final byte type, final String key, final String value) {
+		if (isClosed) return;
+		writer.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					write(type, key, value);
+				} catch (IOException e) {
+					PKIConnector.logger.warn("Failed to write journal entry: " + key, e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Requests a compaction of the journal, see {@link #compactSegments()}. The compaction is performed by the writer thread after the entries appended before.
+	 */
+	public void compact() {
+		if (isClosed) return;
+		writer.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					compactSegments();
+				} catch (IOException e) {
+					PKIConnector.logger.warn("Failed to compact journal.", e);
+				}
+			}
+		});
+	}
+
+	private synchronized void write(byte type, String key, String value) throws IOException {
+		byte[] entry = encode(type, key, value);
+		if (currentBuffer == null || currentBuffer.remaining() < HEADER_SIZE + entry.length) {
+			if (segments.size() >= compactionThreshold) {
+				compactSegments();
+			}
+			openSegment(entry.length);
+		}
+		write(currentBuffer, entry);
+		appendedBytes += HEADER_SIZE + entry.length;
+	}
+
+	/**
+	 * Rewrites the journal to contain only the latest entry per key. Removed instances and element instances are dropped.
+	 * Entries are rewritten in the order of their latest update, so that a replay of the compacted journal updates the caches in the same order.
+	 * @throws IOException Failed to compact the journal.
+	 */
+	private synchronized void compactSegments() throws IOException {
+		// Latest entries grouped by process instance, so that removals drop the element instances as well.
+		final Map<String, Map<String, byte[]>> latestEntries = new LinkedHashMap<>();
+		replay(new Listener() {
+
+			@Override
+			public void onEntry(byte type, String key, String value) {
+				int separator = key.indexOf(':');
+				boolean isElementEntry = type == TYPE_ELEMENT_INSTANCE || type == TYPE_REMOVE_ELEMENT_INSTANCE;
+				String processInstanceId = isElementEntry && separator >= 0 ? key.substring(0, separator) : key;
+				if (type == TYPE_REMOVE_ELEMENT_INSTANCE) {
+					Map<String, byte[]> instanceEntries = latestEntries.get(processInstanceId);
+					if (instanceEntries != null) instanceEntries.remove(TYPE_ELEMENT_INSTANCE + ":" + key);
+					return;
+				}
+				// Entries are removed before putting them again, as a linked hash map keeps the position of the first insertion.
+				Map<String, byte[]> instanceEntries = latestEntries.remove(processInstanceId);
+				if (type == TYPE_REMOVE_INSTANCE) {
+					return;
+				}
+				if (instanceEntries == null) {
+					instanceEntries = new LinkedHashMap<>();
+				}
+				latestEntries.put(processInstanceId, instanceEntries);
+				String entryKey = type + ":" + key;
+				instanceEntries.remove(entryKey);
+				instanceEntries.put(entryKey, encode(type, key, value));
+			}
+		});
+
+		List<File> oldSegments = new ArrayList<>(segments);
+		closeSegment();
+		segments.clear();
+		for (Map<String, byte[]> instanceEntries : latestEntries.values()) {
+			for (byte[] entry : instanceEntries.values()) {
+				if (currentBuffer == null || currentBuffer.remaining() < HEADER_SIZE + entry.length) {
+					openSegment(entry.length);
+				}
+				write(currentBuffer, entry);
+			}
+		}
+		closeSegment();
+		for (File segment : oldSegments) {
+			if (!segment.delete()) {
+				PKIConnector.logger.warn("Failed to delete compacted journal segment: " + segment);
+			}
+		}
+		// Avoids compacting again with every new segment if the live state itself fills most segments.
+		compactionThreshold = Math.max(maxSegments, 2 * segments.size());
+		segmentCount = segments.size();
+	}
+
+	/**
+	 * Returns the number of segment files.
+	 * @return Number of segments.
+	 */
+	public int getSegmentCount() {
+		return segmentCount;
+	}
+
+	/**
+	 * Returns the number of bytes written since the journal was opened.
+	 * @return Number of bytes.
+	 */
+	public long getAppendedBytes() {
+		return appendedBytes;
+	}
+
+	/**
+	 * Closes the journal. Pending entries are written and the current segment is forced by the writer thread, see {@link #awaitTermination(long, TimeUnit)}.
+	 */
+	@Override
+	public synchronized void close() {
+		if (isClosed) return;
+		isClosed = true;
+		writer.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					closeSegment();
+				} catch (IOException e) {
+					PKIConnector.logger.warn("Failed to close journal segment.", e);
+				}
+			}
+		});
+		writer.shutdown();
+	}
+
+	/**
+	 * Waits until the journal is closed and all pending entries are written.
+	 * @param timeout Maximum time to wait.
+	 * @param unit Unit of the timeout.
+	 * @return <code>true</code> if the journal is closed, <code>false</code> if the timeout elapsed before.
+	 * @throws InterruptedException Interrupted while waiting.
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return writer.awaitTermination(timeout, unit);
+	}
+
+	private void openSegment(int entryLength) throws IOException {
+		closeSegment();
+		File segment = new File(directory, String.format("%s%016d%s", SEGMENT_PREFIX, nextSegmentNumber++, SEGMENT_SUFFIX));
+		int size = Math.max(segmentSize, HEADER_SIZE + entryLength);
+		currentFile = new RandomAccessFile(segment, "rw");
+		currentFile.setLength(size);
+		currentBuffer = currentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		segments.add(segment);
+		segmentCount = segments.size();
+	}
+
+	private synchronized void closeSegment() throws IOException {
+		if (currentBuffer != null) {
+			currentBuffer.force();
+			currentBuffer = null;
+		}
+		if (currentFile != null) {
+			currentFile.close();
+			currentFile = null;
+		}
+	}
+
+	private static void write(MappedByteBuffer buffer, byte[] entry) {
+		CRC32 crc = new CRC32();
+		crc.update(entry, 0, entry.length);
+		int start = buffer.position();
+		buffer.position(start + 4);
+		buffer.putInt((int) crc.getValue());
+		buffer.put(entry);
+		// The length is written last, so an interrupted write leaves the end marker in place.
+		buffer.putInt(start, entry.length);
+	}
+
+	private static byte[] encode(byte type, String key, String value) {
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		byte[] valueBytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+		byte[] entry = new byte[1 + 4 + keyBytes.length + 4 + valueBytes.length];
+		ByteBuffer buffer = ByteBuffer.wrap(entry);
+		buffer.put(type);
+		buffer.putInt(keyBytes.length);
+		buffer.put(keyBytes);
+		buffer.putInt(valueBytes.length);
+		buffer.put(valueBytes);
+		return entry;
+	}
+
+	private static void decode(byte[] entry, Listener listener) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(entry);
+		try {
+			byte type = buffer.get();
+			byte[] keyBytes = new byte[buffer.getInt()];
+			buffer.get(keyBytes);
+			byte[] valueBytes = new byte[buffer.getInt()];
+			buffer.get(valueBytes);
+			listener.onEntry(type, new String(keyBytes, StandardCharsets.UTF_8), new String(valueBytes, StandardCharsets.UTF_8));
+		} catch (RuntimeException e) {
+			throw new IOException("Invalid journal entry.", e);
+		}
+	}
+
+	private static long getSegmentNumber(File segment) {
+		String name = segment.getName();
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+}
@@ -1,10 +1,12 @@
 package de.appsist.service.pki.connector;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.zip.ZipException;
 
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.AsyncResultHandler;
 import org.vertx.java.core.Handler;
+import org.vertx.java.core.VoidHandler;
 import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.http.HttpClientResponse;
 import org.vertx.java.core.json.JsonObject;
@@ -12,54 +14,139 @@ import org.vertx.java.core.json.JsonObject;
 public class TypedHttpResponse<E> implements Handler<HttpClientResponse> {
 	private final AsyncResultHandler<E> resultHandler;
 	private final Class<E> clazz;
+	private EventRecorder recorder;
+	private String method;
+	private String uri;
+	private ConnectorMetrics metrics;
+	private String operation;
 
 	public TypedHttpResponse(AsyncResultHandler<E> resultHandler, Class<E> clazz) {
 		this.resultHandler = resultHandler;
 		this.clazz = clazz;
 	}
 	
+	/**
+	 * Records the response when it is received.
+	 * @param recorder Recorder to record the response with. If <code>null</code>, the response is not recorded.
+	 * @param method HTTP method of the request.
+	 * @param uri URI of the request.
+	 * @return This handler.
+	 */
+	TypedHttpResponse<E> recordTo(EventRecorder recorder, String method, String uri) {
+		this.recorder = recorder;
+		this.method = method;
+		this.uri = uri;
+		return this;
+	}
+	
+	/**
+	 * Counts the transferred and decoded bytes of the response.
+	 * @param metrics Metrics to record the byte counts in. If <code>null</code>, nothing is recorded.
+	 * @param operation Name of the operation, e.g. <code>getProcessDefinition</code>.
+	 * @return This handler.
+	 */
+	TypedHttpResponse<E> countBytes(ConnectorMetrics metrics, String operation) {
+		this.metrics = metrics;
+		this.operation = operation;
+		return this;
+	}
+	
 	@Override
 	public void handle(final HttpClientResponse response) {
-		response.bodyHandler(new Handler<Buffer>() {
+		final Buffer body = new Buffer();
+		final ResponseDecompressor decompressor;
+		try {
+			decompressor = ResponseDecompressor.forContentEncoding(response.headers().get("Content-Encoding"));
+		} catch (final ZipException e) {
+			response.bodyHandler(new Handler<Buffer>() {
+				
+				@Override
+				public void handle(Buffer buffer) {
+					complete(response, null, e.getMessage());
+				}
+			});
+			return;
+		}
+		// Decompresses the chunks as they arrive, so that the compressed body is never buffered as a whole.
+		response.dataHandler(new Handler<Buffer>() {
 			
 			@Override
-			public void handle(Buffer buffer) {
-				final String body = buffer.toString();
-				resultHandler.handle(new AsyncResult<E>() {
-					
-					@Override
-					public boolean succeeded() {
-						return response.statusCode() == 200;
+			public void handle(Buffer chunk) {
+				if (decompressor == null) {
+					body.appendBuffer(chunk);
+				} else {
+					try {
+						body.appendBytes(decompressor.update(chunk.getBytes()));
+					} catch (ZipException e) {
+						// The decompressor keeps the failure and reports it when finished.
 					}
-					
-					@Override
-					public E result() {
-						if (succeeded() && !body.isEmpty()) {
-							JsonObject json = new JsonObject(body);
-							try {
-								E result = clazz.getDeclaredConstructor(JsonObject.class).newInstance(json);
-								return result;
-							} catch (IllegalArgumentException | InvocationTargetException | IllegalAccessException | InstantiationException | NoSuchMethodException e) {
-								PKIConnector.logger.warn("Failed to decode process instance.", e);
-								return null;
-							}
-						} else {
-							return null;
-						}
-						
-					}
-					
-					@Override
-					public boolean failed() {
-						return !succeeded();
-					}
-					
-					@Override
-					public Throwable cause() {
-						return failed() ? new HttpException(body, response.statusCode()) : null;
+				}
+			}
+		});
+		response.endHandler(new VoidHandler() {
+			
+			@Override
+			protected void handle() {
+				String error = null;
+				long transferredBytes = body.length();
+				if (decompressor != null) {
+					transferredBytes = decompressor.getCompressedBytes();
+					try {
+						decompressor.finish();
+					} catch (ZipException e) {
+						error = "Failed to decompress response: " + e.getMessage();
 					}
-				});
+				}
+				if (metrics != null) metrics.recordTransfer(operation, transferredBytes, body.length(), decompressor != null);
+				complete(response, error == null ? body.toString() : null, error);
 			}
 		});
 	}
+	
+	private void complete(final HttpClientResponse response, final String body, final String error) {
+		if (recorder != null && body != null) recorder.recordResponse(method, uri, response.statusCode(), body);
+		final boolean isSucceeded = error == null && response.statusCode() == 200;
+		final E result = isSucceeded ? decode(body) : null;
+		resultHandler.handle(new AsyncResult<E>() {
+			
+			@Override
+			public boolean succeeded() {
+				return isSucceeded;
+			}
+			
+			@Override
+			public E result() {
+				return result;
+			}
+			
+			@Override
+			public boolean failed() {
+				return !succeeded();
+			}
+			
+			@Override
+			public Throwable cause() {
+				return failed() ? new HttpException(error != null ? error : body, response.statusCode()) : null;
+			}
+		});
+	}
+	
+	private E decode(String body) {
+		if (body.isEmpty()) {
+			return null;
+		}
+		JsonObject json;
+		try {
+			json = new JsonObject(body);
+		} catch (RuntimeException e) {
+			PKIConnector.logger.warn("Failed to parse response body.", e);
+			return null;
+		}
+		try {
+			return clazz.getDeclaredConstructor(JsonObject.class).newInstance(json);
+		} catch (IllegalArgumentException | InvocationTargetException | IllegalAccessException | InstantiationException | NoSuchMethodException e) {
+			PKIConnector.logger.warn("Failed to decode " + clazz.getSimpleName() + ".", e);
+			return null;
+		}
+	}
 }
\ No newline at end of file
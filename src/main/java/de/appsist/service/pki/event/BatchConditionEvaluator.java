@@ -0,0 +1,149 @@
+package de.appsist.service.pki.event;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import de.appsist.service.pki.event.ProcessAutomatedFlowEvent.Condition;
+
+/**
+ * Evaluates a single condition for many contexts in parallel.
+ * The contexts are split into chunks evaluated with fork/join. Each chunk reuses one buffer for the path values of compiled conditions.
+ */
+public final class BatchConditionEvaluator {
+	private static final int CHUNK_SIZE = 256;
+
+	/**
+	 * Result of a batch evaluation.
+	 * Stores the index of the selected element for each context, the element identifiers are stored once.
+	 */
+	public static class Result {
+		private final String[] elements;
+		private final int[] indexes;
+
+		private Result(String[] elements, int[] indexes) {
+			this.elements = elements;
+			this.indexes = indexes;
+		}
+
+		/**
+		 * Returns the number of evaluated contexts.
+		 * @return Number of contexts.
+		 */
+		public int size() {
+			return indexes.length;
+		}
+
+		/**
+		 * Returns the element selected for a context.
+		 * @param contextIndex Index of the context in the evaluated list.
+		 * @return Identifier of the element, may be <code>null</code>.
+		 */
+		public String getElement(int contextIndex) {
+			int index = indexes[contextIndex];
+			return index >= 0 ? elements[index] : null;
+		}
+
+		/**
+		 * Returns the index of the element selected for a context.
+		 * @param contextIndex Index of the context in the evaluated list.
+		 * @return Index in {@link #getElements()} or <code>-1</code> if no element was selected.
+		 */
+		public int getElementIndex(int contextIndex) {
+			return indexes[contextIndex];
+		}
+
+		/**
+		 * Returns the distinct elements selected.
+		 * @return Array of element identifiers. Must not be modified.
+		 */
+		public String[] getElements() {
+			return elements;
+		}
+	}
+
+	private static class EvaluationTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Condition condition;
+		private final List<Map<String, Object>> contexts;
+		private final String[] results;
+		private final int from;
+		private final int to;
+
+		private EvaluationTask(Condition condition, List<Map<String, Object>> contexts, String[] results, int from, int to) {
+			this.condition = condition;
+			this.contexts = contexts;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > CHUNK_SIZE) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new EvaluationTask(condition, contexts, results, from, middle), new EvaluationTask(condition, contexts, results, middle, to));
+				return;
+			}
+			if (condition instanceof CompiledCondition) {
+				CompiledCondition compiledCondition = (CompiledCondition) condition;
+				Object[] buffer = new Object[compiledCondition.getSlotCount()];
+				for (int i = from; i < to; i++) {
+					results[i] = compiledCondition.getElementForContext(contexts.get(i), buffer);
+				}
+			} else {
+				for (int i = from; i < to; i++) {
+					results[i] = condition.getElementForContext(contexts.get(i));
+				}
+			}
+		}
+	}
+
+	private BatchConditionEvaluator() {
+	}
+
+	/**
+	 * Evaluates a condition for many contexts using the common fork/join pool.
+	 * @param condition Condition to evaluate.
+	 * @param contexts Contexts to evaluate the condition for. Should support fast random access.
+	 * @return Result with the selected element per context.
+	 */
+	public static Result evaluate(Condition condition, List<Map<String, Object>> contexts) {
+		return evaluate(condition, contexts, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Evaluates a condition for many contexts.
+	 * @param condition Condition to evaluate.
+	 * @param contexts Contexts to evaluate the condition for. Should support fast random access.
+	 * @param pool Fork/join pool to perform the evaluation with.
+	 * @return Result with the selected element per context.
+	 */
+	public static Result evaluate(Condition condition, List<Map<String, Object>> contexts, ForkJoinPool pool) {
+		String[] results = new String[contexts.size()];
+		pool.invoke(new EvaluationTask(condition, contexts, results, 0, results.length));
+
+		Map<String, Integer> elementIndexes = new HashMap<>();
+		int[] indexes = new int[results.length];
+		for (int i = 0; i < results.length; i++) {
+			String element = results[i];
+			if (element == null) {
+				indexes[i] = -1;
+				continue;
+			}
+			Integer index = elementIndexes.get(element);
+			if (index == null) {
+				index = elementIndexes.size();
+				elementIndexes.put(element, index);
+			}
+			indexes[i] = index;
+		}
+		String[] elements = new String[elementIndexes.size()];
+		for (Map.Entry<String, Integer> entry : elementIndexes.entrySet()) {
+			elements[entry.getValue()] = entry.getKey();
+		}
+		return new Result(elements, indexes);
+	}
+}
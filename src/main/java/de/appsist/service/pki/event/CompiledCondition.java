@@ -0,0 +1,145 @@
+package de.appsist.service.pki.event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.PathNotFoundException;
+
+import de.appsist.service.pki.event.ProcessAutomatedFlowEvent.Condition;
+
+/**
+ * Base for conditions compiled into an evaluator tree.
+ * Each distinct JSON path of the condition is assigned to a slot, which is read at most once per evaluation.
+ */
+abstract class CompiledCondition implements Condition {
+	/**
+	 * Marker for values not present in the context.
+	 */
+	static final Object MISSING = new Object();
+	private static final Object UNREAD = new Object();
+
+	private final List<String> expressions;
+	private final List<JsonPath> paths;
+	private final String defaultElement;
+
+	/**
+	 * Creates the condition.
+	 * @param defaultElement Element to return if no branch matches, may be <code>null</code>.
+	 */
+	protected CompiledCondition(String defaultElement) {
+		this.expressions = new ArrayList<>();
+		this.paths = new ArrayList<>();
+		this.defaultElement = defaultElement;
+	}
+
+	/**
+	 * Registers a JSON path for the condition. Has to be called during compilation only.
+	 * @param expression JSON path expression.
+	 * @return Slot of the path.
+	 * @throws IllegalArgumentException The expression is not a valid JSON path.
+	 */
+	protected int slot(String expression) throws IllegalArgumentException {
+		int slot = expressions.indexOf(expression);
+		if (slot < 0) {
+			paths.add(JsonPathCache.compile(expression));
+			expressions.add(expression);
+			slot = expressions.size() - 1;
+		}
+		return slot;
+	}
+
+	/**
+	 * Returns the number of distinct paths of the condition.
+	 * @return Number of slots.
+	 */
+	int getSlotCount() {
+		return paths.size();
+	}
+
+	/**
+	 * Returns the element to use if no branch matches.
+	 * @return Identifier of the default element, may be <code>null</code>.
+	 */
+	String getDefaultElement() {
+		return defaultElement;
+	}
+
+	@Override
+	public String getElementForContext(Map<String, Object> context) {
+		return getElementForContext(context, new Object[paths.size()]);
+	}
+
+	/**
+	 * Evaluates the condition using the given buffer for the path values.
+	 * Allows to reuse the buffer when evaluating the condition for many contexts.
+	 * @param context Context to evaluate the condition for.
+	 * @param buffer Buffer with at least {@link #getSlotCount()} entries. The content is overwritten.
+	 * @return Identifier of the target element, may be <code>null</code>.
+	 */
+	String getElementForContext(Map<String, Object> context, Object[] buffer) {
+		String element = evaluate(new Lookup(context, buffer));
+		return element != null ? element : defaultElement;
+	}
+
+	/**
+	 * Evaluates the condition.
+	 * @param lookup Lookup for the path values.
+	 * @return Identifier of the matching element or <code>null</code> if no branch matches.
+	 */
+	protected abstract String evaluate(Lookup lookup);
+
+	/**
+	 * Lazy lookup of path values for a single context.
+	 */
+	final class Lookup {
+		private final Map<String, Object> context;
+		private final Object[] values;
+
+		Lookup(Map<String, Object> context, Object[] values) {
+			this.context = context;
+			this.values = values;
+			for (int i = 0; i < paths.size(); i++) {
+				values[i] = UNREAD;
+			}
+		}
+
+		/**
+		 * Returns the value of the path in the given slot.
+		 * @param slot Slot of the path.
+		 * @return Value or {@link CompiledCondition#MISSING} if the path is not present.
+		 */
+		Object get(int slot) {
+			Object value = values[slot];
+			if (value == UNREAD) {
+				try {
+					value = paths.get(slot).read(context);
+				} catch (PathNotFoundException e) {
+					value = MISSING;
+				}
+				values[slot] = value;
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * Normalizes a scalar value to the string representation used for matching, e.g. <code>1.0</code> and <code>1</code> both map to <code>"1"</code>.
+	 * @param value Value to normalize.
+	 * @return String representation or <code>null</code> if the value is missing or not a scalar.
+	 */
+	static String asKey(Object value) {
+		if (value instanceof String) {
+			return (String) value;
+		} else if (value instanceof Number) {
+			double number = ((Number) value).doubleValue();
+			long integral = (long) number;
+			return integral == number ? Long.toString(integral) : Double.toString(number);
+		} else if (value instanceof Boolean) {
+			return value.toString();
+		} else {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package de.appsist.service.pki.event;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.jayway.jsonpath.InvalidPathException;
+import com.jayway.jsonpath.JsonPath;
+
+/**
+ * Shared cache for compiled JSON paths, keyed by the path expression.
+ * The cache is bounded, the least recently used paths are evicted first.
+ */
+public final class JsonPathCache {
+	private static final int MAX_ENTRIES = 1024;
+	private static final Map<String, JsonPath> cache = new LinkedHashMap<String, JsonPath>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, JsonPath> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	private JsonPathCache() {
+	}
+
+	/**
+	 * Returns the compiled path for the given expression.
+	 * @param expression JSON path expression.
+	 * @return Compiled path.
+	 * @throws IllegalArgumentException The expression is not a valid JSON path.
+	 */
+	public static JsonPath compile(String expression) throws IllegalArgumentException {
+		synchronized (cache) {
+			JsonPath path = cache.get(expression);
+			if (path != null) {
+				return path;
+			}
+		}
+		JsonPath path;
+		try {
+			path = JsonPath.compile(expression);
+		} catch (InvalidPathException e) {
+			throw new IllegalArgumentException("Invalid json path: " + expression, e);
+		}
+		synchronized (cache) {
+			cache.put(expression, path);
+		}
+		return path;
+	}
+
+	/**
+	 * Returns the number of cached paths.
+	 * @return Number of entries in the cache.
+	 */
+	public static int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+}
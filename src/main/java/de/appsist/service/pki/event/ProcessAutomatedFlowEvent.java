@@ -1,5 +1,9 @@
 package de.appsist.service.pki.event;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.jayway.jsonpath.JsonPath;
@@ -14,16 +18,23 @@ public class ProcessAutomatedFlowEvent extends ProcessEvent {
 	}
 	
 	private static class IfCondition implements Condition {
-		private String jsonPath;
-		private String thenElement;
-		private String elseElement;
+		private final JsonPath jsonPath;
+		private final String thenElement;
+		private final String elseElement;
 		
 		public IfCondition(Map<String, Object> parameters) throws IllegalArgumentException {
 			Object entry = parameters.get("jsonpath"); 
 			if (entry == null || !(entry instanceof String)) {
 				throw new IllegalArgumentException("Missing json path containig the condition to check [jsonpath].");
 			}
-			jsonPath = (String) entry;
+			JsonPath compiledPath;
+			try {
+				compiledPath = JsonPathCache.compile((String) entry);
+			} catch (IllegalArgumentException e) {
+				// An invalid path does not match any context, like a path not found.
+				compiledPath = null;
+			}
+			jsonPath = compiledPath;
 
 			entry = parameters.get("then");
 			if (entry == null || !(entry instanceof String)) {
@@ -40,10 +51,14 @@ public class ProcessAutomatedFlowEvent extends ProcessEvent {
 		
 		@Override
 		public String getElementForContext(Map<String, Object> context) {
+			if (jsonPath == null) {
+				return elseElement;
+			}
 			boolean condition;
 			try {
-				condition = JsonPath.read(context, jsonPath);
-			} catch (PathNotFoundException|ClassCastException e) {
+				Object value = jsonPath.read(context);
+				condition = Boolean.TRUE.equals(value);
+			} catch (PathNotFoundException e) {
 				condition = false;
 			}
 			return (condition) ? thenElement : elseElement;
@@ -51,7 +66,7 @@ public class ProcessAutomatedFlowEvent extends ProcessEvent {
 	}
 	
 	private static class TrueCondition implements Condition {
-		private String thenElement;
+		private final String thenElement;
 		
 		public TrueCondition(Map<String, Object> parameters) {
 			Object entry = parameters.get("then");
@@ -68,6 +83,16 @@ public class ProcessAutomatedFlowEvent extends ProcessEvent {
 	}
 	
 	public static final String MODEL_ID = "processEvent:automatedFlow";
+	private static final int MAX_CACHED_CONDITIONS = 512;
+	private static final Map<Map<String, Object>, Condition> conditionCache = new LinkedHashMap<Map<String, Object>, Condition>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Map<String, Object>, Condition> eldest) {
+			return size() > MAX_CACHED_CONDITIONS;
+		}
+	};
+	
 	private final Condition condition;
 	
 	/**
@@ -78,11 +103,73 @@ public class ProcessAutomatedFlowEvent extends ProcessEvent {
 	@SuppressWarnings("unchecked")
 	public ProcessAutomatedFlowEvent(Map<String, Object> content) throws IllegalArgumentException {
 		super(content);
+		Map<String, Object> flowCondition;
 		try {
-			Map<String, Object> flowCondition = (Map<String, Object>) getPayload().get("flowCondition");
-			if (flowCondition == null) {
-				throw new IllegalArgumentException("Missing field: payload.flowCondition");
+			flowCondition = (Map<String, Object>) getPayload().get("flowCondition");
+		} catch (ClassCastException e) {
+			throw new IllegalArgumentException("Wrong field type: payload.flowCondition");
+		}
+		if (flowCondition == null) {
+			throw new IllegalArgumentException("Missing field: payload.flowCondition");
+		}
+		condition = compileCondition(flowCondition);
+	}
+	
+	/**
+	 * Returns the condition for a flow condition definition. Conditions are immutable and shared between all users of the same definition.
+	 * The definition is copied when the condition is cached, so the caller may modify it afterwards.
+	 * @param flowCondition Map with the condition definition, i.e. the <code>flowCondition</code> entry of the event payload.
+	 * @return Condition object.
+	 * @throws IllegalArgumentException The condition definition is invalid.
+	 */
+	@SuppressWarnings("unchecked")
+	public static Condition compileCondition(Map<String, Object> flowCondition) throws IllegalArgumentException {
+		Condition condition;
+		synchronized (conditionCache) {
+			condition = conditionCache.get(flowCondition);
+		}
+		if (condition == null) {
+			Map<String, Object> definition = (Map<String, Object>) copyValue(flowCondition);
+			condition = parseCondition(definition);
+			synchronized (conditionCache) {
+				conditionCache.put(definition, condition);
+			}
+		}
+		return condition;
+	}
+	
+	/**
+	 * Copies a value of a condition definition. Maps and lists are copied deeply and cannot be modified, other values are immutable already.
+	 * @param value Value to copy.
+	 * @return Copy of the value.
+	 */
+	private static Object copyValue(Object value) {
+		if (value instanceof Map<?, ?>) {
+			Map<Object, Object> copy = new LinkedHashMap<>();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				copy.put(entry.getKey(), copyValue(entry.getValue()));
 			}
+			return Collections.unmodifiableMap(copy);
+		} else if (value instanceof List<?>) {
+			List<Object> copy = new ArrayList<>(((List<?>) value).size());
+			for (Object entry : (List<?>) value) {
+				copy.add(copyValue(entry));
+			}
+			return Collections.unmodifiableList(copy);
+		} else {
+			return value;
+		}
+	}
+	
+	/**
+	 * Parses a flow condition.
+	 * @param flowCondition Map with the condition definition.
+	 * @return Condition object.
+	 * @throws IllegalArgumentException The condition definition is invalid.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Condition parseCondition(Map<String, Object> flowCondition) throws IllegalArgumentException {
+		try {
 			Object method = flowCondition.get("method");
 			if (method == null || !(method instanceof String)) {
 				throw new IllegalArgumentException("Missing or invalid condition type [payload.flowCondition.method].");
@@ -93,11 +180,13 @@ public class ProcessAutomatedFlowEvent extends ProcessEvent {
 			}
 			switch ((String) method) {
 			case "if":
-				condition = new IfCondition((Map<String, Object>) parameters);
-				break;
+				return new IfCondition((Map<String, Object>) parameters);
 			case "true":
-				condition = new TrueCondition((Map<String, Object>) parameters);
-				break;
+				return new TrueCondition((Map<String, Object>) parameters);
+			case "switch":
+				return new SwitchCondition((Map<String, Object>) parameters, (String) flowCondition.get("default"));
+			case "rules":
+				return new RuleTableCondition((Map<String, Object>) parameters, (String) flowCondition.get("default"));
 			default:
 				throw new IllegalArgumentException("Unknown condition type: " + (String) method);
 			}
@@ -111,7 +200,7 @@ public class ProcessAutomatedFlowEvent extends ProcessEvent {
 	}
 	
 	/**
-	 * Returns the default element if set.
+	 * Returns the default element if set. Conditions of type <code>switch</code> and <code>rules</code> already fall back to it if no branch matches.
 	 * @return ID of the element to default to, may be <code>null</code>.
 	 */
 	public String getDefault() {
@@ -0,0 +1,222 @@
+package de.appsist.service.pki.event;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Condition evaluating an ordered table of rules. The target of the first rule with all comparisons fulfilled is selected.
+ * <pre>
+ * "flowCondition": {
+ *   "method": "rules",
+ *   "parameters": {
+ *     "rules": [
+ *       { "when": [{ "jsonpath": "$.score", "operator": "&gt;=", "value": 80 }], "then": "element1" },
+ *       { "jsonpath": "$.role", "operator": "in", "value": ["admin", "expert"], "then": "element2" }
+ *     ]
+ *   },
+ *   "default": "element3"
+ * }
+ * </pre>
+ * Supported operators: <code>==</code>, <code>!=</code>, <code>&lt;</code>, <code>&lt;=</code>, <code>&gt;</code>, <code>&gt;=</code>, <code>in</code>, and <code>exists</code>.
+ * Missing values only fulfill <code>!=</code> and <code>exists</code> with value <code>false</code>.
+ */
+class RuleTableCondition extends CompiledCondition {
+	private enum Operator {
+		EQ, NE, LT, LE, GT, GE, IN, EXISTS;
+
+		static Operator getValueFor(Object operator) throws IllegalArgumentException {
+			if (!(operator instanceof String)) {
+				throw new IllegalArgumentException("Missing or invalid comparison [operator].");
+			}
+			switch ((String) operator) {
+			case "==":
+				return EQ;
+			case "!=":
+				return NE;
+			case "<":
+				return LT;
+			case "<=":
+				return LE;
+			case ">":
+				return GT;
+			case ">=":
+				return GE;
+			case "in":
+				return IN;
+			case "exists":
+				return EXISTS;
+			default:
+				throw new IllegalArgumentException("Unknown comparison operator: " + operator);
+			}
+		}
+	}
+
+	private static class Comparison {
+		private final int slot;
+		private final Operator operator;
+		private final String key; // Normalized operand for equality checks.
+		private final Double number; // Numeric operand for ordering checks, may be null.
+		private final String string; // String operand for ordering checks, may be null.
+		private final Set<String> keys; // Operands for the in operator.
+		private final boolean exists;
+
+		private Comparison(int slot, Operator operator, Object operand) throws IllegalArgumentException {
+			this.slot = slot;
+			this.operator = operator;
+			switch (operator) {
+			case IN:
+				if (!(operand instanceof List<?>)) {
+					throw new IllegalArgumentException("Operand of [in] must be a list.");
+				}
+				keys = new HashSet<>();
+				for (Object entry : (List<?>) operand) {
+					String entryKey = asKey(entry);
+					if (entryKey != null) keys.add(entryKey);
+				}
+				key = null;
+				number = null;
+				string = null;
+				exists = false;
+				break;
+			case EXISTS:
+				exists = !Boolean.FALSE.equals(operand);
+				keys = null;
+				key = null;
+				number = null;
+				string = null;
+				break;
+			default:
+				key = asKey(operand);
+				if (key == null) {
+					throw new IllegalArgumentException("Operand of [" + operator + "] must be a string, number, or boolean.");
+				}
+				number = operand instanceof Number ? ((Number) operand).doubleValue() : null;
+				string = operand instanceof String ? (String) operand : null;
+				keys = null;
+				exists = false;
+			}
+		}
+
+		private boolean matches(Lookup lookup) {
+			Object value = lookup.get(slot);
+			if (value == MISSING || value == null) {
+				switch (operator) {
+				case NE:
+					return true;
+				case EXISTS:
+					return !exists;
+				default:
+					return false;
+				}
+			}
+			switch (operator) {
+			case EQ:
+				return key.equals(asKey(value));
+			case NE:
+				return !key.equals(asKey(value));
+			case IN:
+				return keys.contains(asKey(value));
+			case EXISTS:
+				return exists;
+			default:
+				int comparison;
+				if (number != null && value instanceof Number) {
+					comparison = Double.compare(((Number) value).doubleValue(), number);
+				} else if (string != null && value instanceof String) {
+					comparison = ((String) value).compareTo(string);
+				} else {
+					return false;
+				}
+				switch (operator) {
+				case LT:
+					return comparison < 0;
+				case LE:
+					return comparison <= 0;
+				case GT:
+					return comparison > 0;
+				default:
+					return comparison >= 0;
+				}
+			}
+		}
+	}
+
+	private static class Rule {
+		private final Comparison[] comparisons;
+		private final String target;
+
+		private Rule(Comparison[] comparisons, String target) {
+			this.comparisons = comparisons;
+			this.target = target;
+		}
+	}
+
+	private final Rule[] rules;
+
+	public RuleTableCondition(Map<String, Object> parameters, String defaultElement) throws IllegalArgumentException {
+		super(defaultElement);
+		Object entry = parameters.get("rules");
+		if (entry == null || !(entry instanceof List<?>)) {
+			throw new IllegalArgumentException("Missing or invalid rule table [rules].");
+		}
+		List<?> ruleList = (List<?>) entry;
+		rules = new Rule[ruleList.size()];
+		for (int i = 0; i < rules.length; i++) {
+			if (!(ruleList.get(i) instanceof Map<?, ?>)) {
+				throw new IllegalArgumentException("Entries of [rules] must be objects.");
+			}
+			rules[i] = compileRule((Map<?, ?>) ruleList.get(i));
+		}
+	}
+
+	private Rule compileRule(Map<?, ?> rule) throws IllegalArgumentException {
+		Object target = rule.get("then");
+		if (target == null || !(target instanceof String)) {
+			throw new IllegalArgumentException("Missing target element of rule [then].");
+		}
+		List<Comparison> comparisons = new ArrayList<>();
+		Object when = rule.get("when");
+		if (when != null) {
+			if (!(when instanceof List<?>)) {
+				throw new IllegalArgumentException("Comparisons of rule [when] must be a list.");
+			}
+			for (Object comparison : (List<?>) when) {
+				if (!(comparison instanceof Map<?, ?>)) {
+					throw new IllegalArgumentException("Entries of [when] must be objects.");
+				}
+				comparisons.add(compileComparison((Map<?, ?>) comparison));
+			}
+		} else if (rule.get("jsonpath") != null) {
+			comparisons.add(compileComparison(rule));
+		}
+		return new Rule(comparisons.toArray(new Comparison[comparisons.size()]), (String) target);
+	}
+
+	private Comparison compileComparison(Map<?, ?> comparison) throws IllegalArgumentException {
+		Object jsonPath = comparison.get("jsonpath");
+		if (jsonPath == null || !(jsonPath instanceof String)) {
+			throw new IllegalArgumentException("Missing json path of comparison [jsonpath].");
+		}
+		return new Comparison(slot((String) jsonPath), Operator.getValueFor(comparison.get("operator")), comparison.get("value"));
+	}
+
+	@Override
+	protected String evaluate(Lookup lookup) {
+		for (Rule rule : rules) {
+			boolean matches = true;
+			for (Comparison comparison : rule.comparisons) {
+				if (!comparison.matches(lookup)) {
+					matches = false;
+					break;
+				}
+			}
+			if (matches) {
+				return rule.target;
+			}
+		}
+		return null;
+	}
+}
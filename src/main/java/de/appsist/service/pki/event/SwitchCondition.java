@@ -0,0 +1,69 @@
+package de.appsist.service.pki.event;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Condition selecting the target element by the value of a JSON path.
+ * <pre>
+ * "flowCondition": {
+ *   "method": "switch",
+ *   "parameters": {
+ *     "jsonpath": "$.level",
+ *     "cases": { "beginner": "element1", "expert": "element2" }
+ *   },
+ *   "default": "element3"
+ * }
+ * </pre>
+ * Numbers and booleans are matched by their string representation. Case keys representing numbers also match numerically,
+ * e.g. the case <code>"1.0"</code> matches the value <code>1</code>.
+ */
+class SwitchCondition extends CompiledCondition {
+	private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?");
+
+	private final int slot;
+	private final Map<String, String> cases;
+
+	public SwitchCondition(Map<String, Object> parameters, String defaultElement) throws IllegalArgumentException {
+		super(defaultElement);
+		Object entry = parameters.get("jsonpath");
+		if (entry == null || !(entry instanceof String)) {
+			throw new IllegalArgumentException("Missing json path containing the value to switch on [jsonpath].");
+		}
+		slot = slot((String) entry);
+
+		entry = parameters.get("cases");
+		if (entry == null || !(entry instanceof Map<?, ?>)) {
+			throw new IllegalArgumentException("Missing or invalid case mapping [cases].");
+		}
+		Map<?, ?> caseMap = (Map<?, ?>) entry;
+		cases = new HashMap<>(caseMap.size() * 2);
+		Map<String, String> numericCases = new HashMap<>();
+		for (Map.Entry<?, ?> caseEntry : caseMap.entrySet()) {
+			if (!(caseEntry.getValue() instanceof String)) {
+				throw new IllegalArgumentException("Target elements of [cases] must be strings.");
+			}
+			String key = asKey(caseEntry.getKey());
+			if (key == null) {
+				throw new IllegalArgumentException("Keys of [cases] must be strings, numbers, or booleans.");
+			}
+			cases.put(key, (String) caseEntry.getValue());
+			if (NUMBER.matcher(key).matches()) {
+				numericCases.put(asKey(Double.valueOf(key)), (String) caseEntry.getValue());
+			}
+		}
+		// Keys matching exactly take precedence over numerically equal ones.
+		for (Map.Entry<String, String> numericCase : numericCases.entrySet()) {
+			if (!cases.containsKey(numericCase.getKey())) {
+				cases.put(numericCase.getKey(), numericCase.getValue());
+			}
+		}
+	}
+
+	@Override
+	protected String evaluate(Lookup lookup) {
+		String key = asKey(lookup.get(slot));
+		return key != null ? cases.get(key) : null;
+	}
+}
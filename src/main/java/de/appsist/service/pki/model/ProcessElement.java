@@ -50,6 +50,14 @@ public class ProcessElement {
 		return type;
 	}
 	
+	/**
+	 * Returns the process called by a call activity.
+	 * @return Identifier of the called process definition, <code>null</code> if the element is no call activity or does not specify the called process.
+	 */
+	public String getCalledElement() {
+		return json.getString("calledElement");
+	}
+	
 	public JsonArray getTriggers() {
 		return json.getArray("triggers");
 	}
@@ -0,0 +1,163 @@
+package de.appsist.service.pki.connector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.Handler;
+
+public class AsyncJoinTest extends TestCase {
+	private ManualVertx vertx;
+	private List<AsyncJoin.Result> results;
+
+	@Override
+	protected void setUp() throws Exception {
+		vertx = new ManualVertx();
+		results = new ArrayList<>();
+	}
+
+	private AsyncJoin join(int partCount, AsyncJoin.Policy policy) {
+		return new AsyncJoin(vertx.getVertx(), partCount, policy, new Handler<AsyncJoin.Result>() {
+
+			@Override
+			public void handle(AsyncJoin.Result result) {
+				results.add(result);
+			}
+		});
+	}
+
+	private AsyncJoin.Result getResult() {
+		assertEquals(1, results.size());
+		return results.get(0);
+	}
+
+	public void testSucceedsWhenAllPartsSucceed() {
+		AsyncJoin join = join(2, AsyncJoin.Policy.REQUIRE_ALL);
+		join.succeed();
+		assertTrue(results.isEmpty());
+		join.succeed();
+		assertEquals(AsyncJoin.Status.SUCCEEDED, getResult().getStatus());
+		assertTrue(getResult().succeeded());
+		assertTrue(join.isCompleted());
+	}
+
+	public void testCompletesImmediatelyWithoutParts() {
+		join(0, AsyncJoin.Policy.FAIL_FAST);
+		assertEquals(AsyncJoin.Status.SUCCEEDED, getResult().getStatus());
+	}
+
+	public void testFailFastCompletesWithFirstFailure() {
+		AsyncJoin join = join(3, AsyncJoin.Policy.FAIL_FAST);
+		join.succeed();
+		join.fail("processInstance", new IllegalStateException("Not found."));
+		join.fail("currentElement", new IllegalStateException("Not found."));
+		AsyncJoin.Result result = getResult();
+		assertEquals(AsyncJoin.Status.FAILED, result.getStatus());
+		assertEquals(1, result.getSucceededCount());
+		assertEquals(1, result.getFailedCount());
+		assertEquals(1, result.getPendingCount());
+		assertEquals(Arrays.asList("processInstance"), new ArrayList<>(result.getErrors().keySet()));
+	}
+
+	public void testFailedPartOfSucceededResult() {
+		AsyncJoin join = join(2, AsyncJoin.Policy.ALLOW_PARTIAL);
+		join.succeed();
+		join.succeed();
+		AsyncJoin.Result partial = getResult().withFailedPart("currentElement", new IllegalStateException("Not current."));
+		assertEquals(AsyncJoin.Status.PARTIAL, partial.getStatus());
+		assertEquals(Arrays.asList("currentElement"), new ArrayList<>(partial.getErrors().keySet()));
+		assertSame(partial, partial.withFailedPart("currentElement", new IllegalStateException("Not current.")));
+
+		AsyncJoin.Result failed = partial.withFailedPart("processInstance", new IllegalStateException("Not current."));
+		assertEquals(AsyncJoin.Status.FAILED, failed.getStatus());
+		assertEquals(0, failed.getSucceededCount());
+		assertSame(failed, failed.withFailedPart("processDefinition", new IllegalStateException("Not current.")));
+	}
+
+	public void testRequireAllFailsAfterAllParts() {
+		AsyncJoin join = join(2, AsyncJoin.Policy.REQUIRE_ALL);
+		join.fail("processDefinition", new IllegalStateException("Not found."));
+		assertTrue(results.isEmpty());
+		join.succeed();
+		assertEquals(AsyncJoin.Status.FAILED, getResult().getStatus());
+		assertFalse(getResult().succeeded());
+	}
+
+	public void testAllowPartialSucceedsWithSomeParts() {
+		AsyncJoin join = join(2, AsyncJoin.Policy.ALLOW_PARTIAL);
+		join.succeed();
+		join.fail("currentElement", new IllegalStateException("Not found."));
+		assertEquals(AsyncJoin.Status.PARTIAL, getResult().getStatus());
+		assertTrue(getResult().succeeded());
+	}
+
+	public void testAllowPartialFailsWithoutSucceededParts() {
+		AsyncJoin join = join(2, AsyncJoin.Policy.ALLOW_PARTIAL);
+		join.fail("processDefinition", new IllegalStateException("Unavailable."));
+		join.fail("processInstance", new IllegalStateException("Unavailable."));
+		AsyncJoin.Result result = getResult();
+		assertEquals(AsyncJoin.Status.FAILED, result.getStatus());
+		assertFalse(result.succeeded());
+		assertEquals(2, result.getErrors().size());
+	}
+
+	public void testAllowPartialTimesOutWithoutSucceededParts() {
+		AsyncJoin join = join(2, AsyncJoin.Policy.ALLOW_PARTIAL);
+		join.setDeadline(100);
+		join.fail("processDefinition", new IllegalStateException("Unavailable."));
+		vertx.advance(100);
+		assertEquals(AsyncJoin.Status.TIMED_OUT, getResult().getStatus());
+		assertFalse(getResult().succeeded());
+	}
+
+	public void testDeadlineCompletesWithPendingParts() {
+		AsyncJoin join = join(3, AsyncJoin.Policy.ALLOW_PARTIAL);
+		join.setDeadline(100);
+		join.succeed();
+		vertx.advance(99);
+		assertTrue(results.isEmpty());
+		vertx.advance(1);
+		AsyncJoin.Result result = getResult();
+		assertEquals(AsyncJoin.Status.PARTIAL, result.getStatus());
+		assertEquals(2, result.getPendingCount());
+
+		// Parts completing after the deadline are ignored.
+		join.succeed();
+		assertEquals(1, results.size());
+	}
+
+	public void testRequireAllTimesOut() {
+		AsyncJoin join = join(2, AsyncJoin.Policy.REQUIRE_ALL);
+		join.setDeadline(100);
+		join.succeed();
+		vertx.advance(100);
+		assertEquals(AsyncJoin.Status.TIMED_OUT, getResult().getStatus());
+	}
+
+	public void testCompletionCancelsDeadline() {
+		AsyncJoin join = join(1, AsyncJoin.Policy.REQUIRE_ALL);
+		join.setDeadline(100);
+		assertEquals(1, vertx.getTimerCount());
+		join.succeed();
+		assertEquals(0, vertx.getTimerCount());
+	}
+
+	public void testIgnoresPartsAfterCompletion() {
+		AsyncJoin join = join(1, AsyncJoin.Policy.REQUIRE_ALL);
+		join.succeed();
+		join.succeed();
+		join.fail("processInstance", new IllegalStateException("Not found."));
+		assertEquals(AsyncJoin.Status.SUCCEEDED, getResult().getStatus());
+	}
+
+	public void testRejectsNegativePartCount() {
+		try {
+			join(-1, AsyncJoin.Policy.REQUIRE_ALL);
+			fail("Expected IllegalArgumentException.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+}
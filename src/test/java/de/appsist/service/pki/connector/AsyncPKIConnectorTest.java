@@ -0,0 +1,118 @@
+package de.appsist.service.pki.connector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.AsyncResult;
+
+import de.appsist.service.pki.model.ProcessDefinition;
+import de.appsist.service.pki.model.ProcessInstance;
+
+public class AsyncPKIConnectorTest extends TestCase {
+	private ManualVertx vertx;
+	private TestModels.Service service;
+	private PKIConnector connector;
+	private AsyncPKIConnector stages;
+
+	@Override
+	protected void setUp() throws Exception {
+		vertx = new ManualVertx();
+		service = new TestModels.Service();
+		vertx.setResponseProvider(service);
+		connector = new PKIConnector(vertx.getVertx(), "localhost", 8080, false, "/pki");
+		stages = connector.stages();
+	}
+
+	private static <T> T join(CompletionStage<T> stage) throws InterruptedException, ExecutionException {
+		CompletableFuture<T> future = stage.toCompletableFuture();
+		assertTrue("Stage is not completed.", future.isDone());
+		return future.get();
+	}
+
+	private static Throwable getFailure(CompletionStage<?> stage) throws InterruptedException {
+		try {
+			join(stage);
+			fail("Expected the stage to fail.");
+			return null;
+		} catch (ExecutionException e) {
+			return e.getCause();
+		}
+	}
+
+	public void testCompletesWithResult() throws Exception {
+		CompletionStage<ProcessDefinition> stage = stages.getProcessDefinition("process");
+		assertFalse(stage.toCompletableFuture().isDone());
+		vertx.runPending();
+		assertEquals("process", join(stage).getId());
+		assertEquals(Arrays.asList("GET /pki/processes/process"), vertx.getRequests());
+	}
+
+	public void testCompletesExceptionallyWithHttpException() throws Exception {
+		service.setAvailable(false);
+		CompletionStage<ProcessInstance> stage = stages.getProcessInstance("instance");
+		vertx.runPending();
+		Throwable failure = getFailure(stage);
+		assertTrue(failure instanceof HttpException);
+		assertEquals(503, ((HttpException) failure).getStatusCode());
+	}
+
+	public void testCachedGettersCompleteOnEventLoop() throws Exception {
+		stages.getProcessInstance("instance");
+		vertx.runPending();
+		CompletionStage<ProcessInstance> cached = stages.getCachedProcessInstance("instance");
+		CompletionStage<ProcessInstance> missing = stages.getCachedProcessInstance("missing");
+		assertFalse(cached.toCompletableFuture().isDone());
+		vertx.runPending();
+		assertEquals("instance", join(cached).getId());
+		assertNull(join(missing));
+	}
+
+	public void testRetrievesDuplicateIdentifiersOnce() throws Exception {
+		CompletionStage<Map<String, ProcessInstance>> stage = stages.getProcessInstances(Arrays.asList("b", "a", "b"));
+		vertx.runPending();
+		Map<String, ProcessInstance> instances = join(stage);
+		assertEquals(Arrays.asList("b", "a"), new ArrayList<>(instances.keySet()));
+		assertEquals("a", instances.get("a").getId());
+		assertEquals(2, vertx.getRequests().size());
+	}
+
+	public void testAllFailsWithFirstFailure() throws Exception {
+		CompletableFuture<String> first = new CompletableFuture<>();
+		CompletableFuture<String> second = new CompletableFuture<>();
+		CompletionStage<List<String>> joined = AsyncPKIConnector.all(Arrays.asList(first, second));
+		IllegalStateException failure = new IllegalStateException("Failed.");
+		second.completeExceptionally(failure);
+		assertSame(failure, getFailure(joined));
+
+		CompletableFuture<String> third = new CompletableFuture<>();
+		CompletionStage<List<String>> succeeded = AsyncPKIConnector.all(Arrays.asList(first, third));
+		third.complete("third");
+		assertFalse(succeeded.toCompletableFuture().isDone());
+		first.complete("first");
+		assertEquals(Arrays.asList("first", "third"), join(succeeded));
+		assertTrue(join(AsyncPKIConnector.all(new ArrayList<CompletionStage<String>>())).isEmpty());
+	}
+
+	public void testAllSettledWaitsForAllStages() throws Exception {
+		CompletableFuture<String> first = new CompletableFuture<>();
+		CompletableFuture<String> second = new CompletableFuture<>();
+		CompletionStage<List<AsyncResult<String>>> settled = AsyncPKIConnector.allSettled(Arrays.asList(first, second));
+		IllegalStateException failure = new IllegalStateException("Failed.");
+		first.completeExceptionally(failure);
+		assertFalse(settled.toCompletableFuture().isDone());
+		second.complete("second");
+
+		List<AsyncResult<String>> outcomes = join(settled);
+		assertTrue(outcomes.get(0).failed());
+		assertSame(failure, outcomes.get(0).cause());
+		assertTrue(outcomes.get(1).succeeded());
+		assertEquals("second", outcomes.get(1).result());
+	}
+}
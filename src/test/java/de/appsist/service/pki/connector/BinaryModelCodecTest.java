@@ -0,0 +1,98 @@
+package de.appsist.service.pki.connector;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.pki.event.ProcessAutomatedFlowEvent;
+import de.appsist.service.pki.model.ProcessDefinition;
+import de.appsist.service.pki.model.ProcessElement;
+import de.appsist.service.pki.model.ProcessElementInstance;
+import de.appsist.service.pki.model.ProcessInstance;
+
+public class BinaryModelCodecTest extends TestCase {
+
+	private static Map<String, Object> automatedFlowEvent(Object created) {
+		JsonObject parameters = new JsonObject();
+		parameters.putString("jsonpath", "$.approved");
+		parameters.putString("then", "approve");
+		parameters.putString("else", "reject");
+		JsonObject flowCondition = new JsonObject();
+		flowCondition.putString("method", "if");
+		flowCondition.putObject("parameters", parameters);
+		JsonObject payload = new JsonObject();
+		payload.putString("processId", "process");
+		payload.putString("processInstanceId", "instance");
+		payload.putString("elementId", "gateway");
+		payload.putObject("flowCondition", flowCondition);
+		JsonObject content = new JsonObject();
+		content.putString("id", "event");
+		content.putString("modelId", ProcessAutomatedFlowEvent.MODEL_ID);
+		content.putObject("payload", payload);
+		Map<String, Object> map = new LinkedHashMap<>(content.toMap());
+		map.put("created", created);
+		return map;
+	}
+
+	public void testRoundTripsProcessDefinition() {
+		JsonObject json = TestModels.definition("process");
+		json.putObject("localData", new JsonObject().putNumber("count", 3).putNumber("ratio", 0.5).putNumber("big", 1L << 40));
+		json.putArray("triggers", new JsonArray().addString("trigger").addBoolean(true).add(null));
+		ProcessDefinition decoded = BinaryModelCodec.decodeProcessDefinition(BinaryModelCodec.encode(new ProcessDefinition(json)));
+		assertEquals(json, decoded.asJson());
+	}
+
+	public void testRoundTripsInstances() {
+		JsonObject instance = TestModels.instance("instance", "process", false);
+		assertEquals(instance, BinaryModelCodec.decodeProcessInstance(BinaryModelCodec.encode(new ProcessInstance(instance))).asJson());
+
+		JsonObject element = TestModels.element("task");
+		element.putArray("nextElements", new JsonArray().addString("next"));
+		assertEquals(element, BinaryModelCodec.decodeProcessElement(BinaryModelCodec.encode(new ProcessElement(element))).asJson());
+
+		JsonObject elementInstance = TestModels.elementInstance("task", "start");
+		ProcessElementInstance decoded = BinaryModelCodec.decodeProcessElementInstance(BinaryModelCodec.encode(new ProcessElementInstance(elementInstance)));
+		assertEquals(elementInstance, decoded.asJson());
+		assertEquals("start", decoded.getPreviousElement());
+	}
+
+	public void testRoundTripsAutomatedFlowEvent() {
+		ProcessAutomatedFlowEvent event = new ProcessAutomatedFlowEvent(automatedFlowEvent("2016-09-29T10:15:30.000+0200"));
+		ProcessAutomatedFlowEvent decoded = BinaryModelCodec.decodeAutomatedFlowEvent(BinaryModelCodec.encode(event));
+		assertEquals(event.asMap(), decoded.asMap());
+		Map<String, Object> context = new LinkedHashMap<>();
+		context.put("approved", true);
+		assertEquals("approve", decoded.getCondition().getElementForContext(context));
+	}
+
+	public void testDecodesDatesToJsonRepresentation() {
+		ProcessAutomatedFlowEvent event = new ProcessAutomatedFlowEvent(automatedFlowEvent(new Date(1475136930000L)));
+		ProcessAutomatedFlowEvent decoded = BinaryModelCodec.decodeAutomatedFlowEvent(BinaryModelCodec.encode(event));
+		assertEquals("2016-09-29T08:15:30.000+0000", decoded.asMap().get("created"));
+		// The decoded content has to be representable as JSON.
+		assertEquals(new JsonObject(decoded.asMap()), new JsonObject(new JsonObject(decoded.asMap()).encode()));
+	}
+
+	public void testRejectsInvalidEncodings() {
+		byte[] data = BinaryModelCodec.encode(new ProcessInstance(TestModels.instance("instance", "process", true)));
+		try {
+			BinaryModelCodec.decodeProcessDefinition(data);
+			fail("Expected IllegalArgumentException.");
+		} catch (IllegalArgumentException e) {
+			// Expected, wrong model type.
+		}
+		byte[] truncated = new byte[data.length - 1];
+		System.arraycopy(data, 0, truncated, 0, truncated.length);
+		try {
+			BinaryModelCodec.decodeProcessInstance(truncated);
+			fail("Expected IllegalArgumentException.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+}
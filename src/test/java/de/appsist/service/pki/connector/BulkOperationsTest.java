@@ -0,0 +1,114 @@
+package de.appsist.service.pki.connector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.AsyncResult;
+
+import de.appsist.service.pki.model.ProcessInstance;
+
+public class BulkOperationsTest extends TestCase {
+	private ManualVertx vertx;
+	private TestModels.Service service;
+	private PKIConnector connector;
+
+	/**
+	 * Handler collecting the results and the summary.
+	 */
+	private static class CollectingHandler<K, V> implements BulkOperations.BulkHandler<K, V> {
+		private final List<K> keys = new ArrayList<>();
+		private BulkOperations.Summary summary;
+
+		@Override
+		public void handleResult(K key, AsyncResult<V> result) {
+			keys.add(key);
+		}
+
+		@Override
+		public void handleSummary(BulkOperations.Summary summary) {
+			assertNull("Summary reported twice.", this.summary);
+			this.summary = summary;
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		vertx = new ManualVertx();
+		service = new TestModels.Service();
+		vertx.setResponseProvider(service);
+		connector = new PKIConnector(vertx.getVertx(), "localhost", 8080, false, "/pki");
+	}
+
+	public void testKeepsWindowOfRequestsInFlight() {
+		CollectingHandler<String, ProcessInstance> handler = new CollectingHandler<>();
+		connector.bulk().getProcessInstances(Arrays.asList("a", "b", "c", "d", "e"), 2, handler);
+		assertEquals(2, vertx.getRequests().size());
+		vertx.runPending();
+		assertEquals(5, vertx.getRequests().size());
+		assertEquals(Arrays.asList("a", "b", "c", "d", "e"), handler.keys);
+		assertEquals(5, handler.summary.getSucceededCount());
+		assertTrue(handler.summary.getErrors().isEmpty());
+	}
+
+	public void testServesDuplicatesOnceAndCachedEntriesWithoutRequest() {
+		connector.bulk().getProcessInstances(Arrays.asList("a"), 1, new CollectingHandler<String, ProcessInstance>());
+		vertx.runPending();
+		CollectingHandler<String, ProcessInstance> handler = new CollectingHandler<>();
+		connector.bulk().getProcessInstances(Arrays.asList("a", "b", "a"), 4, handler);
+		vertx.runPending();
+
+		assertEquals(Arrays.asList("GET /pki/instances/a", "GET /pki/instances/b"), vertx.getRequests());
+		assertEquals(3, handler.summary.getRequestedCount());
+		assertEquals(2, handler.summary.getDistinctCount());
+		assertEquals(1, handler.summary.getCachedCount());
+		assertEquals(2, handler.summary.getSucceededCount());
+	}
+
+	public void testReportsEachFailedInstantiation() {
+		service.setAvailable(false);
+		BulkOperations.InstantiationRequest request = new BulkOperations.InstantiationRequest("process", "session", "user", null);
+		CollectingHandler<BulkOperations.InstantiationRequest, ProcessInstance> handler = new CollectingHandler<>();
+		connector.bulk().instantiateProcesses(Arrays.asList(request, request, request), 2, handler);
+		vertx.runPending();
+
+		BulkOperations.Summary summary = handler.summary;
+		assertEquals(3, summary.getDistinctCount());
+		assertEquals(3, summary.getFailedCount());
+		assertEquals(3, summary.getErrors().size());
+		for (int i = 0; i < 3; i++) {
+			BulkOperations.Failure failure = summary.getErrors().get(i);
+			assertEquals(i, failure.getIndex());
+			assertSame(request, failure.getKey());
+			assertEquals(503, ((HttpException) failure.getError()).getStatusCode());
+		}
+		assertEquals(3, summary.asJson().getArray("errors").size());
+	}
+
+	public void testReportsIndexOfFirstOccurrence() {
+		connector.bulk().getProcessInstances(Arrays.asList("cached"), 1, new CollectingHandler<String, ProcessInstance>());
+		vertx.runPending();
+		service.setAvailable(false);
+		CollectingHandler<String, ProcessInstance> handler = new CollectingHandler<>();
+		connector.bulk().getProcessInstances(Arrays.asList("cached", "missing", "cached", "missing"), 1, handler);
+		vertx.runPending();
+
+		assertEquals(1, handler.summary.getErrors().size());
+		assertEquals(1, handler.summary.getErrors().get(0).getIndex());
+		assertEquals("missing", handler.summary.getErrors().get(0).getKey());
+	}
+
+	public void testCompletesEmptyOperationImmediately() {
+		CollectingHandler<String, ProcessInstance> handler = new CollectingHandler<>();
+		connector.bulk().getProcessInstances(new ArrayList<String>(), 1, handler);
+		assertEquals(0, handler.summary.getRequestedCount());
+		try {
+			connector.bulk().getProcessInstances(Arrays.asList("a"), 0, handler);
+			fail("Expected IllegalArgumentException.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+}
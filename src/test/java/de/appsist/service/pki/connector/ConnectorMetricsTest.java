@@ -0,0 +1,59 @@
+package de.appsist.service.pki.connector;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.json.JsonObject;
+
+public class ConnectorMetricsTest extends TestCase {
+
+	public void testRecordsRequestsByOperationAndStatusCode() {
+		ConnectorMetrics metrics = new ConnectorMetrics();
+		metrics.recordRequest("getProcessInstance", 200, 1000000);
+		metrics.recordRequest("getProcessInstance", 200, 3000000);
+		metrics.recordRequest("getProcessInstance", 404, 500000);
+		metrics.recordRequest("getProcessDefinition", 200, 2000000);
+
+		assertEquals(2, metrics.getRequestLatencies("getProcessInstance", 200).getCount());
+		assertEquals(1, metrics.getRequestLatencies("getProcessInstance", 404).getCount());
+		assertEquals(1, metrics.getRequestLatencies("getProcessDefinition", 200).getCount());
+		assertNull(metrics.getRequestLatencies("getProcessDefinition", 404));
+		assertNull(metrics.getRequestLatencies("getProcessElement", 200));
+
+		JsonObject requests = metrics.asJson().getObject("requests");
+		assertEquals(3, requests.size());
+		assertEquals(2L, requests.getObject("getProcessInstance:200").getLong("count").longValue());
+		assertEquals(2.0, requests.getObject("getProcessInstance:200").getNumber("mean").doubleValue(), 0.001);
+		assertEquals(1L, requests.getObject("getProcessInstance:404").getLong("count").longValue());
+	}
+
+	public void testRecordsInvalidStatusCodesAsZero() {
+		ConnectorMetrics metrics = new ConnectorMetrics();
+		metrics.recordRequest("getProcessInstance", -1, 1000);
+		metrics.recordRequest("getProcessInstance", 1000, 1000);
+		assertEquals(2, metrics.getRequestLatencies("getProcessInstance", 0).getCount());
+		assertNull(metrics.getRequestLatencies("getProcessInstance", 1000));
+	}
+
+	public void testRecordsCacheAccesses() {
+		ConnectorMetrics metrics = new ConnectorMetrics();
+		metrics.recordCacheAccess(ConnectorMetrics.Cache.PROCESS_INSTANCES, true);
+		metrics.recordCacheAccess(ConnectorMetrics.Cache.PROCESS_INSTANCES, true);
+		metrics.recordCacheAccess(ConnectorMetrics.Cache.PROCESS_INSTANCES, false);
+		assertEquals(2, metrics.getCacheHits(ConnectorMetrics.Cache.PROCESS_INSTANCES));
+		assertEquals(1, metrics.getCacheMisses(ConnectorMetrics.Cache.PROCESS_INSTANCES));
+		assertEquals(0, metrics.getCacheHits(ConnectorMetrics.Cache.PROCESS_DEFINITIONS));
+	}
+
+	public void testHistogramPercentiles() {
+		ConnectorMetrics.LatencyHistogram histogram = new ConnectorMetrics.LatencyHistogram();
+		assertEquals(0, histogram.getPercentile(0.5));
+		for (int i = 0; i < 99; i++) {
+			histogram.record(1000);
+		}
+		histogram.record(1000000);
+		assertEquals(100, histogram.getCount());
+		long p50 = histogram.getPercentile(0.5);
+		assertTrue(p50 >= 1000 && p50 < 2048);
+		assertEquals(1000000, histogram.getPercentile(1));
+	}
+}
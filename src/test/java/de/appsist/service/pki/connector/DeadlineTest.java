@@ -0,0 +1,39 @@
+package de.appsist.service.pki.connector;
+
+import junit.framework.TestCase;
+
+public class DeadlineTest extends TestCase {
+
+	public void testNoneNeverExpires() {
+		assertFalse(Deadline.NONE.isExpired());
+		assertEquals(Long.MAX_VALUE, Deadline.NONE.getRemainingMillis());
+		assertSame(Deadline.NONE, Deadline.at(Long.MAX_VALUE));
+		assertSame(Deadline.NONE, Deadline.in(Long.MAX_VALUE));
+	}
+
+	public void testPassedDeadlineIsExpired() {
+		Deadline deadline = Deadline.at(System.currentTimeMillis() - 1);
+		assertTrue(deadline.isExpired());
+		assertEquals(0, deadline.getRemainingMillis());
+	}
+
+	public void testRelativeDeadline() {
+		long before = System.currentTimeMillis();
+		Deadline deadline = Deadline.in(60000);
+		long after = System.currentTimeMillis();
+
+		assertFalse(deadline.isExpired());
+		assertTrue(deadline.getExpirationTime() >= before + 60000 && deadline.getExpirationTime() <= after + 60000);
+		assertTrue(deadline.getRemainingMillis() > 0 && deadline.getRemainingMillis() <= 60000);
+	}
+
+	public void testEarliest() {
+		Deadline early = Deadline.at(1000);
+		Deadline late = Deadline.at(2000);
+		assertSame(early, early.earliest(late));
+		assertSame(early, late.earliest(early));
+		assertSame(early, Deadline.NONE.earliest(early));
+		assertSame(early, early.earliest(Deadline.NONE));
+		assertSame(Deadline.NONE, Deadline.NONE.earliest(Deadline.NONE));
+	}
+}
@@ -0,0 +1,55 @@
+package de.appsist.service.pki.connector;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+public class ElementHistoryTest extends TestCase {
+
+	public void testKeepsCurrentElementFirst() {
+		ElementHistory history = new ElementHistory();
+		assertNull(history.getCurrent());
+		assertEquals(Collections.emptyList(), history.push("a", 3));
+		assertEquals(Collections.emptyList(), history.push("b", 3));
+		assertEquals("b", history.getCurrent());
+		assertEquals(Arrays.asList("b", "a"), history.getElementIds());
+	}
+
+	public void testEvictsOldestElements() {
+		ElementHistory history = new ElementHistory();
+		history.push("a", 2);
+		history.push("b", 2);
+		assertEquals(Arrays.asList("a"), history.push("c", 2));
+		assertEquals(Arrays.asList("c", "b"), history.getElementIds());
+	}
+
+	public void testMovesRevisitedElementsToFront() {
+		ElementHistory history = new ElementHistory();
+		history.push("a", 3);
+		history.push("b", 3);
+		history.push("a", 3);
+		assertEquals(Arrays.asList("a", "b"), history.getElementIds());
+		history.push("a", 3);
+		assertEquals(Arrays.asList("a", "b"), history.getElementIds());
+	}
+
+	public void testSmallerCapacityEvictsSeveralElements() {
+		ElementHistory history = new ElementHistory();
+		history.push("a", 4);
+		history.push("b", 4);
+		history.push("c", 4);
+		assertEquals(Arrays.asList("a", "b"), history.push("d", 2));
+		assertEquals(Arrays.asList("d", "c"), history.getElementIds());
+	}
+
+	public void testTrimKeepsCurrentElement() {
+		ElementHistory history = new ElementHistory();
+		history.push("a", 4);
+		history.push("b", 4);
+		history.push("c", 4);
+		assertEquals(Arrays.asList("a", "b"), history.trim(1));
+		assertEquals(Arrays.asList("c"), history.getElementIds());
+		assertEquals(Collections.emptyList(), history.trim(1));
+	}
+}
@@ -0,0 +1,126 @@
+package de.appsist.service.pki.connector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.Handler;
+
+import de.appsist.commons.event.ProcessEvent;
+
+public class EnrichmentCoalescerTest extends TestCase {
+	private ManualVertx vertx;
+	private List<String> retrievedEvents;
+	private List<Deadline> retrievalDeadlines;
+	private List<Handler<AsyncJoin.Result>> retrievalHandlers;
+	private EnrichmentCoalescer coalescer;
+
+	@Override
+	protected void setUp() throws Exception {
+		vertx = new ManualVertx();
+		retrievedEvents = new ArrayList<>();
+		retrievalDeadlines = new ArrayList<>();
+		retrievalHandlers = new ArrayList<>();
+		coalescer = new EnrichmentCoalescer(vertx.getVertx(), 10) {
+
+			@Override
+			protected void retrieve(ProcessEvent event, Deadline deadline, Handler<AsyncJoin.Result> completeHandler) {
+				retrievedEvents.add(event.getId());
+				retrievalDeadlines.add(deadline);
+				retrievalHandlers.add(completeHandler);
+			}
+		};
+	}
+
+	private static class ResultCollector implements Handler<AsyncJoin.Result> {
+		private final List<AsyncJoin.Result> results = new ArrayList<>();
+
+		@Override
+		public void handle(AsyncJoin.Result result) {
+			results.add(result);
+		}
+	}
+
+	public void testMergesEventsOfInstanceWithinWindow() {
+		ResultCollector first = new ResultCollector();
+		ResultCollector second = new ResultCollector();
+		coalescer.enrich(TestEvents.userTask("first", "instance"), Deadline.NONE, first);
+		vertx.advance(5);
+		coalescer.enrich(TestEvents.userTask("second", "instance"), Deadline.NONE, second);
+		assertTrue(retrievedEvents.isEmpty());
+
+		vertx.advance(5);
+		assertEquals(1, retrievedEvents.size());
+		assertEquals("second", retrievedEvents.get(0));
+		assertEquals(1, coalescer.getMergedCount());
+
+		retrievalHandlers.get(0).handle(AsyncJoin.Result.EMPTY);
+		assertEquals(1, first.results.size());
+		assertSame(first.results.get(0), second.results.get(0));
+	}
+
+	public void testReportsElementOfEarlierEventAsMissing() {
+		ResultCollector first = new ResultCollector();
+		ResultCollector second = new ResultCollector();
+		ResultCollector third = new ResultCollector();
+		coalescer.enrich(TestEvents.userTask("first", "instance", "a"), Deadline.NONE, first);
+		coalescer.enrich(TestEvents.userTask("second", "instance", "b"), Deadline.NONE, second);
+		coalescer.enrich(TestEvents.userTask("third", "instance", "b"), Deadline.NONE, third);
+		vertx.advance(10);
+		assertEquals(1, retrievedEvents.size());
+
+		AsyncJoin join = new AsyncJoin(vertx.getVertx(), 3, AsyncJoin.Policy.ALLOW_PARTIAL, retrievalHandlers.get(0));
+		join.succeed();
+		join.succeed();
+		join.succeed();
+		AsyncJoin.Result result = third.results.get(0);
+		assertEquals(AsyncJoin.Status.SUCCEEDED, result.getStatus());
+		assertSame(result, second.results.get(0));
+
+		// Only the current element b was retrieved.
+		AsyncJoin.Result partial = first.results.get(0);
+		assertEquals(AsyncJoin.Status.PARTIAL, partial.getStatus());
+		assertEquals(2, partial.getSucceededCount());
+		assertEquals(1, partial.getFailedCount());
+		assertTrue(partial.getErrors().containsKey("processElement"));
+	}
+
+	public void testDoesNotMergeAcrossInstances() {
+		coalescer.enrich(TestEvents.userTask("first", "instance-a"), Deadline.NONE, new ResultCollector());
+		coalescer.enrich(TestEvents.userTask("second", "instance-b"), Deadline.NONE, new ResultCollector());
+		vertx.advance(10);
+		assertEquals(2, retrievedEvents.size());
+		assertEquals(0, coalescer.getMergedCount());
+	}
+
+	public void testOpensNewWindowAfterRetrieval() {
+		coalescer.enrich(TestEvents.userTask("first", "instance"), Deadline.NONE, new ResultCollector());
+		vertx.advance(10);
+		coalescer.enrich(TestEvents.userTask("second", "instance"), Deadline.NONE, new ResultCollector());
+		vertx.advance(10);
+		assertEquals(2, retrievedEvents.size());
+		assertEquals(0, coalescer.getMergedCount());
+	}
+
+	public void testRetrievalIsBoundedByEarliestDeadline() {
+		Deadline early = Deadline.at(1000);
+		Deadline late = Deadline.at(2000);
+		coalescer.enrich(TestEvents.userTask("first", "instance"), late, new ResultCollector());
+		coalescer.enrich(TestEvents.userTask("second", "instance"), early, new ResultCollector());
+		coalescer.enrich(TestEvents.userTask("third", "instance"), Deadline.NONE, new ResultCollector());
+		vertx.advance(10);
+
+		assertEquals(1, retrievedEvents.size());
+		assertEquals("third", retrievedEvents.get(0));
+		assertSame(early, retrievalDeadlines.get(0));
+	}
+
+	public void testPassesDeadlineOfEventWithoutInstance() {
+		Deadline deadline = Deadline.at(1000);
+		coalescer.enrich(TestEvents.userTask("event", null), deadline, new ResultCollector());
+
+		assertEquals(1, retrievedEvents.size());
+		assertSame(deadline, retrievalDeadlines.get(0));
+	}
+}
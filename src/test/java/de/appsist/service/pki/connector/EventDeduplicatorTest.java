@@ -0,0 +1,98 @@
+package de.appsist.service.pki.connector;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class EventDeduplicatorTest extends TestCase {
+
+	public void testDetectsDuplicates() {
+		EventDeduplicator deduplicator = new EventDeduplicator(16, 60000);
+		assertFalse(deduplicator.isDuplicate("event", "instance", 0));
+		assertTrue(deduplicator.isDuplicate("event", "instance", 1));
+		assertEquals(1, deduplicator.getDroppedCount());
+		assertEquals(1, deduplicator.size());
+	}
+
+	public void testProcessInstanceIsPartOfTheKey() {
+		EventDeduplicator deduplicator = new EventDeduplicator(16, 60000);
+		assertFalse(deduplicator.isDuplicate("event", "instance-a", 0));
+		assertFalse(deduplicator.isDuplicate("event", "instance-b", 0));
+		assertFalse(deduplicator.isDuplicate("event", null, 0));
+		assertTrue(deduplicator.isDuplicate("event", null, 0));
+	}
+
+	public void testEventsWithoutIdAreNeverDuplicates() {
+		EventDeduplicator deduplicator = new EventDeduplicator(16, 60000);
+		assertFalse(deduplicator.isDuplicate(null, "instance", 0));
+		assertFalse(deduplicator.isDuplicate(null, "instance", 0));
+		assertEquals(0, deduplicator.size());
+	}
+
+	public void testEvictsOldestWhenFull() {
+		EventDeduplicator deduplicator = new EventDeduplicator(2, 60000);
+		deduplicator.isDuplicate("first", "instance", 0);
+		deduplicator.isDuplicate("second", "instance", 0);
+		deduplicator.isDuplicate("third", "instance", 0);
+		assertEquals(2, deduplicator.size());
+		assertTrue(deduplicator.isDuplicate("third", "instance", 0));
+		assertTrue(deduplicator.isDuplicate("second", "instance", 0));
+		assertFalse(deduplicator.isDuplicate("first", "instance", 0));
+	}
+
+	public void testExpiresEntriesOutsideWindow() {
+		EventDeduplicator deduplicator = new EventDeduplicator(16, 1000);
+		deduplicator.isDuplicate("first", "instance", 0);
+		deduplicator.isDuplicate("second", "instance", 500);
+		assertTrue(deduplicator.isDuplicate("first", "instance", 1000));
+		assertFalse(deduplicator.isDuplicate("first", "instance", 1001));
+		assertTrue(deduplicator.isDuplicate("second", "instance", 1001));
+		assertEquals(2, deduplicator.size());
+	}
+
+	/**
+	 * Keeps the table busy with colliding probe sequences and checks each lookup against a reference window.
+	 * Lost or stale entries after a backward shift deletion show up as mismatches.
+	 */
+	public void testRemovalKeepsProbeSequencesIntact() {
+		int capacity = 100;
+		EventDeduplicator deduplicator = new EventDeduplicator(capacity, Long.MAX_VALUE);
+		ArrayDeque<String> window = new ArrayDeque<>();
+		Set<String> remembered = new HashSet<>();
+		Random random = new Random(42);
+		for (int i = 0; i < 20000; i++) {
+			String eventId = "event-" + random.nextInt(500);
+			boolean isExpected = remembered.contains(eventId);
+			assertEquals("Lookup of " + eventId + " in step " + i, isExpected, deduplicator.isDuplicate(eventId, "instance", 0));
+			if (!isExpected) {
+				if (window.size() == capacity) {
+					remembered.remove(window.pollFirst());
+				}
+				window.addLast(eventId);
+				remembered.add(eventId);
+			}
+		}
+		assertEquals(capacity, deduplicator.size());
+		for (String eventId : window) {
+			assertTrue(deduplicator.isDuplicate(eventId, "instance", 0));
+		}
+	}
+
+	public void testRejectsInvalidConfiguration() {
+		try {
+			new EventDeduplicator(0, 1000);
+			fail("Expected IllegalArgumentException.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		try {
+			new EventDeduplicator(16, 0);
+			fail("Expected IllegalArgumentException.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+}
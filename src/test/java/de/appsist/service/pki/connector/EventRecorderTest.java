@@ -0,0 +1,137 @@
+package de.appsist.service.pki.connector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.json.JsonObject;
+
+public class EventRecorderTest extends TestCase {
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		file = File.createTempFile("recording", ".bin");
+		file.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	private static void closeAndWait(EventRecorder recorder) throws InterruptedException {
+		recorder.close();
+		assertTrue(recorder.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	private List<EventRecorder.Entry> readAll() throws IOException {
+		List<EventRecorder.Entry> entries = new ArrayList<>();
+		try (EventRecorder.Reader reader = new EventRecorder.Reader(file)) {
+			EventRecorder.Entry entry;
+			while ((entry = reader.next()) != null) {
+				entries.add(entry);
+			}
+		}
+		return entries;
+	}
+
+	private static String largeBody() {
+		StringBuilder body = new StringBuilder("{\"elements\":[");
+		for (int i = 0; i < 200; i++) {
+			if (i > 0) body.append(',');
+			body.append("{\"id\":\"element_").append(i).append("\",\"label\":\"Schritt ").append(i).append(" \u00fcberpr\u00fcfen\"}");
+		}
+		return body.append("]}").toString();
+	}
+
+	public void testRecordsEventsAndResponsesInOrder() throws Exception {
+		EventRecorder recorder = new EventRecorder(file);
+		JsonObject event = TestEvents.message("processEvent:userTask", "event-1", "instance", "element");
+		recorder.recordEvent("appsist:event:processEvent:userTask", event);
+		event.putString("id", "modified"); // Modifications after recording are not recorded.
+		String body = largeBody();
+		recorder.recordResponse("GET", "/pki/processes/process", 200, body);
+		recorder.recordResponse("GET", "/pki/instances/unknown", 404, null);
+		closeAndWait(recorder);
+		assertEquals(3, recorder.getEntryCount());
+		assertEquals(0, recorder.getDroppedCount());
+		assertTrue("Large bodies are compressed.", file.length() < body.length());
+
+		List<EventRecorder.Entry> entries = readAll();
+		assertEquals(3, entries.size());
+		EventRecorder.Entry eventEntry = entries.get(0);
+		assertEquals(EventRecorder.TYPE_EVENT, eventEntry.getType());
+		assertEquals("appsist:event:processEvent:userTask", eventEntry.getAddress());
+		assertEquals("event-1", new JsonObject(eventEntry.getBody()).getString("id"));
+		assertTrue(eventEntry.getTimestamp() > 0);
+		EventRecorder.Entry responseEntry = entries.get(1);
+		assertEquals(EventRecorder.TYPE_RESPONSE, responseEntry.getType());
+		assertEquals("GET", responseEntry.getMethod());
+		assertEquals("/pki/processes/process", responseEntry.getUri());
+		assertEquals(200, responseEntry.getStatusCode());
+		assertEquals(body, responseEntry.getBody());
+		assertEquals(404, entries.get(2).getStatusCode());
+		assertEquals("", entries.get(2).getBody());
+	}
+
+	public void testAppendsToExistingRecording() throws Exception {
+		EventRecorder recorder = new EventRecorder(file);
+		recorder.recordResponse("GET", "/first", 200, "{}");
+		closeAndWait(recorder);
+		recorder = new EventRecorder(file);
+		recorder.recordResponse("GET", "/second", 200, "{}");
+		closeAndWait(recorder);
+
+		List<EventRecorder.Entry> entries = readAll();
+		assertEquals(2, entries.size());
+		assertEquals("/first", entries.get(0).getUri());
+		assertEquals("/second", entries.get(1).getUri());
+	}
+
+	public void testTruncatesIncompleteEntryBeforeAppending() throws Exception {
+		EventRecorder recorder = new EventRecorder(file);
+		recorder.recordResponse("GET", "/complete", 200, "{}");
+		recorder.recordResponse("GET", "/incomplete", 200, largeBody());
+		closeAndWait(recorder);
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.setLength(randomAccessFile.length() - 10); // Crash while writing the last entry.
+		}
+		assertEquals(1, readAll().size());
+
+		recorder = new EventRecorder(file);
+		recorder.recordResponse("GET", "/appended", 200, "{}");
+		closeAndWait(recorder);
+		List<EventRecorder.Entry> entries = readAll();
+		assertEquals(2, entries.size());
+		assertEquals("/complete", entries.get(0).getUri());
+		assertEquals("/appended", entries.get(1).getUri());
+	}
+
+	public void testIgnoresEntriesAfterClose() throws Exception {
+		EventRecorder recorder = new EventRecorder(file);
+		closeAndWait(recorder);
+		recorder.recordResponse("GET", "/late", 200, "{}");
+		recorder.flush();
+		recorder.close();
+		assertEquals(0, recorder.getEntryCount());
+		assertEquals(0, readAll().size());
+	}
+
+	public void testRejectsOtherFiles() throws Exception {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.writeBytes("no recording");
+		}
+		try {
+			new EventRecorder(file);
+			fail("Expected IOException.");
+		} catch (IOException e) {
+			// Expected.
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package de.appsist.service.pki.connector;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+public class EventTracerTest extends TestCase {
+
+	private static EventTracer.TraceRecord trace(EventTracer tracer, String eventId) {
+		EventTracer.TraceRecord record = tracer.sample("event");
+		if (record != null) record.parseCompleted(eventId, "instance");
+		return record;
+	}
+
+	private static String eventIdAt(JsonArray traces, int index) {
+		return traces.<JsonObject>get(index).getString("eventId");
+	}
+
+	public void testSamplesEveryNthEvent() {
+		EventTracer tracer = new EventTracer(0.25, 8);
+		int sampled = 0;
+		for (int i = 0; i < 16; i++) {
+			EventTracer.TraceRecord record = tracer.sample("event");
+			if (record != null) {
+				sampled++;
+				tracer.complete(record);
+			}
+		}
+		assertEquals(4, sampled);
+		assertEquals(4, tracer.dump().size());
+	}
+
+	public void testOverwritesOldestCompletedTraces() {
+		EventTracer tracer = new EventTracer(1, 2);
+		tracer.complete(trace(tracer, "first"));
+		tracer.complete(trace(tracer, "second"));
+		tracer.complete(trace(tracer, "third"));
+		JsonArray traces = tracer.dump();
+		assertEquals(2, traces.size());
+		assertEquals("second", eventIdAt(traces, 0));
+		assertEquals("third", eventIdAt(traces, 1));
+	}
+
+	public void testPassesOverRecordsInFlight() {
+		EventTracer tracer = new EventTracer(1, 3);
+		EventTracer.TraceRecord slow = trace(tracer, "slow");
+		tracer.complete(trace(tracer, "second"));
+		tracer.complete(trace(tracer, "third"));
+		// The next record is still in flight, the event is traced in the following one.
+		EventTracer.TraceRecord fourth = trace(tracer, "fourth");
+		assertNotNull(fourth);
+		tracer.complete(fourth);
+		tracer.complete(trace(tracer, "fifth"));
+		assertEquals(0, tracer.getSkippedCount());
+
+		tracer.complete(slow);
+		JsonArray traces = tracer.dump();
+		assertEquals(3, traces.size());
+		assertEquals("slow", eventIdAt(traces, 0));
+		assertEquals("fourth", eventIdAt(traces, 1));
+		assertEquals("fifth", eventIdAt(traces, 2));
+	}
+
+	public void testSkipsEventsIfAllRecordsAreInFlight() {
+		EventTracer tracer = new EventTracer(1, 2);
+		EventTracer.TraceRecord first = trace(tracer, "first");
+		EventTracer.TraceRecord second = trace(tracer, "second");
+		assertNull(tracer.sample("event"));
+		assertEquals(1, tracer.getSkippedCount());
+
+		tracer.discard(first);
+		assertNotNull(trace(tracer, "third"));
+		tracer.complete(second);
+		JsonArray traces = tracer.dump();
+		assertEquals(1, traces.size());
+		assertEquals("second", eventIdAt(traces, 0));
+	}
+
+	public void testRecordsStagesAndRequests() {
+		EventTracer tracer = new EventTracer(1, 1);
+		EventTracer.TraceRecord record = tracer.sample("event");
+		record.parseStarted();
+		record.parseCompleted("event-1", "instance");
+		record.enrichStarted();
+		record.requestStarted("processDefinition", true);
+		int slot = record.requestStarted("processInstance", false);
+		record.requestCompleted(slot);
+		record.enrichCompleted();
+		record.dispatchStarted();
+		record.handlerCompleted(record.handlerStarted(this));
+		tracer.complete(record);
+
+		JsonObject json = tracer.dump().get(0);
+		assertEquals("event", json.getString("eventType"));
+		assertEquals("instance", json.getString("processInstanceId"));
+		assertEquals(2, json.getArray("requests").size());
+		assertEquals(Boolean.TRUE, json.getArray("requests").<JsonObject>get(0).getBoolean("cached"));
+		assertEquals(1, json.getArray("handlers").size());
+		assertEquals(getClass().getName(), json.getArray("handlers").<JsonObject>get(0).getString("handler"));
+	}
+
+	public void testRejectsInvalidConfiguration() {
+		try {
+			new EventTracer(0, 1);
+			fail("Expected IllegalArgumentException.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		try {
+			new EventTracer(1, 0);
+			fail("Expected IllegalArgumentException.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package de.appsist.service.pki.connector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.VoidHandler;
+
+public class HandlerExecutorTest extends TestCase {
+	private ManualVertx vertx;
+	private HandlerExecutor executor;
+	private List<String> calls;
+	private int completeCount;
+
+	@Override
+	protected void setUp() throws Exception {
+		vertx = new ManualVertx();
+		executor = new HandlerExecutor(vertx.getVertx());
+		calls = new ArrayList<>();
+		completeCount = 0;
+	}
+
+	/**
+	 * Executor collecting the tasks, which are run by the test.
+	 */
+	private static class QueueingExecutor implements Executor {
+		private final List<Runnable> tasks = new ArrayList<>();
+
+		@Override
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		void runAll() {
+			List<Runnable> pendingTasks = new ArrayList<>(tasks);
+			tasks.clear();
+			for (Runnable task : pendingTasks) {
+				task.run();
+			}
+		}
+	}
+
+	private static final Executor REJECTING_EXECUTOR = new Executor() {
+
+		@Override
+		public void execute(Runnable command) {
+			throw new RejectedExecutionException("Saturated.");
+		}
+	};
+
+	private Handler<String> handler(final String name) {
+		return new Handler<String>() {
+
+			@Override
+			public void handle(String event) {
+				calls.add(name + ":" + event);
+			}
+		};
+	}
+
+	private void dispatch(List<Handler<String>> handlers) {
+		executor.dispatch("model", "event", handlers, AsyncJoin.Result.EMPTY, null, new VoidHandler() {
+
+			@Override
+			protected void handle() {
+				completeCount++;
+			}
+		});
+	}
+
+	public void testEventTypeExecutorCompletesAfterAllHandlers() {
+		QueueingExecutor eventTypeExecutor = new QueueingExecutor();
+		executor.setEventTypeExecutor("model", eventTypeExecutor);
+		dispatch(Arrays.asList(handler("a"), handler("b")));
+		assertTrue(calls.isEmpty());
+		assertEquals(2, eventTypeExecutor.tasks.size());
+
+		eventTypeExecutor.runAll();
+		assertEquals(Arrays.asList("a:event", "b:event"), calls);
+		assertEquals(0, completeCount);
+		vertx.runPending();
+		assertEquals(1, completeCount);
+	}
+
+	public void testEventTypeExecutorAppliesToItsTypeOnly() {
+		QueueingExecutor eventTypeExecutor = new QueueingExecutor();
+		executor.setEventTypeExecutor("other", eventTypeExecutor);
+		dispatch(Arrays.asList(handler("a")));
+		assertEquals(Arrays.asList("a:event"), calls);
+		assertEquals(1, completeCount);
+		assertTrue(eventTypeExecutor.tasks.isEmpty());
+	}
+
+	public void testHandlerExecutorOverridesEventTypeExecutor() {
+		QueueingExecutor eventTypeExecutor = new QueueingExecutor();
+		QueueingExecutor handlerExecutor = new QueueingExecutor();
+		Handler<String> dedicated = handler("dedicated");
+		executor.setEventTypeExecutor("model", eventTypeExecutor);
+		executor.setHandlerExecutor(dedicated, handlerExecutor);
+		dispatch(Arrays.asList(handler("shared"), dedicated));
+		assertEquals(1, eventTypeExecutor.tasks.size());
+		assertEquals(1, handlerExecutor.tasks.size());
+
+		handlerExecutor.runAll();
+		assertEquals(Arrays.asList("dedicated:event"), calls);
+		eventTypeExecutor.runAll();
+		vertx.runPending();
+		assertEquals(Arrays.asList("dedicated:event", "shared:event"), calls);
+		assertEquals(1, completeCount);
+
+		executor.setHandlerExecutor(dedicated, null);
+		dispatch(Arrays.asList(dedicated));
+		assertEquals(1, eventTypeExecutor.tasks.size());
+	}
+
+	public void testCountsSlowHandlers() {
+		executor.setSlowHandlerThreshold(1000);
+		dispatch(Arrays.asList(handler("fast")));
+		assertEquals(0, executor.getSlowHandlerCount());
+
+		executor.setSlowHandlerThreshold(0);
+		dispatch(Arrays.asList(new Handler<String>() {
+
+			@Override
+			public void handle(String event) {
+				try {
+					Thread.sleep(2);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}));
+		assertEquals(1, executor.getSlowHandlerCount());
+	}
+
+	public void testRejectedHandlerRunsOnEventLoop() {
+		executor.setEventTypeExecutor("model", REJECTING_EXECUTOR);
+		dispatch(Arrays.asList(handler("a"), handler("b")));
+		assertEquals(Arrays.asList("a:event", "b:event"), calls);
+		assertEquals(1, completeCount);
+		assertEquals(2, executor.getRejectedCount());
+	}
+
+	public void testRejectedParseRunsOnEventLoop() {
+		executor.setParseExecutor(REJECTING_EXECUTOR);
+		final List<String> results = new ArrayList<>();
+		executor.parse(new HandlerExecutor.Parser<String>() {
+
+			@Override
+			public String parse() {
+				return "parsed";
+			}
+		}, new Handler<String>() {
+
+			@Override
+			public void handle(String event) {
+				results.add(event);
+			}
+		});
+		assertEquals(Arrays.asList("parsed"), results);
+		assertEquals(1, executor.getRejectedCount());
+	}
+}
@@ -0,0 +1,424 @@
+package de.appsist.service.pki.connector;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.MultiMap;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.eventbus.EventBus;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.http.HttpClient;
+import org.vertx.java.core.http.HttpClientRequest;
+import org.vertx.java.core.http.HttpClientResponse;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Stand-in for the vert.x runtime driven by the test.
+ * Actions posted to the event loop run when the test calls {@link #runPending()}, timers fire when the test advances the clock with {@link #advance(long)}.
+ * Implemented with dynamic proxies, so only the methods used by the connector have to be known.
+ * Actions may be posted from other threads, everything else has to be called from the test thread.
+ */
+public class ManualVertx {
+	/**
+	 * Stubbed HTTP response.
+	 */
+	public static class Response {
+		private final int statusCode;
+		private final Buffer body;
+		private final Map<String, String> headers;
+
+		public Response(int statusCode, Buffer body) {
+			this.statusCode = statusCode;
+			this.body = body;
+			this.headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		}
+
+		public Response(int statusCode, String body) {
+			this(statusCode, new Buffer(body));
+		}
+
+		public Response putHeader(String name, String value) {
+			headers.put(name, value);
+			return this;
+		}
+	}
+
+	/**
+	 * Provides the responses for HTTP requests.
+	 */
+	public interface ResponseProvider {
+		/**
+		 * Returns the response for a request. The response is delivered on the event loop.
+		 * @param method HTTP method.
+		 * @param uri Requested URI including the query.
+		 * @return Response to deliver or <code>null</code> to leave the request unanswered.
+		 */
+		public Response respond(String method, String uri);
+	}
+
+	private static class Timer {
+		private final long id;
+		private final long period;
+		private final Handler<Long> handler;
+		private long dueTime;
+
+		private Timer(long id, long dueTime, long period, Handler<Long> handler) {
+			this.id = id;
+			this.dueTime = dueTime;
+			this.period = period;
+			this.handler = handler;
+		}
+	}
+
+	private final ArrayDeque<Handler<Void>> pendingActions;
+	private final Map<Long, Timer> timers;
+	private final Map<String, Handler<Message<JsonObject>>> eventBusHandlers;
+	private final List<String> requests;
+	private final Vertx vertx;
+	private final Context context;
+	private ResponseProvider responseProvider;
+	private long time;
+	private long nextTimerId;
+
+	public ManualVertx() {
+		pendingActions = new ArrayDeque<>();
+		timers = new TreeMap<>();
+		eventBusHandlers = new HashMap<>();
+		requests = new ArrayList<>();
+		responseProvider = new ResponseProvider() {
+
+			@Override
+			public Response respond(String method, String uri) {
+				return null;
+			}
+		};
+		context = createContext();
+		vertx = createVertx();
+	}
+
+	public Vertx getVertx() {
+		return vertx;
+	}
+
+	/**
+	 * Sets the provider answering the requests of HTTP clients created by the vert.x instance afterwards.
+	 * @param responseProvider Response provider.
+	 */
+	public void setResponseProvider(ResponseProvider responseProvider) {
+		this.responseProvider = responseProvider;
+	}
+
+	/**
+	 * Returns the time of the manual clock.
+	 * @return Milliseconds advanced since creation.
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * Runs the actions posted to the event loop, including actions posted while running them.
+	 * @return Number of actions run.
+	 */
+	public int runPending() {
+		int count = 0;
+		Handler<Void> action;
+		while ((action = pollAction()) != null) {
+			action.handle(null);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Advances the clock and fires the timers due in order of their due time. Posted actions are run after each timer.
+	 * @param millis Milliseconds to advance the clock by.
+	 */
+	public void advance(long millis) {
+		long targetTime = time + millis;
+		runPending();
+		Timer timer;
+		while ((timer = nextDueTimer(targetTime)) != null) {
+			time = Math.max(time, timer.dueTime);
+			if (timer.period > 0) {
+				timer.dueTime += timer.period;
+			} else {
+				timers.remove(timer.id);
+			}
+			timer.handler.handle(timer.id);
+			runPending();
+		}
+		time = targetTime;
+	}
+
+	/**
+	 * Returns the number of active timers.
+	 * @return Number of timers.
+	 */
+	public int getTimerCount() {
+		return timers.size();
+	}
+
+	/**
+	 * Returns the handler registered on the event bus for an address.
+	 * @param address Event bus address.
+	 * @return Registered handler or <code>null</code> if no handler is registered.
+	 */
+	public Handler<Message<JsonObject>> getEventBusHandler(String address) {
+		return eventBusHandlers.get(address);
+	}
+
+	/**
+	 * Creates an HTTP client answering requests with the given provider.
+	 * @param responseProvider Provider for the responses.
+	 * @return HTTP client.
+	 */
+	public HttpClient createHttpClient(final ResponseProvider responseProvider) {
+		return proxy(HttpClient.class, new InvocationHandler() {
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch (method.getName()) {
+				case "get":
+					return createRequest(responseProvider, "GET", (String) args[0], (Handler<HttpClientResponse>) args[1]);
+				case "post":
+					return createRequest(responseProvider, "POST", (String) args[0], (Handler<HttpClientResponse>) args[1]);
+				case "request":
+					return createRequest(responseProvider, (String) args[0], (String) args[1], (Handler<HttpClientResponse>) args[2]);
+				default:
+					return defaultValue(proxy, method);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the HTTP requests issued so far, e.g. <code>GET /pki/processes/p1</code>.
+	 * @return Unmodifiable list of requests.
+	 */
+	public List<String> getRequests() {
+		return Collections.unmodifiableList(requests);
+	}
+
+	/**
+	 * Creates an event bus message.
+	 * @param address Address the message is sent to.
+	 * @param body Message body.
+	 * @return Message.
+	 */
+	@SuppressWarnings("unchecked")
+	public static Message<JsonObject> createMessage(final String address, final JsonObject body) {
+		return proxy(Message.class, new InvocationHandler() {
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch (method.getName()) {
+				case "body":
+					return body;
+				case "address":
+					return address;
+				default:
+					return defaultValue(proxy, method);
+				}
+			}
+		});
+	}
+
+	private synchronized Handler<Void> pollAction() {
+		return pendingActions.poll();
+	}
+
+	private synchronized void post(Handler<Void> action) {
+		pendingActions.add(action);
+	}
+
+	private Timer nextDueTimer(long targetTime) {
+		Timer next = null;
+		for (Iterator<Timer> iterator = timers.values().iterator(); iterator.hasNext();) {
+			Timer timer = iterator.next();
+			if (timer.dueTime <= targetTime && (next == null || timer.dueTime < next.dueTime)) {
+				next = timer;
+			}
+		}
+		return next;
+	}
+
+	private long addTimer(long delay, long period, Handler<Long> handler) {
+		long id = nextTimerId++;
+		timers.put(id, new Timer(id, time + Math.max(1, delay), period, handler));
+		return id;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(ManualVertx.class.getClassLoader(), new Class<?>[] { type }, handler);
+	}
+
+	static Object defaultValue(Object proxy, Method method) {
+		Class<?> returnType = method.getReturnType();
+		if (returnType != Object.class && returnType.isInstance(proxy)) return proxy; // Fluent setters.
+		if (returnType == boolean.class) return false;
+		if (returnType == int.class) return 0;
+		if (returnType == long.class) return 0L;
+		if (returnType == void.class) return null;
+		if (returnType.isPrimitive()) return 0;
+		return null;
+	}
+
+	private HttpClientRequest createRequest(final ResponseProvider responseProvider, final String httpMethod, final String uri, final Handler<HttpClientResponse> responseHandler) {
+		final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		return proxy(HttpClientRequest.class, new InvocationHandler() {
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch (method.getName()) {
+				case "putHeader":
+					headers.put(String.valueOf(args[0]), String.valueOf(args[1]));
+					break;
+				case "headers":
+					return createHeaders(headers);
+				case "end":
+					requests.add(httpMethod + " " + uri);
+					final Response response = responseProvider.respond(httpMethod, uri);
+					if (response != null) {
+						post(new Handler<Void>() {
+
+							@Override
+							public void handle(Void event) {
+								responseHandler.handle(createResponse(response));
+							}
+						});
+					}
+					return null;
+				}
+				return defaultValue(proxy, method);
+			}
+		});
+	}
+
+	private static MultiMap createHeaders(final Map<String, String> headers) {
+		return proxy(MultiMap.class, new InvocationHandler() {
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch (method.getName()) {
+				case "get":
+					return headers.get(String.valueOf(args[0]));
+				case "contains":
+					return headers.containsKey(String.valueOf(args[0]));
+				case "add":
+				case "set":
+					headers.put(String.valueOf(args[0]), String.valueOf(args[1]));
+					break;
+				}
+				return defaultValue(proxy, method);
+			}
+		});
+	}
+
+	private static HttpClientResponse createResponse(final Response response) {
+		return proxy(HttpClientResponse.class, new InvocationHandler() {
+			private Handler<Buffer> dataHandler;
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch (method.getName()) {
+				case "statusCode":
+					return response.statusCode;
+				case "statusMessage":
+					return response.statusCode == 200 ? "OK" : "Error";
+				case "headers":
+					return createHeaders(response.headers);
+				case "bodyHandler":
+					((Handler<Buffer>) args[0]).handle(response.body);
+					break;
+				case "dataHandler":
+					dataHandler = (Handler<Buffer>) args[0];
+					break;
+				case "endHandler":
+					// Deliver the body when the response is completely set up.
+					if (dataHandler != null) dataHandler.handle(response.body);
+					((Handler<Void>) args[0]).handle(null);
+					break;
+				}
+				return defaultValue(proxy, method);
+			}
+		});
+	}
+
+	private Context createContext() {
+		return proxy(Context.class, new InvocationHandler() {
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("runOnContext")) {
+					post((Handler<Void>) args[0]);
+					return null;
+				}
+				return defaultValue(proxy, method);
+			}
+		});
+	}
+
+	private Vertx createVertx() {
+		final EventBus eventBus = proxy(EventBus.class, new InvocationHandler() {
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch (method.getName()) {
+				case "registerHandler":
+					eventBusHandlers.put((String) args[0], (Handler<Message<JsonObject>>) args[1]);
+					break;
+				case "unregisterHandler":
+					if (eventBusHandlers.get(args[0]) == args[1]) eventBusHandlers.remove(args[0]);
+					break;
+				}
+				return defaultValue(proxy, method);
+			}
+		});
+		return proxy(Vertx.class, new InvocationHandler() {
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch (method.getName()) {
+				case "eventBus":
+					return eventBus;
+				case "createHttpClient":
+					return createHttpClient(responseProvider);
+				case "currentContext":
+					return context;
+				case "runOnContext":
+					post((Handler<Void>) args[0]);
+					return null;
+				case "setTimer":
+					return addTimer((Long) args[0], 0, (Handler<Long>) args[1]);
+				case "setPeriodic":
+					return addTimer((Long) args[0], Math.max(1, (Long) args[0]), (Handler<Long>) args[1]);
+				case "cancelTimer":
+					return timers.remove(args[0]) != null;
+				case "isEventLoop":
+					return true;
+				default:
+					return defaultValue(proxy, method);
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,75 @@
+package de.appsist.service.pki.connector;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.VoidHandler;
+
+public class MemoryPressureMonitorTest extends TestCase {
+	private static final VoidHandler IGNORE = new VoidHandler() {
+
+		@Override
+		protected void handle() {
+		}
+	};
+
+	private MemoryPoolMXBean pool;
+	private long initialThreshold;
+
+	@Override
+	protected void setUp() throws Exception {
+		for (MemoryPoolMXBean candidate : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (candidate.getType() == MemoryType.HEAP && candidate.isUsageThresholdSupported() && candidate.getUsage().getMax() > 0) {
+				pool = candidate;
+				break;
+			}
+		}
+		if (pool != null) {
+			initialThreshold = pool.getUsage().getMax() / 100;
+			pool.setUsageThreshold(initialThreshold);
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (pool != null) pool.setUsageThreshold(0);
+	}
+
+	private long threshold(double fraction) {
+		return (long) (pool.getUsage().getMax() * fraction);
+	}
+
+	public void testRestoresPreviousThresholdOnClose() {
+		if (pool == null) return; // The JVM does not support usage thresholds.
+		MemoryPressureMonitor monitor = new MemoryPressureMonitor(0.9, IGNORE);
+		assertEquals(threshold(0.9), pool.getUsageThreshold());
+		monitor.close();
+		assertEquals(initialThreshold, pool.getUsageThreshold());
+		monitor.close();
+		assertEquals(initialThreshold, pool.getUsageThreshold());
+	}
+
+	public void testSharesLowestThresholdBetweenMonitors() {
+		if (pool == null) return; // The JVM does not support usage thresholds.
+		MemoryPressureMonitor first = new MemoryPressureMonitor(0.9, IGNORE);
+		MemoryPressureMonitor second = new MemoryPressureMonitor(0.8, IGNORE);
+		assertEquals(threshold(0.8), pool.getUsageThreshold());
+
+		second.close();
+		assertEquals(threshold(0.9), pool.getUsageThreshold());
+		first.close();
+		assertEquals(initialThreshold, pool.getUsageThreshold());
+	}
+
+	public void testRejectsInvalidThreshold() {
+		try {
+			new MemoryPressureMonitor(1, IGNORE);
+			fail("Expected IllegalArgumentException.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package de.appsist.service.pki.connector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.commons.event.ProcessCompleteEvent;
+
+public class MultiTenantConnectorTest extends TestCase {
+	private static final String ADDRESS = "appsist:event:" + ProcessCompleteEvent.MODEL_ID;
+
+	private ManualVertx vertx;
+	private MultiTenantConnector connector;
+	private List<String> handledEvents;
+
+	@Override
+	protected void setUp() throws Exception {
+		vertx = new ManualVertx();
+		connector = new MultiTenantConnector(vertx.getVertx(), "tenant");
+		handledEvents = new ArrayList<>();
+		addTenant("a");
+		addTenant("b");
+	}
+
+	private PKIConnector addTenant(final String tenantKey) {
+		PKIConnector tenant = connector.addTenant(tenantKey, "localhost", 8080, false, "/pki");
+		tenant.registerProcessCompleteHandler(new Handler<ProcessCompleteEvent>() {
+
+			@Override
+			public void handle(ProcessCompleteEvent event) {
+				handledEvents.add(tenantKey + ":" + event.getId());
+			}
+		});
+		return tenant;
+	}
+
+	private void publish(JsonObject body) {
+		vertx.getEventBusHandler(ADDRESS).handle(ManualVertx.createMessage(ADDRESS, body));
+		vertx.runPending();
+	}
+
+	private JsonObject message(String eventId) {
+		return TestEvents.message(ProcessCompleteEvent.MODEL_ID, eventId, "instance", "element");
+	}
+
+	public void testRoutesEventsToNamedTenant() {
+		publish(message("first").putString("tenant", "b"));
+		publish(message("second").putString("tenant", "a"));
+
+		assertEquals(Arrays.asList("b:first", "a:second"), handledEvents);
+		assertEquals(0, connector.getUnroutedCount());
+	}
+
+	public void testEventsOfUnknownTenantAreUnrouted() {
+		publish(message("unknown").putString("tenant", "c"));
+		publish(message("unnamed"));
+		assertTrue(handledEvents.isEmpty());
+		assertEquals(2, connector.getUnroutedCount());
+
+		connector.setDefaultTenant("a");
+		publish(message("default"));
+		assertEquals(Arrays.asList("a:default"), handledEvents);
+	}
+
+	public void testNonStringTenantFieldIsUnrouted() {
+		connector.setDefaultTenant("a");
+		publish(message("number").putNumber("tenant", 1));
+		publish(message("object").putObject("tenant", new JsonObject()));
+
+		assertTrue(handledEvents.isEmpty());
+		assertEquals(2, connector.getUnroutedCount());
+	}
+
+	public void testRemoveTenantClosesConnector() {
+		PKIConnector tenant = connector.getTenant("a");
+		tenant.enableMetrics("metrics:a");
+		assertNotNull(vertx.getEventBusHandler("metrics:a"));
+
+		assertSame(tenant, connector.removeTenant("a"));
+		assertNull(vertx.getEventBusHandler("metrics:a"));
+		assertNull(tenant.getMetrics());
+		assertNull(connector.removeTenant("a"));
+
+		publish(message("removed").putString("tenant", "a"));
+		assertTrue(handledEvents.isEmpty());
+		assertEquals(1, connector.getUnroutedCount());
+	}
+
+	public void testCloseUnregistersAndClosesTenants() {
+		PKIConnector tenant = connector.getTenant("b");
+		tenant.enableMetrics("metrics:b");
+		connector.close();
+
+		assertNull(vertx.getEventBusHandler(ADDRESS));
+		assertNull(vertx.getEventBusHandler("metrics:b"));
+		assertTrue(connector.getTenantKeys().isEmpty());
+	}
+}
@@ -0,0 +1,89 @@
+package de.appsist.service.pki.connector;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.json.JsonObject;
+
+public class OffHeapModelMapTest extends TestCase {
+	private OffHeapStore store;
+	private OffHeapModelMap<JsonObject> map;
+
+	@Override
+	protected void setUp() throws Exception {
+		store = new OffHeapStore(4096);
+		map = new OffHeapModelMap<JsonObject>(store) {
+
+			@Override
+			protected JsonObject encode(JsonObject value) {
+				return value;
+			}
+
+			@Override
+			protected JsonObject decode(JsonObject json) {
+				return json;
+			}
+		};
+	}
+
+	private static JsonObject model(String id) {
+		return new JsonObject().putString("id", id);
+	}
+
+	public void testPutReturnsPreviousValue() {
+		assertNull(map.put("key", model("first")));
+		assertEquals(model("first"), map.put("key", model("second")));
+		assertEquals(model("second"), map.get("key"));
+		assertEquals(1, store.getEntryCount());
+	}
+
+	public void testRemoveReturnsRemovedValue() {
+		map.put("key", model("first"));
+		assertEquals(model("first"), map.remove("key"));
+		assertNull(map.remove("key"));
+		assertFalse(map.containsKey("key"));
+		assertEquals(0, store.getEntryCount());
+	}
+
+	public void testSetAndDeleteReportPresence() {
+		assertFalse(map.set("key", model("first")));
+		assertTrue(map.set("key", model("second")));
+		assertEquals(model("second"), map.get("key"));
+		assertTrue(map.delete("key"));
+		assertFalse(map.delete("key"));
+		assertEquals(0, store.getEntryCount());
+	}
+
+	public void testEntrySetSkipsEntriesRemovedDuringIteration() {
+		for (int i = 0; i < 10; i++) {
+			map.put("key-" + i, model("model-" + i));
+		}
+		Map<String, JsonObject> iterated = new HashMap<>();
+		for (Map.Entry<String, JsonObject> entry : map.entrySet()) {
+			assertNotNull(entry.getValue());
+			iterated.put(entry.getKey(), entry.getValue());
+			// Removes entries the iterator has not reached yet, their keys may still be returned by the key set.
+			for (int i = 0; i < 10; i++) {
+				if (!iterated.containsKey("key-" + i)) map.delete("key-" + i);
+			}
+		}
+		assertEquals(1, iterated.size());
+		assertEquals(1, map.size());
+		assertEquals(1, store.getEntryCount());
+	}
+
+	public void testIteratorRemoveFreesEntries() {
+		map.put("first", model("first"));
+		map.put("second", model("second"));
+		for (Iterator<Map.Entry<String, JsonObject>> iterator = map.entrySet().iterator(); iterator.hasNext();) {
+			Map.Entry<String, JsonObject> entry = iterator.next();
+			if (entry.getKey().equals("first")) iterator.remove();
+		}
+		assertEquals(1, map.size());
+		assertEquals(model("second"), map.get("second"));
+		assertEquals(1, store.getEntryCount());
+	}
+}
@@ -0,0 +1,245 @@
+package de.appsist.service.pki.connector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.VoidHandler;
+
+public class OrderedDispatcherTest extends TestCase {
+	private List<String> dispatched;
+	private List<String> discarded;
+
+	/**
+	 * Entry which is prepared and completed by the test.
+	 */
+	private class TestEntry extends OrderedDispatcher.Entry {
+		private final String name;
+		private final boolean isCompletedOnDispatch;
+		private VoidHandler readyHandler;
+		private VoidHandler completeHandler;
+
+		TestEntry(String name, boolean isCompletedOnDispatch) {
+			this.name = name;
+			this.isCompletedOnDispatch = isCompletedOnDispatch;
+		}
+
+		TestEntry(String name) {
+			this(name, true);
+		}
+
+		@Override
+		protected void prepare(VoidHandler readyHandler) {
+			this.readyHandler = readyHandler;
+		}
+
+		@Override
+		protected void dispatch(VoidHandler completeHandler) {
+			dispatched.add(name);
+			if (isCompletedOnDispatch) {
+				completeHandler.handle(null);
+			} else {
+				this.completeHandler = completeHandler;
+			}
+		}
+
+		@Override
+		protected void discard() {
+			discarded.add(name);
+		}
+
+		void ready() {
+			readyHandler.handle(null);
+		}
+
+		void complete() {
+			completeHandler.handle(null);
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		dispatched = new ArrayList<>();
+		discarded = new ArrayList<>();
+	}
+
+	public void testDispatchesInSubmissionOrderPerInstance() {
+		OrderedDispatcher dispatcher = new OrderedDispatcher(8, OrderedDispatcher.OverflowPolicy.DROP_NEWEST);
+		TestEntry first = new TestEntry("first");
+		TestEntry second = new TestEntry("second");
+		TestEntry third = new TestEntry("third");
+		dispatcher.submit("instance", first);
+		dispatcher.submit("instance", second);
+		dispatcher.submit("instance", third);
+
+		third.ready();
+		second.ready();
+		assertTrue(dispatched.isEmpty());
+		first.ready();
+		assertEquals(Arrays.asList("first", "second", "third"), dispatched);
+		assertEquals(0, dispatcher.getActiveInstanceCount());
+	}
+
+	public void testInstancesDoNotWaitForEachOther() {
+		OrderedDispatcher dispatcher = new OrderedDispatcher(8, OrderedDispatcher.OverflowPolicy.DROP_NEWEST);
+		TestEntry a = new TestEntry("a");
+		TestEntry b = new TestEntry("b");
+		dispatcher.submit("instance-a", a);
+		dispatcher.submit("instance-b", b);
+
+		b.ready();
+		assertEquals(Arrays.asList("b"), dispatched);
+		assertEquals(1, dispatcher.getActiveInstanceCount());
+		a.ready();
+		assertEquals(Arrays.asList("b", "a"), dispatched);
+	}
+
+	public void testWaitsForCompletionOfPredecessor() {
+		OrderedDispatcher dispatcher = new OrderedDispatcher(8, OrderedDispatcher.OverflowPolicy.DROP_NEWEST);
+		TestEntry first = new TestEntry("first", false);
+		TestEntry second = new TestEntry("second");
+		dispatcher.submit("instance", first);
+		dispatcher.submit("instance", second);
+
+		first.ready();
+		second.ready();
+		assertEquals(Arrays.asList("first"), dispatched);
+		first.complete();
+		assertEquals(Arrays.asList("first", "second"), dispatched);
+	}
+
+	public void testEntriesWithoutInstanceAreDispatchedUnordered() {
+		OrderedDispatcher dispatcher = new OrderedDispatcher(8, OrderedDispatcher.OverflowPolicy.DROP_NEWEST);
+		TestEntry first = new TestEntry("first");
+		TestEntry second = new TestEntry("second");
+		dispatcher.submit(null, first);
+		dispatcher.submit(null, second);
+
+		second.ready();
+		first.ready();
+		assertEquals(Arrays.asList("second", "first"), dispatched);
+		assertEquals(0, dispatcher.getActiveInstanceCount());
+	}
+
+	public void testDropNewestDiscardsSubmittedEntry() {
+		OrderedDispatcher dispatcher = new OrderedDispatcher(2, OrderedDispatcher.OverflowPolicy.DROP_NEWEST);
+		TestEntry first = new TestEntry("first");
+		TestEntry second = new TestEntry("second");
+		TestEntry third = new TestEntry("third");
+		dispatcher.submit("instance", first);
+		dispatcher.submit("instance", second);
+		dispatcher.submit("instance", third);
+
+		assertEquals(Arrays.asList("third"), discarded);
+		assertEquals(1, dispatcher.getDroppedCount());
+		first.ready();
+		second.ready();
+		assertEquals(Arrays.asList("first", "second"), dispatched);
+	}
+
+	public void testDropOldestDiscardsHeadOfQueue() {
+		OrderedDispatcher dispatcher = new OrderedDispatcher(2, OrderedDispatcher.OverflowPolicy.DROP_OLDEST);
+		TestEntry first = new TestEntry("first");
+		TestEntry second = new TestEntry("second");
+		TestEntry third = new TestEntry("third");
+		dispatcher.submit("instance", first);
+		dispatcher.submit("instance", second);
+		second.ready();
+		dispatcher.submit("instance", third);
+
+		// The successor of the dropped entry is ready, so it is dispatched right away.
+		assertEquals(Arrays.asList("first"), discarded);
+		assertEquals(Arrays.asList("second"), dispatched);
+		assertEquals(1, dispatcher.getDroppedCount());
+		first.ready();
+		assertEquals(Arrays.asList("second"), dispatched);
+		third.ready();
+		assertEquals(Arrays.asList("second", "third"), dispatched);
+		assertEquals(0, dispatcher.getActiveInstanceCount());
+	}
+
+	public void testDispatchUnorderedBypassesFullQueue() {
+		OrderedDispatcher dispatcher = new OrderedDispatcher(1, OrderedDispatcher.OverflowPolicy.DISPATCH_UNORDERED);
+		TestEntry first = new TestEntry("first");
+		TestEntry second = new TestEntry("second");
+		dispatcher.submit("instance", first);
+		dispatcher.submit("instance", second);
+
+		second.ready();
+		assertEquals(Arrays.asList("second"), dispatched);
+		assertEquals(1, dispatcher.getUnorderedCount());
+		assertEquals(0, dispatcher.getDroppedCount());
+		first.ready();
+		assertEquals(Arrays.asList("second", "first"), dispatched);
+	}
+
+	public void testReadyHandlerIsIdempotent() {
+		OrderedDispatcher dispatcher = new OrderedDispatcher(8, OrderedDispatcher.OverflowPolicy.DROP_NEWEST);
+		TestEntry first = new TestEntry("first");
+		dispatcher.submit("instance", first);
+		first.ready();
+		first.ready();
+		assertEquals(Arrays.asList("first"), dispatched);
+	}
+
+	public void testReservationKeepsPositionUntilFilled() {
+		OrderedDispatcher dispatcher = new OrderedDispatcher(8, OrderedDispatcher.OverflowPolicy.DROP_NEWEST);
+		OrderedDispatcher.Reservation firstReservation = dispatcher.reserve("instance");
+		OrderedDispatcher.Reservation secondReservation = dispatcher.reserve("instance");
+		TestEntry first = new TestEntry("first");
+		TestEntry second = new TestEntry("second");
+
+		secondReservation.fill(second);
+		second.ready();
+		assertTrue(dispatched.isEmpty());
+		firstReservation.fill(first);
+		first.ready();
+		assertEquals(Arrays.asList("first", "second"), dispatched);
+		assertEquals(0, dispatcher.getActiveInstanceCount());
+	}
+
+	public void testCancelledReservationReleasesSuccessors() {
+		OrderedDispatcher dispatcher = new OrderedDispatcher(8, OrderedDispatcher.OverflowPolicy.DROP_NEWEST);
+		OrderedDispatcher.Reservation reservation = dispatcher.reserve("instance");
+		TestEntry second = new TestEntry("second");
+		dispatcher.submit("instance", second);
+		second.ready();
+		assertTrue(dispatched.isEmpty());
+
+		reservation.cancel();
+		assertEquals(Arrays.asList("second"), dispatched);
+		assertEquals(0, dispatcher.getActiveInstanceCount());
+	}
+
+	public void testDroppedReservationDiscardsEntry() {
+		OrderedDispatcher dispatcher = new OrderedDispatcher(1, OrderedDispatcher.OverflowPolicy.DROP_OLDEST);
+		OrderedDispatcher.Reservation reservation = dispatcher.reserve("instance");
+		TestEntry second = new TestEntry("second");
+		dispatcher.submit("instance", second);
+		TestEntry first = new TestEntry("first");
+		reservation.fill(first);
+		assertEquals(Arrays.asList("first"), discarded);
+
+		second.ready();
+		assertEquals(Arrays.asList("second"), dispatched);
+		reservation.cancel();
+		assertEquals(Arrays.asList("second"), dispatched);
+	}
+
+	public void testRejectsInvalidConfiguration() {
+		try {
+			new OrderedDispatcher(0, OrderedDispatcher.OverflowPolicy.DROP_NEWEST);
+			fail("Expected IllegalArgumentException.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		try {
+			new OrderedDispatcher(1, null);
+			fail("Expected IllegalArgumentException.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+}
@@ -0,0 +1,596 @@
+package de.appsist.service.pki.connector;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.commons.event.CallActivityEvent;
+import de.appsist.commons.event.ProcessCompleteEvent;
+import de.appsist.commons.event.TaskEvent;
+import de.appsist.commons.event.UserTaskEvent;
+import de.appsist.service.pki.model.ProcessDefinition;
+import de.appsist.service.pki.model.ProcessElement;
+import de.appsist.service.pki.model.ProcessElementInstance;
+import de.appsist.service.pki.model.ProcessInstance;
+
+public class PKIConnectorTest extends TestCase {
+	private ManualVertx vertx;
+	private PKIConnector connector;
+
+	@Override
+	protected void setUp() throws Exception {
+		vertx = new ManualVertx();
+		connector = new PKIConnector(vertx.getVertx(), "localhost", 8080, false, "/pki");
+	}
+
+	private void deliver(String modelId, String eventId, String processInstanceId) {
+		deliver(modelId, eventId, processInstanceId, "element");
+	}
+
+	private void deliver(String modelId, String eventId, String processInstanceId, String elementId) {
+		String address = "appsist:event:" + modelId;
+		Handler<Message<JsonObject>> handler = vertx.getEventBusHandler(address);
+		handler.handle(ManualVertx.createMessage(address, TestEvents.message(modelId, eventId, processInstanceId, elementId)));
+	}
+
+	public void testParseExecutorKeepsArrivalOrderPerInstance() {
+		final List<Runnable> parseTasks = new ArrayList<>();
+		connector.setParseExecutor(new Executor() {
+
+			@Override
+			public void execute(Runnable command) {
+				parseTasks.add(command);
+			}
+		});
+		final List<String> handledEvents = new ArrayList<>();
+		connector.registerProcessCompleteHandler(new Handler<ProcessCompleteEvent>() {
+
+			@Override
+			public void handle(ProcessCompleteEvent event) {
+				handledEvents.add(event.getId());
+			}
+		});
+		deliver(ProcessCompleteEvent.MODEL_ID, "first", "instance");
+		deliver(ProcessCompleteEvent.MODEL_ID, "second", "instance");
+		deliver(ProcessCompleteEvent.MODEL_ID, "other", "other-instance");
+		assertEquals(3, parseTasks.size());
+
+		// The parsing of the first event is slow, it completes after the one of the later events.
+		parseTasks.get(2).run();
+		parseTasks.get(1).run();
+		vertx.runPending();
+		assertEquals(Arrays.asList("other"), handledEvents);
+		parseTasks.get(0).run();
+		vertx.runPending();
+		assertEquals(Arrays.asList("other", "first", "second"), handledEvents);
+	}
+
+	public void testRejectedExecutionDoesNotStallInstance() {
+		Executor rejectingExecutor = new Executor() {
+
+			@Override
+			public void execute(Runnable command) {
+				throw new RejectedExecutionException("Shut down.");
+			}
+		};
+		connector.setParseExecutor(rejectingExecutor);
+		connector.setEventTypeExecutor(ProcessCompleteEvent.MODEL_ID, rejectingExecutor);
+		final List<String> handledEvents = new ArrayList<>();
+		connector.registerProcessCompleteHandler(new Handler<ProcessCompleteEvent>() {
+
+			@Override
+			public void handle(ProcessCompleteEvent event) {
+				handledEvents.add(event.getId());
+			}
+		});
+		deliver(ProcessCompleteEvent.MODEL_ID, "first", "instance");
+		deliver(ProcessCompleteEvent.MODEL_ID, "second", "instance");
+		vertx.runPending();
+
+		assertEquals(Arrays.asList("first", "second"), handledEvents);
+		assertEquals(4, connector.getRejectedExecutionCount());
+		assertEquals(0, connector.getMetricsSnapshot().getObject("dispatch").getInteger("activeInstances").intValue());
+	}
+
+	public void testDropsDuplicatesOnlyIfConfigured() {
+		final List<String> handledEvents = new ArrayList<>();
+		connector.registerProcessCompleteHandler(new Handler<ProcessCompleteEvent>() {
+
+			@Override
+			public void handle(ProcessCompleteEvent event) {
+				handledEvents.add(event.getId());
+			}
+		});
+		deliver(ProcessCompleteEvent.MODEL_ID, "event", "instance");
+		deliver(ProcessCompleteEvent.MODEL_ID, "event", "instance");
+		vertx.runPending();
+		assertEquals(Arrays.asList("event", "event"), handledEvents);
+
+		connector.configureDeduplication(16, 60000);
+		deliver(ProcessCompleteEvent.MODEL_ID, "other", "instance");
+		deliver(ProcessCompleteEvent.MODEL_ID, "other", "instance");
+		vertx.runPending();
+		assertEquals(Arrays.asList("event", "event", "other"), handledEvents);
+		assertEquals(1, connector.getDroppedDuplicatesCount());
+	}
+
+	public void testProcessTreeOfUnknownInstanceIsEmpty() {
+		assertEquals(Collections.emptyMap(), connector.getProcessTree(null));
+		assertEquals(Collections.emptyMap(), connector.getProcessTree("unknown"));
+	}
+
+	public void testFailedParseReleasesTrace() {
+		connector.enableTracing(1, 1);
+		String address = "appsist:event:" + ProcessCompleteEvent.MODEL_ID;
+		JsonObject malformed = TestEvents.message(ProcessCompleteEvent.MODEL_ID, "malformed", "instance", "element");
+		malformed.putString("payload", "not an object");
+		vertx.getEventBusHandler(address).handle(ManualVertx.createMessage(address, malformed));
+		deliver(ProcessCompleteEvent.MODEL_ID, "valid", "instance");
+		vertx.runPending();
+
+		assertEquals(1, connector.dumpTraces().size());
+		assertEquals("valid", connector.dumpTraces().<JsonObject>get(0).getString("eventId"));
+	}
+
+	public void testCloseUnregistersEventHandlers() {
+		PKIConnector registered = new PKIConnector(vertx.getVertx(), vertx.createHttpClient(new TestModels.Service()), "/pki", null, true);
+		String address = "appsist:event:" + ProcessCompleteEvent.MODEL_ID;
+		assertSame(registered.getEventHandler(address), vertx.getEventBusHandler(address));
+		registered.enableMetrics("metrics");
+
+		registered.close();
+		for (String eventAddress : registered.getEventAddresses()) {
+			assertNull(vertx.getEventBusHandler(eventAddress));
+		}
+		assertNull(vertx.getEventBusHandler("metrics"));
+	}
+
+	private PKIConnector createConnector(TestModels.Service service) {
+		vertx.setResponseProvider(service);
+		return new PKIConnector(vertx.getVertx(), "localhost", 8080, false, "/pki");
+	}
+
+	public void testAppliesEventsIncrementallyToCachedInstances() {
+		TestModels.Service service = new TestModels.Service();
+		connector = createConnector(service);
+		connector.configureIncrementalUpdates(true);
+		final List<String> handledEvents = new ArrayList<>();
+		connector.registerTaskHandler(new Handler<TaskEvent>() {
+
+			@Override
+			public void handle(TaskEvent event) {
+				handledEvents.add(event.getId());
+			}
+		});
+
+		// Element definitions are learned from the instances retrieved for the first process instance.
+		service.setCurrentElement("first", "a");
+		deliver(UserTaskEvent.MODEL_ID, "first-a", "first", "a");
+		vertx.runPending();
+		service.setCurrentElement("first", "b");
+		deliver(UserTaskEvent.MODEL_ID, "first-b", "first", "b");
+		vertx.runPending();
+		service.setCurrentElement("second", "a");
+		deliver(UserTaskEvent.MODEL_ID, "second-a", "second", "a");
+		vertx.runPending();
+		int requestCount = vertx.getRequests().size();
+
+		deliver(UserTaskEvent.MODEL_ID, "second-b", "second", "b");
+		vertx.runPending();
+		assertEquals(Arrays.asList("first-a", "first-b", "second-a", "second-b"), handledEvents);
+		assertEquals(requestCount, vertx.getRequests().size());
+		assertEquals(1, connector.getIncrementalUpdateCount());
+		ProcessElementInstance derived = connector.getCachedProcessElementInstance("second", "b");
+		assertEquals("a", derived.getPreviousElement());
+		assertEquals("session", derived.getExectionInfo().getString("sessionId"));
+	}
+
+	public void testFallsBackToRetrievalForUnknownElements() {
+		TestModels.Service service = new TestModels.Service();
+		connector = createConnector(service);
+		connector.configureIncrementalUpdates(true);
+		service.setCurrentElement("instance", "a");
+		deliver(UserTaskEvent.MODEL_ID, "event-a", "instance", "a");
+		vertx.runPending();
+		service.setCurrentElement("instance", "b");
+		deliver(UserTaskEvent.MODEL_ID, "event-b", "instance", "b");
+		vertx.runPending();
+
+		assertEquals(0, connector.getIncrementalUpdateCount());
+		assertTrue(vertx.getRequests().contains("GET /pki/instances/instance/currentElement?sid=session"));
+		assertEquals("a", connector.getCachedProcessElementInstance("instance", "b").getPreviousElement());
+	}
+
+	public void testUpdatesRunningStateOfCachedInstance() {
+		TestModels.Service service = new TestModels.Service();
+		connector = createConnector(service);
+		service.setCurrentElement("instance", "a");
+		deliver(UserTaskEvent.MODEL_ID, "event-a", "instance", "a");
+		vertx.runPending();
+		ProcessInstance running = connector.getCachedProcessInstance("instance");
+		assertTrue(running.isRunning());
+
+		deliver(ProcessCompleteEvent.MODEL_ID, "complete", "instance", "a");
+		vertx.runPending();
+		assertFalse(connector.getCachedProcessInstance("instance").isRunning());
+		assertTrue("Cached models are replaced, not modified.", running.isRunning());
+	}
+
+	public void testCoalescedRetrievalKeepsEarliestDeadline() throws InterruptedException {
+		connector = createConnector(new TestModels.Service());
+		connector.configureCoalescing(10);
+		connector.configureEventDeadline(UserTaskEvent.MODEL_ID, 200);
+		connector.configureDeadlineTimestamp("sent");
+		final List<String> handledEvents = new ArrayList<>();
+		connector.registerTaskHandler(new Handler<TaskEvent>() {
+
+			@Override
+			public void handle(TaskEvent event) {
+				handledEvents.add(event.getId());
+			}
+		});
+		String address = "appsist:event:" + UserTaskEvent.MODEL_ID;
+		long now = System.currentTimeMillis();
+		JsonObject urgent = TestEvents.message(UserTaskEvent.MODEL_ID, "urgent", "instance", "a").putNumber("sent", now);
+		JsonObject relaxed = TestEvents.message(UserTaskEvent.MODEL_ID, "relaxed", "instance", "b").putNumber("sent", now + 3600000L);
+		connector.getEventHandler(address).handle(ManualVertx.createMessage(address, urgent));
+		connector.getEventHandler(address).handle(ManualVertx.createMessage(address, relaxed));
+		vertx.runPending();
+		assertEquals(1, connector.getCoalescedEventsCount());
+
+		// The deadline of the first event passes before the window closes, so the merged retrieval issues no requests.
+		Thread.sleep(250);
+		vertx.advance(10);
+		assertEquals(Arrays.asList("urgent", "relaxed"), handledEvents);
+		assertTrue(vertx.getRequests().isEmpty());
+	}
+
+	/**
+	 * Registers a task handler recording the identifier and the enrichment status of the handled events.
+	 * @return Recorded events, e.g. <code>event:SUCCEEDED</code>.
+	 */
+	private List<String> recordTaskEvents() {
+		final List<String> handledEvents = new ArrayList<>();
+		connector.registerTaskHandler(new EnrichedHandler<TaskEvent>() {
+
+			@Override
+			public void handle(TaskEvent event, AsyncJoin.Result enrichment) {
+				handledEvents.add(event.getId() + ":" + enrichment.getStatus());
+			}
+		});
+		return handledEvents;
+	}
+
+	private void deliverSent(String eventId, Object sent) {
+		String address = "appsist:event:" + UserTaskEvent.MODEL_ID;
+		JsonObject message = TestEvents.message(UserTaskEvent.MODEL_ID, eventId, "instance", "a");
+		if (sent instanceof Number) {
+			message.putNumber("sent", (Number) sent);
+		} else if (sent != null) {
+			message.putString("sent", (String) sent);
+		}
+		connector.getEventHandler(address).handle(ManualVertx.createMessage(address, message));
+		vertx.runPending();
+	}
+
+	private int getDispatchCount(String field) {
+		return connector.getMetricsSnapshot().getObject("dispatch").getNumber(field).intValue();
+	}
+
+	public void testHandlesExpiredEventsByPolicy() {
+		TestModels.Service service = new TestModels.Service();
+		service.setCurrentElement("instance", "a");
+		connector = createConnector(service);
+		connector.configureEventDeadline(UserTaskEvent.MODEL_ID, 60000);
+		connector.configureDeadlineTimestamp("sent");
+		List<String> handledEvents = recordTaskEvents();
+		long now = System.currentTimeMillis();
+
+		// By default, expired events are dispatched without retrieving their data.
+		deliverSent("expired", now - 3600000L);
+		assertEquals(Arrays.asList("expired:TIMED_OUT"), handledEvents);
+		assertTrue(vertx.getRequests().isEmpty());
+		deliverSent("current", now);
+		assertEquals(Arrays.asList("expired:TIMED_OUT", "current:SUCCEEDED"), handledEvents);
+		assertEquals(1, getDispatchCount("deadlineExpired"));
+		assertEquals(0, getDispatchCount("deadlineDropped"));
+
+		connector.configureExpiredEvents(Deadline.ExpiredEventPolicy.DROP);
+		deliverSent("dropped", now - 3600000L);
+		assertEquals(2, handledEvents.size());
+		assertEquals(2, getDispatchCount("deadlineExpired"));
+		assertEquals(1, getDispatchCount("deadlineDropped"));
+		assertEquals(0, getDispatchCount("deadlineCancelledRequests"));
+
+		connector.configureExpiredEvents(Deadline.ExpiredEventPolicy.DISPATCH_UNENRICHED);
+		deliverSent("dispatched", now - 3600000L);
+		assertEquals("dispatched:TIMED_OUT", handledEvents.get(2));
+		assertEquals(3, getDispatchCount("deadlineExpired"));
+		assertEquals(1, getDispatchCount("deadlineDropped"));
+	}
+
+	public void testParsesDeadlineTimestamps() {
+		TestModels.Service service = new TestModels.Service();
+		service.setCurrentElement("instance", "a");
+		connector = createConnector(service);
+		connector.configureEventDeadline(null, 60000);
+		connector.configureDeadlineTimestamp("sent");
+		recordTaskEvents();
+		long now = System.currentTimeMillis();
+
+		deliverSent("past-millis", now - 3600000L);
+		assertEquals(1, getDispatchCount("deadlineExpired"));
+		deliverSent("past-extended", "2016-09-29T10:15:30.000+02:00");
+		assertEquals(2, getDispatchCount("deadlineExpired"));
+		deliverSent("past-basic", "2016-09-29T10:15:30.000+0200");
+		assertEquals(3, getDispatchCount("deadlineExpired"));
+		deliverSent("past-utc", "2016-09-29T08:15:30Z");
+		assertEquals(4, getDispatchCount("deadlineExpired"));
+
+		// Invalid and missing timestamps fall back to the arrival time, as do timestamps after the arrival.
+		deliverSent("invalid", "yesterday");
+		deliverSent("local", "2016-09-29T10:15:30");
+		deliverSent("missing", null);
+		deliverSent("future-millis", now + 3600000L);
+		deliverSent("future-iso", "2100-01-01T00:00:00Z");
+		assertEquals(4, getDispatchCount("deadlineExpired"));
+	}
+
+	private static <T> AsyncResultHandler<T> collectCause(final List<Throwable> causes) {
+		return new AsyncResultHandler<T>() {
+
+			@Override
+			public void handle(AsyncResult<T> result) {
+				assertTrue(result.failed());
+				causes.add(result.cause());
+			}
+		};
+	}
+
+	public void testExpiredDeadlineFailsRequestsWithoutIssuingThem() {
+		List<Throwable> causes = new ArrayList<>();
+		Deadline expired = Deadline.at(System.currentTimeMillis() - 1);
+		connector.getProcessDefinition("process", expired, PKIConnectorTest.<ProcessDefinition>collectCause(causes));
+		connector.getProcessInstance("instance", expired, PKIConnectorTest.<ProcessInstance>collectCause(causes));
+		connector.getProcessElement("process", "a", expired, PKIConnectorTest.<ProcessElement>collectCause(causes));
+		connector.getCurrentElement("instance", "session", expired, PKIConnectorTest.<ProcessElementInstance>collectCause(causes));
+		connector.next("instance", "session", "a", expired, PKIConnectorTest.<ProcessElementInstance>collectCause(causes));
+		connector.confirm("instance", "session", expired, PKIConnectorTest.<ProcessInstance>collectCause(causes));
+		vertx.runPending();
+
+		assertEquals(6, causes.size());
+		for (Throwable cause : causes) {
+			assertTrue(cause instanceof TimeoutException);
+		}
+		assertTrue(vertx.getRequests().isEmpty());
+		assertEquals(6, getDispatchCount("deadlineCancelledRequests"));
+	}
+
+	private AsyncResult<ProcessDefinition> getCompressedDefinition(final byte[] body) {
+		vertx.setResponseProvider(new ManualVertx.ResponseProvider() {
+
+			@Override
+			public ManualVertx.Response respond(String method, String uri) {
+				return new ManualVertx.Response(200, new Buffer(body)).putHeader("Content-Encoding", "gzip");
+			}
+		});
+		connector = new PKIConnector(vertx.getVertx(), "localhost", 8080, false, "/pki");
+		final List<AsyncResult<ProcessDefinition>> results = new ArrayList<>();
+		connector.getProcessDefinition("process", new AsyncResultHandler<ProcessDefinition>() {
+
+			@Override
+			public void handle(AsyncResult<ProcessDefinition> result) {
+				results.add(result);
+			}
+		});
+		vertx.runPending();
+		assertEquals(1, results.size());
+		return results.get(0);
+	}
+
+	public void testDecodesCompressedResponses() throws IOException {
+		byte[] body = ResponseDecompressorTest.gzip(TestModels.definition("process").encode().getBytes(StandardCharsets.UTF_8));
+		AsyncResult<ProcessDefinition> result = getCompressedDefinition(body);
+		assertTrue(result.succeeded());
+		assertEquals("process", result.result().getId());
+	}
+
+	public void testReportsCorruptCompressedResponses() throws IOException {
+		byte[] body = ResponseDecompressorTest.gzip(TestModels.definition("process").encode().getBytes(StandardCharsets.UTF_8));
+		body[10] |= 6;
+		AsyncResult<ProcessDefinition> result = getCompressedDefinition(body);
+		assertTrue(result.failed());
+		assertTrue(result.cause().getMessage(), result.cause().getMessage().startsWith("Failed to decompress response: Corrupt compressed response"));
+	}
+
+	public void testPrefetchesCalledProcess() {
+		TestModels.Service service = new TestModels.Service();
+		service.setCalledProcess("call", "subprocess");
+		service.setCurrentElement("parent", "call");
+		connector = createConnector(service);
+		deliver(CallActivityEvent.MODEL_ID, "call-1", "parent", "call");
+		vertx.runPending();
+
+		assertEquals(1, connector.getSubprocessPrefetchCount());
+		assertTrue(vertx.getRequests().contains("GET /pki/processes/subprocess"));
+		assertTrue(vertx.getRequests().contains("GET /pki/processes/subprocess/elements/start"));
+		assertNotNull(connector.getCachedProcessDefinition("subprocess"));
+		assertNotNull(connector.getCachedProcessElement("subprocess", "start"));
+
+		// Everything is cached now, so the next call does not prefetch again.
+		service.setCurrentElement("other", "call");
+		deliver(CallActivityEvent.MODEL_ID, "call-2", "other", "call");
+		vertx.runPending();
+		assertEquals(1, connector.getSubprocessPrefetchCount());
+		assertEquals(1, Collections.frequency(vertx.getRequests(), "GET /pki/processes/subprocess"));
+	}
+
+	public void testSubprocessPrefetchCanBeDisabled() {
+		TestModels.Service service = new TestModels.Service();
+		service.setCalledProcess("call", "subprocess");
+		service.setCurrentElement("parent", "call");
+		connector = createConnector(service);
+		connector.configureSubprocessPrefetch(false);
+		deliver(CallActivityEvent.MODEL_ID, "call", "parent", "call");
+		vertx.runPending();
+
+		assertEquals(0, connector.getSubprocessPrefetchCount());
+		assertFalse(vertx.getRequests().contains("GET /pki/processes/subprocess"));
+	}
+
+	public void testRetriesFailedPrefetch() {
+		TestModels.Service service = new TestModels.Service() {
+
+			@Override
+			public ManualVertx.Response respond(String method, String uri) {
+				if (uri.startsWith("/pki/processes/subprocess")) return new ManualVertx.Response(500, "Failed.");
+				return super.respond(method, uri);
+			}
+		};
+		service.setCalledProcess("call", "subprocess");
+		service.setCurrentElement("parent", "call");
+		connector = createConnector(service);
+		deliver(CallActivityEvent.MODEL_ID, "call-1", "parent", "call");
+		vertx.runPending();
+		deliver(CallActivityEvent.MODEL_ID, "call-2", "parent", "call");
+		vertx.runPending();
+
+		assertEquals(2, connector.getSubprocessPrefetchCount());
+		assertEquals(2, Collections.frequency(vertx.getRequests(), "GET /pki/processes/subprocess"));
+	}
+
+	private void moveTo(TestModels.Service service, String processInstanceId, String elementId) {
+		service.setCurrentElement(processInstanceId, elementId);
+		deliver(UserTaskEvent.MODEL_ID, processInstanceId + "-" + elementId + "-" + vertx.getRequests().size(), processInstanceId, elementId);
+		vertx.runPending();
+	}
+
+	private static List<String> getElementIds(List<? extends ProcessElement> elements) {
+		List<String> elementIds = new ArrayList<>();
+		for (ProcessElement element : elements) {
+			elementIds.add(element.getId());
+		}
+		return elementIds;
+	}
+
+	public void testBoundsCachedElementInstancesPerInstance() {
+		TestModels.Service service = new TestModels.Service();
+		connector = createConnector(service);
+		connector.configureElementHistory(1);
+		moveTo(service, "instance", "a");
+		moveTo(service, "instance", "b");
+		moveTo(service, "instance", "c");
+
+		assertEquals("c", connector.getCachedCurrentElement("instance").getId());
+		assertEquals(Arrays.asList("c", "b"), getElementIds(connector.getCachedElementHistory("instance")));
+		assertNull(connector.getCachedProcessElementInstance("instance", "a"));
+
+		// Revisiting an element moves it to the front.
+		moveTo(service, "instance", "b");
+		assertEquals(Arrays.asList("b", "c"), getElementIds(connector.getCachedElementHistory("instance")));
+		assertTrue(connector.getCachedElementHistory("unknown").isEmpty());
+	}
+
+	public void testIncrementalUpdateOfLoopMovesCachedElementToFront() {
+		TestModels.Service service = new TestModels.Service();
+		connector = createConnector(service);
+		connector.configureIncrementalUpdates(true);
+		connector.configureElementHistory(1);
+		moveTo(service, "instance", "a");
+		moveTo(service, "instance", "b");
+		int requestCount = vertx.getRequests().size();
+
+		// Back to a within the loop, the cached element instance is reused.
+		moveTo(service, "instance", "a");
+		assertEquals(requestCount, vertx.getRequests().size());
+		assertEquals("a", connector.getCachedCurrentElement("instance").getId());
+		assertEquals(Arrays.asList("a", "b"), getElementIds(connector.getCachedElementHistory("instance")));
+
+		// Leaving the loop drops the least recent element b, not the current element a.
+		moveTo(service, "instance", "c");
+		assertEquals(Arrays.asList("c", "a"), getElementIds(connector.getCachedElementHistory("instance")));
+		assertNull(connector.getCachedProcessElementInstance("instance", "b"));
+		assertNotNull(connector.getCachedProcessElementInstance("instance", "a"));
+	}
+
+	public void testAccountsFootprintOnlyWhileLimited() {
+		TestModels.Service service = new TestModels.Service();
+		connector = createConnector(service);
+		moveTo(service, "instance", "a");
+		CacheFootprint footprint = connector.getCacheFootprint();
+		assertEquals(0, footprint.getTotalBytes());
+
+		// Entries cached before the limit is configured are accounted when it is.
+		connector.configureCacheLimit(Long.MAX_VALUE);
+		long bytes = footprint.getTotalBytes();
+		assertTrue(bytes > 0);
+		assertEquals(1, footprint.getEntryCount(ConnectorMetrics.Cache.PROCESS_INSTANCES));
+		assertEquals(1, footprint.getEntryCount(ConnectorMetrics.Cache.PROCESS_ELEMENT_INSTANCES));
+
+		// Replacing an entry does not account it twice.
+		moveTo(service, "instance", "a");
+		assertEquals(bytes, footprint.getTotalBytes());
+		moveTo(service, "instance", "b");
+		assertEquals(2, footprint.getEntryCount(ConnectorMetrics.Cache.PROCESS_ELEMENT_INSTANCES));
+		assertTrue(footprint.getTotalBytes() > bytes);
+
+		connector.configureCacheLimit(0);
+		assertEquals(0, footprint.getTotalBytes());
+		assertEquals(0, footprint.getEntryCount(ConnectorMetrics.Cache.PROCESS_INSTANCES));
+	}
+
+	public void testJournalsShedEntries() throws Exception {
+		File directory = File.createTempFile("journal", "");
+		directory.delete();
+		try {
+			TestModels.Service service = new TestModels.Service();
+			service.setRunning("completed", false);
+			vertx.setResponseProvider(service);
+			connector = new PKIConnector(vertx.getVertx(), "localhost", 8080, false, "/pki", directory);
+			moveTo(service, "running", "a");
+			moveTo(service, "running", "b");
+			moveTo(service, "completed", "x");
+			assertEquals(Arrays.asList("b", "a"), getElementIds(connector.getCachedElementHistory("running")));
+
+			// Sheds everything but the definition and the current state of the running instance.
+			connector.configureCacheLimit(1);
+			moveTo(service, "running", "c");
+			assertTrue(connector.getShedEntryCount() > 0);
+			assertEquals(Arrays.asList("c"), getElementIds(connector.getCachedElementHistory("running")));
+			assertNull(connector.getCachedProcessInstance("completed"));
+			connector.closeJournal();
+			assertTrue(connector.awaitJournal(10, TimeUnit.SECONDS));
+
+			PKIConnector restored = new PKIConnector(vertx.getVertx(), "localhost", 8080, false, "/pki", directory);
+			restored.closeJournal();
+			assertNotNull(restored.getCachedProcessInstance("running"));
+			assertEquals("c", restored.getCachedCurrentElement("running").getId());
+			assertEquals(Arrays.asList("c"), getElementIds(restored.getCachedElementHistory("running")));
+			assertNull(restored.getCachedProcessInstance("completed"));
+			assertNull(restored.getCachedProcessElementInstance("completed", "x"));
+			assertTrue(restored.awaitJournal(10, TimeUnit.SECONDS));
+		} finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package de.appsist.service.pki.connector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import junit.framework.TestCase;
+
+public class ResponseDecompressorTest extends TestCase {
+	private static final byte[] CONTENT;
+
+	static {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			builder.append("{\"id\":\"element-").append(i).append("\",\"type\":\"userTask\"},");
+		}
+		CONTENT = builder.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(out);
+		gzip.write(data);
+		gzip.close();
+		return out.toByteArray();
+	}
+
+	private static byte[] deflate(byte[] data, boolean isRaw) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, isRaw);
+		DeflaterOutputStream stream = new DeflaterOutputStream(out, deflater);
+		stream.write(data);
+		stream.close();
+		deflater.end();
+		return out.toByteArray();
+	}
+
+	/**
+	 * Creates a gzip stream with the optional header fields set, i.e. extra field, file name, comment, and header CRC.
+	 */
+	private static byte[] gzipWithHeaderFields(byte[] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(new byte[] { 0x1f, (byte) 0x8b, 8, 2 | 4 | 8 | 16, 0, 0, 0, 0, 0, (byte) 0xff });
+		out.write(new byte[] { 3, 0, 'a', 'b', 'c' });
+		out.write("response.json\0".getBytes(StandardCharsets.US_ASCII));
+		out.write("comment\0".getBytes(StandardCharsets.US_ASCII));
+		out.write(new byte[] { 0, 0 });
+		out.write(deflate(data, true));
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		writeIntLE(out, (int) crc.getValue());
+		writeIntLE(out, data.length);
+		return out.toByteArray();
+	}
+
+	private static void writeIntLE(ByteArrayOutputStream out, int value) {
+		for (int i = 0; i < 4; i++) {
+			out.write(value >>> (8 * i));
+		}
+	}
+
+	/**
+	 * Decompresses the data in chunks of the given size.
+	 */
+	private static byte[] decompress(String contentEncoding, byte[] data, int chunkSize) throws ZipException {
+		ResponseDecompressor decompressor = ResponseDecompressor.forContentEncoding(contentEncoding);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int offset = 0; offset < data.length; offset += chunkSize) {
+			byte[] decompressed = decompressor.update(Arrays.copyOfRange(data, offset, Math.min(data.length, offset + chunkSize)));
+			out.write(decompressed, 0, decompressed.length);
+		}
+		decompressor.finish();
+		assertEquals(data.length, decompressor.getCompressedBytes());
+		assertEquals(out.size(), decompressor.getDecompressedBytes());
+		return out.toByteArray();
+	}
+
+	private static void assertFails(String contentEncoding, byte[] data, String expectedMessage) {
+		try {
+			decompress(contentEncoding, data, 1024);
+			fail("Expected ZipException.");
+		} catch (ZipException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith(expectedMessage));
+		}
+	}
+
+	public void testDecompressesGzip() throws IOException {
+		byte[] compressed = gzip(CONTENT);
+		assertTrue(Arrays.equals(CONTENT, decompress("gzip", compressed, compressed.length)));
+		assertTrue(Arrays.equals(CONTENT, decompress("x-gzip", compressed, 1000)));
+	}
+
+	public void testDecompressesZlibDeflate() throws IOException {
+		assertTrue(Arrays.equals(CONTENT, decompress("deflate", deflate(CONTENT, false), 1000)));
+	}
+
+	public void testDecompressesRawDeflate() throws IOException {
+		assertTrue(Arrays.equals(CONTENT, decompress("Deflate", deflate(CONTENT, true), 1000)));
+	}
+
+	public void testAcceptsHeadersSplitAcrossChunks() throws IOException {
+		assertTrue(Arrays.equals(CONTENT, decompress("gzip", gzipWithHeaderFields(CONTENT), 1)));
+		assertTrue(Arrays.equals(CONTENT, decompress("gzip", gzip(CONTENT), 3)));
+		assertTrue(Arrays.equals(CONTENT, decompress("deflate", deflate(CONTENT, false), 1)));
+	}
+
+	public void testIgnoresIdentityEncoding() throws ZipException {
+		assertNull(ResponseDecompressor.forContentEncoding(null));
+		assertNull(ResponseDecompressor.forContentEncoding(" identity "));
+		try {
+			ResponseDecompressor.forContentEncoding("br");
+			fail("Expected ZipException.");
+		} catch (ZipException e) {
+			// Expected.
+		}
+	}
+
+	public void testRejectsChecksumMismatch() throws IOException {
+		byte[] compressed = gzip(CONTENT);
+		compressed[compressed.length - 8] ^= 1;
+		assertFails("gzip", compressed, "Corrupt gzip response (checksum mismatch).");
+	}
+
+	public void testRejectsTruncatedStreams() throws IOException {
+		byte[] gzip = gzip(CONTENT);
+		assertFails("gzip", Arrays.copyOf(gzip, gzip.length - 4), "Compressed response is truncated.");
+		assertFails("gzip", Arrays.copyOf(gzip, gzip.length / 2), "Compressed response is truncated.");
+		assertFails("gzip", Arrays.copyOf(gzip, 5), "Compressed response is truncated.");
+		byte[] deflate = deflate(CONTENT, false);
+		assertFails("deflate", Arrays.copyOf(deflate, deflate.length / 2), "Compressed response is truncated.");
+	}
+
+	public void testReportsFirstFailure() throws IOException {
+		byte[] compressed = gzip(CONTENT);
+		// An invalid block type in the first deflate block.
+		compressed[10] |= 6;
+		ResponseDecompressor decompressor = ResponseDecompressor.forContentEncoding("gzip");
+		ZipException failure = null;
+		try {
+			decompressor.update(Arrays.copyOf(compressed, 100));
+			fail("Expected ZipException.");
+		} catch (ZipException e) {
+			failure = e;
+		}
+		assertTrue(failure.getMessage(), failure.getMessage().startsWith("Corrupt compressed response"));
+		try {
+			decompressor.update(Arrays.copyOfRange(compressed, 100, compressed.length));
+			fail("Expected ZipException.");
+		} catch (ZipException e) {
+			assertSame(failure, e);
+		}
+		try {
+			decompressor.finish();
+			fail("Expected ZipException.");
+		} catch (ZipException e) {
+			assertSame(failure, e);
+		}
+		assertEquals(compressed.length, decompressor.getCompressedBytes());
+	}
+
+	public void testRejectsInvalidGzipHeader() throws IOException {
+		byte[] compressed = gzip(CONTENT);
+		compressed[0] = 0;
+		assertFails("gzip", compressed, "Not in gzip format.");
+	}
+}
@@ -0,0 +1,159 @@
+package de.appsist.service.pki.connector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class StateJournalTest extends TestCase {
+	private File directory;
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = File.createTempFile("journal", "");
+		directory.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	private StateJournal open() throws IOException {
+		return new StateJournal(directory, 1024, 4);
+	}
+
+	private static void closeAndWait(StateJournal journal) throws InterruptedException {
+		journal.close();
+		assertTrue(journal.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Replays the journal into a list of <code>type key=value</code> strings.
+	 */
+	private List<String> replay() throws IOException, InterruptedException {
+		final List<String> entries = new ArrayList<>();
+		StateJournal journal = open();
+		journal.replay(new StateJournal.Listener() {
+
+			@Override
+			public void onEntry(byte type, String key, String value) {
+				entries.add(type + " " + key + "=" + value);
+			}
+		});
+		closeAndWait(journal);
+		return entries;
+	}
+
+	public void testReplaysEntriesInOrderOfAppending() throws Exception {
+		StateJournal journal = open();
+		journal.append(StateJournal.TYPE_PROCESS_INSTANCE, "instance", "{\"v\":1}");
+		journal.append(StateJournal.TYPE_ELEMENT_INSTANCE, "instance:a", "{\"v\":2}");
+		journal.append(StateJournal.TYPE_REMOVE_INSTANCE, "instance", null);
+		closeAndWait(journal);
+		assertEquals(1, journal.getSegmentCount());
+		assertEquals(Arrays.asList("1 instance={\"v\":1}", "2 instance:a={\"v\":2}", "3 instance="), replay());
+	}
+
+	public void testIgnoresEntriesAfterClose() throws Exception {
+		StateJournal journal = open();
+		journal.append(StateJournal.TYPE_PROCESS_INSTANCE, "instance", "{}");
+		closeAndWait(journal);
+		journal.append(StateJournal.TYPE_PROCESS_INSTANCE, "late", "{}");
+		journal.compact();
+		assertEquals(Arrays.asList("1 instance={}"), replay());
+	}
+
+	public void testCompactionKeepsLatestEntriesInOrderOfUpdate() throws Exception {
+		StateJournal journal = open();
+		journal.append(StateJournal.TYPE_PROCESS_INSTANCE, "x", "{\"v\":1}");
+		journal.append(StateJournal.TYPE_ELEMENT_INSTANCE, "x:a", "{\"v\":1}");
+		journal.append(StateJournal.TYPE_ELEMENT_INSTANCE, "x:b", "{\"v\":1}");
+		journal.append(StateJournal.TYPE_PROCESS_INSTANCE, "y", "{\"v\":1}");
+		journal.append(StateJournal.TYPE_ELEMENT_INSTANCE, "x:a", "{\"v\":2}"); // Loop back to element a.
+		journal.append(StateJournal.TYPE_PROCESS_INSTANCE, "z", "{\"v\":1}");
+		journal.append(StateJournal.TYPE_REMOVE_INSTANCE, "z", null);
+		journal.compact();
+		closeAndWait(journal);
+
+		assertEquals(Arrays.asList(
+				"1 y={\"v\":1}",
+				"1 x={\"v\":1}",
+				"2 x:b={\"v\":1}",
+				"2 x:a={\"v\":2}"), replay());
+	}
+
+	public void testCompactionDropsRemovedElementInstances() throws Exception {
+		StateJournal journal = open();
+		journal.append(StateJournal.TYPE_PROCESS_INSTANCE, "x", "{\"v\":1}");
+		journal.append(StateJournal.TYPE_ELEMENT_INSTANCE, "x:a", "{\"v\":1}");
+		journal.append(StateJournal.TYPE_ELEMENT_INSTANCE, "x:b", "{\"v\":1}");
+		journal.append(StateJournal.TYPE_REMOVE_ELEMENT_INSTANCE, "x:a", null);
+		journal.append(StateJournal.TYPE_REMOVE_ELEMENT_INSTANCE, "y:a", null);
+		journal.compact();
+		closeAndWait(journal);
+
+		assertEquals(Arrays.asList("1 x={\"v\":1}", "2 x:b={\"v\":1}"), replay());
+	}
+
+	public void testCompactsWhenSegmentsReachMaximum() throws Exception {
+		StateJournal journal = open();
+		char[] padding = new char[300];
+		Arrays.fill(padding, 'p');
+		for (int i = 0; i < 100; i++) {
+			journal.append(StateJournal.TYPE_PROCESS_INSTANCE, "instance-" + (i % 3), "{\"v\":" + i + ",\"p\":\"" + new String(padding) + "\"}");
+		}
+		closeAndWait(journal);
+		assertTrue("Segments: " + journal.getSegmentCount(), journal.getSegmentCount() <= 8);
+		assertTrue(journal.getAppendedBytes() > 100 * 300);
+
+		// The latest value of each key is replayed last.
+		List<String> entries = replay();
+		assertTrue(entries.size() < 100);
+		List<String> lastEntries = entries.subList(entries.size() - 3, entries.size());
+		assertTrue(lastEntries.get(0).startsWith("1 instance-1={\"v\":97,"));
+		assertTrue(lastEntries.get(1).startsWith("1 instance-2={\"v\":98,"));
+		assertTrue(lastEntries.get(2).startsWith("1 instance-0={\"v\":99,"));
+	}
+
+	public void testStopsReplayAtCorruptEntry() throws Exception {
+		StateJournal journal = open();
+		journal.append(StateJournal.TYPE_PROCESS_INSTANCE, "first", "{}");
+		journal.append(StateJournal.TYPE_PROCESS_INSTANCE, "second", "{}");
+		closeAndWait(journal);
+		File[] segments = directory.listFiles();
+		assertEquals(1, segments.length);
+		try (RandomAccessFile segment = new RandomAccessFile(segments[0], "rw")) {
+			// Second entry: header (8 bytes) + type (1) + key length (4) + "first" (5) + value length (4) + "{}" (2) = 24 bytes after the first.
+			segment.seek(24 + 8 + 6);
+			segment.write('X');
+		}
+		assertEquals(Arrays.asList("1 first={}"), replay());
+	}
+
+	public void testRejectsInvalidConfiguration() throws Exception {
+		try {
+			new StateJournal(directory, 100, 4);
+			fail("Expected IllegalArgumentException.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		try {
+			new StateJournal(directory, 1024, 1);
+			fail("Expected IllegalArgumentException.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package de.appsist.service.pki.connector;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.commons.event.UserTaskEvent;
+import de.appsist.commons.util.EventUtil;
+
+/**
+ * Event messages and events for tests, in the format published by the PKI.
+ */
+public class TestEvents {
+	/**
+	 * Creates the message body of an event.
+	 * @param modelId Model identifier of the event type.
+	 * @param eventId Identifier of the event.
+	 * @param processInstanceId Identifier of the process instance.
+	 * @param elementId Identifier of the current element.
+	 * @return Message body.
+	 */
+	public static JsonObject message(String modelId, String eventId, String processInstanceId, String elementId) {
+		JsonObject payload = new JsonObject();
+		payload.putString("processId", "process");
+		payload.putString("processInstanceId", processInstanceId);
+		payload.putString("elementId", elementId);
+		payload.putString("sessionId", "session");
+		payload.putString("userId", "user");
+		JsonObject message = new JsonObject();
+		message.putString("id", eventId);
+		message.putString("modelId", modelId);
+		message.putString("created", "2016-09-29T10:15:30.000+0200");
+		message.putObject("payload", payload);
+		return message;
+	}
+
+	/**
+	 * Creates the content map of an event.
+	 * @param eventId Identifier of the event.
+	 * @param processInstanceId Identifier of the process instance.
+	 * @return Content map.
+	 */
+	public static Map<String, Object> content(String eventId, String processInstanceId) {
+		return new LinkedHashMap<>(message(UserTaskEvent.MODEL_ID, eventId, processInstanceId, "element").toMap());
+	}
+
+	/**
+	 * Creates a user task event.
+	 * @param eventId Identifier of the event.
+	 * @param processInstanceId Identifier of the process instance.
+	 * @return Event.
+	 */
+	public static UserTaskEvent userTask(String eventId, String processInstanceId) {
+		return EventUtil.parseEvent(content(eventId, processInstanceId), UserTaskEvent.class);
+	}
+
+	/**
+	 * Creates a user task event.
+	 * @param eventId Identifier of the event.
+	 * @param processInstanceId Identifier of the process instance.
+	 * @param elementId Identifier of the current element.
+	 * @return Event.
+	 */
+	public static UserTaskEvent userTask(String eventId, String processInstanceId, String elementId) {
+		Map<String, Object> content = new LinkedHashMap<>(message(UserTaskEvent.MODEL_ID, eventId, processInstanceId, elementId).toMap());
+		return EventUtil.parseEvent(content, UserTaskEvent.class);
+	}
+}
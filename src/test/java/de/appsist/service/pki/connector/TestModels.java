@@ -0,0 +1,137 @@
+package de.appsist.service.pki.connector;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Models in the format of the PKI and a stand-in for the PKI service answering requests of the connector.
+ */
+public class TestModels {
+	/**
+	 * Stand-in for the PKI service with the base path <code>/pki</code>.
+	 * Knows every requested process and instance. The current element of an instance is set by the test.
+	 */
+	public static class Service implements ManualVertx.ResponseProvider {
+		private static final Pattern DEFINITION = Pattern.compile("/pki/processes/([^/?]+)");
+		private static final Pattern ELEMENT = Pattern.compile("/pki/processes/([^/?]+)/elements/([^/?]+)");
+		private static final Pattern INSTANCE = Pattern.compile("/pki/instances/([^/?]+)");
+		private static final Pattern CURRENT_ELEMENT = Pattern.compile("/pki/instances/([^/?]+)/currentElement(\\?.*)?");
+		private final Map<String, String> currentElements = new HashMap<>();
+		private final Map<String, String> previousElements = new HashMap<>();
+		private final Map<String, String> calledProcesses = new HashMap<>();
+		private final Map<String, Boolean> runningStates = new HashMap<>();
+		private boolean isAvailable = true;
+
+		/**
+		 * Moves an instance to an element.
+		 * @param processInstanceId Identifier of the process instance.
+		 * @param elementId Identifier of the new current element.
+		 */
+		public void setCurrentElement(String processInstanceId, String elementId) {
+			String previousElement = currentElements.put(processInstanceId, elementId);
+			if (previousElement != null) previousElements.put(processInstanceId, previousElement);
+		}
+
+		/**
+		 * Sets the running state reported for an instance. Instances are reported as running by default.
+		 * @param processInstanceId Identifier of the process instance.
+		 * @param isRunning <code>true</code> if the instance is running, otherwise <code>false</code>.
+		 */
+		public void setRunning(String processInstanceId, boolean isRunning) {
+			runningStates.put(processInstanceId, isRunning);
+		}
+
+		/**
+		 * Turns an element into a call activity.
+		 * @param elementId Identifier of the element in all processes.
+		 * @param processId Identifier of the called process.
+		 */
+		public void setCalledProcess(String elementId, String processId) {
+			calledProcesses.put(elementId, processId);
+		}
+
+		/**
+		 * Sets if the service answers requests. An unavailable service answers with status 503.
+		 * @param isAvailable <code>true</code> to answer requests, otherwise <code>false</code>.
+		 */
+		public void setAvailable(boolean isAvailable) {
+			this.isAvailable = isAvailable;
+		}
+
+		@Override
+		public ManualVertx.Response respond(String method, String uri) {
+			if (!isAvailable) {
+				return new ManualVertx.Response(503, "Unavailable.");
+			}
+			Matcher matcher;
+			if ((matcher = CURRENT_ELEMENT.matcher(uri)).matches()) {
+				String processInstanceId = matcher.group(1);
+				String elementId = currentElements.get(processInstanceId);
+				if (elementId == null) return new ManualVertx.Response(404, "No current element.");
+				return json(callActivity(elementInstance(elementId, previousElements.get(processInstanceId))));
+			} else if ((matcher = INSTANCE.matcher(uri)).matches()) {
+				return json(instance(matcher.group(1), "process", !Boolean.FALSE.equals(runningStates.get(matcher.group(1)))));
+			} else if ((matcher = ELEMENT.matcher(uri)).matches()) {
+				return json(callActivity(element(matcher.group(2))));
+			} else if ((matcher = DEFINITION.matcher(uri)).matches()) {
+				return json(definition(matcher.group(1)));
+			}
+			return new ManualVertx.Response(404, "Not found.");
+		}
+
+		private JsonObject callActivity(JsonObject element) {
+			String calledProcess = calledProcesses.get(element.getString("id"));
+			if (calledProcess != null) {
+				element.putString("type", "callActivity");
+				element.putString("calledElement", calledProcess);
+			}
+			return element;
+		}
+
+		private static ManualVertx.Response json(JsonObject body) {
+			return new ManualVertx.Response(200, body.encode()).putHeader("Content-Type", "application/json");
+		}
+	}
+
+	public static JsonObject definition(String processId) {
+		JsonObject definition = new JsonObject();
+		definition.putString("id", processId);
+		definition.putString("type", "BPMN");
+		definition.putString("label", "Process " + processId);
+		definition.putString("startElement", "start");
+		return definition;
+	}
+
+	public static JsonObject instance(String processInstanceId, String processId, boolean isRunning) {
+		JsonObject instance = new JsonObject();
+		instance.putString("id", processInstanceId);
+		instance.putString("processId", processId);
+		instance.putBoolean("isRunning", isRunning);
+		instance.putString("userId", "user");
+		return instance;
+	}
+
+	public static JsonObject element(String elementId) {
+		JsonObject element = new JsonObject();
+		element.putString("id", elementId);
+		element.putString("label", "Element " + elementId);
+		element.putString("type", "userTask");
+		element.putArray("nextElements", new JsonArray());
+		return element;
+	}
+
+	public static JsonObject elementInstance(String elementId, String previousElement) {
+		JsonObject elementInstance = element(elementId);
+		if (previousElement != null) elementInstance.putString("previousElement", previousElement);
+		JsonObject executionInfo = new JsonObject();
+		executionInfo.putString("sessionId", "session");
+		executionInfo.putString("userId", "user");
+		elementInstance.putObject("executionInfo", executionInfo);
+		return elementInstance;
+	}
+}
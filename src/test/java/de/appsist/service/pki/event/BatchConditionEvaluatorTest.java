@@ -0,0 +1,67 @@
+package de.appsist.service.pki.event;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+
+public class BatchConditionEvaluatorTest extends TestCase {
+	private SwitchCondition condition;
+	private List<Map<String, Object>> contexts;
+
+	@Override
+	protected void setUp() throws Exception {
+		Map<Object, Object> cases = new LinkedHashMap<>();
+		cases.put("0", "even");
+		cases.put("1", "odd");
+		Map<String, Object> parameters = new HashMap<>();
+		parameters.put("jsonpath", "$.value");
+		parameters.put("cases", cases);
+		condition = new SwitchCondition(parameters, null);
+
+		contexts = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			Map<String, Object> context = new HashMap<>();
+			if (i % 10 != 9) context.put("value", i % 2); // Every tenth context selects no element.
+			contexts.add(context);
+		}
+	}
+
+	public void testSelectsElementPerContext() {
+		BatchConditionEvaluator.Result result = BatchConditionEvaluator.evaluate(condition, contexts);
+		assertEquals(contexts.size(), result.size());
+		assertEquals(2, result.getElements().length);
+		for (int i = 0; i < contexts.size(); i++) {
+			String expected = i % 10 == 9 ? null : (i % 2 == 0 ? "even" : "odd");
+			assertEquals(expected, result.getElement(i));
+			assertEquals(expected, condition.getElementForContext(contexts.get(i)));
+			if (expected == null) {
+				assertEquals(-1, result.getElementIndex(i));
+			} else {
+				assertEquals(expected, result.getElements()[result.getElementIndex(i)]);
+			}
+		}
+	}
+
+	public void testEvaluatesWithGivenPool() {
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			BatchConditionEvaluator.Result result = BatchConditionEvaluator.evaluate(condition, contexts, pool);
+			assertEquals("even", result.getElement(0));
+			assertEquals("odd", result.getElement(1));
+			assertNull(result.getElement(9));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public void testEvaluatesEmptyBatch() {
+		BatchConditionEvaluator.Result result = BatchConditionEvaluator.evaluate(condition, new ArrayList<Map<String, Object>>());
+		assertEquals(0, result.size());
+		assertEquals(0, result.getElements().length);
+	}
+}
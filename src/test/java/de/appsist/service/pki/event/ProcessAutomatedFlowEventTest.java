@@ -0,0 +1,104 @@
+package de.appsist.service.pki.event;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.pki.event.ProcessAutomatedFlowEvent.Condition;
+
+public class ProcessAutomatedFlowEventTest extends TestCase {
+
+	private static Map<String, Object> ifCondition(String jsonPath, String thenElement, String elseElement) {
+		JsonObject parameters = new JsonObject();
+		parameters.putString("jsonpath", jsonPath);
+		parameters.putString("then", thenElement);
+		parameters.putString("else", elseElement);
+		JsonObject flowCondition = new JsonObject();
+		flowCondition.putString("method", "if");
+		flowCondition.putObject("parameters", parameters);
+		return new LinkedHashMap<>(flowCondition.toMap());
+	}
+
+	private static Map<String, Object> context(String field, Object value) {
+		Map<String, Object> context = new HashMap<>();
+		context.put(field, value);
+		return context;
+	}
+
+	public void testParsesConditionFromPayload() {
+		JsonObject payload = new JsonObject();
+		payload.putString("processId", "process");
+		payload.putString("processInstanceId", "instance");
+		payload.putString("elementId", "gateway");
+		payload.putObject("flowCondition", new JsonObject(ifCondition("$.approved", "approve", "reject")));
+		JsonObject content = new JsonObject();
+		content.putString("id", "event");
+		content.putString("modelId", ProcessAutomatedFlowEvent.MODEL_ID);
+		content.putString("created", "2016-09-29T10:15:30.000+0200");
+		content.putObject("payload", payload);
+
+		ProcessAutomatedFlowEvent event = new ProcessAutomatedFlowEvent(content.toMap());
+		assertEquals("approve", event.getCondition().getElementForContext(context("approved", true)));
+		assertEquals("reject", event.getCondition().getElementForContext(context("approved", false)));
+		assertEquals("reject", event.getCondition().getElementForContext(new HashMap<String, Object>()));
+	}
+
+	public void testSharesConditionsOfEqualDefinitions() {
+		Condition condition = ProcessAutomatedFlowEvent.compileCondition(ifCondition("$.shared", "a", "b"));
+		assertSame(condition, ProcessAutomatedFlowEvent.compileCondition(ifCondition("$.shared", "a", "b")));
+		assertNotSame(condition, ProcessAutomatedFlowEvent.compileCondition(ifCondition("$.shared", "a", "c")));
+	}
+
+	@SuppressWarnings("unchecked")
+	public void testModifyingDefinitionAfterCachingDoesNotAffectCache() {
+		Map<String, Object> flowCondition = ifCondition("$.mutable", "a", "b");
+		Condition original = ProcessAutomatedFlowEvent.compileCondition(flowCondition);
+		((Map<String, Object>) flowCondition.get("parameters")).put("then", "c");
+
+		Condition modified = ProcessAutomatedFlowEvent.compileCondition(flowCondition);
+		assertNotSame(original, modified);
+		assertEquals("c", modified.getElementForContext(context("mutable", true)));
+		Condition unmodified = ProcessAutomatedFlowEvent.compileCondition(ifCondition("$.mutable", "a", "b"));
+		assertSame(original, unmodified);
+		assertEquals("a", unmodified.getElementForContext(context("mutable", true)));
+	}
+
+	public void testRejectsInvalidDefinitions() {
+		Map<String, Object> flowCondition = ifCondition("$.value", "a", "b");
+		flowCondition.put("method", "unknown");
+		try {
+			ProcessAutomatedFlowEvent.compileCondition(flowCondition);
+			fail("Expected IllegalArgumentException.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		flowCondition.remove("parameters");
+		flowCondition.put("method", "if");
+		try {
+			ProcessAutomatedFlowEvent.compileCondition(flowCondition);
+			fail("Expected IllegalArgumentException.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	public void testInvalidPathIsNotFulfilled() {
+		try {
+			JsonPathCache.compile("$.a.");
+			fail("Expected IllegalArgumentException.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		// The event is not rejected, the condition takes the else branch like for a path not found.
+		Condition condition = ProcessAutomatedFlowEvent.compileCondition(ifCondition("$.a.", "a", "b"));
+		assertEquals("b", condition.getElementForContext(context("a", true)));
+	}
+
+	public void testCachesCompiledPaths() {
+		assertSame(JsonPathCache.compile("$.cached"), JsonPathCache.compile("$.cached"));
+	}
+}
@@ -0,0 +1,86 @@
+package de.appsist.service.pki.event;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.vertx.java.core.json.JsonObject;
+
+public class RuleTableConditionTest extends TestCase {
+	private static final String RULES = "{\"rules\": ["
+			+ "{\"when\": [{\"jsonpath\": \"$.score\", \"operator\": \">=\", \"value\": 80}, {\"jsonpath\": \"$.role\", \"operator\": \"!=\", \"value\": \"guest\"}], \"then\": \"advanced\"},"
+			+ "{\"jsonpath\": \"$.role\", \"operator\": \"in\", \"value\": [\"admin\", \"expert\"], \"then\": \"privileged\"},"
+			+ "{\"jsonpath\": \"$.name\", \"operator\": \"<\", \"value\": \"m\", \"then\": \"firstHalf\"},"
+			+ "{\"jsonpath\": \"$.help\", \"operator\": \"exists\", \"value\": true, \"then\": \"help\"}"
+			+ "]}";
+
+	private static RuleTableCondition compile(String parameters, String defaultElement) {
+		return new RuleTableCondition(new JsonObject(parameters).toMap(), defaultElement);
+	}
+
+	private static Map<String, Object> context(Object... entries) {
+		Map<String, Object> context = new HashMap<>();
+		for (int i = 0; i < entries.length; i += 2) {
+			context.put((String) entries[i], entries[i + 1]);
+		}
+		return context;
+	}
+
+	public void testSelectsFirstMatchingRule() {
+		RuleTableCondition condition = compile(RULES, "default");
+		assertEquals("advanced", condition.getElementForContext(context("score", 90, "role", "admin")));
+		assertEquals("default", condition.getElementForContext(context("score", 90, "role", "guest")));
+		assertEquals("privileged", condition.getElementForContext(context("score", 70, "role", "expert")));
+		assertEquals("firstHalf", condition.getElementForContext(context("score", 70, "name", "alice")));
+		assertEquals("help", condition.getElementForContext(context("name", "zoe", "help", "yes")));
+		assertEquals("default", condition.getElementForContext(context("name", "zoe")));
+	}
+
+	public void testMissingValuesOnlyFulfillNotEqualAndNotExists() {
+		RuleTableCondition condition = compile("{\"rules\": ["
+				+ "{\"jsonpath\": \"$.value\", \"operator\": \"==\", \"value\": 1, \"then\": \"equal\"},"
+				+ "{\"jsonpath\": \"$.value\", \"operator\": \"<\", \"value\": 1, \"then\": \"less\"},"
+				+ "{\"jsonpath\": \"$.value\", \"operator\": \"exists\", \"value\": false, \"then\": \"absent\"}"
+				+ "]}", null);
+		assertEquals("absent", condition.getElementForContext(context()));
+		assertEquals("equal", condition.getElementForContext(context("value", 1.0)));
+		assertEquals("less", condition.getElementForContext(context("value", 0)));
+		assertNull(condition.getElementForContext(context("value", 2)));
+	}
+
+	public void testComparesNumbersNumerically() {
+		RuleTableCondition condition = compile("{\"rules\": [{\"jsonpath\": \"$.value\", \"operator\": \">\", \"value\": 9, \"then\": \"large\"}]}", "small");
+		assertEquals("large", condition.getElementForContext(context("value", 10)));
+		assertEquals("small", condition.getElementForContext(context("value", 9)));
+		// Strings are not compared with numbers.
+		assertEquals("small", condition.getElementForContext(context("value", "10")));
+	}
+
+	public void testReadsEachPathOnce() {
+		RuleTableCondition condition = compile(RULES, null);
+		assertEquals(4, condition.getSlotCount());
+		Object[] buffer = new Object[condition.getSlotCount()];
+		assertEquals("advanced", condition.getElementForContext(context("score", 90, "role", "admin"), buffer));
+		assertEquals(Arrays.asList(90, "admin"), Arrays.asList(buffer[0], buffer[1]));
+	}
+
+	public void testRejectsInvalidRules() {
+		String[] invalidRules = {
+				"{}",
+				"{\"rules\": [{\"jsonpath\": \"$.value\", \"operator\": \"==\", \"value\": 1}]}",
+				"{\"rules\": [{\"jsonpath\": \"$.value\", \"operator\": \"~\", \"value\": 1, \"then\": \"a\"}]}",
+				"{\"rules\": [{\"jsonpath\": \"$.value\", \"operator\": \"in\", \"value\": 1, \"then\": \"a\"}]}",
+				"{\"rules\": [{\"jsonpath\": \"$.value\", \"operator\": \"==\", \"value\": [1], \"then\": \"a\"}]}"
+		};
+		for (String rules : invalidRules) {
+			try {
+				compile(rules, null);
+				fail("Expected IllegalArgumentException for " + rules);
+			} catch (IllegalArgumentException e) {
+				// Expected.
+			}
+		}
+	}
+}
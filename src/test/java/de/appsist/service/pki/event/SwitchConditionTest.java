@@ -0,0 +1,86 @@
+package de.appsist.service.pki.event;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class SwitchConditionTest extends TestCase {
+
+	private static SwitchCondition compile(Map<Object, Object> cases, String defaultElement) {
+		Map<String, Object> parameters = new HashMap<>();
+		parameters.put("jsonpath", "$.level");
+		parameters.put("cases", cases);
+		return new SwitchCondition(parameters, defaultElement);
+	}
+
+	private static Map<String, Object> context(Object level) {
+		Map<String, Object> context = new HashMap<>();
+		context.put("level", level);
+		return context;
+	}
+
+	public void testSelectsCaseByValue() {
+		Map<Object, Object> cases = new LinkedHashMap<>();
+		cases.put("beginner", "element1");
+		cases.put("expert", "element2");
+		SwitchCondition condition = compile(cases, "element3");
+		assertEquals("element1", condition.getElementForContext(context("beginner")));
+		assertEquals("element2", condition.getElementForContext(context("expert")));
+		assertEquals("element3", condition.getElementForContext(context("unknown")));
+		assertEquals("element3", condition.getElementForContext(new HashMap<String, Object>()));
+	}
+
+	public void testMatchesNumbersAndBooleansByValue() {
+		Map<Object, Object> cases = new LinkedHashMap<>();
+		cases.put("1", "one");
+		cases.put("2.5", "twoAndAHalf");
+		cases.put("true", "yes");
+		SwitchCondition condition = compile(cases, null);
+		assertEquals("one", condition.getElementForContext(context(1)));
+		assertEquals("one", condition.getElementForContext(context(1.0)));
+		assertEquals("one", condition.getElementForContext(context(1L)));
+		assertEquals("twoAndAHalf", condition.getElementForContext(context(2.5)));
+		assertEquals("yes", condition.getElementForContext(context(true)));
+		assertNull(condition.getElementForContext(context(3)));
+	}
+
+	public void testNormalizesNumericCaseKeys() {
+		Map<Object, Object> cases = new LinkedHashMap<>();
+		cases.put("1.0", "one");
+		cases.put(2.0, "two");
+		cases.put("3e1", "thirty");
+		SwitchCondition condition = compile(cases, null);
+		assertEquals("one", condition.getElementForContext(context(1)));
+		assertEquals("one", condition.getElementForContext(context("1.0")));
+		assertEquals("two", condition.getElementForContext(context(2)));
+		assertEquals("thirty", condition.getElementForContext(context(30)));
+	}
+
+	public void testExactKeyTakesPrecedence() {
+		Map<Object, Object> cases = new LinkedHashMap<>();
+		cases.put("1.0", "decimal");
+		cases.put("1", "integral");
+		SwitchCondition condition = compile(cases, null);
+		assertEquals("integral", condition.getElementForContext(context(1)));
+		assertEquals("decimal", condition.getElementForContext(context("1.0")));
+	}
+
+	public void testRejectsInvalidCases() {
+		Map<Object, Object> cases = new LinkedHashMap<>();
+		cases.put("beginner", 1);
+		try {
+			compile(cases, null);
+			fail("Expected IllegalArgumentException.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		try {
+			new SwitchCondition(new HashMap<String, Object>(), null);
+			fail("Expected IllegalArgumentException.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+}